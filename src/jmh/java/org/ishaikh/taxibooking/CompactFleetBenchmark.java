@@ -0,0 +1,109 @@
+package org.ishaikh.taxibooking;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the CompactFleet, with the same workload as TaxiBookerBenchmark.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompactFleetBenchmark {
+    /**
+     * Number of taxis in the fleet.
+     */
+    @Param({"3", "1000", "100000", "1000000"})
+    public int fleetSize;
+
+    /**
+     * Prepare the rides.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+	side = (int)Math.sqrt(fleetSize) * 10 + 1;
+	Random random = new Random(42);
+	for (int i = 0; i < NUMBER_OF_RIDES; i++) {
+	    sourceX[i] = random.nextInt(side);
+	    sourceY[i] = random.nextInt(side);
+	    destinationX[i] = sourceX[i] + random.nextInt(5);
+	    destinationY[i] = sourceY[i] + random.nextInt(5);
+	}
+    }
+
+    /**
+     * Start every iteration with the whole fleet available at random locations.
+     */
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+	Random random = new Random(7);
+	int[] ids = new int[fleetSize];
+	int[] x = new int[fleetSize];
+	int[] y = new int[fleetSize];
+	for (int i = 0; i < fleetSize; i++) {
+	    ids[i] = i + 1;
+	    x[i] = random.nextInt(side);
+	    y[i] = random.nextInt(side);
+	}
+	fleet = new CompactFleet(ids, x, y, GridTaxiIndex.cellSizeFor(x, y));
+    }
+
+    /**
+     * Book a taxi and move the clock.
+     */
+    @Benchmark
+    public long book() {
+	int ride = nextRide++ & (NUMBER_OF_RIDES - 1);
+	long result = fleet.book(sourceX[ride], sourceY[ride], destinationX[ride], destinationY[ride]);
+	fleet.tick(1);
+	return result;
+    }
+
+    /**
+     * Move the clock one unit.
+     */
+    @Benchmark
+    public void tick() {
+	fleet.tick(1);
+    }
+
+    /**
+     * Reset the whole fleet.
+     */
+    @Benchmark
+    public void reset() {
+	fleet.reset();
+    }
+
+    // Number of prepared rides; a power of 2.
+    private static final int NUMBER_OF_RIDES = 1 << 16;
+
+    // The fleet under test.
+    private CompactFleet fleet;
+
+    // Length of the side of the square area of the taxis.
+    private int side;
+
+    // Prepared rides, used in turn.
+    private final int[] sourceX = new int[NUMBER_OF_RIDES];
+    private final int[] sourceY = new int[NUMBER_OF_RIDES];
+    private final int[] destinationX = new int[NUMBER_OF_RIDES];
+    private final int[] destinationY = new int[NUMBER_OF_RIDES];
+    private int nextRide;
+}
@@ -0,0 +1,111 @@
+package org.ishaikh.taxibooking;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the travel times of a RoadNetwork: a square grid of junctions with random road times.
+ * The trips are drawn from a set of frequent ones, so that most are found in the cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoadNetworkBenchmark {
+    /**
+     * Number of junctions along a side of the grid.
+     */
+    @Param({"100", "300"})
+    public int side;
+
+    /**
+     * Number of distinct trips.
+     */
+    @Param({"1000", "1000000"})
+    public int trips;
+
+    /**
+     * Build the road network and prepare the trips.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+	Random random = new Random(42);
+	int[] x = new int[side * side];
+	int[] y = new int[side * side];
+	int[] from = new int[2 * side * (side - 1)];
+	int[] to = new int[from.length];
+	int[] time = new int[from.length];
+	int roads = 0;
+	for (int i = 0; i < side; i++) {
+	    for (int j = 0; j < side; j++) {
+		x[i * side + j] = ROAD_LENGTH * i;
+		y[i * side + j] = ROAD_LENGTH * j;
+		if (i + 1 < side) {
+		    from[roads] = i * side + j;
+		    to[roads] = (i + 1) * side + j;
+		    time[roads++] = ROAD_LENGTH + random.nextInt(2 * ROAD_LENGTH);
+		}
+		if (j + 1 < side) {
+		    from[roads] = i * side + j;
+		    to[roads] = i * side + j + 1;
+		    time[roads++] = ROAD_LENGTH + random.nextInt(2 * ROAD_LENGTH);
+		}
+	    }
+	}
+	roadNetwork = new RoadNetwork(x, y, from, to, time, RoadNetwork.CACHE_SIZE);
+
+	int area = side * ROAD_LENGTH;
+	int[][] frequent = new int[trips][];
+	for (int i = 0; i < trips; i++) {
+	    frequent[i] = new int[] { random.nextInt(area), random.nextInt(area),
+				      random.nextInt(area), random.nextInt(area) };
+	}
+	for (int i = 0; i < NUMBER_OF_QUERIES; i++) {
+	    int[] trip = frequent[random.nextInt(trips)];
+	    fromX[i] = trip[0];
+	    fromY[i] = trip[1];
+	    toX[i] = trip[2];
+	    toY[i] = trip[3];
+	}
+    }
+
+    /**
+     * Return the travel time of a trip.
+     */
+    @Benchmark
+    public int time() {
+	int query = nextQuery++ & (NUMBER_OF_QUERIES - 1);
+	return roadNetwork.time(fromX[query], fromY[query], toX[query], toY[query]);
+    }
+
+    // Number of prepared queries; a power of 2.
+    private static final int NUMBER_OF_QUERIES = 1 << 16;
+
+    // Distance between neighbouring junctions.
+    private static final int ROAD_LENGTH = 10;
+
+    // The road network under test.
+    private RoadNetwork roadNetwork;
+
+    // Prepared queries, used in turn.
+    private final int[] fromX = new int[NUMBER_OF_QUERIES];
+    private final int[] fromY = new int[NUMBER_OF_QUERIES];
+    private final int[] toX = new int[NUMBER_OF_QUERIES];
+    private final int[] toY = new int[NUMBER_OF_QUERIES];
+    private int nextQuery;
+}
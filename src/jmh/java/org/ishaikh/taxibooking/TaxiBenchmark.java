@@ -0,0 +1,79 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the operations of a single Taxi.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TaxiBenchmark {
+    /**
+     * Check the availability of an available taxi.
+     */
+    @Benchmark
+    public boolean isAvailable() {
+	return availableTaxi.isAvailable();
+    }
+
+    /**
+     * Check the availability of a taxi whose time is moved internally and is on a ride.
+     * This includes the read of the system clock.
+     */
+    @Benchmark
+    public boolean isAvailableOnRide() {
+	return ridingTaxi.isAvailable();
+    }
+
+    /**
+     * Start a ride and end it right away.
+     */
+    @Benchmark
+    public long rideAndReset() {
+	long totalTime = taxi.ride(source, destination);
+	taxi.reset(origin);
+	return totalTime;
+    }
+
+    /**
+     * Start a ride and tick until it ends.
+     */
+    @Benchmark
+    public long rideAndTick() {
+	long totalTime = taxi.ride(source, destination);
+	for (long i = 0; i < totalTime; i++) {
+	    taxi.tick();
+	}
+	taxi.reset(origin);
+	return totalTime;
+    }
+
+    private final Point origin = new Point(0, 0);
+    private final Point source = new Point(1, 2);
+    private final Point destination = new Point(3, 4);
+
+    private final Taxi taxi = new Taxi(1, false);
+    private final Taxi availableTaxi = new Taxi(2, false);
+    private final Taxi ridingTaxi = createRidingTaxi();
+
+    private static Taxi createRidingTaxi() {
+	Taxi taxi = new Taxi(3, true);
+	taxi.ride(new Point(1000000, 0), new Point(0, 0));
+	return taxi;
+    }
+}
@@ -0,0 +1,154 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the TaxiBooker operations for fleets of different sizes.
+ * <p>
+ * The taxis are spread randomly over a square area that grows with the fleet, so the
+ * density of taxis stays the same. Each booking is a short ride near its taxi, and the clock
+ * moves one unit after each booking, so the number of available taxis stays roughly stable.
+ * The booking cost is compared with and without looking ahead for taxis about to end their ride;
+ * see Simulator "--look-ahead" for the effect on the pick-ups.
+ * Run with "-prof gc" (the default of the jmh profile) to also get the allocations per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TaxiBookerBenchmark {
+    /**
+     * Number of taxis in the fleet.
+     */
+    @Param({"3", "1000", "100000", "1000000"})
+    public int fleetSize;
+
+    /**
+     * Time units bookings look ahead for taxis about to end their ride; 0 for the greedy booking.
+     */
+    @Param({"0", "20"})
+    public long lookAhead;
+
+    /**
+     * Create the fleet, spread the taxis and prepare the rides.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+	taxiBooker = new TaxiBooker(fleetSize);
+	taxiBooker.setLookAhead(lookAhead);
+	side = (int)Math.sqrt(fleetSize) * 10 + 1;
+	spreadTaxis();
+
+	Random random = new Random(42);
+	rides = new RideCoordinates[NUMBER_OF_RIDES];
+	for (int i = 0; i < NUMBER_OF_RIDES; i++) {
+	    Point source = randomPoint(random);
+	    Point destination = new Point(source.x + random.nextInt(5), source.y + random.nextInt(5));
+	    rides[i] = new RideCoordinates(source, destination);
+	}
+    }
+
+    /**
+     * Start every iteration with the whole fleet available.
+     */
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+	spreadTaxis();
+    }
+
+    /**
+     * Book a taxi and move the clock, from a single thread.
+     */
+    @Benchmark
+    public BookingStatus book() {
+	BookingStatus bookingStatus = taxiBooker.book(nextRide());
+	taxiBooker.tick();
+	return bookingStatus;
+    }
+
+    /**
+     * Book a taxi from all the available processors at once. One in 8 calls also moves the clock.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public BookingStatus bookConcurrently() {
+	int ride = nextRide.getAndIncrement();
+	BookingStatus bookingStatus = taxiBooker.book(rides[ride & (NUMBER_OF_RIDES - 1)]);
+	if ((ride & 7) == 0) {
+	    taxiBooker.tick();
+	}
+	return bookingStatus;
+    }
+
+    /**
+     * Move the clock one unit.
+     */
+    @Benchmark
+    public void tick() {
+	taxiBooker.tick();
+    }
+
+    /**
+     * Reset the whole fleet.
+     */
+    @Benchmark
+    public void reset() {
+	taxiBooker.reset();
+    }
+
+    /**
+     * Return the next of the prepared rides.
+     */
+    private RideCoordinates nextRide() {
+	return rides[nextRide.getAndIncrement() & (NUMBER_OF_RIDES - 1)];
+    }
+
+    /**
+     * Make every taxi available at a random location.
+     */
+    private void spreadTaxis() {
+	taxiBooker.reset();
+	Random random = new Random(7);
+	taxiBooker.availableTaxis.clear();
+	for (Taxi taxi : taxiBooker.taxis) {
+	    taxi.reset(randomPoint(random));
+	    taxiBooker.availableTaxis.add(taxi);
+	}
+    }
+
+    private Point randomPoint(Random random) {
+	return new Point(random.nextInt(side), random.nextInt(side));
+    }
+
+    // Number of prepared rides; a power of 2.
+    private static final int NUMBER_OF_RIDES = 1 << 16;
+
+    // The booker under test.
+    private TaxiBooker taxiBooker;
+
+    // Length of the side of the square area of the taxis.
+    private int side;
+
+    // Prepared rides, used in turn.
+    private RideCoordinates[] rides;
+    private final AtomicInteger nextRide = new AtomicInteger();
+}
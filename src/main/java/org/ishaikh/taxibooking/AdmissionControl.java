@@ -0,0 +1,402 @@
+package org.ishaikh.taxibooking;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Admission control in front of the bookings, so that an overload is shed instead of slowing
+ * every booking down until clients time out.
+ * <p>
+ * At most a limit of bookings run at once. Others wait for their turn in a bounded queue, up to
+ * a timeout, and a booking that frees its place hands it to the oldest waiting booking of the
+ * highest priority. HIGH priority bookings may fill the whole queue, NORMAL ones three quarters
+ * of it and LOW ones half of it, so that the last places are kept for the more urgent bookings.
+ * <p>
+ * The limit adapts to the latency of the bookings (additive increase, multiplicative decrease):
+ * it drops by a tenth when a booking takes longer than the target latency, at most once per
+ * limit bookings, and grows by one after a limit of bookings within the target, up to the
+ * maximum. Under overload, fewer bookings run at once and each of them stays fast.
+ * <p>
+ * A booking is rejected right away, rather than queued, when the queue or the share of its
+ * priority is full; see Decision. The rejections, the limit, the bookings running and those
+ * waiting are exported as metrics when bound to a registry.
+ */
+public class AdmissionControl implements MeterBinder {
+    /**
+     * Constants.
+     */
+    // Header of a booking request with its priority; see Priority.of().
+    public static final String PRIORITY_HEADER = "X-Priority";
+
+    // Default most bookings waiting for their turn, and how long they wait (ms).
+    public static final int QUEUE_CAPACITY = 100;
+    public static final long QUEUE_TIMEOUT = 1000;
+
+    // Default target latency of a booking, in milliseconds.
+    public static final long TARGET_LATENCY = 50;
+
+    /**
+     * Priority of a booking.
+     */
+    public enum Priority {
+	HIGH, NORMAL, LOW;
+
+	/**
+	 * Return the priority of a name, whatever its case, e.g. the value of the PRIORITY_HEADER.
+	 *
+	 * @param name  the name; null for none.
+	 * @return      the priority; NORMAL if the name is none of the priorities.
+	 */
+	public static Priority of(String name) {
+	    if (name != null) {
+		for (Priority priority : values()) {
+		    if (priority.name().equalsIgnoreCase(name)) {
+			return priority;
+		    }
+		}
+	    }
+	    return NORMAL;
+	}
+
+	/**
+	 * Return the share of the places of a queue this priority may fill.
+	 *
+	 * @param places  the number of places.
+	 * @return        the number of places this priority may fill.
+	 */
+	int share(int places) {
+	    switch (this) {
+	    case HIGH:
+		return places;
+	    case NORMAL:
+		return places * 3 / 4;
+	    default:
+		return places / 2;
+	    }
+	}
+    }
+
+    /**
+     * Outcome of a request for admission.
+     */
+    public enum Decision {
+	// The booking may run; release() must be called once it is done.
+	ADMITTED(200),
+	// The share of the priority of the booking is full, but not the queue:
+	// 429 Too Many Requests.
+	SHED(429),
+	// The queue is full, or the booking waited in it for too long: 503 Service Unavailable.
+	OVERLOADED(503);
+
+	Decision(int status) {
+	    this.status = status;
+	}
+
+	/**
+	 * Return the HTTP status of a response to a booking with this outcome.
+	 *
+	 * @return the HTTP status.
+	 */
+	public int getStatus() {
+	    return status;
+	}
+
+	// HTTP status of the response.
+	private final int status;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxLimit       the most bookings that run at once; also the initial limit.
+     * @param queueCapacity  the most bookings waiting for their turn; 0 to reject the bookings
+     *                       over the limit right away.
+     * @param queueTimeout   how long a booking waits for its turn, in milliseconds.
+     * @param targetLatency  the latency of a booking over which the limit drops, in milliseconds.
+     */
+    public AdmissionControl(int maxLimit, int queueCapacity, long queueTimeout, long targetLatency) {
+	if (maxLimit < 1 || queueCapacity < 0 || queueTimeout < 0 || targetLatency <= 0) {
+	    throw new IllegalArgumentException("Invalid limit, queue capacity, queue timeout or target latency: " +
+					       maxLimit + ", " + queueCapacity + ", " + queueTimeout + ", " +
+					       targetLatency);
+	}
+	this.maxLimit = maxLimit;
+	this.queueCapacity = queueCapacity;
+	this.queueTimeout = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+	this.targetLatency = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+	this.limit = maxLimit;
+	this.sinceDecrease = maxLimit;
+	Priority[] priorities = Priority.values();
+	this.turns = new Condition[priorities.length];
+	for (int i = 0; i < turns.length; i++) {
+	    turns[i] = lock.newCondition();
+	}
+	this.queued = new int[priorities.length];
+    }
+
+    /**
+     * Admit a booking, waiting in the queue for its turn if need be.
+     *
+     * @param priority  the priority of the booking.
+     * @return          the decision; ADMITTED if the booking may run.
+     * @throws InterruptedException  if interrupted while waiting; the booking is not admitted.
+     */
+    public Decision acquire(Priority priority) throws InterruptedException {
+	lock.lock();
+	try {
+	    if (canRun(priority, false)) {
+		inFlight++;
+		return Decision.ADMITTED;
+	    }
+	    if (totalQueued >= queueCapacity) {
+		return reject(Decision.OVERLOADED);
+	    }
+	    if (totalQueued >= priority.share(queueCapacity)) {
+		return reject(Decision.SHED);
+	    }
+
+	    queued[priority.ordinal()]++;
+	    totalQueued++;
+	    try {
+		long remaining = queueTimeout;
+		while (!canRun(priority, true)) {
+		    if (remaining <= 0) {
+			return reject(Decision.OVERLOADED);
+		    }
+		    remaining = turns[priority.ordinal()].awaitNanos(remaining);
+		}
+		inFlight++;
+		return Decision.ADMITTED;
+	    } finally {
+		queued[priority.ordinal()]--;
+		totalQueued--;
+		// Pass on a turn this booking did not take, or the next one if the limit allows.
+		signalNext();
+	    }
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Admit a booking without waiting, e.g. on a thread that must not block.
+     * Without the queue, the shares of the priorities apply to the bookings running instead:
+     * a LOW priority booking is only admitted while fewer than half the limit run, for instance.
+     *
+     * @param priority  the priority of the booking.
+     * @return          the decision; ADMITTED if the booking may run.
+     */
+    public Decision admit(Priority priority) {
+	lock.lock();
+	try {
+	    if (!canRun(priority, false)) {
+		return reject(Decision.OVERLOADED);
+	    }
+	    if (inFlight >= Math.max(priority.share(limit), 1)) {
+		return reject(Decision.SHED);
+	    }
+	    inFlight++;
+	    return Decision.ADMITTED;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Release the place of an admitted booking that is done, and adapt the limit to its latency.
+     *
+     * @param latency  how long the booking took once admitted, in nanoseconds.
+     */
+    public void release(long latency) {
+	lock.lock();
+	try {
+	    inFlight--;
+	    sinceDecrease++;
+	    if (latency > targetLatency) {
+		successes = 0;
+		if (sinceDecrease >= limit && limit > 1) {
+		    limit = Math.max(1, limit - Math.max(1, limit / 10));
+		    sinceDecrease = 0;
+		}
+	    } else if (++successes >= limit) {
+		limit = Math.min(maxLimit, limit + 1);
+		successes = 0;
+	    }
+	    signalNext();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Return how long a rejected client should wait before it tries again, for a Retry-After
+     * header: the queue timeout, by which the bookings waiting now are done or have given up.
+     *
+     * @return the time in seconds; at least 1.
+     */
+    public long getRetryAfter() {
+	return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(queueTimeout + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Return the current limit of the bookings that run at once.
+     *
+     * @return the limit.
+     */
+    public int getLimit() {
+	lock.lock();
+	try {
+	    return limit;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Return the number of bookings running.
+     *
+     * @return the number of admitted bookings not released yet.
+     */
+    public int getInFlight() {
+	lock.lock();
+	try {
+	    return inFlight;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Return the number of bookings waiting for their turn.
+     *
+     * @return the number of bookings in the queue.
+     */
+    public int getQueued() {
+	lock.lock();
+	try {
+	    return totalQueued;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Return the number of bookings rejected with a decision.
+     *
+     * @param decision  SHED or OVERLOADED.
+     * @return          the number of bookings rejected so far.
+     */
+    public long getRejected(Decision decision) {
+	lock.lock();
+	try {
+	    return rejected[decision.ordinal()];
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Export the limit, the bookings running & waiting and the rejections to a registry.
+     * Called by Spring Boot Actuator for each of its registries.
+     *
+     * @param registry  the registry.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+	Gauge.builder("taxibooking.admission.limit", this, AdmissionControl::getLimit)
+	    .description("Most bookings that run at once")
+	    .register(registry);
+	Gauge.builder("taxibooking.admission.inflight", this, AdmissionControl::getInFlight)
+	    .description("Number of bookings running")
+	    .register(registry);
+	Gauge.builder("taxibooking.admission.queued", this, AdmissionControl::getQueued)
+	    .description("Number of bookings waiting for their turn")
+	    .register(registry);
+	FunctionCounter.builder("taxibooking.admission.rejected", this, control -> control.getRejected(Decision.SHED))
+	    .description("Bookings rejected by admission control")
+	    .tags("outcome", "shed")
+	    .register(registry);
+	FunctionCounter.builder("taxibooking.admission.rejected", this,
+				control -> control.getRejected(Decision.OVERLOADED))
+	    .description("Bookings rejected by admission control")
+	    .tags("outcome", "overloaded")
+	    .register(registry);
+    }
+
+    /**
+     * May a booking run now? The caller holds the lock.
+     *
+     * @param priority  the priority of the booking.
+     * @param waiting   is the booking in the queue already?
+     * @return          true if there is a place and no booking ahead of it in the queue.
+     */
+    private boolean canRun(Priority priority, boolean waiting) {
+	if (inFlight >= limit) {
+	    return false;
+	}
+	for (int i = 0; i < priority.ordinal(); i++) {
+	    if (queued[i] > 0) {
+		return false;
+	    }
+	}
+	return waiting || queued[priority.ordinal()] == 0;
+    }
+
+    /**
+     * Wake up the next booking in the queue, if there is a place for it. The caller holds the lock.
+     */
+    private void signalNext() {
+	if (inFlight < limit) {
+	    for (int i = 0; i < queued.length; i++) {
+		if (queued[i] > 0) {
+		    turns[i].signal();
+		    return;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Count a rejection. The caller holds the lock.
+     *
+     * @param decision  the rejection.
+     * @return          the rejection.
+     */
+    private Decision reject(Decision decision) {
+	rejected[decision.ordinal()]++;
+	return decision;
+    }
+
+    // Most bookings that run at once, whatever the latency, and the bookings that may wait.
+    private final int maxLimit;
+    private final int queueCapacity;
+
+    // How long a booking waits for its turn, and the latency over which the limit drops, in nanoseconds.
+    private final long queueTimeout;
+    private final long targetLatency;
+
+    // Guards the counts below. The bookings of each priority wait for their turn on a condition.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition[] turns;
+
+    // Current limit of the bookings that run at once, and the number running.
+    private int limit;
+    private int inFlight;
+
+    // Bookings released since the limit last dropped, and within the target latency in a row.
+    private int sinceDecrease;
+    private int successes;
+
+    // Bookings waiting by priority, and all together.
+    private final int[] queued;
+    private int totalQueued;
+
+    // Bookings rejected, by decision.
+    private final long[] rejected = new long[Decision.values().length];
+}
@@ -0,0 +1,43 @@
+package org.ishaikh.taxibooking;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Puts an AdmissionControl in front of the bookings of the TaxiBooker when the application
+ * property "taxibooking.admission.limit" is set: the most bookings that run at once.
+ * <p>
+ * "taxibooking.admission.queue" bookings may wait for their turn, for up to
+ * "taxibooking.admission.timeout" milliseconds, and the limit drops while bookings take longer
+ * than "taxibooking.admission.target-latency" milliseconds.
+ * As a MeterBinder, the admission control is exported by Spring Boot Actuator.
+ */
+@Configuration
+@ConditionalOnProperty(name = "taxibooking.admission.limit")
+public class AdmissionControlConfiguration {
+    /**
+     * Create the admission control and set it in front of the bookings.
+     *
+     * @param taxiBooker     the booker.
+     * @param limit          the most bookings that run at once.
+     * @param queueCapacity  the most bookings waiting for their turn.
+     * @param queueTimeout   how long a booking waits for its turn, in milliseconds.
+     * @param targetLatency  the latency of a booking over which the limit drops, in milliseconds.
+     * @result the admission control.
+     */
+    @Bean
+    public AdmissionControl admissionControl(TaxiBooker taxiBooker,
+					     @Value("${taxibooking.admission.limit}") int limit,
+					     @Value("${taxibooking.admission.queue:" + AdmissionControl.QUEUE_CAPACITY + "}")
+					     int queueCapacity,
+					     @Value("${taxibooking.admission.timeout:" + AdmissionControl.QUEUE_TIMEOUT + "}")
+					     long queueTimeout,
+					     @Value("${taxibooking.admission.target-latency:" +
+						    AdmissionControl.TARGET_LATENCY + "}") long targetLatency) {
+	AdmissionControl control = new AdmissionControl(limit, queueCapacity, queueTimeout, targetLatency);
+	taxiBooker.setAdmissionControl(control);
+	return control;
+    }
+}
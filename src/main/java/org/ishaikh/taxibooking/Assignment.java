@@ -0,0 +1,113 @@
+package org.ishaikh.taxibooking;
+
+import java.util.Arrays;
+
+/**
+ * Solves the assignment problem: pair rows with columns of a cost matrix so that
+ * the total cost is the smallest possible.
+ * <p>
+ * Uses the Hungarian algorithm with potentials; O(n^2 m) for n rows and m columns, n &lt;= m.
+ */
+public final class Assignment {
+    private Assignment() {
+    }
+
+    /**
+     * Find the assignment of rows to columns with the smallest total cost.
+     * If there are more rows than columns, some rows are left unassigned;
+     * otherwise every row is assigned a distinct column.
+     *
+     * @param costs  the cost matrix; costs[row][column]. All rows must have the same length.
+     * @return       the column assigned to each row, -1 for rows left unassigned.
+     */
+    public static int[] solve(long[][] costs) {
+	int rows = costs.length;
+	int columns = rows == 0 ? 0 : costs[0].length;
+	int[] result = new int[rows];
+	Arrays.fill(result, -1);
+	if (rows == 0 || columns == 0) {
+	    return result;
+	}
+
+	if (rows <= columns) {
+	    int[] rowOfColumn = solveNarrow(costs, rows, columns, false);
+	    for (int column = 0; column < columns; column++) {
+		if (rowOfColumn[column] >= 0) {
+		    result[rowOfColumn[column]] = column;
+		}
+	    }
+	} else {
+	    // Solve the transposed problem; then every column gets a row.
+	    result = solveNarrow(costs, columns, rows, true);
+	}
+	return result;
+    }
+
+    /**
+     * Hungarian algorithm for n &lt;= m. Rows and columns are 1-based internally.
+     *
+     * @param costs       the cost matrix.
+     * @param n           the number of rows of the (possibly transposed) problem.
+     * @param m           the number of columns of the (possibly transposed) problem.
+     * @param transposed  read costs[column][row] instead of costs[row][column].
+     * @return            the row (0-based) assigned to each column (0-based), -1 if none.
+     */
+    private static int[] solveNarrow(long[][] costs, int n, int m, boolean transposed) {
+	long[] rowPotential = new long[n + 1];
+	long[] columnPotential = new long[m + 1];
+	int[] rowOfColumn = new int[m + 1];
+	int[] previousColumn = new int[m + 1];
+	long[] minSlack = new long[m + 1];
+	boolean[] used = new boolean[m + 1];
+
+	for (int row = 1; row <= n; row++) {
+	    // Grow an alternating path from the new row until it reaches a free column.
+	    rowOfColumn[0] = row;
+	    int column = 0;
+	    Arrays.fill(minSlack, Long.MAX_VALUE);
+	    Arrays.fill(used, false);
+	    do {
+		used[column] = true;
+		int currentRow = rowOfColumn[column];
+		long delta = Long.MAX_VALUE;
+		int nextColumn = 0;
+		for (int j = 1; j <= m; j++) {
+		    if (!used[j]) {
+			long cost = transposed ? costs[j - 1][currentRow - 1] : costs[currentRow - 1][j - 1];
+			long slack = cost - rowPotential[currentRow] - columnPotential[j];
+			if (slack < minSlack[j]) {
+			    minSlack[j] = slack;
+			    previousColumn[j] = column;
+			}
+			if (minSlack[j] < delta) {
+			    delta = minSlack[j];
+			    nextColumn = j;
+			}
+		    }
+		}
+		for (int j = 0; j <= m; j++) {
+		    if (used[j]) {
+			rowPotential[rowOfColumn[j]] += delta;
+			columnPotential[j] -= delta;
+		    } else {
+			minSlack[j] -= delta;
+		    }
+		}
+		column = nextColumn;
+	    } while (rowOfColumn[column] != 0);
+
+	    // Flip the path.
+	    do {
+		int previous = previousColumn[column];
+		rowOfColumn[column] = rowOfColumn[previous];
+		column = previous;
+	    } while (column != 0);
+	}
+
+	int[] result = new int[m];
+	for (int j = 1; j <= m; j++) {
+	    result[j - 1] = rowOfColumn[j] - 1;
+	}
+	return result;
+    }
+}
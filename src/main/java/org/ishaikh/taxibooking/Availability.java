@@ -0,0 +1,165 @@
+package org.ishaikh.taxibooking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of the availability of the fleet, returned for a GET HTTP request for "/api/availability".
+ */
+public class Availability {
+    /**
+     * Reasons why a booking gets no taxi. See TaxiBooker.unavailableReason().
+     */
+    // The fleet has no taxi at all.
+    public static final String NO_TAXIS = "no-taxis";
+    // Every taxi is on a ride.
+    public static final String ALL_BOOKED = "all-booked";
+    // Available taxis were taken by concurrent bookings.
+    public static final String TAKEN = "taken";
+
+    /**
+     * Constructor.
+     *
+     * @param fleetSize   the number of taxis in the fleet.
+     * @param available   the number of taxis available for booking.
+     * @param rides       the number of ongoing rides.
+     * @param nextFreeIn  time units until the earliest ongoing ride ends; -1 if there is no ride.
+     * @param regionSize  the length of the side of the regions.
+     */
+    public Availability(int fleetSize, int available, int rides, long nextFreeIn, int regionSize) {
+	this.fleetSize = fleetSize;
+	this.available = available;
+	this.rides = rides;
+	this.nextFreeIn = nextFreeIn;
+	this.regionSize = regionSize;
+    }
+
+    /**
+     * Add the number of available taxis of a region.
+     *
+     * @param regionX    x co-ordinate of the region: its corner divided by the region size.
+     * @param regionY    y co-ordinate of the region.
+     * @param available  the number of taxis available in the region.
+     */
+    public void addRegion(int regionX, int regionY, int available) {
+	regions.add(new Region(regionX, regionY, available));
+    }
+
+    /**
+     * Return the number of taxis in the fleet.
+     *
+     * @return the number of taxis in the fleet.
+     */
+    public int getFleetSize() {
+	return fleetSize;
+    }
+
+    /**
+     * Return the number of taxis available for booking.
+     *
+     * @return the number of taxis available for booking.
+     */
+    public int getAvailable() {
+	return available;
+    }
+
+    /**
+     * Return the number of ongoing rides.
+     *
+     * @return the number of ongoing rides.
+     */
+    public int getRides() {
+	return rides;
+    }
+
+    /**
+     * Return the time units until the earliest ongoing ride ends; -1 if there is no ride.
+     *
+     * @return time units until the earliest ongoing ride ends; -1 if there is no ride.
+     */
+    public long getNextFreeIn() {
+	return nextFreeIn;
+    }
+
+    /**
+     * Return the length of the side of the regions.
+     *
+     * @return the length of the side of the regions.
+     */
+    public int getRegionSize() {
+	return regionSize;
+    }
+
+    /**
+     * Return the regions with available taxis.
+     *
+     * @return the regions with available taxis.
+     */
+    public List<Region> getRegions() {
+	return regions;
+    }
+
+    /**
+     * Number of available taxis of a region.
+     */
+    public static class Region {
+	/**
+	 * Constructor.
+	 *
+	 * @param x          x co-ordinate of the region: its corner divided by the region size.
+	 * @param y          y co-ordinate of the region.
+	 * @param available  the number of taxis available in the region.
+	 */
+	Region(int x, int y, int available) {
+	    this.x = x;
+	    this.y = y;
+	    this.available = available;
+	}
+
+	/**
+	 * Return the x co-ordinate of the region.
+	 *
+	 * @return the x co-ordinate of the region: its corner divided by the region size.
+	 */
+	public int getX() {
+	    return x;
+	}
+
+	/**
+	 * Return the y co-ordinate of the region.
+	 *
+	 * @return the y co-ordinate of the region: its corner divided by the region size.
+	 */
+	public int getY() {
+	    return y;
+	}
+
+	/**
+	 * Return the number of taxis available in the region.
+	 *
+	 * @return the number of taxis available in the region.
+	 */
+	public int getAvailable() {
+	    return available;
+	}
+
+	// Co-ordinates of the region and its number of available taxis.
+	private final int x;
+	private final int y;
+	private final int available;
+    }
+
+    // Number of taxis in the fleet, available & on a ride.
+    private final int fleetSize;
+    private final int available;
+    private final int rides;
+
+    // Time units until the earliest ongoing ride ends; -1 if there is no ride.
+    private final long nextFreeIn;
+
+    // Length of the side of the regions.
+    private final int regionSize;
+
+    // Regions with available taxis.
+    private final List<Region> regions = new ArrayList<Region>();
+}
@@ -0,0 +1,36 @@
+package org.ishaikh.taxibooking;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Serves bookings in the binary protocol of the BinaryBookingServer, alongside the REST API,
+ * when the application property "taxibooking.binary.port" is set: the TCP port to listen on.
+ * "taxibooking.binary.threads" threads serve the connections; one per processor by default.
+ */
+@Configuration
+@ConditionalOnProperty(name = "taxibooking.binary.port")
+public class BinaryBookingConfiguration {
+    /**
+     * Create the server and start serving.
+     *
+     * @param taxiBooker  the booker to book with.
+     * @param port        the port to listen on, on all interfaces.
+     * @param threads     the number of threads serving the connections; 0 for one per processor.
+     * @result the server; closed when the application stops.
+     * @throws IOException  if the port cannot be listened on.
+     */
+    @Bean(destroyMethod = "close")
+    public BinaryBookingServer binaryBookingServer(TaxiBooker taxiBooker,
+						   @Value("${taxibooking.binary.port}") int port,
+						   @Value("${taxibooking.binary.threads:0}") int threads)
+	throws IOException {
+	return new BinaryBookingServer(taxiBooker, new InetSocketAddress(port),
+				       threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,322 @@
+package org.ishaikh.taxibooking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves bookings over TCP in a compact binary protocol, alongside the JSON REST API, for
+ * gateways that book at a rate where parsing & writing JSON would cost more than the booking.
+ * <p>
+ * A request is a frame of REQUEST_SIZE bytes: the source x & y and the destination x & y of
+ * the ride, as 4 big-endian ints. Its response is a frame of RESPONSE_SIZE bytes: the result of
+ * TaxiBooker.book(), as a big-endian long, i.e. the id of the taxi then the total time of the
+ * ride as 2 ints; BookingStatus.NO_BOOKING, i.e. an id of Integer.MIN_VALUE, if no taxi is available.
+ * <p>
+ * Connections are persistent and requests may be pipelined: a client may send many requests
+ * without waiting, and gets their responses in the same order. Each connection is served by
+ * one of a few threads with a Selector, which books the requests as they arrive, straight
+ * from and to the buffers of the connection. Once responses are pending because the client
+ * does not read them, the connection is no longer read until they are written.
+ */
+public class BinaryBookingServer implements Closeable {
+    /**
+     * Constants.
+     */
+    // Bytes of a request and of a response frame.
+    public static final int REQUEST_SIZE = 16;
+    public static final int RESPONSE_SIZE = 8;
+
+    // Frames buffered per connection, each way.
+    public static final int BUFFERED_FRAMES = 256;
+
+    // Milliseconds to wait before accepting again after the first failure in a row, doubled
+    // on each further failure up to the maximum.
+    public static final long MIN_ACCEPT_BACKOFF = 1;
+    public static final long MAX_ACCEPT_BACKOFF = 1000;
+
+    /**
+     * Constructor. Starts serving right away.
+     *
+     * @param taxiBooker  the booker to book with.
+     * @param address     the address to listen on; port 0 for any free port.
+     * @param threads     the number of threads serving the connections.
+     * @throws IOException  if the address cannot be listened on.
+     */
+    public BinaryBookingServer(TaxiBooker taxiBooker, InetSocketAddress address, int threads)
+	throws IOException {
+	if (threads <= 0) {
+	    throw new IllegalArgumentException("Invalid number of threads: " + threads);
+	}
+	this.taxiBooker = taxiBooker;
+	serverChannel = ServerSocketChannel.open();
+	workers = new Worker[threads];
+	try {
+	    serverChannel.bind(address);
+	    for (int i = 0; i < threads; i++) {
+		workers[i] = new Worker(i);
+	    }
+	} catch (IOException e) {
+	    for (Worker worker : workers) {
+		if (worker != null) {
+		    worker.selector.close();
+		}
+	    }
+	    serverChannel.close();
+	    throw e;
+	}
+	for (Worker worker : workers) {
+	    worker.thread.start();
+	}
+	acceptor = new Thread(this::accept, "binary-booking-acceptor");
+	acceptor.setDaemon(true);
+	acceptor.start();
+    }
+
+    /**
+     * Return the port listened on.
+     *
+     * @result the port.
+     */
+    public int getPort() {
+	return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stop serving: close the connections and wait for the threads to end.
+     */
+    @Override
+    public void close() throws IOException {
+	closed = true;
+	serverChannel.close();
+	acceptor.interrupt();
+	try {
+	    acceptor.join();
+	    for (Worker worker : workers) {
+		worker.selector.wakeup();
+		worker.thread.join();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * Accept connections and hand them to the workers in turn, until closed.
+     * <p>
+     * A failure to accept, e.g. out of file descriptors, may clear once connections close: it
+     * is logged once, and accepting is retried with an exponential back-off rather than in a
+     * busy loop, which would take a core from the workers that would close them.
+     */
+    private void accept() {
+	int next = 0;
+	long backoff = 0;
+	while (!closed) {
+	    SocketChannel channel;
+	    try {
+		channel = serverChannel.accept();
+	    } catch (IOException e) {
+		if (closed) {
+		    break;
+		}
+		if (backoff == 0) {
+		    LOGGER.log(Level.WARNING, "Failed to accept a connection, backing off", e);
+		    backoff = MIN_ACCEPT_BACKOFF;
+		} else {
+		    backoff = Math.min(backoff * 2, MAX_ACCEPT_BACKOFF);
+		}
+		try {
+		    Thread.sleep(backoff);
+		} catch (InterruptedException ie) {
+		    // Interrupted by close().
+		}
+		continue;
+	    }
+	    if (backoff != 0) {
+		LOGGER.info("Accepting connections again");
+		backoff = 0;
+	    }
+	    try {
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	    } catch (IOException e) {
+		closeQuietly(channel);
+		continue;
+	    }
+	    workers[next].add(channel);
+	    next = (next + 1) % workers.length;
+	}
+    }
+
+    /**
+     * Close a channel, ignoring an error: the client is gone either way.
+     *
+     * @param channel  the channel.
+     */
+    private static void closeQuietly(SocketChannel channel) {
+	try {
+	    channel.close();
+	} catch (IOException e) {
+	    // Ignored.
+	}
+    }
+
+    /**
+     * A thread serving connections with a Selector.
+     */
+    private class Worker implements Runnable {
+	/**
+	 * Constructor.
+	 */
+	Worker(int index) throws IOException {
+	    selector = Selector.open();
+	    thread = new Thread(this, "binary-booking-" + index);
+	    thread.setDaemon(true);
+	}
+
+	/**
+	 * Hand a new connection to this worker.
+	 *
+	 * @param channel  the connection, non-blocking.
+	 */
+	void add(SocketChannel channel) {
+	    added.add(channel);
+	    selector.wakeup();
+	}
+
+	/**
+	 * Serve the connections ready to be read or written, until closed.
+	 */
+	@Override
+	public void run() {
+	    try {
+		while (!closed) {
+		    selector.select();
+		    SocketChannel channel;
+		    while ((channel = added.poll()) != null) {
+			try {
+			    channel.register(selector, SelectionKey.OP_READ, new Connection());
+			} catch (ClosedChannelException e) {
+			    // Gone already.
+			}
+		    }
+		    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		    while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			serve(key);
+		    }
+		}
+	    } catch (IOException e) {
+		// The selector failed; its connections are closed below.
+	    } finally {
+		for (SelectionKey key : selector.keys()) {
+		    closeQuietly((SocketChannel)key.channel());
+		}
+		SocketChannel channel;
+		while ((channel = added.poll()) != null) {
+		    closeQuietly(channel);
+		}
+		try {
+		    selector.close();
+		} catch (IOException e) {
+		    // Ignored.
+		}
+	    }
+	}
+
+	/**
+	 * Read what has arrived on a connection, book the whole requests read, in order,
+	 * and write their responses, as far as can be done without blocking.
+	 *
+	 * @param key  the key of the connection.
+	 */
+	private void serve(SelectionKey key) {
+	    SocketChannel channel = (SocketChannel)key.channel();
+	    Connection connection = (Connection)key.attachment();
+	    ByteBuffer in = connection.in;
+	    ByteBuffer out = connection.out;
+	    try {
+		if (key.isReadable() && in.hasRemaining() && channel.read(in) < 0) {
+		    connection.ended = true;
+		}
+
+		in.flip();
+		while (in.remaining() >= REQUEST_SIZE && out.remaining() >= RESPONSE_SIZE) {
+		    int sourceX = in.getInt();
+		    int sourceY = in.getInt();
+		    int destinationX = in.getInt();
+		    int destinationY = in.getInt();
+		    out.putLong(taxiBooker.book(sourceX, sourceY, destinationX, destinationY));
+		}
+		in.compact();
+
+		out.flip();
+		channel.write(out);
+		out.compact();
+
+		// Write the pending responses before reading more requests.
+		boolean pending = out.position() > 0;
+		if (connection.ended && !pending) {
+		    key.cancel();
+		    channel.close();
+		} else {
+		    key.interestOps(pending ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+	    } catch (IOException | RuntimeException e) {
+		// The client has gone away, or the booking failed: drop the connection.
+		key.cancel();
+		closeQuietly(channel);
+	    }
+	}
+
+	// Selector of the connections of this worker.
+	final Selector selector;
+
+	// Thread of this worker.
+	final Thread thread;
+
+	// Connections accepted but not registered with the selector yet.
+	private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<SocketChannel>();
+    }
+
+    /**
+     * Buffers of a connection.
+     */
+    private static class Connection {
+	// Requests read but not booked yet, and responses not written yet.
+	final ByteBuffer in = ByteBuffer.allocateDirect(REQUEST_SIZE * BUFFERED_FRAMES);
+	final ByteBuffer out = ByteBuffer.allocateDirect(RESPONSE_SIZE * BUFFERED_FRAMES);
+
+	// Has the client ended its side of the connection?
+	boolean ended;
+    }
+
+    // Logger of the accept failures.
+    private static final Logger LOGGER = Logger.getLogger(BinaryBookingServer.class.getName());
+
+    // Booker that books the rides.
+    private final TaxiBooker taxiBooker;
+
+    // Channel listening for connections, and the thread accepting them.
+    private final ServerSocketChannel serverChannel;
+    private final Thread acceptor;
+
+    // Threads serving the connections.
+    private final Worker[] workers;
+
+    // Has the server been closed?
+    private volatile boolean closed;
+}
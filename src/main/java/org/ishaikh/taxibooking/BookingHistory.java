@@ -0,0 +1,518 @@
+package org.ishaikh.taxibooking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * History of the bookings of a fleet, for billing and analytics.
+ * <p>
+ * A booking is recorded as a few numbers: the taxi, the pick-up & drop-off locations, the time
+ * units at which the ride starts & ends (see RideScheduler) and the pick-up distance.
+ * Records are kept by column in chunks of CHUNK_SIZE records, each chunk a single buffer
+ * holding one primitive array per column, so the history has no object per booking and
+ * a query reads contiguous memory. An append reserves its place with an atomic add and
+ * writes its columns; a flag written last makes the record visible to queries. So appends
+ * are concurrent, take no lock and do not slow bookings down.
+ * <p>
+ * The latest chunks, up to the capacity of the history, are kept in memory. Older ones are dropped,
+ * or, with a spill directory, written to files by a background thread and memory-mapped,
+ * so they are still queried without taking heap space. With a maximum age, the chunks whose
+ * bookings all started longer ago than that are dropped, from memory or disk, when a new chunk is started.
+ */
+public class BookingHistory implements Closeable {
+    /**
+     * Constructor. Keeps the history in memory only.
+     *
+     * @param capacity  the number of bookings kept in memory; rounded up to two chunks or more.
+     * @param maxAge    time units after which bookings are dropped; 0 to drop them only for capacity.
+     */
+    public BookingHistory(int capacity, long maxAge) {
+	if (capacity <= 0) {
+	    throw new IllegalArgumentException("Invalid history capacity: " + capacity);
+	}
+	if (maxAge < 0) {
+	    throw new IllegalArgumentException("Invalid history age: " + maxAge);
+	}
+	this.chunks = new AtomicReferenceArray<Chunk>(Math.max((capacity + CHUNK_SIZE - 1) / CHUNK_SIZE, 2));
+	this.maxAge = maxAge;
+    }
+
+    /**
+     * Constructor. Spills the bookings beyond the capacity to files in a directory, creating it if needed.
+     * Files left in the directory by a previous history are deleted.
+     *
+     * @param capacity        the number of bookings kept in memory; rounded up to two chunks or more.
+     * @param maxAge          time units after which bookings are dropped; 0 to keep spilled ones.
+     * @param spillDirectory  the directory of the spilled bookings.
+     * @throws IOException  if the directory cannot be created or cleaned up.
+     */
+    public BookingHistory(int capacity, long maxAge, Path spillDirectory) throws IOException {
+	this(capacity, maxAge);
+	this.spillDirectory = Files.createDirectories(spillDirectory);
+	try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory, "history-*.bin")) {
+	    for (Path file : files) {
+		Files.deleteIfExists(file);
+	    }
+	}
+    }
+
+    /**
+     * Bookings, as read from the history.
+     */
+    public interface Bookings {
+	void booking(int taxiId, int sourceX, int sourceY, int destinationX, int destinationY,
+		     long startTime, long endTime, long pickUpDistance);
+    }
+
+    /**
+     * Record a booking. Safe to call concurrently.
+     *
+     * @param taxiId          the taxi of the ride.
+     * @param sourceX         x co-ordinate of the pick-up location.
+     * @param sourceY         y co-ordinate of the pick-up location.
+     * @param destinationX    x co-ordinate of the drop-off location.
+     * @param destinationY    y co-ordinate of the drop-off location.
+     * @param startTime       the time unit at which the ride starts.
+     * @param endTime         the time unit at which the ride ends.
+     * @param pickUpDistance  the time units from the taxi to the pick-up location.
+     */
+    public void append(int taxiId, int sourceX, int sourceY, int destinationX, int destinationY,
+		       long startTime, long endTime, long pickUpDistance) {
+	long index = appended.getAndIncrement();
+	chunk(index / CHUNK_SIZE, startTime).write((int)(index % CHUNK_SIZE), taxiId, sourceX, sourceY,
+						   destinationX, destinationY, startTime, endTime,
+						   pickUpDistance);
+    }
+
+    /**
+     * Read the bookings whose ride started in a time window, oldest chunk first.
+     *
+     * @param from      the first time unit of the window.
+     * @param to        the end of the window, exclusive.
+     * @param bookings  receives the bookings.
+     */
+    public void forEach(long from, long to, Bookings bookings) {
+	scan(true, 0, from, to, bookings);
+    }
+
+    /**
+     * Read the bookings of a taxi whose ride started in a time window, oldest chunk first.
+     *
+     * @param taxiId    the taxi.
+     * @param from      the first time unit of the window.
+     * @param to        the end of the window, exclusive.
+     * @param bookings  receives the bookings.
+     */
+    public void forEach(int taxiId, long from, long to, Bookings bookings) {
+	scan(false, taxiId, from, to, bookings);
+    }
+
+    /**
+     * Sum up the bookings whose ride started in a time window.
+     *
+     * @param from  the first time unit of the window.
+     * @param to    the end of the window, exclusive.
+     * @return      the summary of the bookings.
+     */
+    public BookingSummary summarize(long from, long to) {
+	BookingSummary summary = new BookingSummary(from, to);
+	forEach(from, to, summary::add);
+	return summary;
+    }
+
+    /**
+     * Sum up the bookings of a taxi whose ride started in a time window.
+     *
+     * @param taxiId  the taxi.
+     * @param from    the first time unit of the window.
+     * @param to      the end of the window, exclusive.
+     * @return        the summary of the bookings of the taxi.
+     */
+    public BookingSummary summarize(int taxiId, long from, long to) {
+	BookingSummary summary = new BookingSummary(from, to);
+	forEach(taxiId, from, to, summary::add);
+	return summary;
+    }
+
+    /**
+     * Sum up, taxi by taxi, the bookings whose ride started in a time window.
+     *
+     * @param from  the first time unit of the window.
+     * @param to    the end of the window, exclusive.
+     * @return      the summary of the bookings of each taxi booked, by taxi id.
+     */
+    public Map<Integer, BookingSummary> summarizeByTaxi(long from, long to) {
+	Map<Integer, BookingSummary> summaries = new HashMap<Integer, BookingSummary>();
+	forEach(from, to, (taxiId, sourceX, sourceY, destinationX, destinationY, startTime, endTime,
+			   pickUpDistance) -> {
+		    summaries.computeIfAbsent(taxiId, id -> new BookingSummary(from, to))
+			.add(taxiId, sourceX, sourceY, destinationX, destinationY, startTime, endTime,
+			     pickUpDistance);
+		});
+	return summaries;
+    }
+
+    /**
+     * Return the number of bookings in the history, in memory or spilled.
+     *
+     * @return the number of bookings.
+     */
+    public long size() {
+	long size = (long)spilled.size() * CHUNK_SIZE;
+	long last = appended.get();
+	for (int slot = 0; slot < chunks.length(); slot++) {
+	    Chunk chunk = chunks.get(slot);
+	    if (chunk != null) {
+		size += Math.max(Math.min(last - chunk.number * CHUNK_SIZE, CHUNK_SIZE), 0);
+	    }
+	}
+	return size;
+    }
+
+    /**
+     * Drop all the bookings, e.g. when the fleet is reset. Must not run concurrently with appends.
+     */
+    public void clear() {
+	for (int slot = 0; slot < chunks.length(); slot++) {
+	    chunks.set(slot, null);
+	}
+	appended.set(0);
+	Chunk chunk;
+	while ((chunk = spilled.pollFirst()) != null) {
+	    delete(chunk);
+	}
+    }
+
+    /**
+     * Stop spilling bookings, once the chunks already evicted are spilled.
+     * Spilled files are left for the next history to delete.
+     */
+    @Override
+    public void close() {
+	spiller.shutdown();
+	try {
+	    spiller.awaitTermination(1, TimeUnit.MINUTES);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * Return the chunk of a record, starting it if needed. A new chunk takes the place of the
+     * oldest chunk in memory, which is dropped or spilled.
+     *
+     * @param number     the number of the chunk.
+     * @param startTime  the start time of the record, for dropping old chunks.
+     * @return           the chunk.
+     */
+    private Chunk chunk(long number, long startTime) {
+	int slot = (int)(number % chunks.length());
+	while (true) {
+	    Chunk chunk = chunks.get(slot);
+	    if (chunk != null && chunk.number == number) {
+		return chunk;
+	    } else if (chunk != null && chunk.number > number) {
+		// So late that its chunk is already gone; the record is dropped.
+		return new Chunk(number);
+	    }
+	    Chunk newChunk = new Chunk(number);
+	    if (chunks.compareAndSet(slot, chunk, newChunk)) {
+		if (chunk != null) {
+		    evict(chunk);
+		}
+		if (maxAge > 0) {
+		    dropBefore(startTime - maxAge);
+		}
+		return newChunk;
+	    }
+	}
+    }
+
+    /**
+     * Spill or drop a chunk that is no longer in memory.
+     *
+     * @param chunk  the chunk.
+     */
+    private void evict(Chunk chunk) {
+	if (spillDirectory != null) {
+	    spilled.addLast(chunk);
+	    spiller.execute(() -> spill(chunk));
+	}
+    }
+
+    /**
+     * Write a chunk to a file and replace its buffer with the mapped file.
+     *
+     * @param chunk  the chunk, in the spilled chunks.
+     */
+    private void spill(Chunk chunk) {
+	Path file = spillDirectory.resolve("history-" + spillCount.incrementAndGet() + ".bin");
+	try {
+	    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+							StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+		ByteBuffer bytes = chunk.bytes.duplicate();
+		bytes.clear();
+		while (bytes.hasRemaining()) {
+		    channel.write(bytes);
+		}
+		chunk.seal(channel.map(FileChannel.MapMode.READ_ONLY, 0, CHUNK_BYTES), file);
+	    }
+	} catch (IOException e) {
+	    // The chunk is dropped instead.
+	    spilled.remove(chunk);
+	    chunk.file = file;
+	}
+	// Dropped while being spilled.
+	if (!spilled.contains(chunk)) {
+	    delete(chunk);
+	}
+    }
+
+    /**
+     * Drop the chunks whose bookings all started before a time unit.
+     *
+     * @param time  the time unit.
+     */
+    private void dropBefore(long time) {
+	for (Chunk chunk : spilled) {
+	    if (chunk.latestStartTime() >= time) {
+		break;
+	    }
+	    spilled.remove(chunk);
+	    delete(chunk);
+	}
+	long current = (appended.get() - 1) / CHUNK_SIZE;
+	for (int slot = 0; slot < chunks.length(); slot++) {
+	    Chunk chunk = chunks.get(slot);
+	    if (chunk != null && chunk.number < current && chunk.latestStartTime() < time) {
+		chunks.compareAndSet(slot, chunk, null);
+	    }
+	}
+    }
+
+    /**
+     * Delete the file of a dropped chunk, if it was spilled.
+     *
+     * @param chunk  the chunk.
+     */
+    private static void delete(Chunk chunk) {
+	Path file = chunk.file;
+	if (file != null) {
+	    try {
+		Files.deleteIfExists(file);
+	    } catch (IOException e) {
+		// Deleted with the next history.
+	    }
+	}
+    }
+
+    /**
+     * Read the bookings in a time window, of one or all taxis, from the spilled chunks then
+     * the chunks in memory.
+     */
+    private void scan(boolean anyTaxi, int taxiId, long from, long to, Bookings bookings) {
+	for (Chunk chunk : spilled) {
+	    chunk.scan(CHUNK_SIZE, anyTaxi, taxiId, from, to, bookings);
+	}
+	long last = appended.get();
+	long current = (last - 1) / CHUNK_SIZE;
+	for (long number = Math.max(current - chunks.length() + 1, 0); number <= current; number++) {
+	    Chunk chunk = chunks.get((int)(number % chunks.length()));
+	    if (chunk != null && chunk.number == number) {
+		chunk.scan((int)Math.min(last - number * CHUNK_SIZE, CHUNK_SIZE), anyTaxi, taxiId, from, to,
+			   bookings);
+	    }
+	}
+    }
+
+    /**
+     * CHUNK_SIZE bookings, one column after the other in a buffer: the int columns, then the long ones.
+     */
+    private static class Chunk {
+	/**
+	 * Constructor.
+	 *
+	 * @param number  the number of the chunk: its first booking is number * CHUNK_SIZE.
+	 */
+	Chunk(long number) {
+	    this.number = number;
+	    this.bytes = ByteBuffer.allocate(CHUNK_BYTES);
+	    this.written = new AtomicIntegerArray(CHUNK_SIZE);
+	}
+
+	/**
+	 * Write a booking. See BookingHistory.append().
+	 */
+	void write(int i, int taxiId, int sourceX, int sourceY, int destinationX, int destinationY,
+		   long startTime, long endTime, long pickUpDistance) {
+	    ByteBuffer columns = bytes;
+	    columns.putInt(intAt(TAXI_ID, i), taxiId);
+	    columns.putInt(intAt(SOURCE_X, i), sourceX);
+	    columns.putInt(intAt(SOURCE_Y, i), sourceY);
+	    columns.putInt(intAt(DESTINATION_X, i), destinationX);
+	    columns.putInt(intAt(DESTINATION_Y, i), destinationY);
+	    columns.putLong(longAt(START_TIME, i), startTime);
+	    columns.putLong(longAt(END_TIME, i), endTime);
+	    columns.putLong(longAt(PICK_UP_DISTANCE, i), pickUpDistance);
+	    AtomicIntegerArray flags = written;
+	    if (flags != null) {
+		flags.set(i, 1);
+	    }
+	}
+
+	/**
+	 * Read the bookings of the chunk in a time window, of one or all taxis.
+	 * Only the columns of the selected bookings are read beyond the start times and the taxi ids.
+	 *
+	 * @param count  the number of bookings appended to the chunk.
+	 */
+	void scan(int count, boolean anyTaxi, int taxiId, long from, long to, Bookings bookings) {
+	    // A spilled chunk is complete; the flags are dropped after the buffer is replaced.
+	    AtomicIntegerArray flags = written;
+	    ByteBuffer columns = bytes;
+	    if (flags == null && (latestStart < from || earliestStart >= to)) {
+		return;
+	    }
+	    for (int i = 0; i < count; i++) {
+		if (flags != null && flags.get(i) == 0) {
+		    continue;
+		}
+		long startTime = columns.getLong(longAt(START_TIME, i));
+		if (startTime < from || startTime >= to) {
+		    continue;
+		}
+		int id = columns.getInt(intAt(TAXI_ID, i));
+		if (!anyTaxi && id != taxiId) {
+		    continue;
+		}
+		bookings.booking(id, columns.getInt(intAt(SOURCE_X, i)), columns.getInt(intAt(SOURCE_Y, i)),
+				 columns.getInt(intAt(DESTINATION_X, i)),
+				 columns.getInt(intAt(DESTINATION_Y, i)), startTime,
+				 columns.getLong(longAt(END_TIME, i)),
+				 columns.getLong(longAt(PICK_UP_DISTANCE, i)));
+	    }
+	}
+
+	/**
+	 * Replace the buffer of the chunk with a spilled copy. The chunk is complete.
+	 *
+	 * @param copy  the mapped file.
+	 * @param path  the file.
+	 */
+	void seal(ByteBuffer copy, Path path) {
+	    latestStartTime();
+	    earliestStart = Long.MAX_VALUE;
+	    for (int i = 0; i < CHUNK_SIZE; i++) {
+		earliestStart = Math.min(earliestStart, copy.getLong(longAt(START_TIME, i)));
+	    }
+	    bytes = copy;
+	    file = path;
+	    written = null;
+	}
+
+	/**
+	 * Return the latest start time of the bookings of the chunk, once it is complete.
+	 *
+	 * @return the latest start time.
+	 */
+	long latestStartTime() {
+	    if (latestStart == Long.MIN_VALUE) {
+		ByteBuffer columns = bytes;
+		long latest = Long.MIN_VALUE + 1;
+		for (int i = 0; i < CHUNK_SIZE; i++) {
+		    latest = Math.max(latest, columns.getLong(longAt(START_TIME, i)));
+		}
+		latestStart = latest;
+	    }
+	    return latestStart;
+	}
+
+	// Number of the chunk.
+	final long number;
+
+	// Columns of the bookings; a heap buffer, then the mapped file once spilled.
+	volatile ByteBuffer bytes;
+
+	// Whether each booking is written; null once spilled.
+	volatile AtomicIntegerArray written;
+
+	// Earliest & latest start times of the bookings, once known.
+	volatile long earliestStart = Long.MIN_VALUE;
+	volatile long latestStart = Long.MIN_VALUE;
+
+	// File of the spilled chunk.
+	volatile Path file;
+    }
+
+    /**
+     * Return the offset of a booking in an int column.
+     */
+    private static int intAt(int column, int i) {
+	return (column * CHUNK_SIZE + i) * 4;
+    }
+
+    /**
+     * Return the offset of a booking in a long column.
+     */
+    private static int longAt(int column, int i) {
+	return INT_COLUMNS * CHUNK_SIZE * 4 + (column * CHUNK_SIZE + i) * 8;
+    }
+
+    // Default number of bookings kept in memory.
+    public static final int CAPACITY = 100000;
+
+    // Number of bookings of a chunk.
+    public static final int CHUNK_SIZE = 4096;
+
+    // Columns of a chunk: int columns then long columns.
+    private static final int TAXI_ID = 0;
+    private static final int SOURCE_X = 1;
+    private static final int SOURCE_Y = 2;
+    private static final int DESTINATION_X = 3;
+    private static final int DESTINATION_Y = 4;
+    private static final int INT_COLUMNS = 5;
+    private static final int START_TIME = 0;
+    private static final int END_TIME = 1;
+    private static final int PICK_UP_DISTANCE = 2;
+    private static final int LONG_COLUMNS = 3;
+    private static final int CHUNK_BYTES = CHUNK_SIZE * (INT_COLUMNS * 4 + LONG_COLUMNS * 8);
+
+    // Chunks in memory, by chunk number modulo their number.
+    private final AtomicReferenceArray<Chunk> chunks;
+
+    // Number of bookings appended; the index of the next booking.
+    private final AtomicLong appended = new AtomicLong();
+
+    // Time units after which bookings are dropped; 0 for never.
+    private final long maxAge;
+
+    // Directory of the spilled chunks; null to drop them instead.
+    private Path spillDirectory;
+
+    // Spilled chunks, oldest first, and the number of them ever spilled (to name their files).
+    private final Deque<Chunk> spilled = new ConcurrentLinkedDeque<Chunk>();
+    private final AtomicLong spillCount = new AtomicLong();
+
+    // Writes the spilled chunks to files, off the booking path.
+    private final ExecutorService spiller = Executors.newSingleThreadExecutor(runnable -> {
+	Thread thread = new Thread(runnable, "booking-history");
+	thread.setDaemon(true);
+	return thread;
+    });
+}
@@ -0,0 +1,40 @@
+package org.ishaikh.taxibooking;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Sets up the history of the bookings of the TaxiBooker from the application properties
+ * "taxibooking.history.*": how many bookings are kept in memory, for how long, and the
+ * directory older ones are spilled to, if any.
+ */
+@Configuration
+public class BookingHistoryConfiguration {
+    /**
+     * Create the history and make the booker add its bookings to it.
+     *
+     * @param taxiBooker      the booker whose bookings are recorded.
+     * @param capacity        the number of bookings kept in memory.
+     * @param maxAge          time units after which bookings are dropped; 0 for never.
+     * @param spillDirectory  the directory of the bookings beyond the capacity; empty to drop them.
+     * @result the history; closed when the application stops.
+     * @throws IOException  if the spill directory cannot be created.
+     */
+    @Bean(destroyMethod = "close")
+    public BookingHistory bookingHistory(TaxiBooker taxiBooker,
+					 @Value("${taxibooking.history.capacity:" + BookingHistory.CAPACITY + "}")
+					 int capacity,
+					 @Value("${taxibooking.history.max-age:0}") long maxAge,
+					 @Value("${taxibooking.history.spill-dir:}") String spillDirectory)
+	throws IOException {
+	BookingHistory history = spillDirectory.isEmpty() ?
+	    new BookingHistory(capacity, maxAge) :
+	    new BookingHistory(capacity, maxAge, Paths.get(spillDirectory));
+	taxiBooker.setHistory(history);
+	return history;
+    }
+}
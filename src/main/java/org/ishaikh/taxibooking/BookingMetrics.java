@@ -0,0 +1,144 @@
+package org.ishaikh.taxibooking;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Metrics of a TaxiBooker: booking, tick & reset latencies, pick-up distances and fleet gauges.
+ * <p>
+ * The meters are created once, up front, so that recording on the booking path is a few
+ * additions. Until the metrics are bound to a registry, with bindTo(), recording does nothing.
+ * Spring Boot Actuator binds them to its registries, which export them (e.g. "/actuator/prometheus").
+ * <p>
+ * Latencies are published as percentile histograms plus the 50th, 95th & 99th percentiles,
+ * so that an alert can be set on, e.g., the 99th percentile of the booking latency.
+ */
+public class BookingMetrics implements MeterBinder {
+    /**
+     * Constructor.
+     *
+     * @param taxiBooker  the booker whose fleet is gauged.
+     */
+    public BookingMetrics(TaxiBooker taxiBooker) {
+	booked = latency("taxibooking.book", "Time to book a taxi", "outcome", "booked");
+	noTaxi = latency("taxibooking.book", "Time to book a taxi", "outcome", "no_taxi");
+	failFast = latency("taxibooking.book", "Time to book a taxi", "outcome", "fail_fast");
+	lockWait = latency("taxibooking.book.lock.wait", "Time a booking waits for the fleet lock");
+	search = latency("taxibooking.book.search", "Time a booking searches for & claims the closest taxi");
+	tick = latency("taxibooking.tick", "Time to advance the clock");
+	reset = latency("taxibooking.reset", "Time to reset the fleet");
+	pickUpDistance = DistributionSummary.builder("taxibooking.book.pickup.distance")
+	    .description("Distance from the booked taxi to the pick-up location")
+	    .publishPercentileHistogram()
+	    .publishPercentiles(PERCENTILES)
+	    .register(registry);
+
+	Gauge.builder("taxibooking.fleet.size", taxiBooker, booker -> booker.taxis.size())
+	    .description("Number of taxis in the fleet")
+	    .register(registry);
+	Gauge.builder("taxibooking.fleet.available", taxiBooker, booker -> booker.availableTaxis.size())
+	    .description("Number of taxis available for booking")
+	    .register(registry);
+	Gauge.builder("taxibooking.rides", taxiBooker, booker -> booker.rideScheduler.size())
+	    .description("Number of ongoing rides")
+	    .register(registry);
+    }
+
+    /**
+     * Export the metrics to a registry. May be called for several registries.
+     *
+     * @param meterRegistry  the registry.
+     */
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+	registry.add(meterRegistry);
+    }
+
+    /**
+     * Record a booking.
+     *
+     * @param lockWaitTime    nanoseconds spent waiting for the fleet lock.
+     * @param searchTime      nanoseconds spent finding & claiming the closest taxi.
+     * @param totalTime       nanoseconds spent booking, all in all.
+     * @param pickUpDistance  distance from the booked taxi to the pick-up location;
+     *                        negative if no taxi was available.
+     */
+    void recordBooking(long lockWaitTime, long searchTime, long totalTime, int pickUpDistance) {
+	lockWait.record(lockWaitTime, TimeUnit.NANOSECONDS);
+	search.record(searchTime, TimeUnit.NANOSECONDS);
+	if (pickUpDistance >= 0) {
+	    booked.record(totalTime, TimeUnit.NANOSECONDS);
+	    this.pickUpDistance.record(pickUpDistance);
+	} else {
+	    noTaxi.record(totalTime, TimeUnit.NANOSECONDS);
+	}
+    }
+
+    /**
+     * Record a booking that failed fast, without the fleet lock or a search, as every taxi
+     * is booked. Kept apart from the other bookings, and out of the lock wait & search times,
+     * so that their percentiles are not dragged toward zero when the fleet is saturated.
+     *
+     * @param totalTime  nanoseconds spent on the booking.
+     */
+    void recordFailFast(long totalTime) {
+	failFast.record(totalTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record a tick.
+     *
+     * @param time  nanoseconds spent advancing the clock.
+     */
+    void recordTick(long time) {
+	tick.record(time, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record a reset.
+     *
+     * @param time  nanoseconds spent resetting the fleet.
+     */
+    void recordReset(long time) {
+	reset.record(time, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Create a latency timer.
+     */
+    private Timer latency(String name, String description, String... tags) {
+	return Timer.builder(name)
+	    .description(description)
+	    .tags(tags)
+	    .publishPercentileHistogram()
+	    .publishPercentiles(PERCENTILES)
+	    .register(registry);
+    }
+
+    // Percentiles computed in the application.
+    private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+
+    // The registries bound with bindTo(). The meters record nothing until one is bound.
+    private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+
+    // Latency of bookings that got a taxi, of those that did not & of those that failed fast.
+    // Their counts are the booking & no-taxi-available rates.
+    private final Timer booked;
+    private final Timer noTaxi;
+    private final Timer failFast;
+
+    // Parts of the booking latency.
+    private final Timer lockWait;
+    private final Timer search;
+
+    private final Timer tick;
+    private final Timer reset;
+
+    private final DistributionSummary pickUpDistance;
+}
@@ -6,6 +6,11 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  * Represents a taxi booked for a customer.
  */
 public class BookingStatus {
+    /**
+     * Packed result of a booking when no taxi is available. See pack().
+     */
+    public static final long NO_BOOKING = Long.MIN_VALUE;
+
     /**
      * Constructor.
      *
@@ -37,6 +42,49 @@ public class BookingStatus {
 	return totalTime;
     }
 
+    /**
+     * Pack the result of a booking into a long, so that it can be passed around without
+     * creating an object: the taxi id in the high 32 bits and the total time in the low 32 bits.
+     *
+     * @param carId       the taxi id
+     * @param totalTime   time units to reach destination; at most 2^32 - 1.
+     * @return the packed result.
+     */
+    public static long pack(int carId, long totalTime) {
+	return ((long)carId << 32) | (totalTime & 0xffffffffL);
+    }
+
+    /**
+     * Return the taxi id of a packed result.
+     *
+     * @param bookingResult  the packed result; not NO_BOOKING.
+     * @return the taxi id.
+     */
+    public static int carId(long bookingResult) {
+	return (int)(bookingResult >> 32);
+    }
+
+    /**
+     * Return the total time of a packed result.
+     *
+     * @param bookingResult  the packed result; not NO_BOOKING.
+     * @return the total time.
+     */
+    public static long totalTime(long bookingResult) {
+	return bookingResult & 0xffffffffL;
+    }
+
+    /**
+     * Unpack a packed result.
+     *
+     * @param bookingResult  the packed result.
+     * @return the BookingStatus; null for NO_BOOKING.
+     */
+    public static BookingStatus unpack(long bookingResult) {
+	return bookingResult == NO_BOOKING ? null :
+	    new BookingStatus(carId(bookingResult), totalTime(bookingResult));
+    }
+
     // Id of the taxi booked.
     private int carId;
 
@@ -0,0 +1,93 @@
+package org.ishaikh.taxibooking;
+
+/**
+ * Summary of the bookings of a time window, of the whole fleet or of a taxi, returned for
+ * GET HTTP requests for "/api/history". See BookingHistory.
+ */
+public class BookingSummary {
+    /**
+     * Constructor. A summary of no booking.
+     *
+     * @param from  the first time unit of the window.
+     * @param to    the end of the window, exclusive.
+     */
+    public BookingSummary(long from, long to) {
+	this.from = from;
+	this.to = to;
+    }
+
+    /**
+     * Add a booking. See BookingHistory.Bookings.
+     */
+    void add(int taxiId, int sourceX, int sourceY, int destinationX, int destinationY,
+	     long startTime, long endTime, long pickUpDistance) {
+	rides++;
+	rideTime += endTime - startTime;
+	rideDistance += Taxi.distance(sourceX, sourceY, destinationX, destinationY);
+	this.pickUpDistance += pickUpDistance;
+    }
+
+    /**
+     * Return the first time unit of the window.
+     *
+     * @return the first time unit of the window.
+     */
+    public long getFrom() {
+	return from;
+    }
+
+    /**
+     * Return the end of the window, exclusive.
+     *
+     * @return the end of the window, exclusive.
+     */
+    public long getTo() {
+	return to;
+    }
+
+    /**
+     * Return the number of rides booked.
+     *
+     * @return the number of rides booked.
+     */
+    public long getRides() {
+	return rides;
+    }
+
+    /**
+     * Return the total time units of the rides, pick-ups included.
+     *
+     * @return the total time units of the rides.
+     */
+    public long getRideTime() {
+	return rideTime;
+    }
+
+    /**
+     * Return the total distance from the pick-up to the drop-off locations of the rides.
+     *
+     * @return the total distance with the customers on board.
+     */
+    public long getRideDistance() {
+	return rideDistance;
+    }
+
+    /**
+     * Return the total distance of the taxis to the pick-up locations.
+     *
+     * @return the total pick-up distance.
+     */
+    public long getPickUpDistance() {
+	return pickUpDistance;
+    }
+
+    // Time window of the bookings.
+    private final long from;
+    private final long to;
+
+    // Number of rides, and their total time & distances.
+    private long rides;
+    private long rideTime;
+    private long rideDistance;
+    private long pickUpDistance;
+}
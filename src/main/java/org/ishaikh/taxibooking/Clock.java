@@ -0,0 +1,22 @@
+package org.ishaikh.taxibooking;
+
+/**
+ * Source of the current time, in time units (seconds) since the epoch, for taxis that
+ * move time internally and for the start & end times of rides.
+ * <p>
+ * SYSTEM reads the system clock on every call; CoarseClock caches it, so that a read is
+ * a single volatile field; ManualClock is set by hand, e.g. to simulate time in tests.
+ */
+public interface Clock {
+    /**
+     * Return the current time.
+     *
+     * @return the current time, in time units.
+     */
+    long now();
+
+    /**
+     * The system clock, read on every call.
+     */
+    Clock SYSTEM = () -> System.currentTimeMillis() / 1000;
+}
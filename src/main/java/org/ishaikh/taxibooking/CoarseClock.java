@@ -0,0 +1,73 @@
+package org.ishaikh.taxibooking;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Clock that caches the time of another clock, refreshed by a background thread.
+ * <p>
+ * Reading the time is a read of a volatile field instead of a call to the system clock.
+ * The time read is behind by at most the refresh interval, so a ride may end that much
+ * late, but never early.
+ */
+public class CoarseClock implements Clock, Closeable {
+    /**
+     * Constructor.
+     *
+     * @param source           the clock whose time is cached.
+     * @param refreshInterval  milliseconds between refreshes of the time.
+     */
+    public CoarseClock(Clock source, long refreshInterval) {
+	if (refreshInterval <= 0) {
+	    throw new IllegalArgumentException("Invalid refresh interval: " + refreshInterval);
+	}
+	this.source = source;
+	this.now = source.now();
+	executor.scheduleAtFixedRate(() -> now = source.now(), refreshInterval, refreshInterval,
+				     TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Return the clock shared by all taxis: the system clock refreshed ten times per time unit.
+     *
+     * @return the shared clock.
+     */
+    public static CoarseClock shared() {
+	return Shared.CLOCK;
+    }
+
+    @Override
+    public long now() {
+	return now;
+    }
+
+    /**
+     * Stop refreshing the time.
+     */
+    @Override
+    public void close() {
+	executor.shutdownNow();
+    }
+
+    /**
+     * Holder of the shared clock, created on first use.
+     */
+    private static class Shared {
+	static final CoarseClock CLOCK = new CoarseClock(Clock.SYSTEM, 100);
+    }
+
+    // Clock whose time is cached.
+    private final Clock source;
+
+    // The cached time.
+    private volatile long now;
+
+    // Refreshes the time.
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	Thread thread = new Thread(runnable, "coarse-clock");
+	thread.setDaemon(true);
+	return thread;
+    });
+}
@@ -0,0 +1,411 @@
+package org.ishaikh.taxibooking;
+
+import java.util.Arrays;
+
+/**
+ * A fleet of taxis kept in parallel primitive arrays instead of one Taxi object per taxi.
+ * <p>
+ * Bookings, ticks and resets have the same semantics as in TaxiBooker (closest available taxi,
+ * smallest id on ties, rides ending on ticks), but a taxi costs a few dozen bytes of arrays and
+ * no objects. The available taxis are indexed in a grid of cells, each an intrusive linked list
+ * threaded through the arrays, and the ongoing rides in a binary heap ordered by end time.
+ * So nothing is allocated per booking and the garbage collector has nothing to trace.
+ * <p>
+ * All operations are synchronized on the fleet; each one is short and allocation free.
+ */
+public class CompactFleet {
+    /**
+     * Constructor. Creates taxis with ids 1 to numberOfTaxis, available at (0, 0).
+     *
+     * @param numberOfTaxis    how many taxis to create
+     */
+    public CompactFleet(int numberOfTaxis) {
+	this(sequentialIds(numberOfTaxis), new int[numberOfTaxis], new int[numberOfTaxis],
+	     GridTaxiIndex.DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ids       the ids of the taxis; must be unique.
+     * @param x         the x co-ordinates of the initial locations of the taxis.
+     * @param y         the y co-ordinates of the initial locations of the taxis.
+     * @param cellSize  length of the side of a cell of the index of available taxis; at least 2.
+     */
+    public CompactFleet(int[] ids, int[] x, int[] y, int cellSize) {
+	if (ids.length != x.length || ids.length != y.length) {
+	    throw new IllegalArgumentException("Inconsistent fleet arrays");
+	}
+	if (cellSize < 2) {
+	    throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+	}
+	this.size = ids.length;
+	this.cellSize = cellSize;
+	this.ids = ids.clone();
+	this.x = new int[size];
+	this.y = new int[size];
+	this.destinationX = new int[size];
+	this.destinationY = new int[size];
+	this.rideEndTime = new long[size];
+	this.next = new int[size];
+	this.previous = new int[size];
+	this.rides = new int[size];
+	this.cellKeys = new long[Integer.highestOneBit(Math.max(size, 8)) * 4];
+	this.cellHeads = new int[cellKeys.length];
+
+	int[] sortedIds = this.ids.clone();
+	Arrays.sort(sortedIds);
+	for (int i = 1; i < size; i++) {
+	    if (sortedIds[i] == sortedIds[i-1]) {
+		throw new IllegalArgumentException("Duplicate taxi id: " + sortedIds[i]);
+	    }
+	}
+
+	start(x, y);
+    }
+
+    /**
+     * Book the taxi closest to the source location.
+     * If multiple taxis are equally close to the source location the smallest id is picked.
+     *
+     * @param sourceX       x co-ordinate of the pick-up location.
+     * @param sourceY       y co-ordinate of the pick-up location.
+     * @param destinationX  x co-ordinate of the drop-off location.
+     * @param destinationY  y co-ordinate of the drop-off location.
+     * @return              the id of the taxi and the total time units of the ride packed
+     *                      with BookingStatus.pack(); BookingStatus.NO_BOOKING if no taxi is available.
+     */
+    public synchronized long book(int sourceX, int sourceY, int destinationX, int destinationY) {
+	int taxi = nearest(sourceX, sourceY);
+	if (taxi < 0) {
+	    return BookingStatus.NO_BOOKING;
+	}
+
+	unlink(taxi);
+	available--;
+	long totalTime =
+	    distance(x[taxi], y[taxi], sourceX, sourceY) +
+	    distance(sourceX, sourceY, destinationX, destinationY);
+	this.destinationX[taxi] = destinationX;
+	this.destinationY[taxi] = destinationY;
+	// As with Taxi.tick(), a ride ends on a tick, so a ride of 0 time units ends on the next one.
+	rideEndTime[taxi] = now + Math.max(totalTime, 1);
+	push(taxi);
+	return BookingStatus.pack(ids[taxi], totalTime);
+    }
+
+    /**
+     * Book a taxi. See book(int, int, int, int).
+     *
+     * @param rideCoordinates  the source & destination of the ride.
+     * @return                 the resulting BookingStatus; null if no taxi is available.
+     */
+    public BookingStatus book(RideCoordinates rideCoordinates) {
+	return BookingStatus.unpack(book(rideCoordinates.getSource().x, rideCoordinates.getSource().y,
+					 rideCoordinates.getDestination().x,
+					 rideCoordinates.getDestination().y));
+    }
+
+    /**
+     * Advance the clock by the given number of time units. The taxis whose ride ends in that time
+     * become available at the destination of their ride.
+     *
+     * @param units  the number of time units to advance.
+     */
+    public synchronized void tick(long units) {
+	now += units;
+	while (rideCount > 0 && rideEndTime[rides[0]] <= now) {
+	    int taxi = pop();
+	    rideEndTime[taxi] = -1;
+	    x[taxi] = destinationX[taxi];
+	    y[taxi] = destinationY[taxi];
+	    link(taxi);
+	    available++;
+	}
+    }
+
+    /**
+     * Reset all taxis: abort the rides and make every taxi available at (0, 0).
+     */
+    public synchronized void reset() {
+	start(new int[size], new int[size]);
+    }
+
+    /**
+     * Return the number of taxis in the fleet.
+     *
+     * @return the number of taxis.
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Return the number of available taxis.
+     *
+     * @return the number of available taxis.
+     */
+    public synchronized int available() {
+	return available;
+    }
+
+    /**
+     * Make every taxi available at the given locations, with the clock at 0.
+     */
+    private void start(int[] startX, int[] startY) {
+	now = 0;
+	rideCount = 0;
+	available = size;
+	Arrays.fill(cellKeys, EMPTY_CELL);
+	cellCount = 0;
+	minCellX = Integer.MAX_VALUE;
+	maxCellX = Integer.MIN_VALUE;
+	minCellY = Integer.MAX_VALUE;
+	maxCellY = Integer.MIN_VALUE;
+	System.arraycopy(startX, 0, x, 0, size);
+	System.arraycopy(startY, 0, y, 0, size);
+	Arrays.fill(rideEndTime, -1);
+	for (int taxi = 0; taxi < size; taxi++) {
+	    link(taxi);
+	}
+    }
+
+    /**
+     * Find the available taxi closest to the given location. Same ring search as GridTaxiIndex.
+     *
+     * @return the slot of the taxi; -1 if none is available.
+     */
+    private int nearest(int locationX, int locationY) {
+	if (available == 0) {
+	    return -1;
+	}
+	long cellX = Math.floorDiv(locationX, cellSize);
+	long cellY = Math.floorDiv(locationY, cellSize);
+	// No occupied cell is closer than the first ring (the Chebyshev distance from the cell of
+	// the location to the bounding box), nor further than the last one. In longs, as the rings
+	// around a cell near the edge of the int range go past it.
+	long firstRing = Math.max(Math.max(minCellX - cellX, cellX - maxCellX),
+				  Math.max(Math.max(minCellY - cellY, cellY - maxCellY), 0));
+	long lastRing = Math.max(Math.max(cellX - minCellX, maxCellX - cellX),
+				 Math.max(cellY - minCellY, maxCellY - cellY));
+
+	int closestTaxi = -1;
+	long closestTaxiDistance = -1;
+	for (long ring = firstRing; ring <= lastRing; ring++) {
+	    if (closestTaxi >= 0 && (ring - 1) * cellSize + 1 > closestTaxiDistance) {
+		break;
+	    }
+	    for (long cx = Math.max(cellX - ring, minCellX); cx <= Math.min(cellX + ring, maxCellX); cx++) {
+		// The whole column of the ring on its edges, clamped to the bounding box;
+		// only its top & bottom cells elsewhere.
+		boolean edge = (cx == cellX - ring || cx == cellX + ring);
+		long step = edge ? 1 : 2 * ring;
+		long fromY = edge ? Math.max(cellY - ring, minCellY) : cellY - ring;
+		long toY = edge ? Math.min(cellY + ring, maxCellY) : cellY + ring;
+		for (long cy = fromY; cy <= toY; cy += step) {
+		    if (cy < minCellY || cy > maxCellY) {
+			continue;
+		    }
+		    int slot = findCell(key((int)cx, (int)cy));
+		    if (cellKeys[slot] == EMPTY_CELL) {
+			continue;
+		    }
+		    for (int taxi = cellHeads[slot]; taxi >= 0; taxi = next[taxi]) {
+			long taxiDistance = distance(x[taxi], y[taxi], locationX, locationY);
+			if (closestTaxi < 0 || taxiDistance < closestTaxiDistance ||
+			    (taxiDistance == closestTaxiDistance && ids[taxi] < ids[closestTaxi])) {
+			    closestTaxiDistance = taxiDistance;
+			    closestTaxi = taxi;
+			}
+		    }
+		}
+	    }
+	}
+	return closestTaxi;
+    }
+
+    /**
+     * Add a taxi to the list of its cell.
+     */
+    private void link(int taxi) {
+	int cellX = Math.floorDiv(x[taxi], cellSize);
+	int cellY = Math.floorDiv(y[taxi], cellSize);
+	long key = key(cellX, cellY);
+	int slot = findCell(key);
+	if (cellKeys[slot] == EMPTY_CELL) {
+	    if ((cellCount + 1) * 2 > cellKeys.length) {
+		growCells();
+		slot = findCell(key);
+	    }
+	    cellKeys[slot] = key;
+	    cellHeads[slot] = -1;
+	    cellCount++;
+	    minCellX = Math.min(minCellX, cellX);
+	    maxCellX = Math.max(maxCellX, cellX);
+	    minCellY = Math.min(minCellY, cellY);
+	    maxCellY = Math.max(maxCellY, cellY);
+	}
+	int head = cellHeads[slot];
+	next[taxi] = head;
+	previous[taxi] = -1;
+	if (head >= 0) {
+	    previous[head] = taxi;
+	}
+	cellHeads[slot] = taxi;
+    }
+
+    /**
+     * Remove a taxi from the list of its cell. Empty cells are kept.
+     */
+    private void unlink(int taxi) {
+	if (previous[taxi] >= 0) {
+	    next[previous[taxi]] = next[taxi];
+	} else {
+	    int slot = findCell(key(Math.floorDiv(x[taxi], cellSize), Math.floorDiv(y[taxi], cellSize)));
+	    cellHeads[slot] = next[taxi];
+	}
+	if (next[taxi] >= 0) {
+	    previous[next[taxi]] = previous[taxi];
+	}
+    }
+
+    /**
+     * Find the slot of a cell in the open addressing table, or the empty slot where it goes.
+     */
+    private int findCell(long key) {
+	int mask = cellKeys.length - 1;
+	int slot = (int)((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+	while (cellKeys[slot] != EMPTY_CELL && cellKeys[slot] != key) {
+	    slot = (slot + 1) & mask;
+	}
+	return slot;
+    }
+
+    /**
+     * Double the size of the table of cells.
+     */
+    private void growCells() {
+	long[] oldKeys = cellKeys;
+	int[] oldHeads = cellHeads;
+	cellKeys = new long[oldKeys.length * 2];
+	cellHeads = new int[oldKeys.length * 2];
+	Arrays.fill(cellKeys, EMPTY_CELL);
+	for (int i = 0; i < oldKeys.length; i++) {
+	    if (oldKeys[i] != EMPTY_CELL) {
+		int slot = findCell(oldKeys[i]);
+		cellKeys[slot] = oldKeys[i];
+		cellHeads[slot] = oldHeads[i];
+	    }
+	}
+    }
+
+    /**
+     * Add a taxi to the heap of rides.
+     */
+    private void push(int taxi) {
+	int i = rideCount++;
+	while (i > 0) {
+	    int parent = (i - 1) / 2;
+	    if (!endsBefore(taxi, rides[parent])) {
+		break;
+	    }
+	    rides[i] = rides[parent];
+	    i = parent;
+	}
+	rides[i] = taxi;
+    }
+
+    /**
+     * Remove the ride that ends first from the heap of rides.
+     */
+    private int pop() {
+	int first = rides[0];
+	int last = rides[--rideCount];
+	int i = 0;
+	while (true) {
+	    int child = 2 * i + 1;
+	    if (child >= rideCount) {
+		break;
+	    }
+	    if (child + 1 < rideCount && endsBefore(rides[child + 1], rides[child])) {
+		child++;
+	    }
+	    if (!endsBefore(rides[child], last)) {
+		break;
+	    }
+	    rides[i] = rides[child];
+	    i = child;
+	}
+	rides[i] = last;
+	return first;
+    }
+
+    /**
+     * Does the ride of the first taxi end before the one of the second? Ties broken on id.
+     */
+    private boolean endsBefore(int taxi, int other) {
+	return rideEndTime[taxi] < rideEndTime[other] ||
+	    (rideEndTime[taxi] == rideEndTime[other] && ids[taxi] < ids[other]);
+    }
+
+    private static long distance(int x1, int y1, int x2, int y2) {
+	return Math.abs((long)x1 - x2) + Math.abs((long)y1 - y2);
+    }
+
+    private static long key(int cellX, int cellY) {
+	return ((long)cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    private static int[] sequentialIds(int numberOfTaxis) {
+	int[] ids = new int[numberOfTaxis];
+	for (int i = 0; i < numberOfTaxis; i++) {
+	    ids[i] = i + 1;
+	}
+	return ids;
+    }
+
+    // Marks an unused slot of the cell table. No cell has this key since cellSize >= 2,
+    // so that a cell x co-ordinate is above Integer.MIN_VALUE.
+    private static final long EMPTY_CELL = Long.MIN_VALUE;
+
+    // Number of taxis.
+    private final int size;
+
+    // Length of the side of a cell.
+    private final int cellSize;
+
+    // Per taxi, indexed by slot: id, current (or available) location,
+    // destination and end time of the ride (-1 when available).
+    private final int[] ids;
+    private final int[] x;
+    private final int[] y;
+    private final int[] destinationX;
+    private final int[] destinationY;
+    private final long[] rideEndTime;
+
+    // Links of the available taxis in the list of their cell; -1 ends a list.
+    private final int[] next;
+    private final int[] previous;
+
+    // Open addressing table of the cells that have been occupied: packed cell co-ordinates
+    // and the first taxi of the list of the cell.
+    private long[] cellKeys;
+    private int[] cellHeads;
+    private int cellCount;
+
+    // Bounding box of the cells that have been occupied.
+    private int minCellX;
+    private int maxCellX;
+    private int minCellY;
+    private int maxCellY;
+
+    // Binary heap of the taxis on a ride, the earliest ending first.
+    private final int[] rides;
+    private int rideCount;
+
+    // Number of available taxis.
+    private int available;
+
+    // Current time in time units.
+    private long now;
+}
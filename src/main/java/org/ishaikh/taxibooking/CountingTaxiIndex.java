@@ -0,0 +1,137 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TaxiIndex that keeps live counts of its taxis per region, on top of another index.
+ * <p>
+ * The regions are squares of a given size. Their counts change as taxis are added & removed,
+ * so that the availability of the fleet by region is read without searching the index.
+ */
+public class CountingTaxiIndex implements TaxiIndex {
+    /**
+     * Constants.
+     */
+    // Default length of the side of a region.
+    public static final int REGION_SIZE = 100;
+
+    /**
+     * Constructor.
+     *
+     * @param index       the index of the taxis.
+     * @param regionSize  the length of the side of a region.
+     */
+    public CountingTaxiIndex(TaxiIndex index, int regionSize) {
+	if (regionSize <= 0) {
+	    throw new IllegalArgumentException("Invalid region size: " + regionSize);
+	}
+	this.index = index;
+	this.regionSize = regionSize;
+    }
+
+    /**
+     * Add a taxi. It is counted before it is added to the index, so that the count of its region
+     * exists by the time a concurrent booking finds & removes the taxi.
+     */
+    @Override
+    public void add(Taxi taxi) {
+	Point location = taxi.getAvailableLocation();
+	regions.computeIfAbsent(region(location.x, location.y), region -> new AtomicInteger()).incrementAndGet();
+	index.add(taxi);
+    }
+
+    @Override
+    public boolean remove(Taxi taxi) {
+	if (!index.remove(taxi)) {
+	    return false;
+	}
+	Point location = taxi.getAvailableLocation();
+	// Empty regions are kept; dropping them would race with a concurrent add to the region.
+	regions.get(region(location.x, location.y)).decrementAndGet();
+	return true;
+    }
+
+    @Override
+    public Taxi nearest(int x, int y) {
+	return index.nearest(x, y);
+    }
+
+    /**
+     * Remove all taxis from the index.
+     * Must not race with adds & removes.
+     */
+    @Override
+    public void clear() {
+	index.clear();
+	regions.clear();
+    }
+
+    @Override
+    public int size() {
+	return index.size();
+    }
+
+    /**
+     * Return the number of taxis in the region of a location.
+     *
+     * @param x  x co-ordinate of the location.
+     * @param y  y co-ordinate of the location.
+     * @return   the number of taxis in the region.
+     */
+    public int size(int x, int y) {
+	AtomicInteger count = regions.get(region(x, y));
+	return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Return the length of the side of a region.
+     *
+     * @return the region size.
+     */
+    public int getRegionSize() {
+	return regionSize;
+    }
+
+    /**
+     * Pass the number of taxis of every region that has any to an action.
+     *
+     * @param action  called with the co-ordinates of the region (its corner divided by the
+     *                region size) and its number of taxis.
+     */
+    public void forEachRegion(RegionAction action) {
+	for (Map.Entry<Long, AtomicInteger> region : regions.entrySet()) {
+	    int count = region.getValue().get();
+	    if (count > 0) {
+		long key = region.getKey();
+		action.accept((int)(key >> 32), (int)key, count);
+	    }
+	}
+    }
+
+    /**
+     * Action on the number of taxis of a region. See forEachRegion().
+     */
+    public interface RegionAction {
+	void accept(int regionX, int regionY, int count);
+    }
+
+    /**
+     * Return the key of the region of a location.
+     */
+    private long region(int x, int y) {
+	return ((long)Math.floorDiv(x, regionSize) << 32) | (Math.floorDiv(y, regionSize) & 0xffffffffL);
+    }
+
+    // Index of the taxis.
+    private final TaxiIndex index;
+
+    // Length of the side of a region.
+    private final int regionSize;
+
+    // Number of taxis in each region that has had any, keyed on the packed region co-ordinates.
+    private final ConcurrentMap<Long, AtomicInteger> regions = new ConcurrentHashMap<Long, AtomicInteger>();
+}
@@ -0,0 +1,145 @@
+package org.ishaikh.taxibooking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * A stream of ride requests, in the order of their request time, for the Simulator.
+ * <p>
+ * Requests are read into a Request that is reused, so that millions of them can be
+ * streamed without creating an object for each.
+ */
+public interface Demand {
+    /**
+     * Read the next request.
+     *
+     * @param request  set to the next request; its time is not before that of the previous one.
+     * @return         false if there are no more requests.
+     */
+    boolean next(Request request);
+
+    /**
+     * A ride request.
+     */
+    class Request {
+	// Time unit at which the ride is requested.
+	public long time;
+
+	public int sourceX;
+	public int sourceY;
+	public int destinationX;
+	public int destinationY;
+    }
+
+    /**
+     * Synthetic demand: requests arrive at random (a Poisson process) with pick-up & drop-off
+     * locations spread uniformly over a square area. The same seed gives the same requests.
+     *
+     * @param seed      seed of the random numbers.
+     * @param rate      the average number of requests per time unit.
+     * @param duration  the number of time units over which requests arrive.
+     * @param areaSize  the side of the square area, from (0, 0).
+     * @return          the demand.
+     */
+    static Demand synthetic(long seed, double rate, long duration, int areaSize) {
+	if (rate <= 0 || areaSize <= 0) {
+	    throw new IllegalArgumentException("Invalid rate or area size: " + rate + ", " + areaSize);
+	}
+	Random random = new Random(seed);
+	double[] clock = new double[1];
+	return request -> {
+	    // Exponential time between arrivals.
+	    clock[0] += -Math.log(1 - random.nextDouble()) / rate;
+	    if (clock[0] >= duration) {
+		return false;
+	    }
+	    request.time = (long)clock[0];
+	    request.sourceX = random.nextInt(areaSize);
+	    request.sourceY = random.nextInt(areaSize);
+	    request.destinationX = random.nextInt(areaSize);
+	    request.destinationY = random.nextInt(areaSize);
+	    return true;
+	};
+    }
+
+    /**
+     * Synthetic demand concentrated in a hotspot: as synthetic(), but the pick-up locations are
+     * spread over a square of hotspotSize at the centre of the area, e.g. a station in the morning.
+     * Drop-off locations are spread over the whole area, so the taxis end up away from the demand.
+     *
+     * @param seed         seed of the random numbers.
+     * @param rate         the average number of requests per time unit.
+     * @param duration     the number of time units over which requests arrive.
+     * @param areaSize     the side of the square area, from (0, 0).
+     * @param hotspotSize  the side of the square of the pick-up locations.
+     * @return             the demand.
+     */
+    static Demand hotspot(long seed, double rate, long duration, int areaSize, int hotspotSize) {
+	if (hotspotSize <= 0 || hotspotSize > areaSize) {
+	    throw new IllegalArgumentException("Invalid hotspot size: " + hotspotSize);
+	}
+	Demand demand = synthetic(seed, rate, duration, areaSize);
+	int corner = (areaSize - hotspotSize) / 2;
+	return request -> {
+	    if (!demand.next(request)) {
+		return false;
+	    }
+	    // Scaled, to draw the same random numbers as synthetic().
+	    request.sourceX = corner + (int)((long)request.sourceX * hotspotSize / areaSize);
+	    request.sourceY = corner + (int)((long)request.sourceY * hotspotSize / areaSize);
+	    return true;
+	};
+    }
+
+    /**
+     * Recorded demand, as CSV lines of "time,sourceX,sourceY,destinationX,destinationY".
+     * Lines starting with '#' and blank lines are skipped. Lines are read as they are needed.
+     *
+     * @param reader  the CSV text.
+     * @return        the demand.
+     * @throws IllegalArgumentException  when a line is read that is not well formed or out of order.
+     * @throws UncheckedIOException      when the text cannot be read.
+     */
+    static Demand recorded(Reader reader) {
+	BufferedReader lines = new BufferedReader(reader);
+	long[] lineNumber = new long[1];
+	long[] previousTime = { Long.MIN_VALUE };
+	return request -> {
+	    try {
+		String line;
+		do {
+		    line = lines.readLine();
+		    lineNumber[0]++;
+		    if (line == null) {
+			return false;
+		    }
+		    line = line.trim();
+		} while (line.isEmpty() || line.startsWith("#"));
+
+		String[] fields = line.split(",");
+		if (fields.length != 5) {
+		    throw new IllegalArgumentException("Invalid demand at line " + lineNumber[0] + ": " + line);
+		}
+		try {
+		    request.time = Long.parseLong(fields[0].trim());
+		    request.sourceX = Integer.parseInt(fields[1].trim());
+		    request.sourceY = Integer.parseInt(fields[2].trim());
+		    request.destinationX = Integer.parseInt(fields[3].trim());
+		    request.destinationY = Integer.parseInt(fields[4].trim());
+		} catch (NumberFormatException e) {
+		    throw new IllegalArgumentException("Invalid demand at line " + lineNumber[0] + ": " + line);
+		}
+		if (request.time < previousTime[0]) {
+		    throw new IllegalArgumentException("Demand out of order at line " + lineNumber[0]);
+		}
+		previousTime[0] = request.time;
+		return true;
+	    } catch (IOException e) {
+		throw new UncheckedIOException(e);
+	    }
+	};
+    }
+}
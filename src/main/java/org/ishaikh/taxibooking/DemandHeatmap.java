@@ -0,0 +1,161 @@
+package org.ishaikh.taxibooking;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heatmap of the recent demand for taxis: how many pick-ups were requested in each region,
+ * with older requests counting less and less.
+ * <p>
+ * The regions are squares of a given size, like those of CountingTaxiIndex. Each region has
+ * a counter, in fixed point, that a request increments and that decays exponentially with time:
+ * it halves every half-life. Counters are updated with atomic adds and compare-and-sets,
+ * so recording a request takes no lock and decaying the heatmap does not block bookings.
+ * A counter that decays to zero is dropped; a request racing with that may go uncounted.
+ */
+public class DemandHeatmap {
+    /**
+     * Constants.
+     */
+    // Default time units for the weight of a request to halve.
+    public static final long HALF_LIFE = 300;
+
+    /**
+     * Constructor.
+     *
+     * @param regionSize  the length of the side of a region.
+     * @param halfLife    the time units for the weight of a request to halve.
+     */
+    public DemandHeatmap(int regionSize, long halfLife) {
+	if (regionSize <= 0 || halfLife <= 0) {
+	    throw new IllegalArgumentException("Invalid region size or half-life: " + regionSize + ", " + halfLife);
+	}
+	this.regionSize = regionSize;
+	this.halfLife = halfLife;
+    }
+
+    /**
+     * Record a request for a pick-up at a location. Safe to call concurrently.
+     *
+     * @param x  x co-ordinate of the pick-up location.
+     * @param y  y co-ordinate of the pick-up location.
+     */
+    public void record(int x, int y) {
+	long key = region(x, y);
+	AtomicLong count = regions.get(key);
+	if (count == null) {
+	    count = regions.computeIfAbsent(key, region -> new AtomicLong());
+	}
+	count.addAndGet(ONE);
+    }
+
+    /**
+     * Age the requests recorded so far by a number of time units. Safe to call concurrently with
+     * record(), but not with another decay().
+     *
+     * @param units  the number of time units.
+     */
+    public void decay(long units) {
+	if (units <= 0) {
+	    return;
+	}
+	double factor = Math.pow(0.5, (double)units / halfLife);
+	for (Map.Entry<Long, AtomicLong> region : regions.entrySet()) {
+	    AtomicLong count = region.getValue();
+	    long value;
+	    long decayed;
+	    do {
+		value = count.get();
+		decayed = (long)(value * factor);
+	    } while (!count.compareAndSet(value, decayed));
+	    if (decayed == 0) {
+		regions.remove(region.getKey(), count);
+	    }
+	}
+    }
+
+    /**
+     * Return the recent demand in the region of a location.
+     *
+     * @param x  x co-ordinate of the location.
+     * @param y  y co-ordinate of the location.
+     * @return   the decayed number of requests in the region.
+     */
+    public double demand(int x, int y) {
+	AtomicLong count = regions.get(region(x, y));
+	return count == null ? 0 : (double)count.get() / ONE;
+    }
+
+    /**
+     * Return the recent demand over all regions.
+     *
+     * @return the decayed number of requests.
+     */
+    public double total() {
+	long total = 0;
+	for (AtomicLong count : regions.values()) {
+	    total += count.get();
+	}
+	return (double)total / ONE;
+    }
+
+    /**
+     * Pass the recent demand of every region that has any to an action.
+     *
+     * @param action  called with the co-ordinates of the region (its corner divided by the
+     *                region size) and its decayed number of requests.
+     */
+    public void forEachRegion(RegionAction action) {
+	for (Map.Entry<Long, AtomicLong> region : regions.entrySet()) {
+	    long count = region.getValue().get();
+	    if (count > 0) {
+		long key = region.getKey();
+		action.accept((int)(key >> 32), (int)key, (double)count / ONE);
+	    }
+	}
+    }
+
+    /**
+     * Action on the demand of a region. See forEachRegion().
+     */
+    public interface RegionAction {
+	void accept(int regionX, int regionY, double demand);
+    }
+
+    /**
+     * Drop all the requests.
+     */
+    public void clear() {
+	regions.clear();
+    }
+
+    /**
+     * Return the length of the side of a region.
+     *
+     * @return the region size.
+     */
+    public int getRegionSize() {
+	return regionSize;
+    }
+
+    /**
+     * Return the key of the region of a location.
+     */
+    private long region(int x, int y) {
+	return ((long)Math.floorDiv(x, regionSize) << 32) | (Math.floorDiv(y, regionSize) & 0xffffffffL);
+    }
+
+    // Weight of a request in the fixed point counters.
+    private static final long ONE = 1 << 16;
+
+    // Length of the side of a region.
+    private final int regionSize;
+
+    // Time units for the weight of a request to halve.
+    private final long halfLife;
+
+    // Decayed number of requests of each region that has any, keyed on the packed region co-ordinates.
+    private final ConcurrentMap<Long, AtomicLong> regions = new ConcurrentHashMap<Long, AtomicLong>();
+}
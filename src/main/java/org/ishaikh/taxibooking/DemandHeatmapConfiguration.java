@@ -0,0 +1,29 @@
+package org.ishaikh.taxibooking;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Sends the idle taxis of the TaxiBooker toward the recent demand when the application property
+ * "taxibooking.rebalance.half-life" is set: the time units for the weight of a request to halve.
+ */
+@Configuration
+@ConditionalOnProperty(name = "taxibooking.rebalance.half-life")
+public class DemandHeatmapConfiguration {
+    /**
+     * Create the heatmap of the demand and set it as the one the booker sends its idle taxis toward.
+     *
+     * @param taxiBooker  the booker.
+     * @param halfLife    the time units for the weight of a request to halve.
+     * @result the heatmap.
+     */
+    @Bean
+    public DemandHeatmap demandHeatmap(TaxiBooker taxiBooker,
+				       @Value("${taxibooking.rebalance.half-life}") long halfLife) {
+	DemandHeatmap heatmap = new DemandHeatmap(CountingTaxiIndex.REGION_SIZE, halfLife);
+	taxiBooker.setDemandHeatmap(heatmap);
+	return heatmap;
+    }
+}
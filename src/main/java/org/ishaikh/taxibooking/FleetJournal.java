@@ -0,0 +1,539 @@
+package org.ishaikh.taxibooking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-ahead journal of the changes of a fleet, with snapshots, so that a restart
+ * does not lose the ongoing rides and the locations of the taxis.
+ * <p>
+ * The journal is a sequence of generations. Each generation is a snapshot of the whole fleet,
+ * "snapshot-N.bin", and a log of the events since, "journal-N.log": rides started, ticks, resets
+ * & resizes, and idle taxis moved. A fleet is recovered by loading the latest snapshot and replaying the logs of
+ * that generation and any later one.
+ * <p>
+ * Events are fixed size records appended to memory-mapped segments of the log: an append
+ * reserves its place with an atomic add and writes a few words, so appends are concurrent
+ * and take well under a microsecond. The record type is written last and a zero type marks
+ * the end of the log. Written records survive a crash of the process right away, since
+ * they are in the page cache; a background thread forces them to disk every flush interval,
+ * in one go for all the records appended in the meantime (group commit), so a power failure
+ * loses at most the records of the last interval.
+ */
+public class FleetJournal implements Closeable {
+    /**
+     * Constructor. Opens the journal in a directory, creating it if needed.
+     * Nothing is appended until the first call to nextGeneration().
+     *
+     * @param directory      the directory of the journal.
+     * @param flushInterval  milliseconds between forcing the log to disk; 0 to leave it to the OS.
+     * @throws IOException   if the directory cannot be created.
+     */
+    public FleetJournal(Path directory, long flushInterval) throws IOException {
+	this.directory = Files.createDirectories(directory);
+	this.generation = latestSnapshot();
+	// Logs of a generation whose snapshot was never written are replayed, not overwritten.
+	List<Long> logs = generations("journal-", ".log");
+	this.lastGeneration = logs.isEmpty() ? generation : Math.max(generation, logs.get(logs.size() - 1));
+	if (flushInterval > 0) {
+	    executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+    }
+
+    /**
+     * Events of a fleet, as replayed from the journal.
+     */
+    public interface Events {
+	void ride(int taxiId, int destinationX, int destinationY, long endTime);
+	void tick(long units);
+	void reset();
+	void resize(int size);
+	void move(int taxiId, int x, int y);
+    }
+
+    /**
+     * Record the start of a ride.
+     *
+     * @param taxiId        the taxi on the ride.
+     * @param destinationX  x co-ordinate of the drop-off location.
+     * @param destinationY  y co-ordinate of the drop-off location.
+     * @param endTime       the time unit at which the ride ends; see RideScheduler.
+     */
+    public void ride(int taxiId, int destinationX, int destinationY, long endTime) {
+	append(RIDE, taxiId, destinationX, destinationY, endTime);
+    }
+
+    /**
+     * Record a tick of the given number of time units.
+     */
+    public void tick(long units) {
+	append(TICK, 0, 0, 0, units);
+    }
+
+    /**
+     * Record a reset of the fleet.
+     */
+    public void reset() {
+	append(RESET, 0, 0, 0, 0);
+    }
+
+    /**
+     * Record a change of the fleet size.
+     */
+    public void resize(int size) {
+	append(RESIZE, size, 0, 0, 0);
+    }
+
+    /**
+     * Record the move of an available taxi to a new location.
+     *
+     * @param taxiId  the taxi moved.
+     * @param x       x co-ordinate of the new location.
+     * @param y       y co-ordinate of the new location.
+     */
+    public void move(int taxiId, int x, int y) {
+	append(MOVE, taxiId, x, y, 0);
+    }
+
+    /**
+     * Read the latest snapshot.
+     *
+     * @return the snapshot; null if there is none.
+     * @throws IOException  if the snapshot cannot be read.
+     */
+    public Snapshot readSnapshot() throws IOException {
+	if (generation == 0) {
+	    return null;
+	}
+	ByteBuffer bytes;
+	try (FileChannel channel = FileChannel.open(snapshotPath(generation), StandardOpenOption.READ)) {
+	    bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	}
+	if (bytes.remaining() < SNAPSHOT_HEADER_BYTES || bytes.getInt() != SNAPSHOT_MAGIC) {
+	    throw new IllegalArgumentException("Invalid snapshot: " + snapshotPath(generation));
+	}
+	long now = bytes.getLong();
+	int nextId = bytes.getInt();
+	int taxiCount = bytes.getInt();
+	int rideCount = bytes.getInt();
+	if (bytes.remaining() != (long)taxiCount * SNAPSHOT_TAXI_BYTES + (long)rideCount * SNAPSHOT_RIDE_BYTES) {
+	    throw new IllegalArgumentException("Invalid snapshot size: " + snapshotPath(generation));
+	}
+	Snapshot snapshot = new Snapshot(now, nextId, taxiCount, rideCount);
+	for (int i = 0; i < taxiCount; i++) {
+	    snapshot.addTaxi(bytes.getInt(), bytes.getInt(), bytes.getInt(), bytes.getInt() != 0);
+	}
+	for (int i = 0; i < rideCount; i++) {
+	    snapshot.addRide(bytes.getInt(), bytes.getInt(), bytes.getInt(), bytes.getLong());
+	}
+	return snapshot;
+    }
+
+    /**
+     * Replay the events logged since the latest snapshot, in the order they were appended.
+     *
+     * @param events  receives the events.
+     * @throws IOException  if a log cannot be read.
+     */
+    public void replay(Events events) throws IOException {
+	for (long logGeneration : generations("journal-", ".log")) {
+	    if (logGeneration < generation) {
+		continue;
+	    }
+	    ByteBuffer bytes;
+	    try (FileChannel channel = FileChannel.open(logPath(logGeneration), StandardOpenOption.READ)) {
+		bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	    }
+	    for (int at = 0; at + RECORD_BYTES <= bytes.limit(); at += RECORD_BYTES) {
+		int type = bytes.getInt(at);
+		int a = bytes.getInt(at + 4);
+		int b = bytes.getInt(at + 8);
+		int c = bytes.getInt(at + 12);
+		long d = bytes.getLong(at + 16);
+		if (type == RIDE) {
+		    events.ride(a, b, c, d);
+		} else if (type == TICK) {
+		    events.tick(d);
+		} else if (type == RESET) {
+		    events.reset();
+		} else if (type == RESIZE) {
+		    events.resize(a);
+		} else if (type == MOVE) {
+		    events.move(a, b, c);
+		} else {
+		    // End of the log, or a record torn by a crash.
+		    break;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Start a new generation: later events are appended to a new log, which starts from a
+     * snapshot to be written with writeSnapshot(). Must not run concurrently with appends.
+     *
+     * @return the new generation.
+     * @throws IOException  if the log cannot be created.
+     */
+    public synchronized long nextGeneration() throws IOException {
+	if (log != null) {
+	    log.close();
+	}
+	long newGeneration = lastGeneration + 1;
+	log = new Log(logPath(newGeneration));
+	lastGeneration = newGeneration;
+	return newGeneration;
+    }
+
+    /**
+     * Write the snapshot of a generation and drop the files of the older generations.
+     * The snapshot is written to a temporary file first, so a crash leaves either the old or the
+     * new snapshot and the logs needed to replay from it.
+     *
+     * @param snapshot            the fleet at the start of the generation.
+     * @param snapshotGeneration  the generation, as returned by nextGeneration().
+     * @throws IOException  if the snapshot cannot be written.
+     */
+    public void writeSnapshot(Snapshot snapshot, long snapshotGeneration) throws IOException {
+	ByteBuffer bytes = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES +
+					       snapshot.taxiCount * SNAPSHOT_TAXI_BYTES +
+					       snapshot.rideCount * SNAPSHOT_RIDE_BYTES);
+	bytes.putInt(SNAPSHOT_MAGIC);
+	bytes.putLong(snapshot.now);
+	bytes.putInt(snapshot.nextId);
+	bytes.putInt(snapshot.taxiCount);
+	bytes.putInt(snapshot.rideCount);
+	for (int i = 0; i < snapshot.taxiCount; i++) {
+	    bytes.putInt(snapshot.ids[i]);
+	    bytes.putInt(snapshot.x[i]);
+	    bytes.putInt(snapshot.y[i]);
+	    bytes.putInt(snapshot.retiring[i] ? 1 : 0);
+	}
+	for (int i = 0; i < snapshot.rideCount; i++) {
+	    bytes.putInt(snapshot.rideTaxiIds[i]);
+	    bytes.putInt(snapshot.rideDestinationX[i]);
+	    bytes.putInt(snapshot.rideDestinationY[i]);
+	    bytes.putLong(snapshot.rideEndTimes[i]);
+	}
+	bytes.flip();
+
+	Path temporary = directory.resolve("snapshot.tmp");
+	try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+						    StandardOpenOption.WRITE,
+						    StandardOpenOption.TRUNCATE_EXISTING)) {
+	    while (bytes.hasRemaining()) {
+		channel.write(bytes);
+	    }
+	    channel.force(true);
+	}
+
+	synchronized(this) {
+	    if (snapshotGeneration <= generation) {
+		// A later snapshot has been written meanwhile.
+		Files.delete(temporary);
+		return;
+	    }
+	    Files.move(temporary, snapshotPath(snapshotGeneration), StandardCopyOption.ATOMIC_MOVE);
+	    generation = snapshotGeneration;
+	    for (long old : generations("snapshot-", ".bin")) {
+		if (old < generation) {
+		    Files.deleteIfExists(snapshotPath(old));
+		}
+	    }
+	    for (long old : generations("journal-", ".log")) {
+		if (old < generation) {
+		    Files.deleteIfExists(logPath(old));
+		}
+	    }
+	}
+    }
+
+    /**
+     * Run a task periodically, e.g. to take snapshots, on the thread that flushes the log.
+     *
+     * @param task      the task.
+     * @param interval  milliseconds between runs.
+     */
+    public void schedule(Runnable task, long interval) {
+	executor.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Force the appended records to disk.
+     */
+    public synchronized void flush() {
+	if (log != null) {
+	    log.force();
+	}
+    }
+
+    /**
+     * Stop the background tasks, force the log to disk and close it.
+     * Later appends are dropped.
+     */
+    @Override
+    public synchronized void close() {
+	executor.shutdownNow();
+	if (log != null) {
+	    log.close();
+	    log = null;
+	}
+    }
+
+    /**
+     * The state of a fleet: its taxis and their rides.
+     */
+    public static class Snapshot {
+	/**
+	 * Constructor.
+	 *
+	 * @param now        the current time unit of the ride scheduler.
+	 * @param nextId     the id of the next taxi added to the fleet.
+	 * @param taxiCount  the number of taxis.
+	 * @param rideCount  the number of ongoing rides.
+	 */
+	public Snapshot(long now, int nextId, int taxiCount, int rideCount) {
+	    this.now = now;
+	    this.nextId = nextId;
+	    ids = new int[taxiCount];
+	    x = new int[taxiCount];
+	    y = new int[taxiCount];
+	    retiring = new boolean[taxiCount];
+	    rideTaxiIds = new int[rideCount];
+	    rideDestinationX = new int[rideCount];
+	    rideDestinationY = new int[rideCount];
+	    rideEndTimes = new long[rideCount];
+	}
+
+	/**
+	 * Add a taxi, with the location where it is or was last available.
+	 */
+	public void addTaxi(int id, int taxiX, int taxiY, boolean taxiRetiring) {
+	    ids[taxiCount] = id;
+	    x[taxiCount] = taxiX;
+	    y[taxiCount] = taxiY;
+	    retiring[taxiCount] = taxiRetiring;
+	    taxiCount++;
+	}
+
+	/**
+	 * Add an ongoing ride.
+	 */
+	public void addRide(int taxiId, int destinationX, int destinationY, long endTime) {
+	    rideTaxiIds[rideCount] = taxiId;
+	    rideDestinationX[rideCount] = destinationX;
+	    rideDestinationY[rideCount] = destinationY;
+	    rideEndTimes[rideCount] = endTime;
+	    rideCount++;
+	}
+
+	final long now;
+	final int nextId;
+
+	// Taxis: id, location & whether it is taken out of service at the end of its ride.
+	final int[] ids;
+	final int[] x;
+	final int[] y;
+	final boolean[] retiring;
+	int taxiCount;
+
+	// Rides: taxi, destination & end time.
+	final int[] rideTaxiIds;
+	final int[] rideDestinationX;
+	final int[] rideDestinationY;
+	final long[] rideEndTimes;
+	int rideCount;
+    }
+
+    /**
+     * Append a record to the current log.
+     */
+    private void append(int type, int a, int b, int c, long d) {
+	Log currentLog = log;
+	if (currentLog != null) {
+	    currentLog.append(type, a, b, c, d);
+	}
+    }
+
+    /**
+     * Return the generation of the latest snapshot; 0 if there is none.
+     */
+    private long latestSnapshot() throws IOException {
+	List<Long> snapshots = generations("snapshot-", ".bin");
+	return snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+    }
+
+    /**
+     * Return the generations of the files with the given prefix & suffix, in order.
+     */
+    private List<Long> generations(String prefix, String suffix) throws IOException {
+	List<Long> found = new ArrayList<Long>();
+	try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+	    for (Path file : files) {
+		String name = file.getFileName().toString();
+		try {
+		    found.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+		} catch (NumberFormatException e) {
+		    // Not one of ours.
+		}
+	    }
+	}
+	found.sort(null);
+	return found;
+    }
+
+    private Path snapshotPath(long snapshotGeneration) {
+	return directory.resolve("snapshot-" + snapshotGeneration + ".bin");
+    }
+
+    private Path logPath(long logGeneration) {
+	return directory.resolve("journal-" + logGeneration + ".log");
+    }
+
+    /**
+     * The log of a generation, mapped in segments as it grows.
+     */
+    private static class Log {
+	Log(Path path) throws IOException {
+	    channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				       StandardOpenOption.WRITE);
+	}
+
+	void append(int type, int a, int b, int c, long d) {
+	    long offset = position.getAndAdd(RECORD_BYTES);
+	    MappedByteBuffer segment = segment((int)(offset / SEGMENT_BYTES));
+	    if (segment != null) {
+		int at = (int)(offset % SEGMENT_BYTES);
+		segment.putInt(at + 4, a);
+		segment.putInt(at + 8, b);
+		segment.putInt(at + 12, c);
+		segment.putLong(at + 16, d);
+		// Last, so that a record is either whole or ignored by the replay.
+		segment.putInt(at, type);
+	    }
+	}
+
+	/**
+	 * Return a segment, mapping it (and growing the file) if needed.
+	 * Null if the log is closed.
+	 */
+	MappedByteBuffer segment(int index) {
+	    MappedByteBuffer[] mapped = segments;
+	    if (index < mapped.length && mapped[index] != null) {
+		return mapped[index];
+	    }
+	    synchronized(this) {
+		if (closed) {
+		    return null;
+		}
+		if (index >= segments.length) {
+		    segments = Arrays.copyOf(segments, Math.max(index + 1, segments.length * 2));
+		}
+		if (segments[index] == null) {
+		    try {
+			segments[index] = channel.map(FileChannel.MapMode.READ_WRITE,
+						      (long)index * SEGMENT_BYTES, SEGMENT_BYTES);
+		    } catch (IOException e) {
+			throw new IllegalStateException("Cannot grow the journal", e);
+		    }
+		}
+		return segments[index];
+	    }
+	}
+
+	/**
+	 * Force the segments with new records to disk.
+	 */
+	synchronized void force() {
+	    long end = position.get();
+	    if (end == forced) {
+		return;
+	    }
+	    for (int i = (int)(forced / SEGMENT_BYTES); i < segments.length && (long)i * SEGMENT_BYTES < end; i++) {
+		if (segments[i] != null) {
+		    segments[i].force();
+		}
+	    }
+	    forced = end;
+	}
+
+	synchronized void close() {
+	    if (!closed) {
+		force();
+		closed = true;
+		try {
+		    channel.close();
+		} catch (IOException e) {
+		    // Forced already; nothing is lost.
+		}
+	    }
+	}
+
+	private final FileChannel channel;
+
+	// Offset of the next record.
+	private final AtomicLong position = new AtomicLong();
+
+	// Offset up to which the records have been forced to disk.
+	private long forced;
+
+	// Mapped segments of the file; replaced as it grows.
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[1];
+
+	private boolean closed;
+    }
+
+    // Record types. 0 marks the end of a log.
+    private static final int RIDE = 1;
+    private static final int TICK = 2;
+    private static final int RESET = 3;
+    private static final int RESIZE = 4;
+    private static final int MOVE = 5;
+
+    // Size of a record: type, 3 ints & a long.
+    private static final int RECORD_BYTES = 24;
+
+    // Size of a mapped segment of a log; a multiple of the record size.
+    private static final int SEGMENT_BYTES = RECORD_BYTES << 20;
+
+    // Snapshot format: a header with magic, scheduler time, next id & counts,
+    // then id, x, y & retiring flag of every taxi, then taxi id, destination x & y & end time of every ride.
+    private static final int SNAPSHOT_MAGIC = 0x54584931;
+    private static final int SNAPSHOT_HEADER_BYTES = 24;
+    private static final int SNAPSHOT_TAXI_BYTES = 16;
+    private static final int SNAPSHOT_RIDE_BYTES = 20;
+
+    // Directory of the snapshots & logs.
+    private final Path directory;
+
+    // Generation of the latest snapshot; 0 if there is none.
+    private long generation;
+
+    // Latest generation started with nextGeneration().
+    private long lastGeneration;
+
+    // Log events are appended to; null until the first generation is started.
+    private volatile Log log;
+
+    // Flushes the log & runs the scheduled tasks.
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+	Thread thread = new Thread(runnable, "fleet-journal");
+	thread.setDaemon(true);
+	return thread;
+    });
+}
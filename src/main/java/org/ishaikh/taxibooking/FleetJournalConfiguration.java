@@ -0,0 +1,50 @@
+package org.ishaikh.taxibooking;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Journals the fleet of the TaxiBooker when the application property "taxibooking.journal.dir"
+ * is set. At start up, the fleet is recovered from the journal in that directory.
+ */
+@Configuration
+@ConditionalOnProperty(name = "taxibooking.journal.dir")
+public class FleetJournalConfiguration {
+    /**
+     * Open the journal, recover the fleet from it and take snapshots periodically.
+     *
+     * @param taxiBooker        the booker whose fleet is journaled.
+     * @param directory         the directory of the journal.
+     * @param flushInterval     milliseconds between forcing the journal to disk.
+     * @param snapshotInterval  milliseconds between snapshots of the fleet.
+     * @result the journal; closed when the application stops.
+     * @throws IOException  if the journal cannot be read or written.
+     */
+    @Bean(destroyMethod = "close")
+    public FleetJournal fleetJournal(TaxiBooker taxiBooker,
+				     @Value("${taxibooking.journal.dir}") String directory,
+				     @Value("${taxibooking.journal.flush-interval:10}") long flushInterval,
+				     @Value("${taxibooking.journal.snapshot-interval:60000}") long snapshotInterval)
+	throws IOException {
+	FleetJournal fleetJournal = new FleetJournal(Paths.get(directory), flushInterval);
+	taxiBooker.recover(fleetJournal);
+	fleetJournal.schedule(() -> {
+		try {
+		    taxiBooker.snapshot();
+		} catch (IOException e) {
+		    // The journal carries on from the previous snapshot; try again next time.
+		    logger.warn("Cannot take a snapshot of the fleet", e);
+		}
+	    }, snapshotInterval);
+	return fleetJournal;
+    }
+
+    private static final Log logger = LogFactory.getLog(FleetJournalConfiguration.class);
+}
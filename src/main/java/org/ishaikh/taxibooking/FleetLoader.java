@@ -0,0 +1,218 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads the taxis of a fleet, with their ids and initial locations, from a file.
+ * <p>
+ * Two formats are supported:
+ * <ul>
+ * <li>CSV: one "id,x,y" line per taxi. Blank lines and lines starting with '#' are ignored.</li>
+ * <li>Binary (files ending with ".bin"): a sequence of big-endian int triples id, x, y.</li>
+ * </ul>
+ * Both are parsed straight from the bytes of the file, so a million taxis load in a fraction of a second.
+ */
+public final class FleetLoader {
+    private FleetLoader() {
+    }
+
+    /**
+     * Load the taxis from a file. The format is chosen from the file name.
+     *
+     * @param path  the file to load.
+     * @return      the taxis, available at their initial locations. Time is moved externally.
+     * @throws IOException              if the file cannot be read.
+     * @throws IllegalArgumentException if the file is not well formed.
+     */
+    public static List<Taxi> load(Path path) throws IOException {
+	return toTaxis(read(path));
+    }
+
+    /**
+     * Load the taxis from a file into a CompactFleet, without creating Taxi objects.
+     *
+     * @param path  the file to load.
+     * @return      the fleet, with every taxi available at its initial location.
+     * @throws IOException              if the file cannot be read.
+     * @throws IllegalArgumentException if the file is not well formed.
+     */
+    public static CompactFleet loadCompact(Path path) throws IOException {
+	Fleet fleet = read(path);
+	int[] ids = Arrays.copyOf(fleet.ids, fleet.size);
+	int[] x = Arrays.copyOf(fleet.x, fleet.size);
+	int[] y = Arrays.copyOf(fleet.y, fleet.size);
+	return new CompactFleet(ids, x, y, GridTaxiIndex.cellSizeFor(x, y));
+    }
+
+    /**
+     * Read and parse a file. The format is chosen from the file name.
+     */
+    private static Fleet read(Path path) throws IOException {
+	ByteBuffer bytes;
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+	    bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	}
+	return path.toString().endsWith(".bin") ? readBinary(bytes) : readCsv(bytes);
+    }
+
+    /**
+     * Write the taxis to a binary file that load() can read back.
+     *
+     * @param path   the file to write.
+     * @param taxis  the taxis; their ids and available locations are written.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeBinary(Path path, List<Taxi> taxis) throws IOException {
+	ByteBuffer bytes = ByteBuffer.allocate(taxis.size() * TAXI_BYTES);
+	for (Taxi taxi : taxis) {
+	    bytes.putInt(taxi.getId());
+	    bytes.putInt(taxi.getAvailableLocation().x);
+	    bytes.putInt(taxi.getAvailableLocation().y);
+	}
+	bytes.flip();
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+						    StandardOpenOption.WRITE,
+						    StandardOpenOption.TRUNCATE_EXISTING)) {
+	    while (bytes.hasRemaining()) {
+		channel.write(bytes);
+	    }
+	}
+    }
+
+    /**
+     * Parse the CSV format into taxis.
+     */
+    static List<Taxi> parseCsv(ByteBuffer bytes) {
+	return toTaxis(readCsv(bytes));
+    }
+
+    /**
+     * Parse the binary format.
+     */
+    private static Fleet readBinary(ByteBuffer bytes) {
+	if (bytes.remaining() % TAXI_BYTES != 0) {
+	    throw new IllegalArgumentException("Invalid fleet file size: " + bytes.remaining());
+	}
+	Fleet fleet = new Fleet(bytes.remaining() / TAXI_BYTES);
+	while (bytes.hasRemaining()) {
+	    fleet.add(bytes.getInt(), bytes.getInt(), bytes.getInt());
+	}
+	return fleet;
+    }
+
+    /**
+     * Parse the CSV format.
+     */
+    private static Fleet readCsv(ByteBuffer bytes) {
+	// Lines are at least 6 bytes long.
+	Fleet fleet = new Fleet(bytes.remaining() / 6 + 1);
+	int[] fields = new int[3];
+	int line = 0;
+	while (bytes.hasRemaining()) {
+	    line++;
+	    byte first = bytes.get(bytes.position());
+	    if (first == '\n' || first == '\r' || first == '#') {
+		skipLine(bytes);
+		continue;
+	    }
+	    for (int field = 0; field < fields.length; field++) {
+		fields[field] = parseInt(bytes, line);
+		byte separator = bytes.hasRemaining() ? bytes.get() : (byte)'\n';
+		if (separator == '\r' && bytes.hasRemaining() && bytes.get(bytes.position()) == '\n') {
+		    separator = bytes.get();
+		}
+		boolean lastField = (field == fields.length - 1);
+		if (lastField ? (separator != '\n' && separator != '\r') : separator != ',') {
+		    throw new IllegalArgumentException("Invalid fleet file, line " + line +
+						       ": expected \"id,x,y\"");
+		}
+	    }
+	    fleet.add(fields[0], fields[1], fields[2]);
+	}
+	return fleet;
+    }
+
+    /**
+     * Parse an optionally signed decimal int at the current position.
+     */
+    private static int parseInt(ByteBuffer bytes, int line) {
+	boolean negative = bytes.hasRemaining() && bytes.get(bytes.position()) == '-';
+	if (negative) {
+	    bytes.get();
+	}
+	long value = 0;
+	int digits = 0;
+	while (bytes.hasRemaining()) {
+	    byte b = bytes.get(bytes.position());
+	    if (b < '0' || b > '9') {
+		break;
+	    }
+	    bytes.get();
+	    value = value * 10 + (b - '0');
+	    if (++digits > 10) {
+		break;
+	    }
+	}
+	value = negative ? -value : value;
+	if (digits == 0 || digits > 10 || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+	    throw new IllegalArgumentException("Invalid fleet file, line " + line + ": invalid number");
+	}
+	return (int)value;
+    }
+
+    /**
+     * Move past the end of the current line.
+     */
+    private static void skipLine(ByteBuffer bytes) {
+	while (bytes.hasRemaining() && bytes.get() != '\n') {
+	}
+    }
+
+    /**
+     * Create the taxis, available at their initial locations.
+     */
+    private static List<Taxi> toTaxis(Fleet fleet) {
+	List<Taxi> taxis = new ArrayList<Taxi>(fleet.size);
+	for (int i = 0; i < fleet.size; i++) {
+	    Taxi taxi = new Taxi(fleet.ids[i], false);
+	    taxi.reset(new Point(fleet.x[i], fleet.y[i]));
+	    taxis.add(taxi);
+	}
+	return taxis;
+    }
+
+    /**
+     * Ids and initial locations of the taxis read from a file.
+     */
+    private static class Fleet {
+	Fleet(int capacity) {
+	    ids = new int[capacity];
+	    x = new int[capacity];
+	    y = new int[capacity];
+	}
+
+	void add(int id, int taxiX, int taxiY) {
+	    ids[size] = id;
+	    x[size] = taxiX;
+	    y[size] = taxiY;
+	    size++;
+	}
+
+	final int[] ids;
+	final int[] x;
+	final int[] y;
+	int size;
+    }
+
+    // Size of a taxi in the binary format: 3 ints.
+    private static final int TAXI_BYTES = 12;
+}
@@ -0,0 +1,261 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Taxi index that buckets taxis into square grid cells.
+ * <p>
+ * A nearest taxi search visits the cells in rings of increasing size around the cell of the
+ * search location and stops as soon as the next ring cannot contain a taxi that is as close
+ * (in Manhattan distance) as the best one found so far. The rings start at the bounding box
+ * of the occupied cells and are clamped to it, so a location far from every taxi costs no more.
+ * The cost of a search hence depends on the local density of taxis and not on the fleet size.
+ * <p>
+ * The index is safe for concurrent use. Each cell is guarded by its own lock, so updates and
+ * searches in different areas do not block each other. clear() must not run concurrently with
+ * the other methods.
+ */
+public class GridTaxiIndex implements TaxiIndex {
+    /**
+     * Default length of the side of a grid cell.
+     */
+    public static final int DEFAULT_CELL_SIZE = 16;
+
+    /**
+     * Average number of taxis per cell aimed at by cellSizeFor().
+     */
+    public static final int TAXIS_PER_CELL = 4;
+
+    /**
+     * Constructor using the default cell size.
+     */
+    public GridTaxiIndex() {
+	this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param cellSize  length of the side of a grid cell. Should be close to the average
+     *                  distance between neighbouring taxis.
+     */
+    public GridTaxiIndex(int cellSize) {
+	if (cellSize <= 0) {
+	    throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+	}
+	this.cellSize = cellSize;
+	clear();
+    }
+
+    /**
+     * Choose a cell size for the given fleet, so that a cell holds a few taxis on average
+     * if they are evenly spread over their bounding box. Never smaller than the default.
+     *
+     * @param taxis  the taxis of the fleet.
+     * @return       the cell size.
+     */
+    public static int cellSizeFor(List<Taxi> taxis) {
+	int[] x = new int[taxis.size()];
+	int[] y = new int[taxis.size()];
+	for (int i = 0; i < x.length; i++) {
+	    x[i] = taxis.get(i).getAvailableLocation().x;
+	    y[i] = taxis.get(i).getAvailableLocation().y;
+	}
+	return cellSizeFor(x, y);
+    }
+
+    /**
+     * Choose a cell size for a fleet given the co-ordinates of its taxis. See cellSizeFor(List).
+     *
+     * @param x  the x co-ordinates of the taxis.
+     * @param y  the y co-ordinates of the taxis.
+     * @return   the cell size.
+     */
+    public static int cellSizeFor(int[] x, int[] y) {
+	if (x.length == 0) {
+	    return DEFAULT_CELL_SIZE;
+	}
+	int minX = Integer.MAX_VALUE;
+	int maxX = Integer.MIN_VALUE;
+	int minY = Integer.MAX_VALUE;
+	int maxY = Integer.MIN_VALUE;
+	for (int i = 0; i < x.length; i++) {
+	    minX = Math.min(minX, x[i]);
+	    maxX = Math.max(maxX, x[i]);
+	    minY = Math.min(minY, y[i]);
+	    maxY = Math.max(maxY, y[i]);
+	}
+	double area = ((double)maxX - minX + 1) * ((double)maxY - minY + 1);
+	double side = Math.sqrt(area * TAXIS_PER_CELL / x.length);
+	return (int)Math.min(Math.max(side, DEFAULT_CELL_SIZE), Integer.MAX_VALUE / 4);
+    }
+
+    @Override
+    public void add(Taxi taxi) {
+	Point location = taxi.getAvailableLocation();
+	int cellX = cellOf(location.x);
+	int cellY = cellOf(location.y);
+	// Widen the bounding box first so that a search never misses a taxi that is in a cell.
+	minCellX.accumulateAndGet(cellX, Math::min);
+	maxCellX.accumulateAndGet(cellX, Math::max);
+	minCellY.accumulateAndGet(cellY, Math::min);
+	maxCellY.accumulateAndGet(cellY, Math::max);
+
+	List<Taxi> cell = cells.computeIfAbsent(key(cellX, cellY), key -> new ArrayList<Taxi>(4));
+	synchronized(cell) {
+	    cell.add(taxi);
+	}
+	size.incrementAndGet();
+    }
+
+    @Override
+    public boolean remove(Taxi taxi) {
+	Point location = taxi.getAvailableLocation();
+	long key = key(cellOf(location.x), cellOf(location.y));
+	List<Taxi> cell = cells.get(key);
+	if (cell != null) {
+	    // Empty cells are kept; dropping them would race with a concurrent add to the cell.
+	    synchronized(cell) {
+		for (int i = 0; i < cell.size(); i++) {
+		    if (cell.get(i) == taxi) {
+			// Order within a cell does not matter; move the last one into the hole.
+			cell.set(i, cell.get(cell.size() - 1));
+			cell.remove(cell.size() - 1);
+			size.decrementAndGet();
+			return true;
+		    }
+		}
+	    }
+	}
+	return false;
+    }
+
+    @Override
+    public Taxi nearest(int locationX, int locationY) {
+	if (size.get() == 0) {
+	    return null;
+	}
+
+	long cellX = cellOf(locationX);
+	long cellY = cellOf(locationY);
+	int minX = minCellX.get();
+	int maxX = maxCellX.get();
+	int minY = minCellY.get();
+	int maxY = maxCellY.get();
+	// No occupied cell is closer than the first ring (the Chebyshev distance from the cell of
+	// the location to the bounding box), nor further than the last one. In longs, as the rings
+	// around a cell near the edge of the int range go past it.
+	long firstRing = Math.max(Math.max(minX - cellX, cellX - maxX),
+				  Math.max(Math.max(minY - cellY, cellY - maxY), 0));
+	long lastRing = Math.max(Math.max(cellX - minX, maxX - cellX),
+				 Math.max(cellY - minY, maxY - cellY));
+
+	Taxi closestTaxi = null;
+	long closestTaxiDistance = -1;
+	for (long ring = firstRing; ring <= lastRing; ring++) {
+	    // Any taxi in this ring is at least this far away; a tie still has to be looked at
+	    // since it may have a smaller id.
+	    if (closestTaxi != null && minDistance(ring) > closestTaxiDistance) {
+		break;
+	    }
+	    for (long x = Math.max(cellX - ring, minX); x <= Math.min(cellX + ring, maxX); x++) {
+		// The whole column of the ring on its edges, clamped to the bounding box;
+		// only its top & bottom cells elsewhere.
+		boolean edge = (x == cellX - ring || x == cellX + ring);
+		long step = edge ? 1 : 2 * ring;
+		long fromY = edge ? Math.max(cellY - ring, minY) : cellY - ring;
+		long toY = edge ? Math.min(cellY + ring, maxY) : cellY + ring;
+		for (long y = fromY; y <= toY; y += step) {
+		    if (y < minY || y > maxY) {
+			continue;
+		    }
+		    List<Taxi> cell = cells.get(key((int)x, (int)y));
+		    if (cell == null) {
+			continue;
+		    }
+		    synchronized(cell) {
+			for (Taxi taxi : cell) {
+			    // Skip taxis that another booker has claimed but not yet removed.
+			    if (!taxi.isAvailable()) {
+				continue;
+			    }
+			    Point taxiLocation = taxi.getAvailableLocation();
+			    long taxiDistance = Math.abs((long)taxiLocation.x - locationX) +
+				Math.abs((long)taxiLocation.y - locationY);
+			    if (closestTaxi == null || taxiDistance < closestTaxiDistance ||
+				(taxiDistance == closestTaxiDistance && taxi.getId() < closestTaxi.getId())) {
+				closestTaxiDistance = taxiDistance;
+				closestTaxi = taxi;
+			    }
+			}
+		    }
+		}
+	    }
+	}
+	return closestTaxi;
+    }
+
+    @Override
+    public void clear() {
+	cells = new ConcurrentHashMap<Long, List<Taxi>>();
+	size = new AtomicInteger();
+	minCellX = new AtomicInteger(Integer.MAX_VALUE);
+	maxCellX = new AtomicInteger(Integer.MIN_VALUE);
+	minCellY = new AtomicInteger(Integer.MAX_VALUE);
+	maxCellY = new AtomicInteger(Integer.MIN_VALUE);
+    }
+
+    @Override
+    public int size() {
+	return size.get();
+    }
+
+    /**
+     * Smallest possible distance between a location and a taxi in a cell that is the given
+     * number of rings away from the cell of the location.
+     *
+     * @param ring  the ring number; 0 is the cell of the location itself.
+     * @return      the lower bound on the distance.
+     */
+    private long minDistance(long ring) {
+	return ring == 0 ? 0 : (ring - 1) * cellSize + 1;
+    }
+
+    /**
+     * Map a coordinate to the coordinate of its cell. Also works for negative coordinates.
+     */
+    private int cellOf(int coordinate) {
+	return Math.floorDiv(coordinate, cellSize);
+    }
+
+    /**
+     * Pack the coordinates of a cell into a single key.
+     * The packed value is multiplied by an odd constant, which keeps keys unique, since
+     * Long.hashCode() of the packed value alone would be cellX ^ cellY: the cells of a grid
+     * would share a handful of hash codes.
+     */
+    private static long key(int cellX, int cellY) {
+	return (((long)cellX << 32) | (cellY & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+    }
+
+    // Length of the side of a cell.
+    private final int cellSize;
+
+    // Taxis in each cell that has been occupied, keyed on the packed cell coordinates.
+    // Each list is guarded by its own monitor.
+    private volatile ConcurrentMap<Long, List<Taxi>> cells;
+
+    // Number of taxis in the index.
+    private volatile AtomicInteger size;
+
+    // Bounding box of the cells that have been occupied since the last clear.
+    private volatile AtomicInteger minCellX;
+    private volatile AtomicInteger maxCellX;
+    private volatile AtomicInteger minCellY;
+    private volatile AtomicInteger maxCellY;
+}
@@ -0,0 +1,125 @@
+package org.ishaikh.taxibooking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A shard on another node, reached with the "/api/shard" HTTP requests of its TaxiBooker.
+ */
+public class HttpShard implements Shard {
+    /**
+     * Constructor.
+     *
+     * @param baseUrl  the URL of the node, e.g. "http://localhost:8081".
+     * @param timeout  milliseconds to wait to connect to the node and for its response.
+     */
+    public HttpShard(String baseUrl, int timeout) {
+	this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+	this.timeout = timeout;
+    }
+
+    /**
+     * @throws UncheckedIOException  if the node cannot be reached.
+     */
+    @Override
+    public long nearest(int x, int y) {
+	return Long.parseLong(request("GET", "/api/shard/nearest?x=" + x + "&y=" + y));
+    }
+
+    /**
+     * @throws UncheckedIOException  if the node cannot be reached.
+     */
+    @Override
+    public long book(int sourceX, int sourceY, int destinationX, int destinationY) {
+	return Long.parseLong(request("POST", "/api/shard/book?sourceX=" + sourceX + "&sourceY=" + sourceY +
+				      "&destinationX=" + destinationX + "&destinationY=" + destinationY));
+    }
+
+    /**
+     * @throws NotDeliveredException  if the node cannot be connected to: it did not adopt the taxi.
+     * @throws UncheckedIOException   if the response does not arrive: the node may have adopted the taxi.
+     */
+    @Override
+    public void adopt(int id, int x, int y) {
+	request("PUT", "/api/shard/adopt?id=" + id + "&x=" + x + "&y=" + y);
+    }
+
+    /**
+     * Return String representation of object.
+     *
+     * @return String representation.
+     */
+    @Override
+    public String toString() {
+	return "{shard: " + baseUrl + "}";
+    }
+
+    /**
+     * Send a request to the node.
+     *
+     * @param method  the HTTP method.
+     * @param path    the path & query of the request.
+     * @return        the body of the response, trimmed.
+     * @throws NotDeliveredException  if the node cannot be connected to, so the request was not sent.
+     * @throws UncheckedIOException   if the response does not arrive or is not 200 OK.
+     */
+    private String request(String method, String path) {
+	try {
+	    HttpURLConnection connection = (HttpURLConnection)new URL(baseUrl + path).openConnection();
+	    connection.setRequestMethod(method);
+	    connection.setConnectTimeout(timeout);
+	    connection.setReadTimeout(timeout);
+	    try {
+		connection.connect();
+	    } catch (IOException e) {
+		throw new NotDeliveredException(e);
+	    }
+	    int status = connection.getResponseCode();
+	    if (status != HttpURLConnection.HTTP_OK) {
+		throw new IOException("Shard " + baseUrl + " answered " + status + " to " + method + " " + path);
+	    }
+	    // Read the whole body, so that the connection is kept alive for the next request.
+	    ByteArrayOutputStream body = new ByteArrayOutputStream();
+	    try (InputStream in = connection.getInputStream()) {
+		byte[] buffer = new byte[64];
+		int length;
+		while ((length = in.read(buffer)) != -1) {
+		    body.write(buffer, 0, length);
+		}
+	    }
+	    return new String(body.toByteArray(), StandardCharsets.US_ASCII).trim();
+	} catch (ConnectException | UnknownHostException e) {
+	    // Also when a connection kept alive was closed by the node, and the request retried.
+	    throw new NotDeliveredException(e);
+	} catch (IOException e) {
+	    throw new UncheckedIOException(e);
+	}
+    }
+
+    /**
+     * Failure to connect to a node: unlike other failures, the request surely did not reach it.
+     */
+    public static class NotDeliveredException extends UncheckedIOException {
+	/**
+	 * Constructor.
+	 *
+	 * @param cause  the failure to connect.
+	 */
+	public NotDeliveredException(IOException cause) {
+	    super(cause);
+	}
+    }
+
+    // URL of the node, without a trailing slash.
+    private final String baseUrl;
+
+    // Connect & read timeout in milliseconds.
+    private final int timeout;
+}
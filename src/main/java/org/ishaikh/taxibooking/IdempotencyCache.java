@@ -0,0 +1,244 @@
+package org.ishaikh.taxibooking;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Results of recent bookings by their idempotency key, so that a client retrying a booking,
+ * e.g. after a timeout, gets the taxi of its first attempt instead of booking a second one.
+ * <p>
+ * The client sends the same key, in the KEY_HEADER, with every attempt of a booking. The first
+ * attempt books and its result, packed with BookingStatus.pack(), is kept for ttl seconds of
+ * wall-clock time, whatever the ticks of the rides; later attempts get it from a concurrent
+ * hash map, without booking, so without the fleet lock.
+ * An attempt made while the first one is still booking is turned away with an
+ * InProgressException, rather than hold a thread until the result comes: the client retries
+ * later, as after a timeout. A booking that got no taxi is not kept, so that a retry may get a taxi freed in the meantime.
+ * <p>
+ * The keys are evicted in the order their result was kept, as they all live for the same time:
+ * once they expire, or once more than the capacity of keys are kept. A full cache thus forgets
+ * the oldest keys first, and a retry of an evicted key books again. Bookings in progress and
+ * those that got no taxi are not in the eviction queue, so they never push kept keys out.
+ */
+public class IdempotencyCache {
+    /**
+     * Constants.
+     */
+    // Header of a booking request with its idempotency key.
+    public static final String KEY_HEADER = "Idempotency-Key";
+
+    // Longest idempotency key, in characters.
+    public static final int MAX_KEY_LENGTH = 255;
+
+    // Default most keys kept, and for how many seconds.
+    public static final int CAPACITY = 100000;
+    public static final long TTL = 3600;
+
+    /**
+     * Constructor. The time is read from the shared CoarseClock, in seconds since the epoch.
+     *
+     * @param capacity  the most keys kept.
+     * @param ttl       seconds a key is kept for.
+     */
+    public IdempotencyCache(int capacity, long ttl) {
+	this(capacity, ttl, CoarseClock.shared());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity  the most keys kept.
+     * @param ttl       seconds a key is kept for.
+     * @param clock     the clock the keys expire by, in seconds.
+     */
+    public IdempotencyCache(int capacity, long ttl, Clock clock) {
+	if (capacity <= 0) {
+	    throw new IllegalArgumentException("Invalid idempotency cache capacity: " + capacity);
+	}
+	if (ttl <= 0) {
+	    throw new IllegalArgumentException("Invalid idempotency key TTL: " + ttl);
+	}
+	this.capacity = capacity;
+	this.ttl = ttl;
+	this.clock = clock;
+    }
+
+    /**
+     * Is a header value a valid idempotency key: from 1 to MAX_KEY_LENGTH characters?
+     *
+     * @param key  the key.
+     * @result true if it is valid.
+     */
+    public static boolean isValidKey(String key) {
+	return !key.isEmpty() && key.length() <= MAX_KEY_LENGTH;
+    }
+
+    /**
+     * Return the result of the booking of a key, if it is done and kept. Never waits.
+     *
+     * @param key  the idempotency key.
+     * @result the result of the booking; BookingStatus.NO_BOOKING if there is none yet.
+     */
+    public long get(String key) {
+	Entry entry = entries.get(key);
+	if (entry == null || !entry.done || entry.expiryTime <= clock.now()) {
+	    return BookingStatus.NO_BOOKING;
+	}
+	return entry.result;
+    }
+
+    /**
+     * Book once per key: return the result of the booking of a key if it is kept, and book
+     * otherwise. Never waits for the booking of another attempt.
+     *
+     * @param key      the idempotency key.
+     * @param booking  books a taxi and returns the result, packed with BookingStatus.pack().
+     * @result the result of the booking of the key; BookingStatus.NO_BOOKING if no taxi is available.
+     * @throws InProgressException  if another attempt with the key is still booking.
+     */
+    public long book(String key, LongSupplier booking) {
+	long now = clock.now();
+	Entry entry = new Entry(key, now + ttl);
+	for (;;) {
+	    Entry existing = entries.putIfAbsent(key, entry);
+	    if (existing == null) {
+		break;
+	    }
+	    if (existing.expiryTime > now) {
+		if (!existing.done) {
+		    throw new InProgressException(key);
+		}
+		return existing.result;
+	    }
+	    if (entries.replace(key, existing, entry)) {
+		break;
+	    }
+	}
+
+	long result = BookingStatus.NO_BOOKING;
+	try {
+	    result = booking.getAsLong();
+	} finally {
+	    if (result == BookingStatus.NO_BOOKING) {
+		entries.remove(key, entry);
+	    } else {
+		queue.add(entry);
+	    }
+	    entry.complete(result);
+	}
+	if (result != BookingStatus.NO_BOOKING) {
+	    evict(now);
+	}
+	return result;
+    }
+
+    /**
+     * Return the number of keys kept, including those of bookings in progress.
+     *
+     * @result the number of keys.
+     */
+    public int size() {
+	return entries.size();
+    }
+
+    /**
+     * Forget every key.
+     */
+    public void clear() {
+	entries.clear();
+	queue.clear();
+    }
+
+    /**
+     * Evict the oldest keys beyond the capacity, those expired, and those already gone from
+     * the map (replaced once expired, or cleared) at the head of the queue.
+     * One thread evicts at a time; the others leave it to it rather than wait.
+     *
+     * @param now  the current time.
+     */
+    private void evict(long now) {
+	if (!evictionLock.tryLock()) {
+	    return;
+	}
+	try {
+	    Entry oldest;
+	    while ((oldest = queue.peek()) != null &&
+		   (oldest.expiryTime <= now || entries.get(oldest.key) != oldest ||
+		    entries.size() > capacity)) {
+		queue.poll();
+		entries.remove(oldest.key, oldest);
+	    }
+	} finally {
+	    evictionLock.unlock();
+	}
+    }
+
+    /**
+     * Attempt of a booking while another attempt with the same key is still booking.
+     * Translates to a 409 Conflict response.
+     */
+    public static class InProgressException extends IllegalStateException {
+	/**
+	 * Constructor.
+	 *
+	 * @param key  the idempotency key.
+	 */
+	public InProgressException(String key) {
+	    super("Booking in progress for idempotency key: " + key);
+	}
+    }
+
+    /**
+     * The booking of a key.
+     */
+    private static class Entry {
+	/**
+	 * Constructor.
+	 */
+	Entry(String key, long expiryTime) {
+	    this.key = key;
+	    this.expiryTime = expiryTime;
+	}
+
+	/**
+	 * Set the result of the booking.
+	 *
+	 * @param bookingResult  the result.
+	 */
+	void complete(long bookingResult) {
+	    result = bookingResult;
+	    done = true;
+	}
+
+	final String key;
+
+	// Time the key expires.
+	final long expiryTime;
+
+	// Result of the booking, once done.
+	long result;
+	volatile boolean done;
+    }
+
+    // Bookings by key.
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // Kept bookings in the order they were kept, for eviction.
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+
+    // Held by the thread evicting keys.
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // Most keys kept.
+    private final int capacity;
+
+    // Seconds a key is kept for.
+    private final long ttl;
+
+    // Clock the keys expire by.
+    private final Clock clock;
+}
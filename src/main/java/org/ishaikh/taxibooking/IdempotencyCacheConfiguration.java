@@ -0,0 +1,33 @@
+package org.ishaikh.taxibooking;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Sets up the IdempotencyCache of the bookings of the TaxiBooker from the application
+ * properties "taxibooking.idempotency.*": how many idempotency keys are kept, and for how
+ * many seconds.
+ * Bookings without an idempotency key do not use it.
+ */
+@Configuration
+public class IdempotencyCacheConfiguration {
+    /**
+     * Create the cache and make the booker book once per idempotency key with it.
+     *
+     * @param taxiBooker  the booker.
+     * @param capacity    the most keys kept.
+     * @param ttl         seconds a key is kept for.
+     * @result the cache.
+     */
+    @Bean
+    public IdempotencyCache idempotencyCache(TaxiBooker taxiBooker,
+					     @Value("${taxibooking.idempotency.capacity:" +
+						    IdempotencyCache.CAPACITY + "}") int capacity,
+					     @Value("${taxibooking.idempotency.ttl:" +
+						    IdempotencyCache.TTL + "}") long ttl) {
+	IdempotencyCache cache = new IdempotencyCache(capacity, ttl);
+	taxiBooker.setIdempotencyCache(cache);
+	return cache;
+    }
+}
@@ -0,0 +1,43 @@
+package org.ishaikh.taxibooking;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Clock that only moves when told to, to simulate time, e.g. in tests.
+ */
+public class ManualClock implements Clock {
+    /**
+     * Constructor.
+     *
+     * @param time  the initial time, in time units.
+     */
+    public ManualClock(long time) {
+	this.time.set(time);
+    }
+
+    @Override
+    public long now() {
+	return time.get();
+    }
+
+    /**
+     * Set the time.
+     *
+     * @param newTime  the new time, in time units.
+     */
+    public void set(long newTime) {
+	time.set(newTime);
+    }
+
+    /**
+     * Move the time forward.
+     *
+     * @param units  the number of time units to move.
+     */
+    public void advance(long units) {
+	time.addAndGet(units);
+    }
+
+    // The current time.
+    private final AtomicLong time = new AtomicLong();
+}
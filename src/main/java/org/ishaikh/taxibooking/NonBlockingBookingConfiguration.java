@@ -0,0 +1,32 @@
+package org.ishaikh.taxibooking;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Serves "/api/book" with the NonBlockingBookingServlet when the application property
+ * "taxibooking.booking.mode" is "non-blocking".
+ * <p>
+ * The servlet is mapped to the exact path, which takes precedence over the Spring dispatcher;
+ * the rest of the API ("/api/tick", "/api/reset", ...) is still served by the TaxiBooker.
+ */
+@Configuration
+@ConditionalOnProperty(name = "taxibooking.booking.mode", havingValue = "non-blocking")
+public class NonBlockingBookingConfiguration {
+    /**
+     * Register the servlet.
+     *
+     * @param taxiBooker  the booker to book with.
+     * @result the registration of the servlet, in asynchronous mode.
+     */
+    @Bean
+    public ServletRegistrationBean<NonBlockingBookingServlet> nonBlockingBookingServlet(TaxiBooker taxiBooker) {
+	ServletRegistrationBean<NonBlockingBookingServlet> registration =
+	    new ServletRegistrationBean<NonBlockingBookingServlet>(new NonBlockingBookingServlet(taxiBooker),
+								   "/api/book");
+	registration.setAsyncSupported(true);
+	return registration;
+    }
+}
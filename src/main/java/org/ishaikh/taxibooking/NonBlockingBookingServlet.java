@@ -0,0 +1,232 @@
+package org.ishaikh.taxibooking;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Serves "/api/book" with non-blocking I/O (Servlet 3.1), in place of TaxiBooker.book().
+ * <p>
+ * The request is put in asynchronous mode and its body is read as it arrives, so a
+ * connection only takes a container thread while there is data to read or write,
+ * and slow or idle clients hold no thread. The booking itself never waits: it is done
+ * when the whole body has arrived. The request & response bodies are the same as
+ * with TaxiBooker.book().
+ * <p>
+ * With an AdmissionControl, a booking is admitted once its body has arrived, without waiting:
+ * a booking over the limit is rejected right away, as a queued booking would hold no thread
+ * but could not time out without one.
+ * <p>
+ * With an IdempotencyCache, a retry with the idempotency key of an earlier booking gets the
+ * result of that booking, before admission control, or a 409 response while that booking is
+ * still in progress, as with TaxiBooker.book().
+ * <p>
+ * Registered by NonBlockingBookingConfiguration when "taxibooking.booking.mode" is "non-blocking".
+ */
+public class NonBlockingBookingServlet extends HttpServlet {
+    /**
+     * Constructor.
+     *
+     * @param taxiBooker  the booker to book with.
+     */
+    public NonBlockingBookingServlet(TaxiBooker taxiBooker) {
+	this.taxiBooker = taxiBooker;
+    }
+
+    /**
+     * Start a booking. It is completed by the container threads that read the body
+     * and write the response.
+     *
+     * @param request   JSON request body, in the format of RideCoordinates
+     * @param response  the resulting BookingStatus is written as JSON in the body of the HTTP response.
+     *                  No taxi available translates to an empty response body and invalid JSON
+     *                  or an invalid idempotency key to a 400 response.
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+	String idempotencyKey = request.getHeader(IdempotencyCache.KEY_HEADER);
+	if (idempotencyKey != null && !IdempotencyCache.isValidKey(idempotencyKey)) {
+	    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid idempotency key");
+	    return;
+	}
+	AsyncContext asyncContext = request.startAsync();
+	ServletInputStream input = request.getInputStream();
+	AdmissionControl.Priority priority =
+	    AdmissionControl.Priority.of(request.getHeader(AdmissionControl.PRIORITY_HEADER));
+	input.setReadListener(new Booking(asyncContext, input, response, priority, idempotencyKey));
+    }
+
+    /**
+     * State of a booking in progress.
+     */
+    private class Booking implements ReadListener, WriteListener {
+	/**
+	 * Constructor.
+	 */
+	Booking(AsyncContext asyncContext, ServletInputStream input, HttpServletResponse response,
+		AdmissionControl.Priority priority, String idempotencyKey) {
+	    this.asyncContext = asyncContext;
+	    this.input = input;
+	    this.response = response;
+	    this.priority = priority;
+	    this.idempotencyKey = idempotencyKey;
+	}
+
+	/**
+	 * Read the body as far as it can be read without blocking.
+	 */
+	@Override
+	public void onDataAvailable() throws IOException {
+	    while (input.isReady()) {
+		int read = input.read(body, length, body.length - length);
+		if (read < 0) {
+		    return;
+		}
+		length += read;
+		if (length == body.length) {
+		    if (length >= RideCodec.MAX_BODY_SIZE) {
+			fail("Request body too large");
+			return;
+		    }
+		    body = Arrays.copyOf(body, body.length * 2);
+		}
+	    }
+	}
+
+	/**
+	 * Book, and write the result once the response can be written.
+	 */
+	@Override
+	public void onAllDataRead() throws IOException {
+	    if (completed) {
+		return;
+	    }
+	    IdempotencyCache cache = taxiBooker.getIdempotencyCache();
+	    long result = cache != null && idempotencyKey != null ?
+		cache.get(idempotencyKey) : BookingStatus.NO_BOOKING;
+	    if (result == BookingStatus.NO_BOOKING) {
+		RideCodec rideCodec = RideCodec.get();
+		try {
+		    rideCodec.decode(body, length);
+		} catch (IllegalArgumentException e) {
+		    fail("Invalid ride coordinates: " + e.getMessage());
+		    return;
+		}
+
+		AdmissionControl control = taxiBooker.getAdmissionControl();
+		try {
+		    if (control == null) {
+			result = taxiBooker.book(idempotencyKey, rideCodec.getSourceX(), rideCodec.getSourceY(),
+						 rideCodec.getDestinationX(), rideCodec.getDestinationY());
+		    } else {
+			AdmissionControl.Decision decision = control.admit(priority);
+			if (decision != AdmissionControl.Decision.ADMITTED) {
+			    taxiBooker.writeRejected(control, decision, response);
+			    complete();
+			    return;
+			}
+			long startTime = System.nanoTime();
+			try {
+			    result = taxiBooker.book(idempotencyKey, rideCodec.getSourceX(),
+						     rideCodec.getSourceY(), rideCodec.getDestinationX(),
+						     rideCodec.getDestinationY());
+			} finally {
+			    control.release(System.nanoTime() - startTime);
+			}
+		    }
+		} catch (IdempotencyCache.InProgressException e) {
+		    // Never wait for the first attempt, which would hold this thread.
+		    taxiBooker.writeInProgress(response);
+		    complete();
+		    return;
+		}
+	    }
+	    if (result == BookingStatus.NO_BOOKING) {
+		taxiBooker.writeUnavailable(response);
+		complete();
+	    } else {
+		// The body is reused for the response.
+		length = RideCodec.encode(result, body);
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		response.setContentLength(length);
+		output = response.getOutputStream();
+		output.setWriteListener(this);
+	    }
+	}
+
+	/**
+	 * Write the result.
+	 */
+	@Override
+	public void onWritePossible() throws IOException {
+	    if (output.isReady()) {
+		output.write(body, 0, length);
+		complete();
+	    }
+	}
+
+	/**
+	 * Give up on a failed read or write; most likely the client has gone away.
+	 */
+	@Override
+	public void onError(Throwable error) {
+	    complete();
+	}
+
+	/**
+	 * Answer a request that is not valid ride co-ordinates with a 400 response.
+	 *
+	 * @param message  what is wrong with the request.
+	 */
+	private void fail(String message) throws IOException {
+	    response.sendError(HttpServletResponse.SC_BAD_REQUEST, message);
+	    complete();
+	}
+
+	/**
+	 * End the request, once.
+	 */
+	private void complete() {
+	    if (!completed) {
+		completed = true;
+		asyncContext.complete();
+	    }
+	}
+
+	// Context of the request in asynchronous mode.
+	private final AsyncContext asyncContext;
+
+	private final ServletInputStream input;
+	private final HttpServletResponse response;
+
+	// Priority of the booking, for admission control.
+	private final AdmissionControl.Priority priority;
+
+	// Idempotency key of the booking; null for none.
+	private final String idempotencyKey;
+
+	// Set once the result is ready to be written.
+	private ServletOutputStream output;
+
+	// Has the request been ended?
+	private boolean completed;
+
+	// The request body, then the response body, and the number of bytes of it.
+	// At least 64 bytes, enough for any response.
+	private byte[] body = new byte[256];
+	private int length;
+    }
+
+    // Booker that books the rides.
+    private final TaxiBooker taxiBooker;
+}
@@ -0,0 +1,448 @@
+package org.ishaikh.taxibooking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON codec for the body of a booking request and its response.
+ * <p>
+ * Decodes {"source": {"x": 1, "y": 2}, "destination": {"x": 5, "y": 6}} straight into ints and
+ * encodes {"car_id": 1, "total_time": 11} straight into bytes, without creating RideCoordinates,
+ * Point or BookingStatus objects. The wire format is the one Jackson produces and accepts
+ * for those classes: fields in any order, unknown fields ignored, fractional co-ordinates
+ * truncated, integer co-ordinates in strings (e.g. "1") coerced, and missing or null
+ * co-ordinates taken as 0.
+ * <p>
+ * Instances keep their buffers between requests and are not thread safe; use get() for the
+ * instance of the current thread.
+ */
+public final class RideCodec {
+    /**
+     * Return the codec of the current thread.
+     *
+     * @return the codec of the current thread.
+     */
+    public static RideCodec get() {
+	return CODECS.get();
+    }
+
+    /**
+     * Read and decode the ride co-ordinates from a request body.
+     *
+     * @param in  the request body.
+     * @throws IOException              if the body cannot be read.
+     * @throws IllegalArgumentException if the body is not valid ride co-ordinates.
+     */
+    public void readRide(InputStream in) throws IOException {
+	int count = 0;
+	int read;
+	while ((read = in.read(buffer, count, buffer.length - count)) >= 0) {
+	    count += read;
+	    if (count == buffer.length) {
+		if (count >= MAX_BODY_SIZE) {
+		    throw new IllegalArgumentException("Request body too large");
+		}
+		buffer = Arrays.copyOf(buffer, buffer.length * 2);
+	    }
+	}
+	decode(buffer, count);
+    }
+
+    /**
+     * Decode the ride co-ordinates from bytes.
+     *
+     * @param bytes   the JSON text, in UTF-8.
+     * @param length  the number of bytes to decode.
+     * @throws IllegalArgumentException if the bytes are not valid ride co-ordinates.
+     */
+    public void decode(byte[] bytes, int length) {
+	this.input = bytes;
+	this.length = length;
+	position = 0;
+	boolean hasSource = false;
+	boolean hasDestination = false;
+
+	expect('{');
+	if (!consume('}')) {
+	    do {
+		int key = readKey();
+		if (key == KEY_SOURCE) {
+		    readPoint(coordinates, 0);
+		    hasSource = true;
+		} else if (key == KEY_DESTINATION) {
+		    readPoint(coordinates, 2);
+		    hasDestination = true;
+		} else {
+		    skipValue(0);
+		}
+	    } while (consume(','));
+	    expect('}');
+	}
+	skipWhitespace();
+	if (position != length) {
+	    throw new IllegalArgumentException("Unexpected content at " + position);
+	}
+	if (!hasSource || !hasDestination) {
+	    throw new IllegalArgumentException("Missing source or destination");
+	}
+    }
+
+    public int getSourceX() {
+	return coordinates[0];
+    }
+
+    public int getSourceY() {
+	return coordinates[1];
+    }
+
+    public int getDestinationX() {
+	return coordinates[2];
+    }
+
+    public int getDestinationY() {
+	return coordinates[3];
+    }
+
+    /**
+     * Encode the result of a booking as a BookingStatus JSON object.
+     *
+     * @param bookingResult  the packed result of the booking; see BookingStatus.pack().
+     *                       Must not be BookingStatus.NO_BOOKING.
+     * @param out            the buffer to write to; 64 bytes are enough.
+     * @return               the number of bytes written.
+     */
+    public static int encode(long bookingResult, byte[] out) {
+	int position = copy(CAR_ID, out, 0);
+	position = writeLong(BookingStatus.carId(bookingResult), out, position);
+	position = copy(TOTAL_TIME, out, position);
+	position = writeLong(BookingStatus.totalTime(bookingResult), out, position);
+	out[position++] = '}';
+	return position;
+    }
+
+    /**
+     * Encode the result of a booking and write it.
+     *
+     * @param bookingResult  the packed result of the booking, not BookingStatus.NO_BOOKING.
+     * @param out            the stream to write to.
+     * @return               the number of bytes written.
+     * @throws IOException   if the stream cannot be written.
+     */
+    public int writeBookingStatus(long bookingResult, OutputStream out) throws IOException {
+	int count = encode(bookingResult, output);
+	out.write(output, 0, count);
+	return count;
+    }
+
+    /**
+     * Read an object with x & y members into two consecutive ints.
+     */
+    private void readPoint(int[] values, int offset) {
+	values[offset] = 0;
+	values[offset + 1] = 0;
+	expect('{');
+	if (consume('}')) {
+	    return;
+	}
+	do {
+	    int key = readKey();
+	    if (key == KEY_X) {
+		values[offset] = readInt();
+	    } else if (key == KEY_Y) {
+		values[offset + 1] = readInt();
+	    } else {
+		skipValue(0);
+	    }
+	} while (consume(','));
+	expect('}');
+    }
+
+    /**
+     * Read a member name and the colon after it.
+     *
+     * @return one of the KEY_ constants; KEY_OTHER for any other name.
+     */
+    private int readKey() {
+	skipWhitespace();
+	int start = position + 1;
+	skipString();
+	int end = position - 1;
+	expect(':');
+
+	if (matches(start, end, SOURCE)) {
+	    return KEY_SOURCE;
+	} else if (matches(start, end, DESTINATION)) {
+	    return KEY_DESTINATION;
+	} else if (end - start == 1 && input[start] == 'x') {
+	    return KEY_X;
+	} else if (end - start == 1 && input[start] == 'y') {
+	    return KEY_Y;
+	} else {
+	    return KEY_OTHER;
+	}
+    }
+
+    /**
+     * Read a number (or null, taken as 0) and truncate it to an int.
+     */
+    private int readInt() {
+	skipWhitespace();
+	if (consumeLiteral(NULL)) {
+	    return 0;
+	}
+	if (position < length && input[position] == '"') {
+	    return readQuotedInt();
+	}
+	int start = position;
+	boolean negative = consume('-');
+	long value = 0;
+	int digits = 0;
+	while (position < length && isDigit(input[position])) {
+	    value = value * 10 + (input[position++] - '0');
+	    if (++digits > 10) {
+		throw new IllegalArgumentException("Number out of range");
+	    }
+	}
+	if (digits == 0) {
+	    throw new IllegalArgumentException("Number expected at " + start);
+	}
+	if (position < length && input[position] == '.') {
+	    position++;
+	    skipDigits();
+	}
+	if (position < length && (input[position] == 'e' || input[position] == 'E')) {
+	    // Rare; let the JDK deal with the exponent.
+	    position++;
+	    if (position < length && (input[position] == '+' || input[position] == '-')) {
+		position++;
+	    }
+	    skipDigits();
+	    double number = Double.parseDouble(new String(input, start, position - start,
+							  StandardCharsets.US_ASCII));
+	    if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+		throw new IllegalArgumentException("Number out of range");
+	    }
+	    return (int)number;
+	}
+	value = negative ? -value : value;
+	if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+	    throw new IllegalArgumentException("Number out of range");
+	}
+	return (int)value;
+    }
+
+    /**
+     * Read an int in a string, as Jackson coerces it: surrounding whitespace ignored, and an
+     * empty string or "null" taken as 0. Rare; let the JDK deal with it.
+     */
+    private int readQuotedInt() {
+	int start = position;
+	skipString();
+	String text = new String(input, start + 1, position - start - 2, StandardCharsets.UTF_8).trim();
+	if (text.isEmpty() || text.equals("null")) {
+	    return 0;
+	}
+	try {
+	    return Integer.parseInt(text);
+	} catch (NumberFormatException e) {
+	    throw new IllegalArgumentException("Integer expected at " + start);
+	}
+    }
+
+    /**
+     * Skip a value of any type.
+     *
+     * @param depth  the nesting depth of the value.
+     */
+    private void skipValue(int depth) {
+	if (depth > MAX_DEPTH) {
+	    throw new IllegalArgumentException("Too deeply nested");
+	}
+	skipWhitespace();
+	if (position >= length) {
+	    throw new IllegalArgumentException("Value expected");
+	}
+	byte b = input[position];
+	if (b == '"') {
+	    skipString();
+	} else if (b == '{' || b == '[') {
+	    char close = (b == '{') ? '}' : ']';
+	    position++;
+	    if (!consume(close)) {
+		do {
+		    if (b == '{') {
+			readKey();
+		    }
+		    skipValue(depth + 1);
+		} while (consume(','));
+		expect(close);
+	    }
+	} else if (consumeLiteral(TRUE) || consumeLiteral(FALSE) || consumeLiteral(NULL)) {
+	    return;
+	} else {
+	    readNumberLoosely();
+	}
+    }
+
+    /**
+     * Skip a number without converting it.
+     */
+    private void readNumberLoosely() {
+	int start = position;
+	while (position < length &&
+	       (isDigit(input[position]) || input[position] == '-' || input[position] == '+' ||
+		input[position] == '.' || input[position] == 'e' || input[position] == 'E')) {
+	    position++;
+	}
+	if (position == start) {
+	    throw new IllegalArgumentException("Value expected at " + start);
+	}
+    }
+
+    /**
+     * Skip a string, including its quotes.
+     */
+    private void skipString() {
+	expect('"');
+	while (position < length) {
+	    byte b = input[position++];
+	    if (b == '\\') {
+		position++;
+	    } else if (b == '"') {
+		return;
+	    }
+	}
+	throw new IllegalArgumentException("Unterminated string");
+    }
+
+    private boolean skipDigits() {
+	int start = position;
+	while (position < length && isDigit(input[position])) {
+	    position++;
+	}
+	return position > start;
+    }
+
+    private void skipWhitespace() {
+	while (position < length &&
+	       (input[position] == ' ' || input[position] == '\t' ||
+		input[position] == '\n' || input[position] == '\r')) {
+	    position++;
+	}
+    }
+
+    private void expect(char c) {
+	if (!consume(c)) {
+	    throw new IllegalArgumentException("'" + c + "' expected at " + position);
+	}
+    }
+
+    private boolean consume(char c) {
+	skipWhitespace();
+	if (position < length && input[position] == c) {
+	    position++;
+	    return true;
+	}
+	return false;
+    }
+
+    private boolean consumeLiteral(byte[] literal) {
+	if (position + literal.length <= length && matches(position, position + literal.length, literal)) {
+	    position += literal.length;
+	    return true;
+	}
+	return false;
+    }
+
+    private boolean matches(int start, int end, byte[] expected) {
+	if (end - start != expected.length) {
+	    return false;
+	}
+	for (int i = 0; i < expected.length; i++) {
+	    if (input[start + i] != expected[i]) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private static boolean isDigit(byte b) {
+	return b >= '0' && b <= '9';
+    }
+
+    private static int copy(byte[] bytes, byte[] out, int position) {
+	System.arraycopy(bytes, 0, out, position, bytes.length);
+	return position + bytes.length;
+    }
+
+    /**
+     * Write a long in decimal.
+     */
+    private static int writeLong(long value, byte[] out, int position) {
+	if (value < 0) {
+	    out[position++] = '-';
+	}
+	// Work on the negative value, so that Long.MIN_VALUE works too.
+	long negative = value < 0 ? value : -value;
+	int end = position + digitCount(negative);
+	for (int i = end - 1; i >= position; i--) {
+	    out[i] = (byte)('0' - (negative % 10));
+	    negative /= 10;
+	}
+	return end;
+    }
+
+    private static int digitCount(long negative) {
+	int count = 1;
+	while (negative <= -10) {
+	    negative /= 10;
+	    count++;
+	}
+	return count;
+    }
+
+    private static byte[] ascii(String text) {
+	return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Largest request body accepted.
+    static final int MAX_BODY_SIZE = 64 * 1024;
+
+    // Deepest nesting of skipped values accepted.
+    private static final int MAX_DEPTH = 32;
+
+    // Member names recognized by readKey().
+    private static final int KEY_OTHER = 0;
+    private static final int KEY_SOURCE = 1;
+    private static final int KEY_DESTINATION = 2;
+    private static final int KEY_X = 3;
+    private static final int KEY_Y = 4;
+
+    private static final byte[] SOURCE = ascii("source");
+    private static final byte[] DESTINATION = ascii("destination");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] CAR_ID = ascii("{\"car_id\":");
+    private static final byte[] TOTAL_TIME = ascii(",\"total_time\":");
+
+    // Codec of each thread.
+    private static final ThreadLocal<RideCodec> CODECS = ThreadLocal.withInitial(RideCodec::new);
+
+    // Buffer for request bodies; grows as needed.
+    private byte[] buffer = new byte[256];
+
+    // Bytes being decoded, the number of them and the position of the next one.
+    private byte[] input;
+    private int length;
+    private int position;
+
+    // Decoded source x & y and destination x & y.
+    private final int[] coordinates = new int[4];
+
+    // Buffer for the encoded response.
+    private final byte[] output = new byte[64];
+}
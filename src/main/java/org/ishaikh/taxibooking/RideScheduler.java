@@ -0,0 +1,185 @@
+package org.ishaikh.taxibooking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Keeps the ongoing rides ordered by the time unit at which they end.
+ * <p>
+ * Moving the clock only touches the rides that end in the time units moved over,
+ * instead of every taxi in the fleet.
+ * Rides can be scheduled concurrently with each other and with advance();
+ * calls to advance() must not run concurrently with each other.
+ */
+public class RideScheduler {
+    /**
+     * Return the current time, in time units since the creation or the last clear.
+     *
+     * @return the current time.
+     */
+    public long now() {
+	return now.get();
+    }
+
+    /**
+     * Schedule the end of the ride of a taxi.
+     * As with Taxi.tick(), a ride ends on a tick, so a ride of 0 time units ends on the next tick.
+     *
+     * @param taxi       the taxi that is on a ride.
+     * @param rideTime   the time units needed for the ride.
+     * @return           the time unit at which the ride ends.
+     */
+    public long schedule(Taxi taxi, long rideTime) {
+	long endTime = now.get() + Math.max(rideTime, 1);
+	rides.add(new ScheduledRide(endTime, taxi));
+	return endTime;
+    }
+
+    /**
+     * Schedule the end of the ride of a taxi at a given time unit, e.g. of a ride recovered
+     * from a FleetJournal. A ride that should have ended already ends on the next tick.
+     *
+     * @param taxi       the taxi that is on a ride.
+     * @param endTime    the time unit at which the ride ends.
+     */
+    public void scheduleAt(Taxi taxi, long endTime) {
+	rides.add(new ScheduledRide(Math.max(endTime, now.get() + 1), taxi));
+    }
+
+    /**
+     * Call an action with each ride and the time unit at which it ends, the earliest ending first.
+     *
+     * @param action  the action.
+     */
+    public void forEach(ObjLongConsumer<Taxi> action) {
+	for (ScheduledRide ride : rides) {
+	    action.accept(ride.taxi, ride.endTime);
+	}
+    }
+
+    /**
+     * Call an action with each ride that ends by a given time unit, the earliest ending first,
+     * until the action returns false.
+     *
+     * @param time    the last time unit at which a ride may end.
+     * @param action  the action.
+     */
+    public void forEachEndingBy(long time, RideAction action) {
+	for (ScheduledRide ride : rides) {
+	    if (ride.endTime > time || !action.accept(ride.taxi, ride.endTime)) {
+		break;
+	    }
+	}
+    }
+
+    /**
+     * Action on a ride. See forEachEndingBy().
+     */
+    public interface RideAction {
+	boolean accept(Taxi taxi, long endTime);
+    }
+
+    /**
+     * Is a ride still scheduled, i.e. it has not been returned by advance()?
+     *
+     * @param taxi     the taxi on the ride.
+     * @param endTime  the time unit at which the ride ends.
+     * @return         true if the ride is scheduled, false otherwise.
+     */
+    public boolean isScheduled(Taxi taxi, long endTime) {
+	return rides.contains(new ScheduledRide(endTime, taxi));
+    }
+
+    /**
+     * Move the clock by the given number of time units and return the taxis whose
+     * ride ended in that time.
+     *
+     * @param units  the number of time units to move.
+     * @return       the taxis whose ride ended, in the order in which the rides ended.
+     */
+    public List<Taxi> advance(long units) {
+	long time = now.addAndGet(units);
+	List<Taxi> endedRides = new ArrayList<Taxi>();
+	ScheduledRide ride;
+	while ((ride = rides.pollFirst()) != null) {
+	    if (ride.endTime > time) {
+		// Not due yet; put it back and stop.
+		rides.add(ride);
+		break;
+	    }
+	    endedRides.add(ride.taxi);
+	}
+	return endedRides;
+    }
+
+    /**
+     * Return the time unit at which the earliest ongoing ride ends.
+     *
+     * @return the end time; Long.MAX_VALUE if there is no ride.
+     */
+    public long nextEndTime() {
+	try {
+	    return rides.first().endTime;
+	} catch (NoSuchElementException e) {
+	    return Long.MAX_VALUE;
+	}
+    }
+
+    /**
+     * Drop all the scheduled rides and set the clock back to 0.
+     */
+    public void clear() {
+	clear(0);
+    }
+
+    /**
+     * Drop all the scheduled rides and set the clock, e.g. to the time of a snapshot.
+     *
+     * @param time  the current time.
+     */
+    public void clear(long time) {
+	rides.clear();
+	now.set(time);
+    }
+
+    /**
+     * Return the number of scheduled rides.
+     *
+     * @return the number of scheduled rides.
+     */
+    public int size() {
+	return rides.size();
+    }
+
+    /**
+     * A ride and the time at which it ends. Ordered by end time and then by taxi id.
+     */
+    private static class ScheduledRide implements Comparable<ScheduledRide> {
+	ScheduledRide(long endTime, Taxi taxi) {
+	    this.endTime = endTime;
+	    this.taxi = taxi;
+	}
+
+	@Override
+	public int compareTo(ScheduledRide other) {
+	    int result = Long.compare(endTime, other.endTime);
+	    return result != 0 ? result : Integer.compare(taxi.getId(), other.taxi.getId());
+	}
+
+	// Time unit at which the ride ends.
+	final long endTime;
+
+	// Taxi on the ride.
+	final Taxi taxi;
+    }
+
+    // Current time in time units.
+    private final AtomicLong now = new AtomicLong();
+
+    // Ongoing rides, the earliest ending first.
+    private final ConcurrentSkipListSet<ScheduledRide> rides = new ConcurrentSkipListSet<ScheduledRide>();
+}
@@ -0,0 +1,485 @@
+package org.ishaikh.taxibooking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TravelTimes along the roads of a city.
+ * <p>
+ * The roads form a graph of nodes (junctions) at given locations, joined by two-way roads with
+ * a driving time each. The time between two locations is the Manhattan distance from each of
+ * them to the closest node, plus the time of the shortest path between those nodes.
+ * <p>
+ * Shortest paths are searched with A*, guided by the Manhattan distance times the fastest pace
+ * of any road, and the times of the most recently used pairs of nodes are kept in a bounded LRU
+ * cache, so that the frequent trips of a city take a cache look up. The cache is split in
+ * segments, each locked on its own, so that concurrent bookings seldom wait for each other.
+ * <p>
+ * A road file has one "node,id,x,y" line per node and one "road,fromId,toId,time" line per road.
+ * Blank lines and lines starting with '#' are ignored.
+ */
+public class RoadNetwork implements TravelTimes {
+    /**
+     * Constants.
+     */
+    // Default number of pairs of nodes whose shortest path time is cached.
+    public static final int CACHE_SIZE = 100000;
+
+    /**
+     * Constructor.
+     *
+     * @param x          the x co-ordinates of the nodes.
+     * @param y          the y co-ordinates of the nodes.
+     * @param from       the first node of each road, an index in x & y.
+     * @param to         the other node of each road.
+     * @param time       the driving time of each road, either way.
+     * @param cacheSize  the number of pairs of nodes whose shortest path time is cached.
+     */
+    public RoadNetwork(int[] x, int[] y, int[] from, int[] to, int[] time, int cacheSize) {
+	if (x.length == 0 || x.length != y.length || x.length > NODE_MASK) {
+	    throw new IllegalArgumentException("Invalid nodes: " + x.length + " x & " + y.length + " y");
+	}
+	if (from.length != to.length || from.length != time.length) {
+	    throw new IllegalArgumentException("Invalid roads: " + from.length + " from, " + to.length +
+					       " to & " + time.length + " times");
+	}
+	if (cacheSize < 0) {
+	    throw new IllegalArgumentException("Invalid cache size: " + cacheSize);
+	}
+	this.x = x.clone();
+	this.y = y.clone();
+
+	// Adjacency lists of both directions, packed in arrays indexed by node.
+	firstRoad = new int[x.length + 1];
+	for (int road = 0; road < from.length; road++) {
+	    if (from[road] < 0 || from[road] >= x.length || to[road] < 0 || to[road] >= x.length ||
+		time[road] < 0) {
+		throw new IllegalArgumentException("Invalid road: " + from[road] + " to " + to[road] +
+						   " in " + time[road]);
+	    }
+	    firstRoad[from[road] + 1]++;
+	    firstRoad[to[road] + 1]++;
+	}
+	for (int node = 0; node < x.length; node++) {
+	    firstRoad[node + 1] += firstRoad[node];
+	}
+	roadEnd = new int[2 * from.length];
+	roadTime = new int[2 * from.length];
+	int[] next = Arrays.copyOf(firstRoad, x.length);
+	double pace = Double.MAX_VALUE;
+	for (int road = 0; road < from.length; road++) {
+	    roadEnd[next[from[road]]] = to[road];
+	    roadTime[next[from[road]]++] = time[road];
+	    roadEnd[next[to[road]]] = from[road];
+	    roadTime[next[to[road]]++] = time[road];
+	    int length = Taxi.distance(x[from[road]], y[from[road]], x[to[road]], y[to[road]]);
+	    if (length > 0) {
+		pace = Math.min(pace, (double)time[road] / length);
+	    }
+	}
+	fastestPace = pace == Double.MAX_VALUE ? 0 : pace;
+
+	// Nodes bucketed into the cells of a grid over the nodes, to find the node closest to
+	// a location: the nodes of each cell, from firstNode[cell] to firstNode[cell + 1] in cellNodes.
+	int size = GridTaxiIndex.cellSizeFor(this.x, this.y);
+	int left = Integer.MAX_VALUE;
+	int right = Integer.MIN_VALUE;
+	int bottom = Integer.MAX_VALUE;
+	int top = Integer.MIN_VALUE;
+	for (int node = 0; node < x.length; node++) {
+	    left = Math.min(left, Math.floorDiv(x[node], size));
+	    right = Math.max(right, Math.floorDiv(x[node], size));
+	    bottom = Math.min(bottom, Math.floorDiv(y[node], size));
+	    top = Math.max(top, Math.floorDiv(y[node], size));
+	}
+	// About as many cells as nodes; larger cells for a sparse network.
+	while (((long)right - left + 1) * ((long)top - bottom + 1) > 4L * x.length + 16) {
+	    size *= 2;
+	    left = Math.floorDiv(left, 2);
+	    right = Math.floorDiv(right, 2);
+	    bottom = Math.floorDiv(bottom, 2);
+	    top = Math.floorDiv(top, 2);
+	}
+	cellSize = size;
+	minCellX = left;
+	minCellY = bottom;
+	columns = right - left + 1;
+	rows = top - bottom + 1;
+	firstNode = new int[columns * rows + 1];
+	for (int node = 0; node < x.length; node++) {
+	    firstNode[cellOf(x[node], y[node]) + 1]++;
+	}
+	for (int cell = 0; cell < columns * rows; cell++) {
+	    firstNode[cell + 1] += firstNode[cell];
+	}
+	cellNodes = new int[x.length];
+	int[] nextNode = Arrays.copyOf(firstNode, columns * rows);
+	for (int node = 0; node < x.length; node++) {
+	    cellNodes[nextNode[cellOf(x[node], y[node])]++] = node;
+	}
+
+	int segmentSize = (cacheSize + SEGMENTS - 1) / SEGMENTS;
+	for (int i = 0; i < SEGMENTS; i++) {
+	    cache[i] = new Segment(segmentSize);
+	}
+    }
+
+    /**
+     * Load a road network from a file.
+     *
+     * @param path       the road file.
+     * @param cacheSize  the number of pairs of nodes whose shortest path time is cached.
+     * @return           the road network.
+     * @throws IOException              if the file cannot be read.
+     * @throws IllegalArgumentException if the file is not well formed.
+     */
+    public static RoadNetwork load(Path path, int cacheSize) throws IOException {
+	try (Reader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+	    return read(reader, cacheSize);
+	}
+    }
+
+    /**
+     * Read a road network in the format of a road file.
+     *
+     * @param reader     the text of the road file.
+     * @param cacheSize  the number of pairs of nodes whose shortest path time is cached.
+     * @return           the road network.
+     * @throws IOException              if the text cannot be read.
+     * @throws IllegalArgumentException if the text is not well formed.
+     */
+    public static RoadNetwork read(Reader reader, int cacheSize) throws IOException {
+	Map<Integer, Integer> nodes = new HashMap<Integer, Integer>();
+	IntList x = new IntList();
+	IntList y = new IntList();
+	IntList from = new IntList();
+	IntList to = new IntList();
+	IntList time = new IntList();
+
+	BufferedReader lines = new BufferedReader(reader);
+	String text;
+	int line = 0;
+	while ((text = lines.readLine()) != null) {
+	    line++;
+	    text = text.trim();
+	    if (text.isEmpty() || text.startsWith("#")) {
+		continue;
+	    }
+	    String[] fields = text.split(",");
+	    try {
+		if (fields.length == 4 && fields[0].trim().equals("node")) {
+		    if (nodes.putIfAbsent(Integer.parseInt(fields[1].trim()), x.size) != null) {
+			throw new IllegalArgumentException("Duplicate node at line " + line + ": " + text);
+		    }
+		    x.add(Integer.parseInt(fields[2].trim()));
+		    y.add(Integer.parseInt(fields[3].trim()));
+		} else if (fields.length == 4 && fields[0].trim().equals("road")) {
+		    Integer fromNode = nodes.get(Integer.parseInt(fields[1].trim()));
+		    Integer toNode = nodes.get(Integer.parseInt(fields[2].trim()));
+		    if (fromNode == null || toNode == null) {
+			throw new IllegalArgumentException("Unknown node at line " + line + ": " + text);
+		    }
+		    from.add(fromNode);
+		    to.add(toNode);
+		    time.add(Integer.parseInt(fields[3].trim()));
+		} else {
+		    throw new IllegalArgumentException("Invalid road file line " + line + ": " + text);
+		}
+	    } catch (NumberFormatException e) {
+		throw new IllegalArgumentException("Invalid number at line " + line + ": " + text);
+	    }
+	}
+	return new RoadNetwork(x.toArray(), y.toArray(), from.toArray(), to.toArray(), time.toArray(),
+			       cacheSize);
+    }
+
+    /**
+     * Return the time to drive between two locations along the roads.
+     * When the nodes closest to the locations are not connected, the Manhattan distance is returned.
+     */
+    @Override
+    public int time(int fromX, int fromY, int toX, int toY) {
+	int fromNode = closestNode(fromX, fromY);
+	int toNode = closestNode(toX, toY);
+	if (fromNode == toNode) {
+	    return Taxi.distance(fromX, fromY, toX, toY);
+	}
+	int pathTime = pathTime(fromNode, toNode);
+	if (pathTime < 0) {
+	    return Taxi.distance(fromX, fromY, toX, toY);
+	}
+	return Taxi.distance(fromX, fromY, x[fromNode], y[fromNode]) + pathTime +
+	    Taxi.distance(x[toNode], y[toNode], toX, toY);
+    }
+
+    /**
+     * Return the number of nodes.
+     *
+     * @return the number of nodes.
+     */
+    public int size() {
+	return x.length;
+    }
+
+    /**
+     * Find the node closest to a location.
+     * If multiple nodes are equally close to the location the first one is returned.
+     *
+     * @param locationX  x co-ordinate of the location.
+     * @param locationY  y co-ordinate of the location.
+     * @return           the index of the node.
+     */
+    int closestNode(int locationX, int locationY) {
+	// The cell of the location, clamped to the grid.
+	long cellX = Math.min(Math.max(Math.floorDiv((long)locationX, cellSize) - minCellX, 0), columns - 1);
+	long cellY = Math.min(Math.max(Math.floorDiv((long)locationY, cellSize) - minCellY, 0), rows - 1);
+	// How far the location is outside of the grid, in the lower bound of every ring.
+	long outside = Taxi.distance(locationX, locationY,
+				     (int)Math.min(Math.max(locationX, (long)minCellX * cellSize),
+						   ((long)minCellX + columns) * cellSize - 1),
+				     (int)Math.min(Math.max(locationY, (long)minCellY * cellSize),
+						   ((long)minCellY + rows) * cellSize - 1));
+	int closest = -1;
+	long closestDistance = Long.MAX_VALUE;
+	// Search rings of cells around the cell of the location, until no closer node can be found.
+	int maxRing = Math.max(columns, rows);
+	for (int ring = 0; ring <= maxRing && outside + (long)(ring - 1) * cellSize < closestDistance; ring++) {
+	    for (long i = Math.max(cellX - ring, 0); i <= Math.min(cellX + ring, columns - 1); i++) {
+		// Only the first & last columns of the ring, and both ends of the columns in between.
+		int step = (i == cellX - ring || i == cellX + ring) ? 1 : Math.max(2 * ring, 1);
+		for (long j = cellY - ring; j <= cellY + ring; j += step) {
+		    if (j < 0 || j >= rows) {
+			continue;
+		    }
+		    int cell = (int)(i * rows + j);
+		    for (int k = firstNode[cell]; k < firstNode[cell + 1]; k++) {
+			int node = cellNodes[k];
+			int distance = Taxi.distance(x[node], y[node], locationX, locationY);
+			if (distance < closestDistance || (distance == closestDistance && node < closest)) {
+			    closest = node;
+			    closestDistance = distance;
+			}
+		    }
+		}
+	    }
+	}
+	return closest;
+    }
+
+    /**
+     * Return the time of the shortest path between two nodes, from the cache or searched.
+     *
+     * @param fromNode  the start node.
+     * @param toNode    the end node.
+     * @return          the time; -1 if the nodes are not connected.
+     */
+    int pathTime(int fromNode, int toNode) {
+	// Roads are two-way, so a pair is cached once for both directions.
+	long key = fromNode < toNode ? ((long)fromNode << 32) | toNode : ((long)toNode << 32) | fromNode;
+	Segment segment = cache[(int)((key * 0x9E3779B97F4A7C15L) >>> 60)];
+	synchronized(segment) {
+	    Integer cached = segment.get(key);
+	    if (cached != null) {
+		return cached;
+	    }
+	}
+	int time = searches.get().search(fromNode, toNode);
+	synchronized(segment) {
+	    segment.put(key, time);
+	}
+	return time;
+    }
+
+    /**
+     * Return the grid cell of a node.
+     */
+    private int cellOf(int nodeX, int nodeY) {
+	return (Math.floorDiv(nodeX, cellSize) - minCellX) * rows + (Math.floorDiv(nodeY, cellSize) - minCellY);
+    }
+
+    /**
+     * A* search of the shortest paths, with the state of a search reused by the next one.
+     * Used by one thread at a time.
+     */
+    private class Search {
+	/**
+	 * Return the time of the shortest path between two nodes.
+	 *
+	 * @param fromNode  the start node.
+	 * @param toNode    the end node.
+	 * @return          the time; -1 if the nodes are not connected.
+	 */
+	int search(int fromNode, int toNode) {
+	    // A node is reached in this search if its stamp is the current search.
+	    if (++searchStamp == 0) {
+		Arrays.fill(stamp, 0);
+		searchStamp = 1;
+	    }
+	    heapSize = 0;
+	    reach(fromNode, 0, toNode);
+	    while (heapSize > 0) {
+		int node = (int)pop();
+		if (done[node] == searchStamp) {
+		    continue;
+		}
+		done[node] = searchStamp;
+		if (node == toNode) {
+		    return (int)Math.min(time[node], Integer.MAX_VALUE);
+		}
+		for (int road = firstRoad[node]; road < firstRoad[node + 1]; road++) {
+		    int next = roadEnd[road];
+		    long nextTime = time[node] + roadTime[road];
+		    if (stamp[next] != searchStamp || nextTime < time[next]) {
+			reach(next, nextTime, toNode);
+		    }
+		}
+	    }
+	    return -1;
+	}
+
+	/**
+	 * Record a (shorter) time to reach a node and queue it, ordered by that time plus a lower
+	 * bound of the time left to the end node.
+	 */
+	private void reach(int node, long nodeTime, int toNode) {
+	    stamp[node] = searchStamp;
+	    time[node] = nodeTime;
+	    long estimate = nodeTime + (long)(fastestPace * Taxi.distance(x[node], y[node], x[toNode], y[toNode]));
+	    push((estimate << 24) | node);
+	}
+
+	/**
+	 * Add an entry to the binary heap, ordered by value.
+	 */
+	private void push(long entry) {
+	    if (heapSize == heap.length) {
+		heap = Arrays.copyOf(heap, 2 * heap.length);
+	    }
+	    int i = heapSize++;
+	    while (i > 0 && heap[(i - 1) / 2] > entry) {
+		heap[i] = heap[(i - 1) / 2];
+		i = (i - 1) / 2;
+	    }
+	    heap[i] = entry;
+	}
+
+	/**
+	 * Remove the smallest entry of the binary heap.
+	 *
+	 * @return the node of the entry.
+	 */
+	private long pop() {
+	    long top = heap[0];
+	    long last = heap[--heapSize];
+	    int i = 0;
+	    while (2 * i + 1 < heapSize) {
+		int child = 2 * i + 1;
+		if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+		    child++;
+		}
+		if (heap[child] >= last) {
+		    break;
+		}
+		heap[i] = heap[child];
+		i = child;
+	    }
+	    heap[i] = last;
+	    return top & NODE_MASK;
+	}
+
+	// Time to reach each node in the current search, valid if its stamp is the search.
+	private final long[] time = new long[x.length];
+	private final int[] stamp = new int[x.length];
+
+	// Stamp of the nodes whose shortest time is known in the current search.
+	private final int[] done = new int[x.length];
+
+	// Current search.
+	private int searchStamp;
+
+	// Binary heap of the queued nodes: estimated time << 24 | node.
+	private long[] heap = new long[64];
+	private int heapSize;
+    }
+
+    /**
+     * A segment of the LRU cache of shortest path times.
+     */
+    private static class Segment extends LinkedHashMap<Long, Integer> {
+	Segment(int capacity) {
+	    super(16, 0.75f, true);
+	    this.capacity = capacity;
+	}
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+	    return size() > capacity;
+	}
+
+	// Largest number of entries.
+	private final int capacity;
+    }
+
+    /**
+     * A growable list of ints, used while reading a road file.
+     */
+    private static class IntList {
+	void add(int value) {
+	    if (size == values.length) {
+		values = Arrays.copyOf(values, 2 * values.length);
+	    }
+	    values[size++] = value;
+	}
+
+	int[] toArray() {
+	    return Arrays.copyOf(values, size);
+	}
+
+	// The values.
+	private int[] values = new int[16];
+	private int size;
+    }
+
+    // Number of segments of the cache; a power of 2.
+    private static final int SEGMENTS = 16;
+
+    // Bits of a heap entry holding the node.
+    private static final long NODE_MASK = (1L << 24) - 1;
+
+    // Co-ordinates of the nodes.
+    private final int[] x;
+    private final int[] y;
+
+    // Roads of each node: from firstRoad[node] to firstRoad[node + 1] in roadEnd & roadTime.
+    private final int[] firstRoad;
+    private final int[] roadEnd;
+    private final int[] roadTime;
+
+    // Smallest time per unit of Manhattan distance of any road, for the A* lower bound.
+    private final double fastestPace;
+
+    // Grid of cells over the nodes: the size of a cell, the first cell & the number of cells.
+    private final int cellSize;
+    private final int minCellX;
+    private final int minCellY;
+    private final int columns;
+    private final int rows;
+
+    // Nodes of each cell: from firstNode[cell] to firstNode[cell + 1] in cellNodes.
+    private final int[] firstNode;
+    private final int[] cellNodes;
+
+    // LRU cache of shortest path times by pair of nodes.
+    private final Segment[] cache = new Segment[SEGMENTS];
+
+    // Search state of each thread.
+    private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
+}
@@ -0,0 +1,36 @@
+package org.ishaikh.taxibooking;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Times the rides of the TaxiBooker along the roads of the road file named by the application
+ * property "taxibooking.roads.file", instead of the Manhattan distance.
+ */
+@Configuration
+@ConditionalOnProperty(name = "taxibooking.roads.file")
+public class RoadNetworkConfiguration {
+    /**
+     * Load the road network and set it as the travel times of the booker.
+     *
+     * @param taxiBooker  the booker.
+     * @param roadFile    the road file; see RoadNetwork.
+     * @param cacheSize   the number of pairs of nodes whose shortest path time is cached.
+     * @result the road network.
+     * @throws IOException  if the road file cannot be read.
+     */
+    @Bean
+    public RoadNetwork roadNetwork(TaxiBooker taxiBooker,
+				   @Value("${taxibooking.roads.file}") String roadFile,
+				   @Value("${taxibooking.roads.cache-size:" + RoadNetwork.CACHE_SIZE + "}") int cacheSize)
+	throws IOException {
+	RoadNetwork roadNetwork = RoadNetwork.load(Paths.get(roadFile), cacheSize);
+	taxiBooker.setTravelTimes(roadNetwork);
+	return roadNetwork;
+    }
+}
@@ -0,0 +1,91 @@
+package org.ishaikh.taxibooking;
+
+/**
+ * A shard of a partitioned fleet: the TaxiBooker of one node, in this process or another one.
+ * See ShardRouter.
+ */
+public interface Shard {
+    /**
+     * Constants.
+     */
+    // Result of nearest() when the shard has no available taxi.
+    long NO_TAXI = Long.MAX_VALUE;
+
+    /**
+     * Find the available taxi of this shard closest to a location, without booking it.
+     *
+     * @param x  x co-ordinate of the location.
+     * @param y  y co-ordinate of the location.
+     * @return   the distance to the taxi and its id, packed with pack(); NO_TAXI if there is none.
+     *           Packed results order by distance, then id.
+     */
+    long nearest(int x, int y);
+
+    /**
+     * Book the closest available taxi of this shard.
+     *
+     * @param sourceX       x co-ordinate of the pick-up location.
+     * @param sourceY       y co-ordinate of the pick-up location.
+     * @param destinationX  x co-ordinate of the drop-off location.
+     * @param destinationY  y co-ordinate of the drop-off location.
+     * @return the id of the taxi and the total time of the ride, packed with BookingStatus.pack().
+     *         BookingStatus.NO_BOOKING if no taxi is available.
+     */
+    long book(int sourceX, int sourceY, int destinationX, int destinationY);
+
+    /**
+     * Take over an available taxi handed off by another shard.
+     * Idempotent: a taxi the shard already has is ignored, so a hand-off may be retried.
+     *
+     * @param id  the id of the taxi.
+     * @param x   x co-ordinate of the location of the taxi.
+     * @param y   y co-ordinate of the location of the taxi.
+     */
+    void adopt(int id, int x, int y);
+
+    /**
+     * Pack the distance to a taxi and its id into a long, as returned by nearest().
+     *
+     * @param distance  the distance to the taxi.
+     * @param id        the id of the taxi.
+     * @return          the packed distance & id.
+     */
+    static long pack(int distance, int id) {
+	return ((long)distance << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Return the distance packed by pack().
+     *
+     * @param nearest  the packed distance & id.
+     * @return         the distance.
+     */
+    static int distance(long nearest) {
+	return (int)(nearest >>> 32);
+    }
+
+    /**
+     * Return a shard of a TaxiBooker in this process.
+     *
+     * @param taxiBooker  the booker.
+     * @return            the shard.
+     */
+    static Shard local(TaxiBooker taxiBooker) {
+	return new Shard() {
+	    @Override
+	    public long nearest(int x, int y) {
+		return taxiBooker.nearest(x, y);
+	    }
+
+	    @Override
+	    public long book(int sourceX, int sourceY, int destinationX, int destinationY) {
+		return taxiBooker.bookHere(sourceX, sourceY, destinationX, destinationY);
+	    }
+
+	    @Override
+	    public void adopt(int id, int x, int y) {
+		taxiBooker.adopt(id, x, y);
+	    }
+	};
+    }
+}
@@ -0,0 +1,54 @@
+package org.ishaikh.taxibooking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Makes the TaxiBooker a shard of a fleet partitioned between nodes when the application property
+ * "taxibooking.shard.nodes" lists the URLs of the nodes. "taxibooking.shard.id" is the index of
+ * this node in that list.
+ */
+@Configuration
+@ConditionalOnProperty(name = "taxibooking.shard.nodes")
+public class ShardConfiguration {
+    /**
+     * Join the booker to the router of the partitioned fleet.
+     *
+     * @param taxiBooker  the booker of this node.
+     * @param nodes       the comma separated URLs of the nodes, e.g. "http://localhost:8081,http://localhost:8082".
+     * @param id          the index of this node in the list of nodes.
+     * @param regionSize  the length of the side of a region; see ShardMap.
+     * @param columns     the number of shards along the x axis; the number of nodes divided
+     *                    by it is the number of shards along the y axis. 0 for all of them.
+     * @param timeout     milliseconds to wait for another node.
+     * @result the router.
+     */
+    @Bean
+    public ShardRouter shardRouter(TaxiBooker taxiBooker,
+				   @Value("${taxibooking.shard.nodes}") String nodes,
+				   @Value("${taxibooking.shard.id}") int id,
+				   @Value("${taxibooking.shard.region-size:" + ShardMap.REGION_SIZE + "}") int regionSize,
+				   @Value("${taxibooking.shard.columns:0}") int columns,
+				   @Value("${taxibooking.shard.timeout:1000}") int timeout) {
+	String[] urls = nodes.split(",");
+	if (columns == 0) {
+	    columns = urls.length;
+	}
+	if (columns < 0 || urls.length % columns != 0) {
+	    throw new IllegalArgumentException("Invalid number of shard columns for " + urls.length + " nodes: " + columns);
+	}
+
+	List<Shard> shards = new ArrayList<Shard>(urls.length);
+	for (int i = 0; i < urls.length; i++) {
+	    shards.add(i == id ? Shard.local(taxiBooker) : new HttpShard(urls[i].trim(), timeout));
+	}
+	ShardRouter shardRouter = new ShardRouter(new ShardMap(regionSize, columns, urls.length / columns), id, shards);
+	taxiBooker.join(shardRouter);
+	return shardRouter;
+    }
+}
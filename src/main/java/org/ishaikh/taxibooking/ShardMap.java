@@ -0,0 +1,126 @@
+package org.ishaikh.taxibooking;
+
+import java.util.BitSet;
+
+/**
+ * Geographic partition of the fleet between shards.
+ * <p>
+ * The plane is cut into square regions. The regions form a grid of columns x rows shards,
+ * one region per shard, repeated in both directions. A shard owns the taxis that are
+ * available within its regions.
+ */
+public class ShardMap {
+    /**
+     * Constants.
+     */
+    // Default length of the side of a region.
+    public static final int REGION_SIZE = 100;
+
+    /**
+     * Constructor.
+     *
+     * @param regionSize  the length of the side of a region.
+     * @param columns     the number of shards along the x axis.
+     * @param rows        the number of shards along the y axis.
+     */
+    public ShardMap(int regionSize, int columns, int rows) {
+	if (regionSize <= 0) {
+	    throw new IllegalArgumentException("Invalid region size: " + regionSize);
+	}
+	if (columns <= 0 || rows <= 0) {
+	    throw new IllegalArgumentException("Invalid shard grid: " + columns + "x" + rows);
+	}
+	this.regionSize = regionSize;
+	this.columns = columns;
+	this.rows = rows;
+    }
+
+    /**
+     * Return the number of shards.
+     *
+     * @return the number of shards, columns x rows.
+     */
+    public int size() {
+	return columns * rows;
+    }
+
+    /**
+     * Return the shard owning a location.
+     *
+     * @param x  x co-ordinate of the location.
+     * @param y  y co-ordinate of the location.
+     * @return   the index of the shard, from 0 to size() - 1.
+     */
+    public int shardOf(int x, int y) {
+	return Math.floorMod(Math.floorDiv(x, regionSize), columns) +
+	    columns * Math.floorMod(Math.floorDiv(y, regionSize), rows);
+    }
+
+    /**
+     * Return the distance from a location to the closest location owned by another shard.
+     * A taxi closer than that to the location is owned by the shard of the location.
+     *
+     * @param x  x co-ordinate of the location.
+     * @param y  y co-ordinate of the location.
+     * @return   the distance; Integer.MAX_VALUE if there is a single shard.
+     */
+    public int boundaryDistance(int x, int y) {
+	int distance = Integer.MAX_VALUE;
+	// Along an axis with a single shard, the neighbouring regions have the same owner.
+	if (columns > 1) {
+	    int offset = Math.floorMod(x, regionSize);
+	    distance = Math.min(distance, Math.min(offset, regionSize - 1 - offset) + 1);
+	}
+	if (rows > 1) {
+	    int offset = Math.floorMod(y, regionSize);
+	    distance = Math.min(distance, Math.min(offset, regionSize - 1 - offset) + 1);
+	}
+	return distance;
+    }
+
+    /**
+     * Return the shards owning a region within a distance of a location.
+     *
+     * @param x         x co-ordinate of the location.
+     * @param y         y co-ordinate of the location.
+     * @param distance  the largest distance.
+     * @return          the indexes of the shards.
+     */
+    public BitSet shardsWithin(int x, int y, long distance) {
+	BitSet shards = new BitSet(size());
+	long regionX = Math.floorDiv(x, regionSize);
+	long regionY = Math.floorDiv(y, regionSize);
+	// Beyond a grid of shards around the location, the owners repeat farther away.
+	long reachX = Math.min(distance / regionSize + 1, columns);
+	long reachY = Math.min(distance / regionSize + 1, rows);
+	for (long rx = regionX - reachX; rx <= regionX + reachX; rx++) {
+	    long gapX = gap(x, rx * regionSize, rx * regionSize + regionSize - 1);
+	    for (long ry = regionY - reachY; ry <= regionY + reachY && gapX <= distance; ry++) {
+		if (gapX + gap(y, ry * regionSize, ry * regionSize + regionSize - 1) <= distance) {
+		    shards.set((int)(Math.floorMod(rx, (long)columns) +
+				     columns * Math.floorMod(ry, (long)rows)));
+		}
+	    }
+	}
+	return shards;
+    }
+
+    /**
+     * Return the distance from a co-ordinate to a range of co-ordinates.
+     *
+     * @param value  the co-ordinate.
+     * @param low    the first co-ordinate of the range.
+     * @param high   the last co-ordinate of the range.
+     * @return       the distance; 0 within the range.
+     */
+    private static long gap(long value, long low, long high) {
+	return value < low ? low - value : (value > high ? value - high : 0);
+    }
+
+    // Length of the side of a region.
+    private final int regionSize;
+
+    // Number of shards along the x & y axes.
+    private final int columns;
+    private final int rows;
+}
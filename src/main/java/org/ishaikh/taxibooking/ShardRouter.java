@@ -0,0 +1,169 @@
+package org.ishaikh.taxibooking;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Routes the bookings of a partitioned fleet between its shards. See ShardMap.
+ * <p>
+ * Each shard owns the available taxis of its regions, so a booking is sent to the shard of
+ * its pick-up location. When the closest taxi of that shard is farther than the boundary of
+ * the region, the shards of the regions that are closer are asked for their closest taxi too,
+ * and the closest of all is booked. A taxi that becomes available in the region of another
+ * shard is handed off to it.
+ * <p>
+ * Every node joins the TaxiBooker of its shard to a router (see TaxiBooker.join()), with the
+ * same map and shards in the same order.
+ */
+public class ShardRouter {
+    /**
+     * Constructor.
+     *
+     * @param shardMap  the partition of the fleet between the shards.
+     * @param self      the index of the shard of this node.
+     * @param shards    the shards, in the order of the map; the shard of this node is local.
+     */
+    public ShardRouter(ShardMap shardMap, int self, List<Shard> shards) {
+	if (shards.size() != shardMap.size()) {
+	    throw new IllegalArgumentException("Expected " + shardMap.size() + " shards: " + shards.size());
+	}
+	if (self < 0 || self >= shards.size()) {
+	    throw new IllegalArgumentException("Invalid shard: " + self);
+	}
+	this.shardMap = shardMap;
+	this.self = self;
+	this.shards = new ArrayList<Shard>(shards);
+    }
+
+    /**
+     * Is a location owned by the shard of this node?
+     *
+     * @param x  x co-ordinate of the location.
+     * @param y  y co-ordinate of the location.
+     * @return   true if the taxis available there belong to this node.
+     */
+    public boolean owns(int x, int y) {
+	return shardMap.shardOf(x, y) == self;
+    }
+
+    /**
+     * Book the taxi closest to the pick-up location, whichever shard owns it.
+     * If multiple taxis are equally close to the pick-up location the smallest id is booked.
+     * A shard that cannot be reached is skipped, so that the booking falls back to the shard
+     * of this node rather than fail.
+     *
+     * @param sourceX       x co-ordinate of the pick-up location.
+     * @param sourceY       y co-ordinate of the pick-up location.
+     * @param destinationX  x co-ordinate of the drop-off location.
+     * @param destinationY  y co-ordinate of the drop-off location.
+     * @return the id of the taxi and the total time of the ride, packed with BookingStatus.pack().
+     *         BookingStatus.NO_BOOKING if no taxi is available.
+     */
+    public long book(int sourceX, int sourceY, int destinationX, int destinationY) {
+	int home = shardMap.shardOf(sourceX, sourceY);
+	int closestShard = home;
+	long closest = nearest(home, sourceX, sourceY);
+
+	// A taxi of another shard is at least as far as the boundary of the region.
+	if (closest == Shard.NO_TAXI || Shard.distance(closest) >= shardMap.boundaryDistance(sourceX, sourceY)) {
+	    long distance = closest == Shard.NO_TAXI ? Long.MAX_VALUE : Shard.distance(closest);
+	    BitSet neighbours = shardMap.shardsWithin(sourceX, sourceY, distance);
+	    for (int shard = neighbours.nextSetBit(0); shard >= 0; shard = neighbours.nextSetBit(shard + 1)) {
+		if (shard != home) {
+		    long nearest = nearest(shard, sourceX, sourceY);
+		    if (nearest < closest) {
+			closest = nearest;
+			closestShard = shard;
+		    }
+		}
+	    }
+	}
+	if (closest == Shard.NO_TAXI) {
+	    return BookingStatus.NO_BOOKING;
+	}
+
+	// A concurrent booking may take the taxi first; the shard then books its next closest one.
+	long result = book(closestShard, sourceX, sourceY, destinationX, destinationY);
+	if (result == BookingStatus.NO_BOOKING && closestShard != home) {
+	    result = book(home, sourceX, sourceY, destinationX, destinationY);
+	}
+	if (result == BookingStatus.NO_BOOKING && closestShard != self && home != self) {
+	    result = book(self, sourceX, sourceY, destinationX, destinationY);
+	}
+	return result;
+    }
+
+    /**
+     * Find the available taxi of a shard closest to a location.
+     *
+     * @param shard  the index of the shard.
+     * @param x      x co-ordinate of the location.
+     * @param y      y co-ordinate of the location.
+     * @return       as Shard.nearest(); Shard.NO_TAXI if the shard cannot be reached.
+     */
+    private long nearest(int shard, int x, int y) {
+	try {
+	    return shards.get(shard).nearest(x, y);
+	} catch (UncheckedIOException e) {
+	    return Shard.NO_TAXI;
+	}
+    }
+
+    /**
+     * Book the closest available taxi of a shard.
+     *
+     * @param shard         the index of the shard.
+     * @param sourceX       x co-ordinate of the pick-up location.
+     * @param sourceY       y co-ordinate of the pick-up location.
+     * @param destinationX  x co-ordinate of the drop-off location.
+     * @param destinationY  y co-ordinate of the drop-off location.
+     * @return as Shard.book(); BookingStatus.NO_BOOKING if the shard cannot be reached.
+     */
+    private long book(int shard, int sourceX, int sourceY, int destinationX, int destinationY) {
+	try {
+	    return shards.get(shard).book(sourceX, sourceY, destinationX, destinationY);
+	} catch (UncheckedIOException e) {
+	    return BookingStatus.NO_BOOKING;
+	}
+    }
+
+    /**
+     * Return the index of the shard of this node.
+     *
+     * @result the index.
+     */
+    public int getSelf() {
+	return self;
+    }
+
+    /**
+     * Return the number of shards.
+     *
+     * @result the number of shards.
+     */
+    public int size() {
+	return shards.size();
+    }
+
+    /**
+     * Hand off an available taxi to the shard owning its location.
+     *
+     * @param taxi  the taxi; no longer part of the fleet of this node.
+     */
+    public void handOff(Taxi taxi) {
+	int x = taxi.getAvailableLocation().x;
+	int y = taxi.getAvailableLocation().y;
+	shards.get(shardMap.shardOf(x, y)).adopt(taxi.getId(), x, y);
+    }
+
+    // Partition of the fleet between the shards.
+    private final ShardMap shardMap;
+
+    // Index of the shard of this node.
+    private final int self;
+
+    // Shards, in the order of the map.
+    private final List<Shard> shards;
+}
@@ -0,0 +1,467 @@
+package org.ishaikh.taxibooking;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Discrete-event simulation of a fleet, for capacity planning.
+ * <p>
+ * The demand of a Scenario is booked through a real TaxiBooker, without HTTP, with time moved
+ * externally: instead of ticking one unit at a time, the clock jumps straight to the next event
+ * (a request arriving, a ride ending while requests wait, or a waiting request giving up),
+ * so days of simulated time run in seconds. The same scenario always gives the same Result.
+ * <p>
+ * Requests that find no taxi wait, in the order they arrived, for up to the patience of the
+ * scenario. Independent scenarios run concurrently with run().
+ * <p>
+ * A scenario may send the idle taxis toward the recent demand (see TaxiBooker.rebalance()), so that the
+ * same demand can be simulated with and without, to compare the pick-up distances.
+ * Likewise, a scenario may book taxis about to end their ride (see TaxiBooker.setLookAhead()).
+ */
+public final class Simulator {
+    private Simulator() {
+    }
+
+    /**
+     * A fleet & the demand it is to serve.
+     */
+    public static class Scenario {
+	/**
+	 * Constructor.
+	 *
+	 * @param name           the name of the scenario, for the report.
+	 * @param numberOfTaxis  the size of the fleet; all taxis start available at (0, 0).
+	 * @param demand         creates the demand; called once per run.
+	 * @param patience       the most time units a request waits for a taxi.
+	 */
+	public Scenario(String name, int numberOfTaxis, Supplier<Demand> demand, long patience) {
+	    this(name, numberOfTaxis, demand, patience, 0);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name           the name of the scenario, for the report.
+	 * @param numberOfTaxis  the size of the fleet; all taxis start available at (0, 0).
+	 * @param demand         creates the demand; called once per run.
+	 * @param patience       the most time units a request waits for a taxi.
+	 * @param halfLife       the half-life of the DemandHeatmap idle taxis are sent toward;
+	 *                       0 to leave idle taxis where they are.
+	 */
+	public Scenario(String name, int numberOfTaxis, Supplier<Demand> demand, long patience, long halfLife) {
+	    this(name, numberOfTaxis, demand, patience, halfLife, 0);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name           the name of the scenario, for the report.
+	 * @param numberOfTaxis  the size of the fleet; all taxis start available at (0, 0).
+	 * @param demand         creates the demand; called once per run.
+	 * @param patience       the most time units a request waits for a taxi.
+	 * @param halfLife       the half-life of the DemandHeatmap idle taxis are sent toward;
+	 *                       0 to leave idle taxis where they are.
+	 * @param lookAhead      the time units bookings look ahead for taxis about to end their ride;
+	 *                       0 to book available taxis only.
+	 */
+	public Scenario(String name, int numberOfTaxis, Supplier<Demand> demand, long patience, long halfLife,
+			long lookAhead) {
+	    if (numberOfTaxis < 0 || patience < 0 || halfLife < 0 || lookAhead < 0) {
+		throw new IllegalArgumentException("Invalid fleet size, patience, half-life or look-ahead: " +
+						   numberOfTaxis + ", " + patience + ", " + halfLife + ", " +
+						   lookAhead);
+	    }
+	    this.name = name;
+	    this.numberOfTaxis = numberOfTaxis;
+	    this.demand = demand;
+	    this.patience = patience;
+	    this.halfLife = halfLife;
+	    this.lookAhead = lookAhead;
+	}
+
+	final String name;
+	final int numberOfTaxis;
+	final Supplier<Demand> demand;
+	final long patience;
+	final long halfLife;
+	final long lookAhead;
+    }
+
+    /**
+     * Statistics of a simulation.
+     */
+    public static class Result {
+	Result(Scenario scenario) {
+	    this.scenario = scenario;
+	    this.waitTimes = new long[(int)Math.min(scenario.patience, MAX_WAIT_HISTOGRAM) + 1];
+	}
+
+	/**
+	 * Return the number of requests.
+	 */
+	public long getRequests() {
+	    return requests;
+	}
+
+	/**
+	 * Return the number of requests that got a taxi.
+	 */
+	public long getServed() {
+	    return served;
+	}
+
+	/**
+	 * Return the number of requests that gave up waiting.
+	 */
+	public long getAbandoned() {
+	    return requests - served;
+	}
+
+	/**
+	 * Return the simulated time, in time units, until the last request got a taxi or gave up.
+	 */
+	public long getDuration() {
+	    return duration;
+	}
+
+	/**
+	 * Return the fraction of the fleet's time spent on rides, to a pick-up or with a customer.
+	 */
+	public double getUtilization() {
+	    long fleetTime = (long)scenario.numberOfTaxis * duration;
+	    return fleetTime == 0 ? 0 : Math.min(1, (double)rideTime / fleetTime);
+	}
+
+	/**
+	 * Return the average time units a served request waited for a taxi.
+	 */
+	public double getMeanWait() {
+	    return served == 0 ? 0 : (double)totalWait / served;
+	}
+
+	/**
+	 * Return the time units within which the given fraction of served requests got a taxi.
+	 *
+	 * @param fraction  e.g. 0.95 for the 95th percentile.
+	 */
+	public long getWaitPercentile(double fraction) {
+	    long rank = (long)Math.ceil(fraction * served);
+	    long count = 0;
+	    for (int wait = 0; wait < waitTimes.length; wait++) {
+		count += waitTimes[wait];
+		if (count >= Math.max(rank, 1)) {
+		    return wait;
+		}
+	    }
+	    return maxWait;
+	}
+
+	/**
+	 * Return the longest time units a served request waited for a taxi.
+	 */
+	public long getMaxWait() {
+	    return maxWait;
+	}
+
+	/**
+	 * Return the average distance from the booked taxi to the pick-up location.
+	 */
+	public double getMeanPickUpDistance() {
+	    return served == 0 ? 0 : (double)totalPickUpDistance / served;
+	}
+
+	/**
+	 * Return a one line report.
+	 */
+	@Override
+	public String toString() {
+	    return String.format("%s: taxis=%d requests=%d served=%d abandoned=%d duration=%d " +
+				 "utilization=%.3f wait(mean=%.2f p50=%d p95=%d p99=%d max=%d) pickUp=%.2f",
+				 scenario.name, scenario.numberOfTaxis, requests, served, getAbandoned(),
+				 duration, getUtilization(), getMeanWait(), getWaitPercentile(0.5),
+				 getWaitPercentile(0.95), getWaitPercentile(0.99), maxWait,
+				 getMeanPickUpDistance());
+	}
+
+	void recordBooking(long wait, long totalTime, int pickUpDistance) {
+	    served++;
+	    totalWait += wait;
+	    maxWait = Math.max(maxWait, wait);
+	    waitTimes[(int)Math.min(wait, waitTimes.length - 1)]++;
+	    rideTime += totalTime;
+	    totalPickUpDistance += pickUpDistance;
+	}
+
+	final Scenario scenario;
+	long requests;
+	long served;
+	long duration;
+
+	// Sum of the time of the booked rides, pick-up included.
+	long rideTime;
+
+	// Waiting time of the served requests; the histogram counts the requests by time units waited.
+	long totalWait;
+	long maxWait;
+	final long[] waitTimes;
+
+	long totalPickUpDistance;
+    }
+
+    /**
+     * Simulate a scenario.
+     *
+     * @param scenario  the scenario.
+     * @return          the statistics of the simulation.
+     */
+    public static Result simulate(Scenario scenario) {
+	TaxiBooker taxiBooker = new TaxiBooker(scenario.numberOfTaxis);
+	if (scenario.halfLife > 0) {
+	    taxiBooker.setDemandHeatmap(new DemandHeatmap(CountingTaxiIndex.REGION_SIZE, scenario.halfLife));
+	}
+	taxiBooker.setLookAhead(scenario.lookAhead);
+	RideScheduler rideScheduler = taxiBooker.rideScheduler;
+	Demand demand = scenario.demand.get();
+	Result result = new Result(scenario);
+	WaitQueue waiting = new WaitQueue();
+
+	Demand.Request request = new Demand.Request();
+	boolean more = demand.next(request);
+	long now = 0;
+	while (more || !waiting.isEmpty()) {
+	    // Queue the requests arriving now, behind those already waiting.
+	    while (more && request.time <= now) {
+		waiting.add(request);
+		result.requests++;
+		more = demand.next(request);
+	    }
+
+	    // Serve the waiting requests in order, as long as there are taxis.
+	    while (!waiting.isEmpty()) {
+		int head = waiting.head;
+		long wait = now - waiting.time[head];
+		if (wait > scenario.patience) {
+		    waiting.remove();
+		    continue;
+		}
+		int sourceX = waiting.sourceX[head];
+		int sourceY = waiting.sourceY[head];
+		int destinationX = waiting.destinationX[head];
+		int destinationY = waiting.destinationY[head];
+		long booking = taxiBooker.book(sourceX, sourceY, destinationX, destinationY);
+		if (booking == BookingStatus.NO_BOOKING) {
+		    break;
+		}
+		long totalTime = BookingStatus.totalTime(booking);
+		result.recordBooking(wait, totalTime, (int)(totalTime - Taxi.distance(sourceX, sourceY,
+										     destinationX, destinationY)));
+		waiting.remove();
+	    }
+
+	    // Jump to the next event.
+	    long next = more ? request.time : Long.MAX_VALUE;
+	    if (!waiting.isEmpty()) {
+		next = Math.min(next, Math.min(rideScheduler.nextEndTime(),
+					       waiting.time[waiting.head] + scenario.patience + 1));
+	    }
+	    if (next == Long.MAX_VALUE) {
+		break;
+	    }
+	    next = Math.max(next, now + 1);
+	    taxiBooker.tick(next - now);
+	    now = next;
+	}
+	result.duration = now;
+	return result;
+    }
+
+    /**
+     * Simulate scenarios concurrently.
+     *
+     * @param scenarios  the scenarios.
+     * @param threads    the number of scenarios simulated at the same time.
+     * @return           the statistics of each scenario, in the order of the scenarios.
+     */
+    public static List<Result> run(List<Scenario> scenarios, int threads) {
+	ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, scenarios.size())));
+	try {
+	    List<Future<Result>> futures = new ArrayList<Future<Result>>(scenarios.size());
+	    for (Scenario scenario : scenarios) {
+		futures.add(executor.submit(() -> simulate(scenario)));
+	    }
+	    List<Result> results = new ArrayList<Result>(scenarios.size());
+	    for (Future<Result> future : futures) {
+		results.add(future.get());
+	    }
+	    return results;
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException("Simulation interrupted", e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof RuntimeException) {
+		throw (RuntimeException)e.getCause();
+	    }
+	    throw new IllegalStateException("Simulation failed", e.getCause());
+	} finally {
+	    executor.shutdownNow();
+	}
+    }
+
+    /**
+     * Simulate fleets of several sizes against the same demand and print the statistics.
+     * <p>
+     * Usage: Simulator taxis[,taxis...] (demand.csv | rate duration [areaSize [seed]]) [--patience N]
+     * [--hotspot N] [--rebalance N] [--look-ahead N]
+     * <br>
+     * e.g. "Simulator 500,1000,2000 20 86400" for 20 requests per time unit over a day of seconds.
+     * With "--hotspot N", synthetic pick-ups are in a square of side N at the centre of the area.
+     * With "--rebalance N", each fleet is also simulated with its idle taxis sent toward the demand
+     * of a heatmap of half-life N, before & after.
+     * With "--look-ahead N", each fleet is also simulated with bookings going to taxis whose ride
+     * ends within N time units, when they are quicker to reach the pick-up location.
+     *
+     * @param args  the command line arguments.
+     * @throws IOException  if the demand file cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+	List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+	long patience = DEFAULT_PATIENCE;
+	int option = arguments.indexOf("--patience");
+	if (option >= 0 && option + 1 < arguments.size()) {
+	    patience = Long.parseLong(arguments.remove(option + 1));
+	    arguments.remove(option);
+	}
+	int hotspotSize = 0;
+	option = arguments.indexOf("--hotspot");
+	if (option >= 0 && option + 1 < arguments.size()) {
+	    hotspotSize = Integer.parseInt(arguments.remove(option + 1));
+	    arguments.remove(option);
+	}
+	long halfLife = 0;
+	option = arguments.indexOf("--rebalance");
+	if (option >= 0 && option + 1 < arguments.size()) {
+	    halfLife = Long.parseLong(arguments.remove(option + 1));
+	    arguments.remove(option);
+	}
+	long lookAhead = 0;
+	option = arguments.indexOf("--look-ahead");
+	if (option >= 0 && option + 1 < arguments.size()) {
+	    lookAhead = Long.parseLong(arguments.remove(option + 1));
+	    arguments.remove(option);
+	}
+	if (arguments.size() < 2) {
+	    System.err.println("Usage: Simulator taxis[,taxis...] (demand.csv | rate duration [areaSize [seed]]) " +
+			       "[--patience N] [--hotspot N] [--rebalance N] [--look-ahead N]");
+	    System.exit(1);
+	}
+
+	Supplier<Demand> demand;
+	String source;
+	if (arguments.get(1).endsWith(".csv")) {
+	    String file = arguments.get(1);
+	    demand = () -> {
+		try {
+		    return Demand.recorded(Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8));
+		} catch (IOException e) {
+		    throw new IllegalArgumentException("Cannot read " + file, e);
+		}
+	    };
+	    source = file;
+	} else {
+	    double rate = Double.parseDouble(arguments.get(1));
+	    long duration = Long.parseLong(arguments.get(2));
+	    int areaSize = arguments.size() > 3 ? Integer.parseInt(arguments.get(3)) : DEFAULT_AREA_SIZE;
+	    long seed = arguments.size() > 4 ? Long.parseLong(arguments.get(4)) : 1;
+	    if (hotspotSize > 0) {
+		int size = hotspotSize;
+		demand = () -> Demand.hotspot(seed, rate, duration, areaSize, size);
+		source = "hotspot";
+	    } else {
+		demand = () -> Demand.synthetic(seed, rate, duration, areaSize);
+		source = "synthetic";
+	    }
+	}
+
+	List<Scenario> scenarios = new ArrayList<Scenario>();
+	for (String taxis : arguments.get(0).split(",")) {
+	    scenarios.add(new Scenario(source + "/" + taxis, Integer.parseInt(taxis.trim()), demand, patience));
+	    if (halfLife > 0) {
+		scenarios.add(new Scenario(source + "/" + taxis + "/rebalanced", Integer.parseInt(taxis.trim()),
+					   demand, patience, halfLife));
+	    }
+	    if (lookAhead > 0) {
+		scenarios.add(new Scenario(source + "/" + taxis + "/look-ahead", Integer.parseInt(taxis.trim()),
+					   demand, patience, 0, lookAhead));
+	    }
+	}
+
+	long start = System.nanoTime();
+	for (Result result : run(scenarios, Runtime.getRuntime().availableProcessors())) {
+	    System.out.println(result);
+	}
+	System.out.printf("Simulated in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Requests waiting for a taxi, first in first out, in parallel arrays.
+     */
+    private static class WaitQueue {
+	boolean isEmpty() {
+	    return head == tail;
+	}
+
+	void add(Demand.Request request) {
+	    if (tail == time.length) {
+		// Make room: drop the removed requests or grow.
+		int size = tail - head;
+		int capacity = size * 2 > time.length ? time.length * 2 : time.length;
+		time = Arrays.copyOf(Arrays.copyOfRange(time, head, tail), capacity);
+		sourceX = Arrays.copyOf(Arrays.copyOfRange(sourceX, head, tail), capacity);
+		sourceY = Arrays.copyOf(Arrays.copyOfRange(sourceY, head, tail), capacity);
+		destinationX = Arrays.copyOf(Arrays.copyOfRange(destinationX, head, tail), capacity);
+		destinationY = Arrays.copyOf(Arrays.copyOfRange(destinationY, head, tail), capacity);
+		head = 0;
+		tail = size;
+	    }
+	    time[tail] = request.time;
+	    sourceX[tail] = request.sourceX;
+	    sourceY[tail] = request.sourceY;
+	    destinationX[tail] = request.destinationX;
+	    destinationY[tail] = request.destinationY;
+	    tail++;
+	}
+
+	void remove() {
+	    head++;
+	}
+
+	long[] time = new long[64];
+	int[] sourceX = new int[64];
+	int[] sourceY = new int[64];
+	int[] destinationX = new int[64];
+	int[] destinationY = new int[64];
+
+	// Index of the first waiting request & of the next free slot.
+	int head;
+	int tail;
+    }
+
+    // Default most time units a request waits for a taxi.
+    private static final long DEFAULT_PATIENCE = 600;
+
+    // Default side of the area of synthetic demand.
+    private static final int DEFAULT_AREA_SIZE = 1000;
+
+    // Longest wait counted separately in the wait time histogram.
+    private static final long MAX_WAIT_HISTOGRAM = 100000;
+}
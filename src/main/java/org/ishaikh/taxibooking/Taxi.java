@@ -2,9 +2,21 @@ package org.ishaikh.taxibooking;
 
 import java.awt.Point;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class representing a taxi.
+ * <p>
+ * The availability of a taxi is an atomic state. A booker claims a taxi with a compare-and-set
+ * of that state, so two concurrent bookings can never both get the same taxi.
+ * The ride details are only written by the thread that moved the taxi out of a stable state
+ * and are published by the (volatile) write of the next stable state.
+ * <p>
+ * Every stable state also publishes an immutable TaxiStatus, so the status of a taxi can be read
+ * without any lock while its rides are booked and completed (copy-on-write).
+ * <p>
+ * Times are read from a Clock; by default the shared CoarseClock, so that checking the
+ * availability of a taxi that moves time internally does not call the system clock.
  */
 public class Taxi {
     /**
@@ -16,48 +28,71 @@ public class Taxi {
      *                            is managed externally using the tick methods.
      */
     public Taxi(int id, boolean moveTimeInternally) {
+	this(id, moveTimeInternally, CoarseClock.shared());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param id                  the id assigned for this taxi.
+     * @param moveTimeInternally  time movement to be managed by the class, using the clock.
+     *                            Otherwise, time movement is managed externally using the tick methods.
+     * @param clock               the clock for the ride start & end times, e.g. a ManualClock
+     *                            to simulate time.
+     */
+    public Taxi(int id, boolean moveTimeInternally, Clock clock) {
 	this.id = id;
 	this.moveTimeInternally = moveTimeInternally;
+	this.clock = clock;
 	this.availableLocation = new Point();
 	this.destinationLocation = new Point();
+	this.status = new TaxiStatus(id, true, 0, 0, 0, 0, -1);
     }
 
     /**
      * Reset ride & availability details.
+     * Must not race with other updates of this taxi (e.g. the booker holds its fleet lock exclusively).
      */
     public void reset() {
-	available = true;
+	state.set(UPDATING);
 	availableLocation.setLocation(0, 0);
 	destinationLocation.setLocation(0, 0);
 	rideStartTime = -1;
 	rideEndTime = -1;
 	rideDuration = -1;
+	publishStatus(true);
+	state.set(AVAILABLE);
     }
 	
     /**
      * Reset ride & availability details. Used to initialize taxi at the end of a ride.
+     * Must not race with other updates of this taxi; see complete() for the safe way to end a ride.
      *
      * @param destLocation  this is the new value of the available location
      */
     public void reset(Point destLocation) {
-	available = true;
+	state.set(UPDATING);
 	availableLocation.setLocation(destLocation);
 	destinationLocation.setLocation(0, 0);
 	rideStartTime = -1;
 	rideEndTime = -1;
 	rideDuration = -1;
+	publishStatus(true);
+	state.set(AVAILABLE);
     }
 	
     /**
      * Move the clock one time unit. Also free the taxi if the ride duration has elapsed.
      * This has no impact when the taxi is available.
      * And is ignored when time movement is managed internally.
+     * <p>
+     * Ticks of the same taxi must not run concurrently.
      */
     public void tick() {
-	if (!available && !moveTimeInternally) {
+	if (state.get() == RIDING && !moveTimeInternally) {
 	    rideDuration++;
 	    if (rideStartTime + rideDuration >= rideEndTime) {
-		reset(destinationLocation);
+		complete();
 	    }
 	}
     }
@@ -65,19 +100,20 @@ public class Taxi {
     /**
      * Is the taxi avaialable for a customer?
      * <p>
-     * If movement of time is managed internally (using the system clock),
+     * If movement of time is managed internally (using the clock),
      * this method checks if the clock has moved past the required ride time and
      * hence the taxi is available.
      * Else, simply checks if the available flag is set or not.
      */
     public boolean isAvailable() {
-	if (available) {
+	int currentState = state.get();
+	if (currentState == AVAILABLE) {
 	    return true;
 	} else {
-	    if (moveTimeInternally) {
-		if (rideEndTime <= System.currentTimeMillis()/1000) {
-		    reset(destinationLocation);
-		    return true;
+	    if (currentState == RIDING && moveTimeInternally) {
+		if (rideEndTime <= clock.now()) {
+		    complete();
+		    return state.get() == AVAILABLE;
 		} else {
 		    return false;
 		}
@@ -100,21 +136,158 @@ public class Taxi {
      *                              -1 in case of errors (e.g. taxi is not available)
      */
     public long ride(Point sourceLocation, Point destLocation) {
-	if (isAvailable()) {
-	    destinationLocation.setLocation(destLocation);
-	    rideStartTime = System.currentTimeMillis()/1000;
-	    rideDuration = 0;
-	    rideEndTime =
-		rideStartTime +
-		distance(availableLocation, sourceLocation) +
-		distance(sourceLocation, destinationLocation);
-	    available = false;
-	    return rideEndTime - rideStartTime;
+	if (isAvailable() && claim()) {
+	    return startRide(sourceLocation, destLocation);
 	} else {
 	    return -1;
 	}
     }
 
+    /**
+     * Atomically claim this taxi if it is available.
+     * Only the caller that successfully claimed the taxi may start its ride with startRide().
+     *
+     * @return true if the taxi was available and is now claimed by the caller, false otherwise.
+     */
+    boolean claim() {
+	return state.compareAndSet(AVAILABLE, CLAIMED);
+    }
+
+    /**
+     * Make a taxi claimed by the caller available again, without a ride.
+     *
+     * @return true if the taxi was claimed and is now available, false otherwise.
+     */
+    boolean release() {
+	return state.compareAndSet(CLAIMED, AVAILABLE);
+    }
+
+    /**
+     * Start the ride of a taxi claimed by the caller. See ride() for the details.
+     *
+     * @param sourceLocation        the pick-up location for the customer.
+     * @param destLocation          the drop-off location for the customer.
+     * @return                      the time units to reach the destination.
+     */
+    long startRide(Point sourceLocation, Point destLocation) {
+	return startRide(sourceLocation.x, sourceLocation.y, destLocation.x, destLocation.y);
+    }
+
+    /**
+     * Start the ride of a taxi claimed by the caller. See ride() for the details.
+     *
+     * @param sourceX   x co-ordinate of the pick-up location for the customer.
+     * @param sourceY   y co-ordinate of the pick-up location for the customer.
+     * @param destX     x co-ordinate of the drop-off location for the customer.
+     * @param destY     y co-ordinate of the drop-off location for the customer.
+     * @return          the time units to reach the destination.
+     */
+    long startRide(int sourceX, int sourceY, int destX, int destY) {
+	return startRide(sourceX, sourceY, destX, destY, TravelTimes.MANHATTAN);
+    }
+
+    /**
+     * Start the ride of a taxi claimed by the caller, timed with the given travel times.
+     * See ride() for the details.
+     *
+     * @param sourceX       x co-ordinate of the pick-up location for the customer.
+     * @param sourceY       y co-ordinate of the pick-up location for the customer.
+     * @param destX         x co-ordinate of the drop-off location for the customer.
+     * @param destY         y co-ordinate of the drop-off location for the customer.
+     * @param travelTimes   the time to drive to the pick-up location, then the drop-off location.
+     * @return              the time units to reach the destination.
+     */
+    long startRide(int sourceX, int sourceY, int destX, int destY, TravelTimes travelTimes) {
+	destinationLocation.setLocation(destX, destY);
+	rideStartTime = clock.now();
+	rideDuration = 0;
+	rideEndTime =
+	    rideStartTime +
+	    travelTimes.time(availableLocation.x, availableLocation.y, sourceX, sourceY) +
+	    travelTimes.time(sourceX, sourceY, destX, destY);
+	long totalTime = rideEndTime - rideStartTime;
+	publishStatus(false);
+	state.set(RIDING);
+	return totalTime;
+    }
+
+    /**
+     * Resume a ride of a taxi claimed by the caller, e.g. a ride recovered from a FleetJournal.
+     * The taxi is at its available location until the end of the ride.
+     *
+     * @param destX     x co-ordinate of the drop-off location for the customer.
+     * @param destY     y co-ordinate of the drop-off location for the customer.
+     * @param rideTime  the time units left until the destination is reached.
+     */
+    void resumeRide(int destX, int destY, long rideTime) {
+	destinationLocation.setLocation(destX, destY);
+	rideStartTime = clock.now();
+	rideDuration = 0;
+	rideEndTime = rideStartTime + rideTime;
+	publishStatus(false);
+	state.set(RIDING);
+    }
+
+    /**
+     * Move a taxi claimed by the caller to a new available location, e.g. an idle taxi sent
+     * toward the demand. The taxi must not be in a TaxiIndex.
+     *
+     * @param x  x co-ordinate of the new location.
+     * @param y  y co-ordinate of the new location.
+     */
+    void relocate(int x, int y) {
+	availableLocation.setLocation(x, y);
+	publishStatus(true);
+    }
+
+    /**
+     * End the current ride; the taxi becomes available at the destination of the ride.
+     * Safe to call concurrently; only one of the callers ends the ride.
+     *
+     * @return true if this call ended the ride, false if the taxi was not on a ride.
+     */
+    boolean complete() {
+	if (state.compareAndSet(RIDING, UPDATING)) {
+	    availableLocation.setLocation(destinationLocation);
+	    destinationLocation.setLocation(0, 0);
+	    rideStartTime = -1;
+	    rideEndTime = -1;
+	    rideDuration = -1;
+	    publishStatus(true);
+	    state.set(AVAILABLE);
+	    return true;
+	} else {
+	    return false;
+	}
+    }
+
+    /**
+     * Return the latest snapshot of this taxi, without any lock.
+     * If time is moved internally and the clock has moved past the end of the ride, the taxi is
+     * reported available at its destination, as isAvailable() would find it, but the ride is
+     * not completed by this call.
+     *
+     * @return the status of this taxi as of its last stable state.
+     */
+    public TaxiStatus getStatus() {
+	TaxiStatus current = status;
+	if (!current.isAvailable() && moveTimeInternally && current.getRideEndTime() <= clock.now()) {
+	    return current.completed();
+	}
+	return current;
+    }
+
+    /**
+     * Publish the snapshot of the stable state about to be set. Called by the thread that
+     * holds the taxi in the CLAIMED or UPDATING state, or otherwise owns it.
+     *
+     * @param available  is the taxi about to be available?
+     */
+    private void publishStatus(boolean available) {
+	status = new TaxiStatus(id, available, availableLocation.x, availableLocation.y,
+				destinationLocation.x, destinationLocation.y, rideEndTime);
+    }
+
     /**
      * Return the id of this taxi.
      *
@@ -133,6 +306,15 @@ public class Taxi {
 	return availableLocation;
     }
 
+    /**
+     * Return the destination of the current ride.
+     *
+     * @return the drop-off location; (0, 0) if the taxi is not on a ride.
+     */
+    Point getDestinationLocation() {
+	return destinationLocation;
+    }
+
     /**
      * Return String representation of object.
      *
@@ -141,7 +323,7 @@ public class Taxi {
     @Override
     public String toString() {
 	return
-	    "{taxi: {id: " + id + ", available: " + available +
+	    "{taxi: {id: " + id + ", available: " + (state.get() == AVAILABLE) +
 	    ", availableLocation: [" + availableLocation.x + ", " + availableLocation.y +
 	    "], destinationLocation: [" + destinationLocation.x + ", " + destinationLocation.y +
 	    "], rideStartTime: " + rideStartTime + ", rideEndTime: " + rideEndTime +
@@ -161,7 +343,7 @@ public class Taxi {
 	Taxi other = (Taxi)object;
 	return
 	    this.id == other.id &&
-	    this.available == other.available &&
+	    this.state.get() == other.state.get() &&
 	    Objects.equals(this.availableLocation, other.availableLocation) &&
 	    Objects.equals(this.destinationLocation, other.destinationLocation) &&
 	    this.rideStartTime == other.rideStartTime &&
@@ -177,7 +359,7 @@ public class Taxi {
      */
     @Override
     public int hashCode() {
-	return Objects.hash(id, available, availableLocation, destinationLocation,
+	return Objects.hash(id, state.get(), availableLocation, destinationLocation,
 			    rideStartTime, rideEndTime, moveTimeInternally, rideDuration);
     }
 
@@ -189,14 +371,38 @@ public class Taxi {
      * @return   the distance between the 2 points.
      */
     public static int distance(Point p1, Point p2) {
-	return (Math.abs(p1.x-p2.x) + Math.abs(p1.y-p2.y));
+	return distance(p1.x, p1.y, p2.x, p2.y);
     }
 
+    /**
+     * Helper function to determine the distance between the 2 given points.
+     *
+     * @param x1 x co-ordinate of the first point
+     * @param y1 y co-ordinate of the first point
+     * @param x2 x co-ordinate of the second point
+     * @param y2 y co-ordinate of the second point
+     * @return   the distance between the 2 points.
+     */
+    public static int distance(int x1, int y1, int x2, int y2) {
+	return (Math.abs(x1-x2) + Math.abs(y1-y2));
+    }
+
+    // Values of the availability state.
+    // AVAILABLE and RIDING are stable; CLAIMED and UPDATING are held by a single thread
+    // while it writes the ride details.
+    private static final int AVAILABLE = 0;
+    private static final int CLAIMED = 1;
+    private static final int UPDATING = 2;
+    private static final int RIDING = 3;
+
     // Identifier for this taxi.
     private int id;
 
     // Is the taxi available for a customer or booked?
-    private boolean available = true;
+    private final AtomicInteger state = new AtomicInteger(AVAILABLE);
+
+    // Snapshot of the last stable state, replaced (never modified) by publishStatus().
+    private volatile TaxiStatus status;
 
     // Location when available.
     private Point availableLocation;
@@ -204,12 +410,15 @@ public class Taxi {
     // Destination location when booked. Available location is the start location
     private Point destinationLocation;
 
-    // Start & End times for a ride. Values are the system's time in seconds.
+    // Start & End times for a ride. Values are the clock's time in seconds.
     // Used whether time is moved internally or externally.
     private long rideStartTime;
     private long rideEndTime;
 
-    // Manage movement of time internally. A time unit is mapped to 1 second and the system
+    // Source of the ride start & end times.
+    private final Clock clock;
+
+    // Manage movement of time internally. A time unit is mapped to 1 second and the clock's
     // time is used to free the taxi whenever its availability is checked/queried.
     // If managed externally, then the tick method will move time and free the taxi appropriately.
     boolean moveTimeInternally = false;
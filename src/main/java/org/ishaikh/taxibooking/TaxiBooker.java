@@ -1,133 +1,1987 @@
 package org.ishaikh.taxibooking;
 
+import java.awt.Point;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.servlet.http.HttpServletResponse;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
  * Implements the taxi booking system.
  * Is also a REST Resource Controller for Spring.
  * A Singleton of this object is used by Spring.
+ * <p>
+ * Bookings and ticks share the fleet lock, so they run concurrently with each other.
+ * Each taxi is claimed with a compare-and-set of its state, and the index of available taxis
+ * locks each grid cell separately, so bookings in different areas do not block each other.
+ * A reset, and a resize of a journaled fleet, take the fleet lock exclusively.
+ * <p>
+ * With a FleetJournal (see recover()), every change of the fleet is journaled, so that
+ * the fleet survives a restart.
+ * <p>
+ * Travel times are the Manhattan distance, or follow a RoadNetwork (see setTravelTimes()).
+ * <p>
+ * Looking ahead (see setLookAhead()), a booking may go to a taxi about to end its ride instead.
+ * <p>
+ * With a ShardRouter (see join()), the booker is one shard of a fleet partitioned between nodes.
+ * <p>
+ * As a MeterBinder, its BookingMetrics are exported by Spring Boot Actuator.
  */
 @RestController
 @RequestMapping("/api")
-public class TaxiBooker {
+public class TaxiBooker implements MeterBinder {
     /**
      * Constants.
      */
     public static final int NUMBER_OF_TAXIS = 3;
 
+    // Largest number of rides assigned together; larger batches are split.
+    // The assignment takes O(n^3) time for n rides.
+    public static final int MAX_BATCH_SIZE = 128;
+
+    // Number of nearby taxis considered for each ride of a batch.
+    public static final int CANDIDATES_PER_RIDE = 3;
+
+    // Number of taxis closest in distance whose travel time to a pick-up location is compared,
+    // when the travel times are not the Manhattan distance.
+    public static final int TRAVEL_TIME_CANDIDATES = 4;
+
+    // Headers of a "/api/book" response without a taxi: why, and in how many time units
+    // the earliest ride ends.
+    public static final String UNAVAILABLE_REASON_HEADER = "X-Unavailable-Reason";
+    public static final String NEXT_FREE_IN_HEADER = "X-Next-Free-In";
+
+    // Header of a "/api/book" response rejected by admission control: when to try again.
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    // Most idle taxis sent toward the demand per tick.
+    public static final int REBALANCED_TAXIS = 64;
+
+    // Most rides ending soon whose taxi is considered for a booking, looking ahead.
+    public static final int LOOK_AHEAD_CANDIDATES = 64;
+
+    // Number of rides ending at once from which their taxis are made available in parallel,
+    // and the number made available by each task.
+    public static final int PARALLEL_COMPLETIONS = 4096;
+
+    // Default largest number of bookings waiting for a taxi, and how long they wait (ms).
+    public static final int WAITING_RIDES = 1000;
+    public static final long WAIT_TIMEOUT = 30000;
+
     /**
      * Constructor.
      */
     public TaxiBooker() {
-	createTaxis(NUMBER_OF_TAXIS);
+	this(NUMBER_OF_TAXIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param numberOfTaxis    how many taxis to manage
+     */
+    public TaxiBooker(int numberOfTaxis) {
+	createTaxis(numberOfTaxis);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fleet    the taxis to manage. Ids must be unique.
+     */
+    public TaxiBooker(List<Taxi> fleet) {
+	addTaxis(fleet);
+    }
+
+    /**
+     * Constructor used by Spring. The fleet is configured with the application properties:
+     * "taxibooking.fleet.file" names a fleet file (see FleetLoader) with the ids and initial
+     * locations of the taxis; otherwise "taxibooking.fleet.size" taxis are created at (0, 0).
+     *
+     * "taxibooking.queue.capacity" & "taxibooking.queue.timeout" configure the bookings
+     * waiting for a taxi; see bookOrWait().
+     *
+     * @param numberOfTaxis    how many taxis to create when there is no fleet file
+     * @param fleetFile        the fleet file; empty for none
+     * @param queueCapacity    the largest number of bookings waiting for a taxi
+     * @param queueTimeout     how long a booking waits for a taxi, in milliseconds
+     * @throws IOException     if the fleet file cannot be read
+     */
+    @Autowired
+    public TaxiBooker(@Value("${taxibooking.fleet.size:" + NUMBER_OF_TAXIS + "}") int numberOfTaxis,
+		      @Value("${taxibooking.fleet.file:}") String fleetFile,
+		      @Value("${taxibooking.queue.capacity:" + WAITING_RIDES + "}") int queueCapacity,
+		      @Value("${taxibooking.queue.timeout:" + WAIT_TIMEOUT + "}") long queueTimeout)
+	throws IOException {
+	waitingRides = new WaitingRides(queueCapacity);
+	waitTimeout = queueTimeout;
+	if (fleetFile.isEmpty()) {
+	    createTaxis(numberOfTaxis);
+	} else {
+	    addTaxis(FleetLoader.load(Paths.get(fleetFile)));
+	}
     }
 
     /**
      * Book a taxi.
      * Handler for a POST HTTP request for "/api/book".
+     * <p>
+     * The request body is decoded and the response body encoded by the RideCodec, straight
+     * from and to ints, so that no RideCoordinates, Point or BookingStatus is created.
      *
-     * @param rideCoordinates  JSON request body is mapped to this class
-     * @result the resulting BookingStatus is translated into JSON and sent in body of HTTP response.
-     *         A NULL return traslates to a empty response body.
+     * <p>
+     * With an AdmissionControl (see setAdmissionControl()), the booking waits for its turn once
+     * the body is read, by the priority in the AdmissionControl.PRIORITY_HEADER, or is rejected
+     * right away. Only the booking itself holds the place and counts in its latency.
+     * <p>
+     * With an IdempotencyCache (see setIdempotencyCache()), a retry with the idempotency key
+     * of an earlier booking gets the result of that booking, before any admission control.
+     * A retry while that booking is still in progress gets a 409 Conflict response, with a
+     * Retry-After header, rather than wait for it.
+     *
+     * @param body            JSON request body, in the format of RideCoordinates
+     * @param priority        "high", "normal" or "low"; normal by default.
+     * @param idempotencyKey  the same key for every attempt of a booking; null for none.
+     * @param response        the resulting BookingStatus is written as JSON in the body of the HTTP response.
+     *                        No taxi available translates to an empty response body, with the reason
+     *                        and the time units until the earliest ride ends in headers.
+     *                        A rejected booking translates to a 429 or 503 response; see writeRejected().
+     *                        A key longer than IdempotencyCache.MAX_KEY_LENGTH translates to a 400 response.
+     * @throws HttpMessageNotReadableException  if the request body is not valid JSON ride co-ordinates.
+     *                                          Translates to a 400 response.
      */
     @PostMapping("/book")
-    public BookingStatus book(@RequestBody RideCoordinates rideCoordinates) {
-	BookingStatus result = null;
+    public void book(InputStream body,
+		     @RequestHeader(value = AdmissionControl.PRIORITY_HEADER, required = false) String priority,
+		     @RequestHeader(value = IdempotencyCache.KEY_HEADER, required = false) String idempotencyKey,
+		     HttpServletResponse response) throws IOException {
+	IdempotencyCache cache = idempotencyCache;
+	if (cache != null && idempotencyKey != null) {
+	    if (!IdempotencyCache.isValidKey(idempotencyKey)) {
+		response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid idempotency key");
+		return;
+	    }
+	    long cached = cache.get(idempotencyKey);
+	    if (cached != BookingStatus.NO_BOOKING) {
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		RideCodec.get().writeBookingStatus(cached, response.getOutputStream());
+		return;
+	    }
+	}
+
+	// Read the whole body before admission, so that a slow client holds no place and
+	// its upload time does not count in the latency the limit adapts to.
+	RideCodec rideCodec = RideCodec.get();
+	try {
+	    rideCodec.readRide(body);
+	} catch (IllegalArgumentException e) {
+	    throw new HttpMessageNotReadableException("Invalid ride coordinates: " + e.getMessage());
+	}
+
+	AdmissionControl control = admissionControl;
+	if (control != null) {
+	    AdmissionControl.Decision decision;
+	    try {
+		decision = control.acquire(AdmissionControl.Priority.of(priority));
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		decision = AdmissionControl.Decision.OVERLOADED;
+	    }
+	    if (decision != AdmissionControl.Decision.ADMITTED) {
+		writeRejected(control, decision, response);
+		return;
+	    }
+	}
+
+	long result;
+	long startTime = System.nanoTime();
+	try {
+	    result = book(idempotencyKey, rideCodec.getSourceX(), rideCodec.getSourceY(),
+			  rideCodec.getDestinationX(), rideCodec.getDestinationY());
+	} catch (IdempotencyCache.InProgressException e) {
+	    writeInProgress(response);
+	    return;
+	} finally {
+	    if (control != null) {
+		control.release(System.nanoTime() - startTime);
+	    }
+	}
+	if (result != BookingStatus.NO_BOOKING) {
+	    response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+	    rideCodec.writeBookingStatus(result, response.getOutputStream());
+	} else {
+	    writeUnavailable(response);
+	}
+    }
+
+    /**
+     * Answer a booking rejected by admission control: 429 Too Many Requests if the share of its
+     * priority is full, 503 Service Unavailable if the booker is overloaded; either with a
+     * Retry-After header, in seconds.
+     *
+     * @param control   the admission control.
+     * @param decision  the rejection.
+     * @param response  the HTTP response.
+     */
+    void writeRejected(AdmissionControl control, AdmissionControl.Decision decision,
+		       HttpServletResponse response) {
+	response.setStatus(decision.getStatus());
+	response.setHeader(RETRY_AFTER_HEADER, Long.toString(control.getRetryAfter()));
+    }
+
+    /**
+     * Answer a retried booking whose first attempt is still in progress: 409 Conflict, with a
+     * Retry-After header, in seconds.
+     *
+     * @param response  the HTTP response.
+     */
+    void writeInProgress(HttpServletResponse response) {
+	response.setStatus(HttpServletResponse.SC_CONFLICT);
+	response.setHeader(RETRY_AFTER_HEADER, "1");
+    }
+
+    /**
+     * Set the headers of a response to a booking that got no taxi: the reason (see
+     * unavailableReason()) and, if there is an ongoing ride, the time units until the earliest one ends.
+     *
+     * @param response  the HTTP response.
+     */
+    void writeUnavailable(HttpServletResponse response) {
+	response.setHeader(UNAVAILABLE_REASON_HEADER, unavailableReason());
+	long nextFree = nextFreeIn();
+	if (nextFree >= 0) {
+	    response.setHeader(NEXT_FREE_IN_HEADER, Long.toString(nextFree));
+	}
+    }
+
+    /**
+     * Book a taxi.
+     *
+     * @param rideCoordinates  the source & destination of the ride
+     * @result the resulting BookingStatus. NULL if no taxi is available.
+     */
+    public BookingStatus book(RideCoordinates rideCoordinates) {
+	return BookingStatus.unpack(book(rideCoordinates.getSource().x, rideCoordinates.getSource().y,
+					 rideCoordinates.getDestination().x,
+					 rideCoordinates.getDestination().y));
+    }
+
+    /**
+     * Book a taxi.
+     *
+     * @param sourceX       x co-ordinate of the pick-up location.
+     * @param sourceY       y co-ordinate of the pick-up location.
+     * @param destinationX  x co-ordinate of the drop-off location.
+     * @param destinationY  y co-ordinate of the drop-off location.
+     * @result the id of the taxi and the total time of the ride, packed with BookingStatus.pack().
+     *         BookingStatus.NO_BOOKING if no taxi is available.
+     */
+    public long book(int sourceX, int sourceY, int destinationX, int destinationY) {
+	ShardRouter shardRouter = router;
+	if (shardRouter != null) {
+	    return shardRouter.book(sourceX, sourceY, destinationX, destinationY);
+	}
+	return bookHere(sourceX, sourceY, destinationX, destinationY);
+    }
+
+    /**
+     * Book a taxi once per idempotency key, with the IdempotencyCache if there is one
+     * (see setIdempotencyCache()): a booking with the key of an earlier one gets its result.
+     *
+     * @param idempotencyKey  the key of the booking; null to book without one.
+     * @param sourceX         x co-ordinate of the pick-up location.
+     * @param sourceY         y co-ordinate of the pick-up location.
+     * @param destinationX    x co-ordinate of the drop-off location.
+     * @param destinationY    y co-ordinate of the drop-off location.
+     * @result the id of the taxi and the total time of the ride, packed with BookingStatus.pack().
+     *         BookingStatus.NO_BOOKING if no taxi is available.
+     * @throws IdempotencyCache.InProgressException  if another booking with the key is in progress.
+     */
+    public long book(String idempotencyKey, int sourceX, int sourceY, int destinationX, int destinationY) {
+	IdempotencyCache cache = idempotencyCache;
+	if (cache == null || idempotencyKey == null) {
+	    return book(sourceX, sourceY, destinationX, destinationY);
+	}
+	return cache.book(idempotencyKey, () -> book(sourceX, sourceY, destinationX, destinationY));
+    }
+
+    /**
+     * Book a taxi of this booker, whether or not it is a shard of a partitioned fleet.
+     * Handler for a POST HTTP request for
+     * "/api/shard/book?sourceX=..&sourceY=..&destinationX=..&destinationY=.." from another shard.
+     *
+     * @param sourceX       x co-ordinate of the pick-up location.
+     * @param sourceY       y co-ordinate of the pick-up location.
+     * @param destinationX  x co-ordinate of the drop-off location.
+     * @param destinationY  y co-ordinate of the drop-off location.
+     * @result the id of the taxi and the total time of the ride, packed with BookingStatus.pack().
+     *         BookingStatus.NO_BOOKING if no taxi is available.
+     */
+    @PostMapping("/shard/book")
+    public long bookHere(@RequestParam int sourceX, @RequestParam int sourceY,
+			 @RequestParam int destinationX, @RequestParam int destinationY) {
+	long result = BookingStatus.NO_BOOKING;
+	int pickUpDistance = -1;
+	long startTime = System.nanoTime();
+	long lockedTime;
+	long foundTime;
+	TravelTimes times = travelTimes;
+	long horizon = lookAhead;
+
+	DemandHeatmap heatmap = demand;
+	if (heatmap != null) {
+	    heatmap.record(sourceX, sourceY);
+	}
+
+	// Fail fast, without the fleet lock or a search, when every taxi is booked
+	// (and, looking ahead, no ride ends soon enough).
+	if (availableTaxis.size() == 0 &&
+	    (horizon == 0 || rideScheduler.nextEndTime() - rideScheduler.now() > horizon)) {
+	    metrics.recordFailFast(System.nanoTime() - startTime);
+	    return result;
+	}
 	
-	synchronized(taxis) {
+	fleetLock.readLock().lock();
+	try {
+	    lockedTime = System.nanoTime();
+
 	    // Find a free taxi that is closest to the source location.
 	    // If multiple taxis are equally close to the source location pick the smallest id.
-	    Taxi closestTaxi = null;
-	    int closestTaxiDistance = -1;
-	    for (Taxi taxi : taxis) {
-		if (taxi.isAvailable()) {
-		    int taxiDistance = Taxi.distance(taxi.getAvailableLocation(),
-						     rideCoordinates.getSource());
-		    if (closestTaxiDistance == -1 || taxiDistance < closestTaxiDistance) {
-			closestTaxiDistance = taxiDistance;
-			closestTaxi = taxi;
+	    // A concurrent booking may claim the same taxi first; then try the next closest one.
+	    Taxi closestTaxi;
+	    if (times == TravelTimes.MANHATTAN) {
+		do {
+		    closestTaxi = availableTaxis.nearest(sourceX, sourceY);
+		} while (closestTaxi != null && !closestTaxi.claim());
+		if (closestTaxi != null) {
+		    availableTaxis.remove(closestTaxi);
+		}
+	    } else {
+		closestTaxi = claimQuickest(sourceX, sourceY, times);
+	    }
+
+	    // A taxi about to end its ride may reach the pick-up location first; if so,
+	    // chain the ride onto it and put the free taxi back.
+	    if (horizon > 0) {
+		long pickUpTime = closestTaxi == null ? Long.MAX_VALUE :
+		    times.time(closestTaxi.getAvailableLocation().x, closestTaxi.getAvailableLocation().y,
+			       sourceX, sourceY);
+		result = chainRide(sourceX, sourceY, destinationX, destinationY, times, horizon, pickUpTime);
+		if (result != BookingStatus.NO_BOOKING) {
+		    pickUpDistance = (int)(BookingStatus.totalTime(result) -
+					   times.time(sourceX, sourceY, destinationX, destinationY));
+		    if (closestTaxi != null) {
+			closestTaxi.release();
+			makeAvailable(closestTaxi, false);
+			closestTaxi = null;
 		    }
 		}
 	    }
+	    foundTime = System.nanoTime();
 
 	    // If we found a free taxi, start its ride...
 	    if (closestTaxi != null) {
-		long totalTime = closestTaxi.ride(rideCoordinates.getSource(),
-						  rideCoordinates.getDestination());
-		result = new BookingStatus(closestTaxi.getId(), totalTime);
+		pickUpDistance = times.time(closestTaxi.getAvailableLocation().x,
+					    closestTaxi.getAvailableLocation().y, sourceX, sourceY);
+		long totalTime = closestTaxi.startRide(sourceX, sourceY, destinationX, destinationY, times);
+		scheduleRide(closestTaxi, sourceX, sourceY, totalTime, pickUpDistance);
+		result = BookingStatus.pack(closestTaxi.getId(), totalTime);
 	    }
+	} finally {
+	    fleetLock.readLock().unlock();
 	}
 
+	metrics.recordBooking(lockedTime - startTime, foundTime - lockedTime,
+			      System.nanoTime() - startTime, pickUpDistance);
 	return result;
     }
 
     /**
-     * Advance the clock by one time unit. Delegates to the Taxi.tick().
-     * Handler for a PUT HTTP request for "/api/tick".
+     * Summarize the availability of the fleet: the number of available taxis, overall and by
+     * region, and when the earliest ride ends. Read from live counts, without the fleet lock.
+     * Handler for a GET HTTP request for "/api/availability".
+     *
+     * @result the availability summary, translated into JSON in the body of the HTTP response.
      */
-    @PutMapping("/tick")
-    public void tick() {
-	synchronized(taxis) {
-	    for (Taxi taxi : taxis) {
-		taxi.tick();
+    @GetMapping("/availability")
+    public Availability availability() {
+	CountingTaxiIndex index = availableTaxis;
+	Availability availability = new Availability(taxis.size(), index.size(), rideScheduler.size(),
+						     nextFreeIn(), index.getRegionSize());
+	index.forEachRegion(availability::addRegion);
+	return availability;
+    }
+
+    /**
+     * Return why a booking gets no taxi right now.
+     *
+     * @return Availability.NO_TAXIS if the fleet is empty, Availability.ALL_BOOKED if every
+     *         taxi is on a ride, otherwise Availability.TAKEN.
+     */
+    public String unavailableReason() {
+	if (taxis.isEmpty()) {
+	    return Availability.NO_TAXIS;
+	} else if (availableTaxis.size() == 0) {
+	    return Availability.ALL_BOOKED;
+	} else {
+	    return Availability.TAKEN;
+	}
+    }
+
+    /**
+     * Return the time units until the earliest ongoing ride ends, and its taxi becomes free.
+     *
+     * @return the time units; -1 if there is no ongoing ride.
+     */
+    public long nextFreeIn() {
+	long nextEndTime = rideScheduler.nextEndTime();
+	if (nextEndTime == Long.MAX_VALUE) {
+	    return -1;
+	}
+	return Math.max(nextEndTime - rideScheduler.now(), 0);
+    }
+
+    /**
+     * Sum up the bookings whose ride started in a window of time units, e.g. "/api/history?from=0&to=3600".
+     * Handler for a GET HTTP request for "/api/history"; all the bookings in the history by default.
+     *
+     * @param from  the first time unit of the window.
+     * @param to    the end of the window, exclusive.
+     * @result the summary, translated into JSON in the body of the HTTP response.
+     */
+    @GetMapping("/history")
+    public BookingSummary history(@RequestParam(defaultValue = "0") long from,
+				  @RequestParam(defaultValue = "" + Long.MAX_VALUE) long to) {
+	return history.summarize(from, to);
+    }
+
+    /**
+     * Sum up the bookings of each taxi whose ride started in a window of time units.
+     * Handler for a GET HTTP request for "/api/history/taxis".
+     *
+     * @param from  the first time unit of the window.
+     * @param to    the end of the window, exclusive.
+     * @result the summaries by taxi id, translated into JSON in the body of the HTTP response.
+     */
+    @GetMapping("/history/taxis")
+    public Map<Integer, BookingSummary> historyByTaxi(@RequestParam(defaultValue = "0") long from,
+						      @RequestParam(defaultValue = "" + Long.MAX_VALUE) long to) {
+	return history.summarizeByTaxi(from, to);
+    }
+
+    /**
+     * Sum up the bookings of a taxi whose ride started in a window of time units, e.g. to bill it.
+     * Handler for a GET HTTP request for "/api/history/taxis/{id}".
+     *
+     * @param id    the id of the taxi.
+     * @param from  the first time unit of the window.
+     * @param to    the end of the window, exclusive.
+     * @result the summary, translated into JSON in the body of the HTTP response.
+     */
+    @GetMapping("/history/taxis/{id}")
+    public BookingSummary history(@PathVariable int id, @RequestParam(defaultValue = "0") long from,
+				  @RequestParam(defaultValue = "" + Long.MAX_VALUE) long to) {
+	return history.summarize(id, from, to);
+    }
+
+    /**
+     * Set the heatmap of the demand that idle taxis are sent toward on every tick.
+     * The pick-up locations of the bookings are recorded in it.
+     *
+     * @param heatmap  the heatmap, with regions of the size of those of the available taxis
+     *                 (CountingTaxiIndex.REGION_SIZE); null, the default, not to move idle taxis.
+     */
+    public void setDemandHeatmap(DemandHeatmap heatmap) {
+	if (heatmap != null && heatmap.getRegionSize() != availableTaxis.getRegionSize()) {
+	    throw new IllegalArgumentException("Invalid heatmap region size: " + heatmap.getRegionSize());
+	}
+	demand = heatmap;
+    }
+
+    /**
+     * Set the admission control in front of the bookings of "/api/book", so that an overload is
+     * shed instead of slowing every booking down. The other ways to book are not controlled.
+     *
+     * @param control  the admission control; null, the default, to admit every booking.
+     */
+    public void setAdmissionControl(AdmissionControl control) {
+	admissionControl = control;
+    }
+
+    /**
+     * Return the admission control in front of the bookings.
+     *
+     * @return the admission control; null if none.
+     */
+    AdmissionControl getAdmissionControl() {
+	return admissionControl;
+    }
+
+    /**
+     * Set the cache of the results of the bookings by idempotency key, so that a retried
+     * booking of "/api/book" gets the taxi of its first attempt.
+     *
+     * @param cache  the cache; null, the default, to book on every attempt.
+     */
+    public void setIdempotencyCache(IdempotencyCache cache) {
+	idempotencyCache = cache;
+    }
+
+    /**
+     * Return the cache of the results of the bookings by idempotency key.
+     *
+     * @return the cache; null if none.
+     */
+    IdempotencyCache getIdempotencyCache() {
+	return idempotencyCache;
+    }
+
+    /**
+     * Set the history the bookings are added to.
+     *
+     * @param newHistory  the history; an in-memory one of BookingHistory.CAPACITY bookings by default.
+     */
+    public void setHistory(BookingHistory newHistory) {
+	history = newHistory;
+    }
+
+    /**
+     * Set the travel times used to pick the taxi of a booking and to work out its total time.
+     *
+     * @param newTravelTimes  the travel times, e.g. a RoadNetwork; TravelTimes.MANHATTAN by default.
+     */
+    public void setTravelTimes(TravelTimes newTravelTimes) {
+	travelTimes = newTravelTimes;
+    }
+
+    /**
+     * Set how far ahead bookings look for taxis about to end their ride, in time units.
+     * Configured with the application property "taxibooking.matching.look-ahead".
+     * <p>
+     * A booking then goes to a taxi on a ride that ends within that many time units, if the time
+     * until its ride ends plus the travel time from its drop-off location beats the available
+     * taxi closest to the pick-up location, or if no taxi is available. The new ride is chained
+     * onto the current one: it starts, and is journaled, when the current ride ends.
+     * Chained rides that have not started yet are not in the snapshots of a FleetJournal.
+     *
+     * @param units  the time units to look ahead; 0, the default, to book available taxis only.
+     */
+    @Autowired
+    public void setLookAhead(@Value("${taxibooking.matching.look-ahead:0}") long units) {
+	if (units < 0) {
+	    throw new IllegalArgumentException("Invalid look-ahead: " + units);
+	}
+	lookAhead = units;
+    }
+
+    /**
+     * Chain a ride onto the taxi on a ride that reaches the pick-up location first, counting the
+     * time units until its ride ends and then the travel time from its drop-off location.
+     * Only taxis quicker than the given pick-up time are considered, among the
+     * LOOK_AHEAD_CANDIDATES rides ending first within the look-ahead; the earliest ending on ties.
+     * The ride starts when the current one ends; see startChainedRide().
+     * The caller holds the fleet lock.
+     *
+     * @param sourceX       x co-ordinate of the pick-up location.
+     * @param sourceY       y co-ordinate of the pick-up location.
+     * @param destinationX  x co-ordinate of the drop-off location.
+     * @param destinationY  y co-ordinate of the drop-off location.
+     * @param times         the travel times.
+     * @param horizon       the most time units until the end of the ride of the taxi.
+     * @param pickUpTime    the time units to beat until the pick-up; Long.MAX_VALUE for any.
+     * @return              the id of the taxi and the total time of the ride from now, packed
+     *                      with BookingStatus.pack(); BookingStatus.NO_BOOKING if none is quicker.
+     */
+    private long chainRide(int sourceX, int sourceY, int destinationX, int destinationY,
+			   TravelTimes times, long horizon, long pickUpTime) {
+	ChainedRide ride = new ChainedRide(sourceX, sourceY, destinationX, destinationY);
+	while (true) {
+	    ChainSearch search = new ChainSearch(sourceX, sourceY, times, pickUpTime);
+	    rideScheduler.forEachEndingBy(search.now + Math.min(horizon, pickUpTime - 1), search);
+	    if (search.taxi == null) {
+		return BookingStatus.NO_BOOKING;
+	    }
+
+	    // The ride is chained if it is in place before the ride of the taxi ends: until then,
+	    // the ride is scheduled. Otherwise, either it is withdrawn, or the end of the ride
+	    // took it after all. A taxi that fails is not found again by the next search.
+	    int taxiId = search.taxi.getId();
+	    if (chainedRides.putIfAbsent(taxiId, ride) == null &&
+		(rideScheduler.isScheduled(search.taxi, search.endTime) || !chainedRides.remove(taxiId, ride))) {
+		return BookingStatus.pack(taxiId, search.pickUpTime +
+					  times.time(sourceX, sourceY, destinationX, destinationY));
 	    }
 	}
     }
 
     /**
-     * Reset all taxis.. Delegates to the Taxi.reset().
-     * Handler for a PUT HTTP request for "/api/reset".
+     * Looks for the taxi on a ride that reaches a pick-up location first. See chainRide().
      */
-    @PutMapping("/reset")
-    public void reset() {
-	synchronized(taxis) {
-	    for (Taxi taxi : taxis) {
-		taxi.reset();
+    private class ChainSearch implements RideScheduler.RideAction {
+	/**
+	 * Constructor.
+	 *
+	 * @param sourceX     x co-ordinate of the pick-up location.
+	 * @param sourceY     y co-ordinate of the pick-up location.
+	 * @param times       the travel times.
+	 * @param pickUpTime  the time units to beat until the pick-up.
+	 */
+	ChainSearch(int sourceX, int sourceY, TravelTimes times, long pickUpTime) {
+	    this.sourceX = sourceX;
+	    this.sourceY = sourceY;
+	    this.times = times;
+	    this.pickUpTime = pickUpTime;
+	    this.now = rideScheduler.now();
+	}
+
+	@Override
+	public boolean accept(Taxi rideTaxi, long rideEndTime) {
+	    long remaining = Math.max(rideEndTime - now, 0);
+	    if (remaining >= pickUpTime || ++candidates > LOOK_AHEAD_CANDIDATES) {
+		return false;
+	    }
+	    if (chainedRides.containsKey(rideTaxi.getId()) || retiringTaxis.contains(rideTaxi.getId())) {
+		return true;
+	    }
+	    // The snapshot of the taxi, as its location changes when the ride ends.
+	    TaxiStatus status = rideTaxi.getStatus();
+	    if (!status.isAvailable()) {
+		long time = remaining + times.time(status.getDestinationX(), status.getDestinationY(),
+						   sourceX, sourceY);
+		if (time < pickUpTime) {
+		    taxi = rideTaxi;
+		    endTime = rideEndTime;
+		    pickUpTime = time;
+		}
 	    }
+	    return true;
 	}
+
+	// The pick-up location and the travel times to it.
+	private final int sourceX;
+	private final int sourceY;
+	private final TravelTimes times;
+
+	// The time at the start of the search.
+	final long now;
+
+	// Number of rides considered so far.
+	private int candidates;
+
+	// The quickest taxi so far, the end of its ride, and its time to the pick-up location;
+	// otherwise null and the time to beat.
+	Taxi taxi;
+	long endTime;
+	long pickUpTime;
     }
 
     /**
-     * Provides details of a taxi. Useful for debugging from the client side.
-     * Handler for a GET HTTP request for "/api/status/id".
+     * Start the ride chained onto the ride of a taxi that just ended, if any. See chainRide().
+     * The caller holds the fleet lock.
      *
-     * @param id the id of the taxi extracted from the URI and passed in.
-     * @result a string describing the details of the taxi at this moment.
+     * @param taxi  the taxi, in the available state but not in the index.
+     * @return      true if the taxi is now on the chained ride, false if it had none.
+     */
+    private boolean startChainedRide(Taxi taxi) {
+	if (!chainedRides.containsKey(taxi.getId())) {
+	    return false;
+	}
+	// Claim the taxi before taking the ride, which its client was already told about.
+	// Out of the index, the taxi is only claimed by take(), which releases it right away.
+	while (!taxi.claim()) {
+	    Thread.yield();
+	}
+	ChainedRide ride = chainedRides.remove(taxi.getId());
+	if (ride == null) {
+	    // Withdrawn by chainRide(), which found the ride of the taxi already ended.
+	    taxi.release();
+	    return false;
+	}
+	TravelTimes times = travelTimes;
+	int pickUpDistance = times.time(taxi.getAvailableLocation().x, taxi.getAvailableLocation().y,
+					ride.sourceX, ride.sourceY);
+	long totalTime = taxi.startRide(ride.sourceX, ride.sourceY, ride.destinationX, ride.destinationY, times);
+	scheduleRide(taxi, ride.sourceX, ride.sourceY, totalTime, pickUpDistance);
+	return true;
+    }
+
+    /**
+     * A ride booked for a taxi to take when its current ride ends. Compared by identity.
      */
+    private static class ChainedRide {
+	ChainedRide(int sourceX, int sourceY, int destinationX, int destinationY) {
+	    this.sourceX = sourceX;
+	    this.sourceY = sourceY;
+	    this.destinationX = destinationX;
+	    this.destinationY = destinationY;
+	}
+
+	// Pick-up & drop-off locations.
+	final int sourceX;
+	final int sourceY;
+	final int destinationX;
+	final int destinationY;
+    }
+
     /**
-     * Not meant for production use...
-    @GetMapping("/status/{id}")
-    public String status(@PathVariable int id) {
-	for (Taxi taxi : taxis) {
-	    if (taxi.getId() == id) {
-		return taxi.toString();
+     * Claim the available taxi that is quickest to reach a pick-up location.
+     * The TRAVEL_TIME_CANDIDATES taxis closest in distance are claimed and the one with the
+     * shortest travel time is kept, the smallest id on ties; the others are made available again.
+     * The caller holds the fleet lock.
+     *
+     * @param sourceX  x co-ordinate of the pick-up location.
+     * @param sourceY  y co-ordinate of the pick-up location.
+     * @param times    the travel times.
+     * @return         the claimed taxi, out of the index; null if no taxi is available.
+     */
+    private Taxi claimQuickest(int sourceX, int sourceY, TravelTimes times) {
+	Taxi[] candidates = new Taxi[TRAVEL_TIME_CANDIDATES];
+	int count = 0;
+	while (count < candidates.length) {
+	    Taxi taxi = availableTaxis.nearest(sourceX, sourceY);
+	    if (taxi == null) {
+		break;
+	    }
+	    if (taxi.claim()) {
+		availableTaxis.remove(taxi);
+		candidates[count++] = taxi;
+	    }
+	}
+
+	Taxi quickest = null;
+	int quickestTime = Integer.MAX_VALUE;
+	for (int i = 0; i < count; i++) {
+	    Taxi taxi = candidates[i];
+	    int time = times.time(taxi.getAvailableLocation().x, taxi.getAvailableLocation().y, sourceX, sourceY);
+	    if (time < quickestTime || (time == quickestTime && taxi.getId() < quickest.getId())) {
+		quickest = taxi;
+		quickestTime = time;
+	    }
+	}
+	for (int i = 0; i < count; i++) {
+	    if (candidates[i] != quickest) {
+		candidates[i].release();
+		makeAvailable(candidates[i], false);
 	    }
 	}
-	return "Invalid id: " + id;
+	return quickest;
     }
-    */
 
     /**
-     * Create the requested number of taxis and populate the collection.
+     * Book a taxi, waiting for one to become available if need be.
+     * Handler for a POST HTTP request for "/api/book/wait" (long polling).
+     * <p>
+     * When no taxi is available, the booking joins the queue of WaitingRides instead of
+     * answering right away, and the request is answered when a taxi that becomes available
+     * is assigned to it, without holding a thread meanwhile. This spares clients from
+     * polling "/api/book" when the fleet is busy.
      *
-     * @param numberOfTaxis    how many taxis to create
+     * @param rideCoordinates  JSON request body is mapped to this class
+     * @result the resulting BookingStatus, once there is one, is translated into JSON and sent in
+     *         body of HTTP response. A NULL result, when the queue is full, the wait times out or
+     *         the fleet is reset, translates to a empty response body.
      */
-    private void createTaxis(int numberOfTaxis) {
-	for (int i = 0; i < numberOfTaxis; i++) {
-	    taxis.add(new Taxi(i+1, false));
+    @PostMapping("/book/wait")
+    public DeferredResult<BookingStatus> bookOrWait(@RequestBody RideCoordinates rideCoordinates) {
+	DeferredResult<BookingStatus> result = new DeferredResult<BookingStatus>(waitTimeout, null);
+
+	fleetLock.readLock().lock();
+	try {
+	    // Together with makeAvailable(), so that no taxi becomes available unseen
+	    // between the booking & the queuing. Booked here, as the waiting rides are served
+	    // by this shard alone, and never with a remote call under the lock.
+	    synchronized(waitingRides) {
+		BookingStatus status = BookingStatus.unpack(bookHere(rideCoordinates.getSource().x,
+								     rideCoordinates.getSource().y,
+								     rideCoordinates.getDestination().x,
+								     rideCoordinates.getDestination().y));
+		if (status != null || !waitingRides.add(rideCoordinates, result)) {
+		    result.setResult(status);
+		}
+	    }
+	} finally {
+	    fleetLock.readLock().unlock();
 	}
+
+	result.onTimeout(() -> {
+		synchronized(waitingRides) {
+		    waitingRides.remove(result);
+		}
+	    });
+	return result;
     }
 
-    // Collection of taxi's managed by this booker.
-    List<Taxi> taxis = new ArrayList<Taxi>();    
+    /**
+     * Book taxis for a batch of rides.
+     * Handler for a POST HTTP request for "/api/book/batch".
+     * <p>
+     * Unlike a sequence of single bookings, which greedily take the closest taxi for each ride
+     * in turn, the taxis are assigned so that the total pick-up distance of the batch is
+     * the smallest possible. The taxis considered are the few closest to each pick-up location.
+     * If there are fewer taxis than rides, the rides with the closest taxis are served.
+     *
+     * @param rides  JSON array request body is mapped to this list
+     * @result the BookingStatus of each ride, in the order of the rides, translated into a JSON array.
+     *         A NULL entry means no taxi was available for that ride.
+     */
+    @PostMapping("/book/batch")
+    public List<BookingStatus> bookBatch(@RequestBody List<RideCoordinates> rides) {
+	List<BookingStatus> results = new ArrayList<BookingStatus>(rides.size());
+	for (int from = 0; from < rides.size(); from += MAX_BATCH_SIZE) {
+	    results.addAll(assignBatch(rides.subList(from, Math.min(from + MAX_BATCH_SIZE, rides.size()))));
+	}
+	return results;
+    }
+
+    /**
+     * Advance the clock by one time unit.
+     */
+    public void tick() {
+	tick(1);
+    }
+
+    /**
+     * Advance the clock by the given number of time units.
+     * Handler for a PUT HTTP request for "/api/tick?units=N"; by one unit without "units".
+     * <p>
+     * Only the taxis whose ride ends in that time are touched; they become available
+     * at the destination of their ride, as they would with the same number of calls to Taxi.tick().
+     * The clock jumps from one ride end time to the next, so advancing N units takes as many
+     * steps as there are rides ending, not N. A ride started in between, for a booking waiting
+     * for a taxi, also ends as it would with N ticks.
+     * When many rides end at once, their taxis are made available in parallel (fork-join).
+     * With a demand heatmap, idle taxis then drive toward the demand; see rebalance().
+     *
+     * @param units  the number of time units to advance.
+     */
+    @PutMapping("/tick")
+    public void tick(@RequestParam(defaultValue = "1") long units) {
+	if (units < 0) {
+	    throw new IllegalArgumentException("Invalid number of time units: " + units);
+	}
+
+	long startTime = System.nanoTime();
+	fleetLock.readLock().lock();
+	try {
+	    // Ticks are not concurrent with each other, only with bookings.
+	    synchronized(tickLock) {
+		advance(units);
+
+		DemandHeatmap heatmap = demand;
+		if (heatmap != null) {
+		    heatmap.decay(units);
+		    rebalance(heatmap, units);
+		}
+	    }
+	} finally {
+	    fleetLock.readLock().unlock();
+	}
+	deliverHandOffs();
+	metrics.recordTick(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Move the clock by a number of time units, from one ride end time to the next, and end
+     * the rides. The caller holds the fleet lock and the tick lock.
+     * <p>
+     * Each step is journaled as a tick of its own, with the clock moved under the journal order
+     * lock, so that the rides scheduled in between are journaled between the steps.
+     * See scheduleRide().
+     *
+     * @param units  the number of time units to advance.
+     */
+    private void advance(long units) {
+	long endTime = rideScheduler.now() + units;
+	while (rideScheduler.now() < endTime) {
+	    // A ride ends on a tick, so one that ends now ends on the next tick.
+	    long nextTime = Math.min(Math.max(rideScheduler.nextEndTime(), rideScheduler.now() + 1),
+				     endTime);
+	    List<Taxi> endedRides;
+	    FleetJournal fleetJournal = journal;
+	    if (fleetJournal != null) {
+		synchronized(journalOrder) {
+		    fleetJournal.tick(nextTime - rideScheduler.now());
+		    endedRides = rideScheduler.advance(nextTime - rideScheduler.now());
+		}
+	    } else {
+		endedRides = rideScheduler.advance(nextTime - rideScheduler.now());
+	    }
+	    completeRides(endedRides);
+	}
+    }
+
+    /**
+     * Reset all taxis.. Delegates to the Taxi.reset().
+     * Handler for a PUT HTTP request for "/api/reset".
+     * <p>
+     * A shard hands off its taxis to the shard owning (0, 0); every shard is reset on its own.
+     */
+    @PutMapping("/reset")
+    public void reset() {
+	long startTime = System.nanoTime();
+	fleetLock.writeLock().lock();
+	try {
+	    FleetJournal fleetJournal = journal;
+	    if (fleetJournal != null) {
+		fleetJournal.reset();
+	    }
+	    synchronized(waitingRides) {
+		for (WaitingRides.WaitingRide ride : waitingRides.clear()) {
+		    ride.result.setResult(null);
+		}
+	    }
+	    rideScheduler.clear();
+	    chainedRides.clear();
+	    history.clear();
+	    IdempotencyCache cache = idempotencyCache;
+	    if (cache != null) {
+		cache.clear();
+	    }
+	    DemandHeatmap heatmap = demand;
+	    if (heatmap != null) {
+		heatmap.clear();
+	    }
+	    availableTaxis.clear();
+	    retireTaxis(retiringTaxis);
+	    retiringTaxis.clear();
+	    Set<Integer> handedOffTaxis = new HashSet<Integer>();
+	    for (Taxi taxi : taxis) {
+		taxi.reset();
+		if (router != null && !router.owns(0, 0)) {
+		    handOffs.add(taxi);
+		    handedOffTaxis.add(taxi.getId());
+		} else {
+		    availableTaxis.add(taxi);
+		}
+	    }
+	    retireTaxis(handedOffTaxis);
+	} finally {
+	    fleetLock.writeLock().unlock();
+	}
+	deliverHandOffs();
+	metrics.recordReset(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Grow or shrink the fleet while bookings carry on.
+     * Handler for a PUT HTTP request for "/api/fleet?size=N".
+     * <p>
+     * New taxis are available at (0, 0) and get the next unused ids. When shrinking, the most
+     * recently added taxis are taken out of service: right away if they are available, otherwise
+     * at the end of their ride.
+     * <p>
+     * With a FleetJournal, it takes the fleet lock exclusively, like a reset, so that no booking
+     * is under way while it is journaled: bookings then wait for the resize.
+     *
+     * @param size  the number of taxis in service.
+     */
+    @PutMapping("/fleet")
+    public void resize(@RequestParam int size) {
+	if (size < 0) {
+	    throw new IllegalArgumentException("Invalid fleet size: " + size);
+	}
+
+	// With a journal, no booking is under way while the resize is journaled: the rides are then
+	// replayed on the same side of the resize as they happened. Otherwise bookings carry on.
+	Lock lock = journal != null ? fleetLock.writeLock() : fleetLock.readLock();
+	lock.lock();
+	try {
+	    synchronized(resizeLock) {
+		FleetJournal fleetJournal = journal;
+		if (fleetJournal != null) {
+		    fleetJournal.resize(size);
+		}
+		int inService = taxis.size() - retiringTaxis.size();
+		if (size > inService) {
+		    List<Taxi> newTaxis = new ArrayList<Taxi>(size - inService);
+		    for (int i = inService; i < size; i++) {
+			newTaxis.add(new Taxi(nextId, false));
+			nextId += idStride;
+		    }
+		    taxis.addAll(newTaxis);
+		    for (Taxi taxi : newTaxis) {
+			taxisById.put(taxi.getId(), taxi);
+			makeAvailable(taxi, true);
+		    }
+		} else {
+		    Set<Integer> retiredTaxis = new HashSet<Integer>();
+		    for (int i = taxis.size() - 1; i >= 0 && inService > size; i--) {
+			Taxi taxi = taxis.get(i);
+			if (retiringTaxis.contains(taxi.getId())) {
+			    continue;
+			}
+			inService--;
+			// Take it so that no booking can take it anymore. A taxi on a ride, or
+			// being made available by another thread, is retired by makeAvailable().
+			if (take(taxi)) {
+			    retiredTaxis.add(taxi.getId());
+			} else {
+			    retiringTaxis.add(taxi.getId());
+			}
+		    }
+		    retireTaxis(retiredTaxis);
+		}
+	    }
+	} finally {
+	    lock.unlock();
+	}
+	deliverHandOffs();
+    }
+
+    /**
+     * Make this booker the shard of a fleet partitioned between nodes.
+     * Bookings are then routed by the router, and the available taxis that are not in the regions
+     * of this shard are handed off to the shards owning them, now and at the end of their rides.
+     * Bookings for a batch or waiting for a taxi are still served by this shard alone.
+     * <p>
+     * Hand-offs are not journaled, so a shard must not have a FleetJournal.
+     * <p>
+     * The ids of the taxis must be unique across the shards. From now on, the ids of new taxis
+     * are those of the shard: its index + 1, plus a multiple of the number of shards. A fleet
+     * created with ids 1 to N (see TaxiBooker(int)), as on every node, is renumbered that way,
+     * so it must join before its first booking. A fleet of given ids is not renumbered.
+     *
+     * @param shardRouter  the router of the fleet; its local shard is this booker.
+     * @throws IllegalStateException  if the fleet is journaled, or is to be renumbered but
+     *                                has taxis on a ride.
+     */
+    public void join(ShardRouter shardRouter) {
+	fleetLock.writeLock().lock();
+	try {
+	    if (journal != null) {
+		throw new IllegalStateException("A journaled fleet cannot be sharded");
+	    }
+	    synchronized(resizeLock) {
+		if (createdIds) {
+		    renumberTaxis(shardRouter.size(), shardRouter.getSelf());
+		}
+		idStride = shardRouter.size();
+		idOffset = shardRouter.getSelf();
+		nextId = alignId(nextId);
+	    }
+	    router = shardRouter;
+	    Set<Integer> handedOffTaxis = new HashSet<Integer>();
+	    for (Taxi taxi : taxis) {
+		Point location = taxi.getAvailableLocation();
+		if (!router.owns(location.x, location.y) && availableTaxis.remove(taxi)) {
+		    handOffs.add(taxi);
+		    handedOffTaxis.add(taxi.getId());
+		}
+	    }
+	    retireTaxis(handedOffTaxis);
+	} finally {
+	    fleetLock.writeLock().unlock();
+	}
+	deliverHandOffs();
+    }
+
+    /**
+     * Renumber the taxis created with ids 1 to N, so that id i becomes (i - 1) * stride + offset + 1.
+     *
+     * @param stride  the number of shards.
+     * @param offset  the index of the shard of this node.
+     * @throws IllegalStateException  if a taxi is on a ride.
+     */
+    private void renumberTaxis(int stride, int offset) {
+	List<Taxi> renumberedTaxis = new ArrayList<Taxi>(taxis.size());
+	for (Taxi taxi : taxis) {
+	    if (!taxi.isAvailable()) {
+		throw new IllegalStateException("A fleet must join before its first booking");
+	    }
+	    Taxi renumbered = new Taxi((taxi.getId() - 1) * stride + offset + 1, false);
+	    renumbered.reset(taxi.getAvailableLocation());
+	    renumberedTaxis.add(renumbered);
+	}
+	availableTaxis.clear();
+	taxisById.clear();
+	taxis.clear();
+	taxis.addAll(renumberedTaxis);
+	for (Taxi taxi : renumberedTaxis) {
+	    taxisById.put(taxi.getId(), taxi);
+	    availableTaxis.add(taxi);
+	}
+	nextId = (nextId - 1) * stride + offset + 1;
+	createdIds = false;
+    }
+
+    /**
+     * Return the smallest id of this shard not below the given one.
+     *
+     * @param id  the id.
+     * @result the id of this shard.
+     */
+    private int alignId(int id) {
+	return id + Math.floorMod(idOffset - (id - 1), idStride);
+    }
+
+    /**
+     * Find the available taxi closest to a location, without booking it.
+     * Handler for a GET HTTP request for "/api/shard/nearest?x=..&y=.." from another shard.
+     *
+     * @param x  x co-ordinate of the location.
+     * @param y  y co-ordinate of the location.
+     * @result the distance to the taxi and its id, packed with Shard.pack(); Shard.NO_TAXI if none.
+     */
+    @GetMapping("/shard/nearest")
+    public long nearest(@RequestParam int x, @RequestParam int y) {
+	fleetLock.readLock().lock();
+	try {
+	    Taxi taxi = availableTaxis.nearest(x, y);
+	    if (taxi == null) {
+		return Shard.NO_TAXI;
+	    }
+	    return Shard.pack(Taxi.distance(taxi.getAvailableLocation().x, taxi.getAvailableLocation().y, x, y),
+			      taxi.getId());
+	} finally {
+	    fleetLock.readLock().unlock();
+	}
+    }
+
+    /**
+     * Take over an available taxi handed off by another shard.
+     * Handler for a PUT HTTP request for "/api/shard/adopt?id=..&x=..&y=..".
+     * A taxi whose id is already in the fleet is ignored, e.g. on a retried hand-off.
+     *
+     * @param id  the id of the taxi.
+     * @param x   x co-ordinate of the location of the taxi.
+     * @param y   y co-ordinate of the location of the taxi.
+     */
+    @PutMapping("/shard/adopt")
+    public void adopt(@RequestParam int id, @RequestParam int x, @RequestParam int y) {
+	Taxi taxi = new Taxi(id, false);
+	taxi.reset(new Point(x, y));
+	adopt(taxi, true);
+    }
+
+    /**
+     * Recover the fleet from a journal, if it has any, and journal every later change of the fleet.
+     * The latest snapshot replaces the fleet and the events logged since are replayed on it.
+     * A snapshot of the recovered fleet is then taken, so that the journal starts afresh.
+     * Meant to be called at start up, before any booking.
+     *
+     * @param fleetJournal  the journal.
+     * @throws IOException  if the journal cannot be read or written.
+     */
+    public void recover(FleetJournal fleetJournal) throws IOException {
+	fleetLock.writeLock().lock();
+	try {
+	    if (router != null) {
+		throw new IllegalStateException("A sharded fleet cannot be journaled");
+	    }
+	    FleetJournal.Snapshot snapshot = fleetJournal.readSnapshot();
+	    if (snapshot != null) {
+		restore(snapshot);
+	    }
+	    fleetJournal.replay(new Replay());
+	    journal = fleetJournal;
+	} finally {
+	    fleetLock.writeLock().unlock();
+	}
+	snapshot();
+    }
+
+    /**
+     * Take a snapshot of the fleet into the journal, which then only logs the later changes.
+     * Bookings and ticks wait while the fleet is copied, but not while the snapshot is written.
+     * Does nothing without a journal.
+     *
+     * @throws IOException  if the snapshot cannot be written.
+     */
+    public void snapshot() throws IOException {
+	synchronized(snapshotLock) {
+	    FleetJournal fleetJournal = journal;
+	    if (fleetJournal == null) {
+		return;
+	    }
+
+	    FleetJournal.Snapshot snapshot;
+	    long generation;
+	    fleetLock.writeLock().lock();
+	    try {
+		snapshot = new FleetJournal.Snapshot(rideScheduler.now(), nextId, taxis.size(),
+						     rideScheduler.size());
+		for (Taxi taxi : taxis) {
+		    snapshot.addTaxi(taxi.getId(), taxi.getAvailableLocation().x, taxi.getAvailableLocation().y,
+				     retiringTaxis.contains(taxi.getId()));
+		}
+		rideScheduler.forEach((taxi, endTime) ->
+				      snapshot.addRide(taxi.getId(), taxi.getDestinationLocation().x,
+						       taxi.getDestinationLocation().y, endTime));
+		generation = fleetJournal.nextGeneration();
+	    } finally {
+		fleetLock.writeLock().unlock();
+	    }
+	    fleetJournal.writeSnapshot(snapshot, generation);
+	}
+    }
+
+    /**
+     * Export the BookingMetrics of this booker to a registry.
+     * Called by Spring Boot Actuator for each of its registries.
+     *
+     * @param registry  the registry.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+	metrics.bindTo(registry);
+    }
+
+    /**
+     * Provides details of a taxi, read from its latest snapshot without the fleet lock,
+     * so that polling the status never delays the bookings.
+     * Handler for a GET HTTP request for "/api/status/id".
+     *
+     * @param id the id of the taxi extracted from the URI and passed in.
+     * @result the TaxiStatus of the taxi; NULL, translated to an empty response body, if there is
+     *         no such taxi.
+     */
+    @GetMapping("/status/{id}")
+    public TaxiStatus status(@PathVariable int id) {
+	Taxi taxi = taxisById.get(id);
+	return taxi != null ? taxi.getStatus() : null;
+    }
+
+    /**
+     * Provides details of every taxi of the fleet, read from their latest snapshots without the
+     * fleet lock. Each snapshot is consistent, but the fleet may change while it is read.
+     * Handler for a GET HTTP request for "/api/status".
+     *
+     * @result the TaxiStatus of each taxi.
+     */
+    @GetMapping("/status")
+    public List<TaxiStatus> status() {
+	List<TaxiStatus> statuses = new ArrayList<TaxiStatus>(taxis.size());
+	for (Taxi taxi : taxis) {
+	    statuses.add(taxi.getStatus());
+	}
+	return statuses;
+    }
+
+    /**
+     * Quote a ride: which taxi a booking would get and the total time of the ride, without
+     * booking it, taking the fleet lock or claiming a taxi.
+     * Handler for a POST HTTP request for "/api/quote".
+     * <p>
+     * The quote is for the available taxi closest to the pick-up location, as picked by a booking
+     * with the default travel times. With other travel times, a booking picks the quickest of the
+     * TRAVEL_TIME_CANDIDATES closest taxis instead, so it may get a quicker taxi than the quote.
+     * A concurrent booking may also take the quoted taxi first. Only the taxis of this booker
+     * are quoted, whether or not it is a shard of a partitioned fleet.
+     *
+     * @param rideCoordinates  JSON request body is mapped to this class
+     * @result the BookingStatus a booking would get now. NULL if no taxi is available.
+     */
+    @PostMapping("/quote")
+    public BookingStatus quote(@RequestBody RideCoordinates rideCoordinates) {
+	int sourceX = rideCoordinates.getSource().x;
+	int sourceY = rideCoordinates.getSource().y;
+	TravelTimes times = travelTimes;
+
+	Taxi closestTaxi = availableTaxis.nearest(sourceX, sourceY);
+	if (closestTaxi == null) {
+	    return null;
+	}
+	// The snapshot, unlike the live location, cannot change half way through.
+	TaxiStatus closest = closestTaxi.getStatus();
+	long totalTime =
+	    times.time(closest.getX(), closest.getY(), sourceX, sourceY) +
+	    times.time(sourceX, sourceY, rideCoordinates.getDestination().x, rideCoordinates.getDestination().y);
+	return new BookingStatus(closest.getId(), totalTime);
+    }
+
+    /**
+     * Assign taxis to a batch of rides and start their rides. See bookBatch().
+     *
+     * @param rides  the rides to assign taxis to.
+     * @return       the BookingStatus of each ride; null if no taxi was assigned to the ride.
+     */
+    private List<BookingStatus> assignBatch(List<RideCoordinates> rides) {
+	List<BookingStatus> results = new ArrayList<BookingStatus>(rides.size());
+	TravelTimes times = travelTimes;
+
+	DemandHeatmap heatmap = demand;
+	if (heatmap != null) {
+	    for (RideCoordinates ride : rides) {
+		heatmap.record(ride.getSource().x, ride.getSource().y);
+	    }
+	}
+
+	fleetLock.readLock().lock();
+	try {
+	    // Claim the few closest taxis of every ride, so that no other booking takes them
+	    // while the assignment is worked out.
+	    List<Taxi> candidates = new ArrayList<Taxi>();
+	    for (RideCoordinates ride : rides) {
+		for (int i = 0; i < CANDIDATES_PER_RIDE; i++) {
+		    Taxi taxi;
+		    do {
+			taxi = availableTaxis.nearest(ride.getSource());
+		    } while (taxi != null && !taxi.claim());
+		    if (taxi == null) {
+			break;
+		    }
+		    availableTaxis.remove(taxi);
+		    candidates.add(taxi);
+		}
+	    }
+
+	    long[][] pickUpDistances = new long[rides.size()][candidates.size()];
+	    for (int i = 0; i < rides.size(); i++) {
+		for (int j = 0; j < candidates.size(); j++) {
+		    pickUpDistances[i][j] = times.time(candidates.get(j).getAvailableLocation().x,
+						       candidates.get(j).getAvailableLocation().y,
+						       rides.get(i).getSource().x, rides.get(i).getSource().y);
+		}
+	    }
+	    int[] assignment = Assignment.solve(pickUpDistances);
+
+	    boolean[] assigned = new boolean[candidates.size()];
+	    for (int i = 0; i < rides.size(); i++) {
+		BookingStatus result = null;
+		if (assignment[i] >= 0) {
+		    Taxi taxi = candidates.get(assignment[i]);
+		    assigned[assignment[i]] = true;
+		    long totalTime = taxi.startRide(rides.get(i).getSource().x, rides.get(i).getSource().y,
+						    rides.get(i).getDestination().x,
+						    rides.get(i).getDestination().y, times);
+		    scheduleRide(taxi, rides.get(i).getSource().x, rides.get(i).getSource().y, totalTime,
+				 pickUpDistances[i][assignment[i]]);
+		    result = new BookingStatus(taxi.getId(), totalTime);
+		}
+		results.add(result);
+	    }
+
+	    // Hand back the taxis that were not needed.
+	    for (int j = 0; j < candidates.size(); j++) {
+		if (!assigned[j]) {
+		    candidates.get(j).release();
+		    makeAvailable(candidates.get(j), false);
+		}
+	    }
+	} finally {
+	    fleetLock.readLock().unlock();
+	}
+
+	return results;
+    }
+
+    /**
+     * Schedule the end of a ride, journal its start, if there is a journal, and add its booking
+     * to the history.
+     * <p>
+     * With a journal, the ride is scheduled and journaled under the journal order lock, which
+     * a tick holds to journal and move the clock by each step: the ride is then replayed on the
+     * same side of the step as it was scheduled, and so ends on the same tick.
+     *
+     * @param taxi            the taxi on the ride, still at its available location.
+     * @param sourceX         x co-ordinate of the pick-up location.
+     * @param sourceY         y co-ordinate of the pick-up location.
+     * @param totalTime       the time units of the ride.
+     * @param pickUpDistance  the time units from the taxi to the pick-up location.
+     */
+    private void scheduleRide(Taxi taxi, int sourceX, int sourceY, long totalTime, long pickUpDistance) {
+	long endTime;
+	FleetJournal fleetJournal = journal;
+	if (fleetJournal != null) {
+	    synchronized(journalOrder) {
+		endTime = rideScheduler.schedule(taxi, totalTime);
+		fleetJournal.ride(taxi.getId(), taxi.getDestinationLocation().x,
+				  taxi.getDestinationLocation().y, endTime);
+	    }
+	} else {
+	    endTime = rideScheduler.schedule(taxi, totalTime);
+	}
+	history.append(taxi.getId(), sourceX, sourceY, taxi.getDestinationLocation().x,
+		       taxi.getDestinationLocation().y, endTime - Math.max(totalTime, 1), endTime,
+		       pickUpDistance);
+    }
+
+    /**
+     * Replace the fleet with the one of a snapshot. The caller holds the fleet lock exclusively.
+     *
+     * @param snapshot  the snapshot.
+     */
+    private void restore(FleetJournal.Snapshot snapshot) {
+	List<Taxi> restoredTaxis = new ArrayList<Taxi>(snapshot.taxiCount);
+	retiringTaxis.clear();
+	for (int i = 0; i < snapshot.taxiCount; i++) {
+	    Taxi taxi = new Taxi(snapshot.ids[i], false);
+	    taxi.reset(new Point(snapshot.x[i], snapshot.y[i]));
+	    restoredTaxis.add(taxi);
+	    if (snapshot.retiring[i]) {
+		retiringTaxis.add(taxi.getId());
+	    }
+	}
+
+	taxis.clear();
+	taxisById.clear();
+	addTaxis(restoredTaxis);
+	nextId = snapshot.nextId;
+	rideScheduler.clear(snapshot.now);
+	chainedRides.clear();
+	for (int i = 0; i < snapshot.rideCount; i++) {
+	    resumeRide(taxisById.get(snapshot.rideTaxiIds[i]), snapshot.rideDestinationX[i],
+		       snapshot.rideDestinationY[i], snapshot.rideEndTimes[i]);
+	}
+    }
+
+    /**
+     * Put an available taxi back on a ride recovered from the journal.
+     *
+     * @param taxi          the taxi; ignored if null or not available.
+     * @param destinationX  x co-ordinate of the drop-off location.
+     * @param destinationY  y co-ordinate of the drop-off location.
+     * @param endTime       the time unit at which the ride ends.
+     */
+    private void resumeRide(Taxi taxi, int destinationX, int destinationY, long endTime) {
+	if (taxi != null && taxi.claim()) {
+	    availableTaxis.remove(taxi);
+	    taxi.resumeRide(destinationX, destinationY, Math.max(endTime - rideScheduler.now(), 0));
+	    rideScheduler.scheduleAt(taxi, endTime);
+	}
+    }
+
+    /**
+     * Replays the events of a journal on this booker. See recover().
+     */
+    private class Replay implements FleetJournal.Events {
+	@Override
+	public void ride(int taxiId, int destinationX, int destinationY, long endTime) {
+	    resumeRide(taxisById.get(taxiId), destinationX, destinationY, endTime);
+	}
+
+	@Override
+	public void tick(long units) {
+	    // Idle taxis moved toward the demand are replayed as moves, not rebalanced again.
+	    synchronized(tickLock) {
+		advance(units);
+	    }
+	}
+
+	@Override
+	public void reset() {
+	    TaxiBooker.this.reset();
+	}
+
+	@Override
+	public void resize(int size) {
+	    TaxiBooker.this.resize(size);
+	}
+
+	@Override
+	public void move(int taxiId, int x, int y) {
+	    Taxi taxi = taxisById.get(taxiId);
+	    if (taxi != null && take(taxi)) {
+		relocate(taxi, x, y);
+	    }
+	}
+    }
+
+    /**
+     * Send idle taxis toward the demand, for shorter pick-ups. See tick().
+     * <p>
+     * Every region should have a share of the available taxis in proportion to its share of
+     * the recent demand. The regions short of at least one taxi get, in turn, the taxi closest to
+     * them in the nearest region that has at least one taxi too many. Each of these drives toward the
+     * centre of its region, as far as it can in the time units; it stays available on the way.
+     * Later ticks carry on the moves as long as the demand is the same.
+     * At most REBALANCED_TAXIS taxis are moved per tick, each once.
+     * The caller holds the fleet lock and the tick lock.
+     *
+     * @param heatmap  the demand.
+     * @param units    the time units since the previous tick.
+     */
+    private void rebalance(DemandHeatmap heatmap, long units) {
+	CountingTaxiIndex index = availableTaxis;
+	int available = index.size();
+	double totalDemand = heatmap.total();
+	if (available == 0 || totalDemand <= 0 || units <= 0) {
+	    return;
+	}
+
+	// Taxis over (> 0) or under (< 0) the share of each region, by packed region co-ordinates.
+	Map<Long, double[]> balances = new HashMap<Long, double[]>();
+	index.forEachRegion((regionX, regionY, count) ->
+			    balances.computeIfAbsent(region(regionX, regionY), key -> new double[1])[0] += count);
+	heatmap.forEachRegion((regionX, regionY, regionDemand) ->
+			      balances.computeIfAbsent(region(regionX, regionY), key -> new double[1])[0] -=
+			      regionDemand / totalDemand * available);
+	List<Point> surplus = new ArrayList<Point>();
+	List<Point> deficit = new ArrayList<Point>();
+	for (Map.Entry<Long, double[]> balance : balances.entrySet()) {
+	    Point regionXY = new Point((int)(balance.getKey() >> 32), (int)(long)balance.getKey());
+	    if (balance.getValue()[0] >= 1) {
+		surplus.add(regionXY);
+	    } else if (balance.getValue()[0] <= -1) {
+		deficit.add(regionXY);
+	    }
+	}
+	// Largest deficit first; then by co-ordinates so that the moves do not depend on hashing.
+	deficit.sort(Comparator.comparingDouble((Point regionXY) -> balances.get(region(regionXY.x, regionXY.y))[0])
+		     .thenComparingInt(regionXY -> regionXY.x).thenComparingInt(regionXY -> regionXY.y));
+
+	// Taxis to move, taken out of the index so that each is picked once, and where to.
+	List<Taxi> moving = new ArrayList<Taxi>();
+	List<Point> destinations = new ArrayList<Point>();
+	int regionSize = index.getRegionSize();
+	boolean balancing = true;
+	while (balancing && moving.size() < REBALANCED_TAXIS) {
+	    balancing = false;
+	    for (Point target : deficit) {
+		if (balances.get(region(target.x, target.y))[0] > -1 || moving.size() == REBALANCED_TAXIS) {
+		    continue;
+		}
+
+		// The nearest region with a taxi to spare, and its taxi closest to the target.
+		Point from = null;
+		for (Point candidate : surplus) {
+		    if (balances.get(region(candidate.x, candidate.y))[0] >= 1 &&
+			(from == null ||
+			 Taxi.distance(candidate, target) < Taxi.distance(from, target) ||
+			 (Taxi.distance(candidate, target) == Taxi.distance(from, target) &&
+			  (candidate.x < from.x || (candidate.x == from.x && candidate.y < from.y))))) {
+			from = candidate;
+		    }
+		}
+		if (from == null) {
+		    break;
+		}
+		balancing = true;
+		int targetX = target.x * regionSize + regionSize / 2;
+		int targetY = target.y * regionSize + regionSize / 2;
+		Taxi taxi = index.nearest(Math.max(from.x * regionSize,
+						   Math.min(targetX, from.x * regionSize + regionSize - 1)),
+					  Math.max(from.y * regionSize,
+						   Math.min(targetY, from.y * regionSize + regionSize - 1)));
+		// Possibly a taxi of a neighbouring region, which will do if it has one to spare too.
+		double[] spare = taxi == null ? null :
+		    balances.get(region(Math.floorDiv(taxi.getAvailableLocation().x, regionSize),
+					Math.floorDiv(taxi.getAvailableLocation().y, regionSize)));
+		if (spare == null || spare[0] < 1 || !take(taxi)) {
+		    // Not this region again for this tick.
+		    balances.get(region(from.x, from.y))[0] = 0;
+		    continue;
+		}
+		spare[0] -= 1;
+		balances.get(region(target.x, target.y))[0] += 1;
+
+		// Drive along x, then along y.
+		int x = taxi.getAvailableLocation().x;
+		int y = taxi.getAvailableLocation().y;
+		long step = Math.min(units, Math.abs(targetX - x));
+		x += (int)(Math.signum(targetX - x) * step);
+		step = Math.min(units - step, Math.abs(targetY - y));
+		y += (int)(Math.signum(targetY - y) * step);
+		moving.add(taxi);
+		destinations.add(new Point(x, y));
+	    }
+	}
+
+	for (int i = 0; i < moving.size(); i++) {
+	    relocate(moving.get(i), destinations.get(i).x, destinations.get(i).y);
+	}
+    }
+
+    /**
+     * Return the key of a region: its co-ordinates packed in a long.
+     */
+    private static long region(int regionX, int regionY) {
+	return ((long)regionX << 32) | (regionY & 0xffffffffL);
+    }
+
+    /**
+     * Claim an available taxi and take it out of the index, e.g. to move it.
+     * The caller holds the fleet lock.
+     *
+     * @param taxi  the taxi.
+     * @return      true if the taxi was taken; false if it was booked first.
+     */
+    private boolean take(Taxi taxi) {
+	if (!taxi.claim()) {
+	    return false;
+	}
+	if (!availableTaxis.remove(taxi)) {
+	    // Being made available by another thread, which indexes it.
+	    taxi.release();
+	    return false;
+	}
+	return true;
+    }
+
+    /**
+     * Move a taxi taken with take() to a new location, journaled, and make it available there.
+     * The caller holds the fleet lock.
+     *
+     * @param taxi  the taxi.
+     * @param x     x co-ordinate of the new location.
+     * @param y     y co-ordinate of the new location.
+     */
+    private void relocate(Taxi taxi, int x, int y) {
+	taxi.relocate(x, y);
+	FleetJournal fleetJournal = journal;
+	if (fleetJournal != null) {
+	    fleetJournal.move(taxi.getId(), x, y);
+	}
+	taxi.release();
+	makeAvailable(taxi, true);
+    }
+
+    /**
+     * End the rides of taxis and make them available. See tick().
+     * When many rides end at once and no booking is waiting for a taxi, the taxis are made
+     * available in parallel; the bookings that would wait wait for the end of it instead.
+     * The caller holds the fleet lock.
+     *
+     * @param taxis  the taxis whose ride ended, in the order in which the rides ended.
+     */
+    private void completeRides(List<Taxi> taxis) {
+	if (taxis.size() >= PARALLEL_COMPLETIONS) {
+	    synchronized(waitingRides) {
+		if (waitingRides.size() == 0) {
+		    Set<Integer> retiredTaxis = ConcurrentHashMap.newKeySet();
+		    ForkJoinPool.commonPool().invoke(new Completions(taxis, 0, taxis.size(), retiredTaxis));
+		    retireTaxis(retiredTaxis);
+		    return;
+		}
+	    }
+	}
+	for (Taxi taxi : taxis) {
+	    if (taxi.complete() && !startChainedRide(taxi)) {
+		makeAvailable(taxi, true);
+	    }
+	}
+    }
+
+    /**
+     * Ends the rides of a range of taxis and makes them available, splitting the range between
+     * the threads of a fork-join pool. See completeRides().
+     * The caller holds the monitor of the (empty) waiting rides throughout.
+     */
+    private class Completions extends RecursiveAction {
+	/**
+	 * Constructor.
+	 *
+	 * @param taxis         the taxis whose ride ended.
+	 * @param from          the first taxi of the range.
+	 * @param to            the end of the range, exclusive.
+	 * @param retiredTaxis  collects the ids of the taxis to take out of service.
+	 */
+	Completions(List<Taxi> taxis, int from, int to, Set<Integer> retiredTaxis) {
+	    this.taxis = taxis;
+	    this.from = from;
+	    this.to = to;
+	    this.retiredTaxis = retiredTaxis;
+	}
+
+	@Override
+	protected void compute() {
+	    if (to - from > PARALLEL_COMPLETIONS) {
+		int middle = (from + to) >>> 1;
+		invokeAll(new Completions(taxis, from, middle, retiredTaxis),
+			  new Completions(taxis, middle, to, retiredTaxis));
+		return;
+	    }
+	    for (int i = from; i < to; i++) {
+		Taxi taxi = taxis.get(i);
+		if (!taxi.complete() || startChainedRide(taxi)) {
+		    continue;
+		}
+		// As makeAvailable(), without bookings to assign.
+		if (retiringTaxis.remove(taxi.getId())) {
+		    retiredTaxis.add(taxi.getId());
+		} else if (router != null &&
+			   !router.owns(taxi.getAvailableLocation().x, taxi.getAvailableLocation().y)) {
+		    retiredTaxis.add(taxi.getId());
+		    handOffs.add(taxi);
+		} else {
+		    availableTaxis.add(taxi);
+		}
+	    }
+	}
+
+	// The taxis and the range of them.
+	private final List<Taxi> taxis;
+	private final int from;
+	private final int to;
+
+	// Ids of the taxis to take out of service.
+	private final Set<Integer> retiredTaxis;
+    }
+
+    /**
+     * Add an available taxi to the fleet, unless its id is already in it. See adopt(int, int, int).
+     *
+     * @param taxi     the taxi, available at its location.
+     * @param handOff  hand off the taxi if it is not in the regions of this shard?
+     */
+    private void adopt(Taxi taxi, boolean handOff) {
+	fleetLock.readLock().lock();
+	try {
+	    synchronized(resizeLock) {
+		if (taxisById.putIfAbsent(taxi.getId(), taxi) != null) {
+		    return;
+		}
+		// Only an id of this shard, e.g. from a fleet of given ids, may be one it would create.
+		if (alignId(taxi.getId()) == taxi.getId()) {
+		    nextId = Math.max(nextId, taxi.getId() + idStride);
+		}
+		taxis.add(taxi);
+		makeAvailable(taxi, handOff);
+	    }
+	} finally {
+	    fleetLock.readLock().unlock();
+	}
+    }
+
+    /**
+     * Hand off the taxis queued by makeAvailable(), reset() or join() to the shards owning them.
+     * Called without holding the fleet lock, so that shards never wait for each other's lock.
+     * A taxi whose hand-off surely did not reach its shard stays with this shard. One whose
+     * hand-off may have reached it is handed off again by the next call, as adopting is idempotent,
+     * so that the taxi never ends up in two fleets.
+     */
+    private void deliverHandOffs() {
+	List<Taxi> undelivered = null;
+	Taxi taxi;
+	while ((taxi = handOffs.poll()) != null) {
+	    try {
+		router.handOff(taxi);
+	    } catch (HttpShard.NotDeliveredException e) {
+		adopt(taxi, false);
+	    } catch (UncheckedIOException e) {
+		if (undelivered == null) {
+		    undelivered = new ArrayList<Taxi>();
+		}
+		undelivered.add(taxi);
+	    }
+	}
+	if (undelivered != null) {
+	    handOffs.addAll(undelivered);
+	}
+    }
+
+    /**
+     * Make a taxi that is done with its ride available for booking again,
+     * unless it is to be taken out of service.
+     * If bookings are waiting, the taxi is assigned to the one with the closest pick-up location.
+     * Otherwise, a taxi outside the regions of this shard is queued for deliverHandOffs().
+     * The caller holds the fleet lock.
+     *
+     * @param taxi     the taxi, in the available state but not in the index.
+     * @param handOff  hand off the taxi if it is not in the regions of this shard?
+     */
+    private void makeAvailable(Taxi taxi, boolean handOff) {
+	if (retiringTaxis.remove(taxi.getId())) {
+	    retireTaxis(Collections.singleton(taxi.getId()));
+	    return;
+	}
+
+	synchronized(waitingRides) {
+	    // Claim the taxi before taking a ride, so that no ride is taken for a taxi claimed first.
+	    WaitingRides.WaitingRide ride = null;
+	    if (waitingRides.size() > 0 && taxi.claim()) {
+		ride = waitingRides.takeNearest(taxi.getAvailableLocation());
+		if (ride == null) {
+		    taxi.release();
+		}
+	    }
+	    if (ride != null) {
+		TravelTimes times = travelTimes;
+		Point source = ride.rideCoordinates.getSource();
+		long totalTime = taxi.startRide(source.x, source.y, ride.rideCoordinates.getDestination().x,
+						ride.rideCoordinates.getDestination().y, times);
+		scheduleRide(taxi, source.x, source.y, totalTime,
+			     times.time(taxi.getAvailableLocation().x, taxi.getAvailableLocation().y,
+					source.x, source.y));
+		ride.result.setResult(new BookingStatus(taxi.getId(), totalTime));
+	    } else if (handOff && router != null &&
+		       !router.owns(taxi.getAvailableLocation().x, taxi.getAvailableLocation().y)) {
+		retireTaxis(Collections.singleton(taxi.getId()));
+		handOffs.add(taxi);
+	    } else {
+		availableTaxis.add(taxi);
+	    }
+	}
+    }
+
+    /**
+     * Remove taxis from the fleet.
+     *
+     * @param ids  the ids of the taxis to remove; none of them may be in the index.
+     */
+    private void retireTaxis(Set<Integer> ids) {
+	if (!ids.isEmpty()) {
+	    // A single copy of the list, whatever the number of taxis.
+	    taxis.removeIf(taxi -> ids.contains(taxi.getId()));
+	    taxisById.keySet().removeAll(ids);
+	}
+    }
+
+    /**
+     * Create the requested number of taxis and populate the collection.
+     *
+     * @param numberOfTaxis    how many taxis to create
+     */
+    private void createTaxis(int numberOfTaxis) {
+	List<Taxi> newTaxis = new ArrayList<Taxi>(numberOfTaxis);
+	for (int i = 0; i < numberOfTaxis; i++) {
+	    newTaxis.add(new Taxi(i+1, false));
+	}
+	addTaxis(newTaxis);
+	createdIds = true;
+    }
+
+    /**
+     * Populate the collection with the given taxis. Used at construction only.
+     *
+     * @param newTaxis    the taxis to add
+     */
+    private void addTaxis(List<Taxi> newTaxis) {
+	int[] ids = new int[newTaxis.size()];
+	for (int i = 0; i < ids.length; i++) {
+	    ids[i] = newTaxis.get(i).getId();
+	}
+	Arrays.sort(ids);
+	for (int i = 1; i < ids.length; i++) {
+	    if (ids[i] == ids[i-1]) {
+		throw new IllegalArgumentException("Duplicate taxi id: " + ids[i]);
+	    }
+	}
+	if (ids.length > 0) {
+	    nextId = Math.max(nextId, ids[ids.length - 1] + 1);
+	}
+
+	// Size the cells of the index for the initial spread of the fleet.
+	if (taxis.isEmpty()) {
+	    availableTaxis = new CountingTaxiIndex(new GridTaxiIndex(GridTaxiIndex.cellSizeFor(newTaxis)),
+						   CountingTaxiIndex.REGION_SIZE);
+	}
+
+	taxis.addAll(newTaxis);
+	for (Taxi taxi : newTaxis) {
+	    taxisById.put(taxi.getId(), taxi);
+	    if (taxi.isAvailable()) {
+		availableTaxis.add(taxi);
+	    }
+	}
+    }
+
+    // Collection of taxi's managed by this booker.
+    // Copied on write, so that the fleet can change size while it is being iterated.
+    List<Taxi> taxis = new CopyOnWriteArrayList<Taxi>();
+
+    // The same taxis by id, changed along with the collection, for lookups without the fleet lock.
+    private final Map<Integer, Taxi> taxisById = new ConcurrentHashMap<Integer, Taxi>();
+
+    // Spatial index of the taxis that are available for booking, with their counts by region.
+    // Read without the fleet lock to fail fast; replaced under the lock by restore().
+    volatile CountingTaxiIndex availableTaxis = new CountingTaxiIndex(new GridTaxiIndex(), CountingTaxiIndex.REGION_SIZE);
+
+    // Ongoing rides ordered by the time they end.
+    RideScheduler rideScheduler = new RideScheduler();
+
+    // Time to drive between two locations.
+    private volatile TravelTimes travelTimes = TravelTimes.MANHATTAN;
+
+    // Admission control in front of the bookings of "/api/book"; null to admit every booking.
+    private volatile AdmissionControl admissionControl;
+
+    // Results of the bookings by idempotency key; null to book on every attempt.
+    private volatile IdempotencyCache idempotencyCache;
+
+    // Time units bookings look ahead for taxis about to end their ride; 0 not to.
+    private volatile long lookAhead;
+
+    // Rides chained onto the current ride of a taxi, by taxi id; see chainRide().
+    private final Map<Integer, ChainedRide> chainedRides = new ConcurrentHashMap<Integer, ChainedRide>();
+
+    // Recent demand that idle taxis are sent toward; null not to move them.
+    private volatile DemandHeatmap demand;
+
+    // Bookings made, for billing & analytics.
+    private volatile BookingHistory history = new BookingHistory(BookingHistory.CAPACITY, 0);
+
+    // Latencies, pick-up distances & fleet gauges.
+    private final BookingMetrics metrics = new BookingMetrics(this);
+
+    // Router of the partitioned fleet this booker is a shard of; null if it is not a shard.
+    private volatile ShardRouter router;
+
+    // Taxis to hand off to other shards.
+    private final Queue<Taxi> handOffs = new ConcurrentLinkedQueue<Taxi>();
+
+    // Journal of the changes of the fleet; null if they are not journaled.
+    private volatile FleetJournal journal;
+
+    // Serializes snapshots.
+    private final Object snapshotLock = new Object();
+
+    // Bookings waiting for a taxi & how long they wait (ms). Also serializes the queuing
+    // of bookings with taxis becoming available. Taken after the fleet lock.
+    private WaitingRides waitingRides = new WaitingRides(WAITING_RIDES);
+    private long waitTimeout = WAIT_TIMEOUT;
+
+    // Shared by bookings, ticks & resizes; held exclusively by a reset, or a resize with a journal.
+    private final ReadWriteLock fleetLock = new ReentrantReadWriteLock();
+
+    // Serializes ticks.
+    private final Object tickLock = new Object();
+
+    // Orders the rides scheduled with the steps of the clock in the journal. Taken last.
+    private final Object journalOrder = new Object();
+
+    // Serializes changes of the fleet size, and taxis joining the fleet from other shards.
+    private final Object resizeLock = new Object();
+
+    // Ids of the taxis to take out of service at the end of their ride.
+    private final Set<Integer> retiringTaxis = ConcurrentHashMap.newKeySet();
+
+    // Id of the next taxi added to the fleet. Guarded by the resize lock, or the fleet lock
+    // held exclusively, e.g. when restored from a snapshot.
+    private int nextId = 1;
+
+    // Ids of the taxis of this shard: offset + 1, plus a multiple of the stride. Guarded by the resize lock.
+    private int idStride = 1;
+    private int idOffset = 0;
+
+    // Are the ids of the fleet the 1 to N created at construction, to renumber on join()?
+    private boolean createdIds;
 }
\ No newline at end of file
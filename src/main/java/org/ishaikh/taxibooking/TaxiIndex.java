@@ -0,0 +1,58 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+
+/**
+ * Spatial index of the available taxis, keyed on their available location.
+ * <p>
+ * A taxi is added to the index when it becomes available and removed when it is booked.
+ * The available location of a taxi must not change while it is in the index.
+ */
+public interface TaxiIndex {
+    /**
+     * Add an available taxi to the index.
+     *
+     * @param taxi  the taxi to add; indexed at its available location.
+     */
+    void add(Taxi taxi);
+
+    /**
+     * Remove a taxi from the index.
+     *
+     * @param taxi  the taxi to remove.
+     * @return      true if the taxi was in the index, false otherwise.
+     */
+    boolean remove(Taxi taxi);
+
+    /**
+     * Find the taxi closest to the given location.
+     * If multiple taxis are equally close to the location the one with the smallest id is returned.
+     *
+     * @param location  the location to search from (e.g. the customer's pick-up location).
+     * @return          the closest taxi or null if the index is empty.
+     */
+    default Taxi nearest(Point location) {
+	return nearest(location.x, location.y);
+    }
+
+    /**
+     * Find the taxi closest to the given location. See nearest(Point).
+     *
+     * @param x  x co-ordinate of the location to search from.
+     * @param y  y co-ordinate of the location to search from.
+     * @return   the closest taxi or null if the index is empty.
+     */
+    Taxi nearest(int x, int y);
+
+    /**
+     * Remove all taxis from the index.
+     */
+    void clear();
+
+    /**
+     * Return the number of taxis in the index.
+     *
+     * @return the number of taxis in the index.
+     */
+    int size();
+}
@@ -0,0 +1,134 @@
+package org.ishaikh.taxibooking;
+
+/**
+ * Immutable snapshot of a taxi, returned for GET HTTP requests for "/api/status".
+ * <p>
+ * A taxi publishes a new snapshot whenever it reaches a stable state (available or riding),
+ * so the status of the fleet is read without any lock and never shows a ride half written.
+ * See Taxi.getStatus().
+ */
+public class TaxiStatus {
+    /**
+     * Constructor.
+     *
+     * @param id            the taxi id.
+     * @param available     is the taxi available for a customer?
+     * @param x             x co-ordinate of the available location (the start of the ride, if any).
+     * @param y             y co-ordinate of the available location.
+     * @param destinationX  x co-ordinate of the drop-off location; 0 if the taxi is available.
+     * @param destinationY  y co-ordinate of the drop-off location; 0 if the taxi is available.
+     * @param rideEndTime   the clock's time at the end of the ride; -1 if the taxi is available.
+     */
+    public TaxiStatus(int id, boolean available, int x, int y, int destinationX, int destinationY,
+		      long rideEndTime) {
+	this.id = id;
+	this.available = available;
+	this.x = x;
+	this.y = y;
+	this.destinationX = destinationX;
+	this.destinationY = destinationY;
+	this.rideEndTime = rideEndTime;
+    }
+
+    /**
+     * Return the snapshot of the same taxi at the end of its ride: available at the destination.
+     *
+     * @return the snapshot of the available taxi.
+     */
+    TaxiStatus completed() {
+	return new TaxiStatus(id, true, destinationX, destinationY, 0, 0, -1);
+    }
+
+    /**
+     * Return the id of the taxi.
+     *
+     * @return the id of the taxi.
+     */
+    public int getId() {
+	return id;
+    }
+
+    /**
+     * Is the taxi available for a customer?
+     *
+     * @return true if the taxi is available, false if it is on a ride.
+     */
+    public boolean isAvailable() {
+	return available;
+    }
+
+    /**
+     * Return the x co-ordinate of the available location.
+     *
+     * @return the x co-ordinate of the available location.
+     */
+    public int getX() {
+	return x;
+    }
+
+    /**
+     * Return the y co-ordinate of the available location.
+     *
+     * @return the y co-ordinate of the available location.
+     */
+    public int getY() {
+	return y;
+    }
+
+    /**
+     * Return the x co-ordinate of the drop-off location.
+     *
+     * @return the x co-ordinate of the drop-off location; 0 if the taxi is available.
+     */
+    public int getDestinationX() {
+	return destinationX;
+    }
+
+    /**
+     * Return the y co-ordinate of the drop-off location.
+     *
+     * @return the y co-ordinate of the drop-off location; 0 if the taxi is available.
+     */
+    public int getDestinationY() {
+	return destinationY;
+    }
+
+    /**
+     * Return the clock's time at the end of the ride. Not part of the JSON representation,
+     * as the clock of a taxi is not the time of the booker.
+     *
+     * @return the end time of the ride; -1 if the taxi is available.
+     */
+    long getRideEndTime() {
+	return rideEndTime;
+    }
+
+    /**
+     * Return String representation of object.
+     *
+     * @return String representation.
+     */
+    @Override
+    public String toString() {
+	return
+	    "{status: {id: " + id + ", available: " + available + ", location: [" + x + ", " + y +
+	    "], destination: [" + destinationX + ", " + destinationY + "], rideEndTime: " + rideEndTime + "}}";
+    }
+
+    // Identifier of the taxi.
+    private final int id;
+
+    // Is the taxi available for a customer or on a ride?
+    private final boolean available;
+
+    // Available location; the start location of the ride, if any.
+    private final int x;
+    private final int y;
+
+    // Drop-off location of the ride.
+    private final int destinationX;
+    private final int destinationY;
+
+    // End time of the ride, on the clock of the taxi.
+    private final long rideEndTime;
+}
@@ -0,0 +1,26 @@
+package org.ishaikh.taxibooking;
+
+/**
+ * Time for a taxi to drive from one location to another, used to pick the closest taxi for a
+ * booking and to work out the total time of its ride.
+ * <p>
+ * MANHATTAN is the Manhattan distance, one time unit per unit of distance; a RoadNetwork
+ * follows the roads of a city.
+ */
+public interface TravelTimes {
+    /**
+     * Return the time to drive between two locations.
+     *
+     * @param fromX  x co-ordinate of the start location.
+     * @param fromY  y co-ordinate of the start location.
+     * @param toX    x co-ordinate of the end location.
+     * @param toY    y co-ordinate of the end location.
+     * @return       the time, in time units.
+     */
+    int time(int fromX, int fromY, int toX, int toY);
+
+    /**
+     * The Manhattan distance between the locations. See Taxi.distance().
+     */
+    TravelTimes MANHATTAN = Taxi::distance;
+}
@@ -0,0 +1,118 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Queue of the bookings waiting for a taxi. See TaxiBooker.bookOrWait().
+ * <p>
+ * When a taxi becomes available, it is given to the waiting ride with the closest pick-up
+ * location, the one waiting the longest if several are equally close.
+ * The queue is bounded, so a fleet that cannot keep up does not collect requests without end.
+ * Not thread safe; the TaxiBooker synchronizes on it.
+ */
+public class WaitingRides {
+    /**
+     * Constructor.
+     *
+     * @param capacity  the largest number of waiting rides.
+     */
+    public WaitingRides(int capacity) {
+	if (capacity < 0) {
+	    throw new IllegalArgumentException("Invalid capacity: " + capacity);
+	}
+	this.capacity = capacity;
+    }
+
+    /**
+     * Queue a ride.
+     *
+     * @param rideCoordinates  the ride.
+     * @param result           the result of the booking, set once a taxi is assigned.
+     * @return                 false if the queue is full.
+     */
+    public boolean add(RideCoordinates rideCoordinates, DeferredResult<BookingStatus> result) {
+	if (rides.size() >= capacity) {
+	    return false;
+	}
+	rides.add(new WaitingRide(rideCoordinates, result));
+	return true;
+    }
+
+    /**
+     * Drop a ride from the queue, e.g. when its client stops waiting.
+     *
+     * @param result  the result of the booking of the ride.
+     * @return        true if the ride was waiting.
+     */
+    public boolean remove(DeferredResult<BookingStatus> result) {
+	for (int i = 0; i < rides.size(); i++) {
+	    if (rides.get(i).result == result) {
+		rides.remove(i);
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Take the waiting ride with the closest pick-up location out of the queue.
+     *
+     * @param location  the location of the taxi.
+     * @return          the ride; null if none is waiting.
+     */
+    public WaitingRide takeNearest(Point location) {
+	int nearest = -1;
+	int nearestDistance = Integer.MAX_VALUE;
+	for (int i = 0; i < rides.size(); i++) {
+	    int distance = Taxi.distance(location, rides.get(i).rideCoordinates.getSource());
+	    if (distance < nearestDistance) {
+		nearest = i;
+		nearestDistance = distance;
+	    }
+	}
+	return nearest < 0 ? null : rides.remove(nearest);
+    }
+
+    /**
+     * Take all the waiting rides out of the queue.
+     *
+     * @return the rides, the longest waiting first.
+     */
+    public List<WaitingRide> clear() {
+	List<WaitingRide> cleared = new ArrayList<WaitingRide>(rides);
+	rides.clear();
+	return cleared;
+    }
+
+    /**
+     * Return the number of waiting rides.
+     *
+     * @return the number of waiting rides.
+     */
+    public int size() {
+	return rides.size();
+    }
+
+    /**
+     * A ride & the result of its booking.
+     */
+    public static class WaitingRide {
+	WaitingRide(RideCoordinates rideCoordinates, DeferredResult<BookingStatus> result) {
+	    this.rideCoordinates = rideCoordinates;
+	    this.result = result;
+	}
+
+	final RideCoordinates rideCoordinates;
+	final DeferredResult<BookingStatus> result;
+    }
+
+    // Largest number of waiting rides.
+    private final int capacity;
+
+    // Waiting rides, the longest waiting first.
+    private final List<WaitingRide> rides = new ArrayList<WaitingRide>();
+}
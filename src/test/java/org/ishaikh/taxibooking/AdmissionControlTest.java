@@ -0,0 +1,251 @@
+package org.ishaikh.taxibooking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import org.ishaikh.taxibooking.AdmissionControl.Decision;
+import org.ishaikh.taxibooking.AdmissionControl.Priority;
+
+public class AdmissionControlTest {
+    @Test
+    public void testLimit() throws Exception {
+	AdmissionControl control = new AdmissionControl(2, 0, 0, 50);
+	assertEquals(Decision.ADMITTED, control.acquire(Priority.NORMAL));
+	assertEquals(Decision.ADMITTED, control.acquire(Priority.LOW));
+	assertEquals(Decision.OVERLOADED, control.acquire(Priority.HIGH));
+	assertEquals(2, control.getInFlight());
+
+	control.release(0);
+	assertEquals(Decision.ADMITTED, control.acquire(Priority.NORMAL));
+	assertEquals(1, control.getRejected(Decision.OVERLOADED));
+	assertEquals(0, control.getRejected(Decision.SHED));
+	assertEquals(1, control.getRetryAfter());
+    }
+
+    @Test
+    public void testQueueShares() throws Exception {
+	AdmissionControl control = new AdmissionControl(1, 4, 60000, 50);
+	assertEquals(Decision.ADMITTED, control.acquire(Priority.HIGH));
+
+	// Half the queue for LOW, three quarters for NORMAL, all of it for HIGH.
+	List<Thread> waiting = new ArrayList<Thread>();
+	List<Decision> decisions = Collections.synchronizedList(new ArrayList<Decision>());
+	waiting.add(queue(control, Priority.LOW, decisions, 1));
+	waiting.add(queue(control, Priority.LOW, decisions, 2));
+	assertEquals(Decision.SHED, control.acquire(Priority.LOW));
+	waiting.add(queue(control, Priority.NORMAL, decisions, 3));
+	assertEquals(Decision.SHED, control.acquire(Priority.NORMAL));
+	waiting.add(queue(control, Priority.HIGH, decisions, 4));
+	assertEquals(Decision.OVERLOADED, control.acquire(Priority.HIGH));
+	assertEquals(2, control.getRejected(Decision.SHED));
+
+	// Each release lets the next one in, and is released in turn.
+	control.release(0);
+	for (Thread thread : waiting) {
+	    thread.join();
+	}
+	assertEquals(Collections.nCopies(4, Decision.ADMITTED), decisions);
+	assertEquals(0, control.getQueued());
+	assertEquals(0, control.getInFlight());
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+	AdmissionControl control = new AdmissionControl(1, 10, 60000, 50);
+	assertEquals(Decision.ADMITTED, control.acquire(Priority.NORMAL));
+
+	List<Priority> order = Collections.synchronizedList(new ArrayList<Priority>());
+	List<Thread> waiting = new ArrayList<Thread>();
+	int queued = 0;
+	for (Priority priority : new Priority[] { Priority.LOW, Priority.NORMAL, Priority.LOW, Priority.HIGH }) {
+	    Thread thread = new Thread(() -> {
+		try {
+		    if (control.acquire(priority) == Decision.ADMITTED) {
+			order.add(priority);
+			control.release(0);
+		    }
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+	    });
+	    thread.start();
+	    waiting.add(thread);
+	    awaitQueued(control, ++queued);
+	}
+
+	control.release(0);
+	for (Thread thread : waiting) {
+	    thread.join();
+	}
+	assertEquals(Arrays.asList(Priority.HIGH, Priority.NORMAL, Priority.LOW, Priority.LOW), order);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+	AdmissionControl control = new AdmissionControl(1, 1, 50, 50);
+	assertEquals(Decision.ADMITTED, control.acquire(Priority.NORMAL));
+	long start = System.nanoTime();
+	assertEquals(Decision.OVERLOADED, control.acquire(Priority.HIGH));
+	assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+	assertEquals(0, control.getQueued());
+
+	control.release(0);
+	assertEquals(Decision.ADMITTED, control.acquire(Priority.LOW));
+    }
+
+    @Test
+    public void testAdaptiveLimit() throws Exception {
+	AdmissionControl control = new AdmissionControl(10, 0, 0, 1);
+	long slow = TimeUnit.MILLISECONDS.toNanos(2);
+	long fast = TimeUnit.MICROSECONDS.toNanos(10);
+
+	// Down by a tenth on a slow booking, then not again before a limit of bookings.
+	run(control, slow);
+	assertEquals(9, control.getLimit());
+	for (int i = 0; i < 8; i++) {
+	    run(control, slow);
+	}
+	assertEquals(9, control.getLimit());
+	run(control, slow);
+	assertEquals(8, control.getLimit());
+
+	// Up by one after a limit of bookings within the target.
+	for (int i = 0; i < 7; i++) {
+	    run(control, fast);
+	}
+	assertEquals(8, control.getLimit());
+	run(control, fast);
+	assertEquals(9, control.getLimit());
+
+	// Never above the maximum, nor below 1.
+	for (int i = 0; i < 1000; i++) {
+	    run(control, fast);
+	}
+	assertEquals(10, control.getLimit());
+	for (int i = 0; i < 1000; i++) {
+	    run(control, slow);
+	}
+	assertEquals(1, control.getLimit());
+    }
+
+    @Test
+    public void testAdmit() {
+	AdmissionControl control = new AdmissionControl(4, 10, 60000, 50);
+	assertEquals(Decision.ADMITTED, control.admit(Priority.LOW));
+	assertEquals(Decision.ADMITTED, control.admit(Priority.LOW));
+	assertEquals(Decision.SHED, control.admit(Priority.LOW));
+	assertEquals(Decision.ADMITTED, control.admit(Priority.NORMAL));
+	assertEquals(Decision.SHED, control.admit(Priority.NORMAL));
+	assertEquals(Decision.ADMITTED, control.admit(Priority.HIGH));
+	assertEquals(Decision.OVERLOADED, control.admit(Priority.HIGH));
+	assertEquals(4, control.getInFlight());
+	assertEquals(0, control.getQueued());
+    }
+
+    @Test
+    public void testPriorityOf() {
+	assertEquals(Priority.HIGH, Priority.of("high"));
+	assertEquals(Priority.LOW, Priority.of("LOW"));
+	assertEquals(Priority.NORMAL, Priority.of("urgent"));
+	assertEquals(Priority.NORMAL, Priority.of(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimit() {
+	new AdmissionControl(0, 10, 1000, 50);
+    }
+
+    /**
+     * Overload: never more bookings running than the limit, and every booking is either run
+     * or rejected.
+     */
+    @Test
+    public void testOverload() throws Exception {
+	AdmissionControl control = new AdmissionControl(4, 8, 20, 5);
+	AtomicInteger running = new AtomicInteger();
+	AtomicInteger maxRunning = new AtomicInteger();
+	AtomicInteger admitted = new AtomicInteger();
+	AtomicInteger rejected = new AtomicInteger();
+	List<Thread> clients = new ArrayList<Thread>();
+	for (int i = 0; i < 32; i++) {
+	    Priority priority = Priority.values()[i % 3];
+	    Thread client = new Thread(() -> {
+		try {
+		    for (int j = 0; j < 50; j++) {
+			if (control.acquire(priority) != Decision.ADMITTED) {
+			    rejected.incrementAndGet();
+			    continue;
+			}
+			long start = System.nanoTime();
+			int now = running.incrementAndGet();
+			maxRunning.accumulateAndGet(now, Math::max);
+			Thread.sleep(1);
+			running.decrementAndGet();
+			admitted.incrementAndGet();
+			control.release(System.nanoTime() - start);
+		    }
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+	    });
+	    client.start();
+	    clients.add(client);
+	}
+	for (Thread client : clients) {
+	    client.join();
+	}
+
+	assertTrue(maxRunning.get() <= 4);
+	assertEquals(32 * 50, admitted.get() + rejected.get());
+	assertEquals(rejected.get(), control.getRejected(Decision.SHED) + control.getRejected(Decision.OVERLOADED));
+	assertEquals(0, control.getInFlight());
+	assertEquals(0, control.getQueued());
+    }
+
+    /**
+     * Acquire & release with a given latency.
+     */
+    private static void run(AdmissionControl control, long latency) throws InterruptedException {
+	assertEquals(Decision.ADMITTED, control.acquire(Priority.NORMAL));
+	control.release(latency);
+    }
+
+    /**
+     * Start a thread that waits in the queue, then releases right away, once the queue holds
+     * the given number of bookings.
+     */
+    private static Thread queue(AdmissionControl control, Priority priority, List<Decision> decisions, int queued)
+	throws InterruptedException {
+	Thread thread = new Thread(() -> {
+	    try {
+		Decision decision = control.acquire(priority);
+		decisions.add(decision);
+		if (decision == Decision.ADMITTED) {
+		    control.release(0);
+		}
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	});
+	thread.start();
+	awaitQueued(control, queued);
+	return thread;
+    }
+
+    /**
+     * Wait for the queue to hold a number of bookings.
+     */
+    private static void awaitQueued(AdmissionControl control, int queued) throws InterruptedException {
+	while (control.getQueued() < queued) {
+	    Thread.sleep(1);
+	}
+    }
+}
@@ -0,0 +1,75 @@
+package org.ishaikh.taxibooking;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class AssignmentTest {
+    @Test
+    public void testSolve() {
+	long[][] costs = {
+	    { 4, 1, 3 },
+	    { 2, 0, 5 },
+	    { 3, 2, 2 }
+	};
+	assertArrayEquals(new int[] { 1, 0, 2 }, Assignment.solve(costs));
+	assertArrayEquals(new int[0], Assignment.solve(new long[0][0]));
+    }
+
+    /**
+     * Compare the total cost with a brute force search, for both narrow and wide matrices.
+     */
+    @Test
+    public void testSolveMatchesBruteForce() {
+	Random random = new Random(7);
+	for (int test = 0; test < 200; test++) {
+	    int rows = 1 + random.nextInt(5);
+	    int columns = 1 + random.nextInt(5);
+	    long[][] costs = new long[rows][columns];
+	    for (int row = 0; row < rows; row++) {
+		for (int column = 0; column < columns; column++) {
+		    costs[row][column] = random.nextInt(20);
+		}
+	    }
+
+	    int[] assignment = Assignment.solve(costs);
+	    long total = 0;
+	    int assigned = 0;
+	    boolean[] usedColumns = new boolean[columns];
+	    for (int row = 0; row < rows; row++) {
+		if (assignment[row] >= 0) {
+		    assertEquals(false, usedColumns[assignment[row]]);
+		    usedColumns[assignment[row]] = true;
+		    total += costs[row][assignment[row]];
+		    assigned++;
+		}
+	    }
+	    assertEquals(Math.min(rows, columns), assigned);
+	    assertEquals(bestTotal(costs, 0, new boolean[columns], Math.min(rows, columns)), total);
+	}
+    }
+
+    /**
+     * Smallest total cost of assigning the given number of rows, starting at the given row.
+     */
+    private static long bestTotal(long[][] costs, int row, boolean[] usedColumns, int toAssign) {
+	if (toAssign == 0) {
+	    return 0;
+	}
+	long best = Long.MAX_VALUE;
+	// Leave this row unassigned, if enough rows remain.
+	if (costs.length - row > toAssign) {
+	    best = bestTotal(costs, row + 1, usedColumns, toAssign);
+	}
+	for (int column = 0; column < usedColumns.length; column++) {
+	    if (!usedColumns[column]) {
+		usedColumns[column] = true;
+		best = Math.min(best, costs[row][column] + bestTotal(costs, row + 1, usedColumns, toAssign - 1));
+		usedColumns[column] = false;
+	    }
+	}
+	return best;
+    }
+}
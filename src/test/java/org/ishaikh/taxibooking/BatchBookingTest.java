@@ -0,0 +1,69 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Testing of the batch booking of TaxiBooker. Does not need the Spring context.
+ */
+public class BatchBookingTest {
+    /**
+     * A batch must beat booking the same rides one after the other.
+     */
+    @Test
+    public void batchBeatsGreedy() {
+	List<RideCoordinates> rides = Arrays.asList(new RideCoordinates(new Point(4, 0), new Point(4, 0)),
+						    new RideCoordinates(new Point(-1, 0), new Point(-1, 0)));
+
+	// Greedy: the first ride takes taxi 2 (4 away), leaving taxi 1 for the second one (11 away).
+	TaxiBooker taxiBooker = createTaxiBooker();
+	assertEquals(2, taxiBooker.book(rides.get(0)).getCarId());
+	assertEquals(11, taxiBooker.book(rides.get(1)).getTotalTime());
+
+	// Batch: taxi 1 (6 away) for the first ride and taxi 2 (1 away) for the second one.
+	taxiBooker = createTaxiBooker();
+	List<BookingStatus> results = taxiBooker.bookBatch(rides);
+	assertEquals(2, results.size());
+	assertEquals(1, results.get(0).getCarId());
+	assertEquals(6, results.get(0).getTotalTime());
+	assertEquals(2, results.get(1).getCarId());
+	assertEquals(1, results.get(1).getTotalTime());
+    }
+
+    /**
+     * Rides that cannot be served get a null status; unused taxis stay available.
+     */
+    @Test
+    public void batchLargerThanFleet() {
+	TaxiBooker taxiBooker = new TaxiBooker(2);
+	List<BookingStatus> results =
+	    taxiBooker.bookBatch(Arrays.asList(new RideCoordinates(new Point(1, 1), new Point(2, 2)),
+					       new RideCoordinates(new Point(9, 9), new Point(2, 2)),
+					       new RideCoordinates(new Point(0, 1), new Point(2, 2))));
+	assertEquals(3, results.size());
+	assertEquals(4, results.get(0).getTotalTime());
+	assertNull(results.get(1));
+	assertEquals(4, results.get(2).getTotalTime());
+	assertEquals(0, taxiBooker.availableTaxis.size());
+
+	taxiBooker = new TaxiBooker(5);
+	taxiBooker.bookBatch(Arrays.asList(new RideCoordinates(new Point(1, 1), new Point(2, 2))));
+	assertEquals(4, taxiBooker.availableTaxis.size());
+    }
+
+    /**
+     * Create a booker with taxi 1 at (10, 0) and taxi 2 at (0, 0).
+     */
+    private static TaxiBooker createTaxiBooker() {
+	TaxiBooker taxiBooker = new TaxiBooker(2);
+	taxiBooker.book(new RideCoordinates(new Point(0, 0), new Point(10, 0)));
+	taxiBooker.book(new RideCoordinates(new Point(0, 0), new Point(0, 0)));
+	taxiBooker.tick(10);
+	return taxiBooker;
+    }
+}
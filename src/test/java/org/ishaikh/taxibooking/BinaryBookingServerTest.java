@@ -0,0 +1,168 @@
+package org.ishaikh.taxibooking;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryBookingServerTest {
+    @Before
+    public void setUp() throws IOException {
+	taxiBooker = new TaxiBooker(3);
+	server = new BinaryBookingServer(taxiBooker, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+	server.close();
+    }
+
+    /**
+     * Same bookings as TaxiBookerTest.book(), pipelined in a single write.
+     */
+    @Test
+    public void testPipelined() throws IOException {
+	try (Socket socket = connect()) {
+	    ByteBuffer requests = ByteBuffer.allocate(4 * BinaryBookingServer.REQUEST_SIZE);
+	    requests.putInt(1).putInt(2).putInt(5).putInt(6);
+	    requests.putInt(3).putInt(4).putInt(2).putInt(2);
+	    requests.putInt(1).putInt(1).putInt(4).putInt(4);
+	    requests.putInt(1).putInt(1).putInt(4).putInt(4);
+	    socket.getOutputStream().write(requests.array());
+
+	    DataInputStream in = new DataInputStream(socket.getInputStream());
+	    assertEquals(BookingStatus.pack(1, 11), in.readLong());
+	    assertEquals(BookingStatus.pack(2, 10), in.readLong());
+	    assertEquals(BookingStatus.pack(3, 8), in.readLong());
+	    assertEquals(BookingStatus.NO_BOOKING, in.readLong());
+	}
+    }
+
+    @Test
+    public void testSplitFrames() throws IOException {
+	try (Socket socket = connect()) {
+	    ByteBuffer request = ByteBuffer.allocate(BinaryBookingServer.REQUEST_SIZE);
+	    request.putInt(1).putInt(2).putInt(5).putInt(6);
+	    OutputStream out = socket.getOutputStream();
+	    for (byte b : request.array()) {
+		out.write(b);
+		out.flush();
+	    }
+
+	    // Car id then total time.
+	    DataInputStream in = new DataInputStream(socket.getInputStream());
+	    assertEquals(1, in.readInt());
+	    assertEquals(11, in.readInt());
+	}
+    }
+
+    /**
+     * Many more requests than are buffered, sent before any response is read.
+     */
+    @Test
+    public void testBackpressure() throws Exception {
+	int requests = BinaryBookingServer.BUFFERED_FRAMES * 100;
+	try (Socket socket = connect()) {
+	    Thread writer = new Thread(() -> {
+		try {
+		    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		    for (int i = 0; i < requests; i++) {
+			out.writeInt(i);
+			out.writeInt(0);
+			out.writeInt(i);
+			out.writeInt(1);
+		    }
+		    out.flush();
+		} catch (IOException e) {
+		    throw new IllegalStateException(e);
+		}
+	    });
+	    writer.start();
+
+	    DataInputStream in = new DataInputStream(socket.getInputStream());
+	    int booked = 0;
+	    for (int i = 0; i < requests; i++) {
+		if (in.readLong() != BookingStatus.NO_BOOKING) {
+		    booked++;
+		}
+	    }
+	    writer.join();
+	    assertEquals(3, booked);
+	}
+    }
+
+    @Test
+    public void testConnections() throws IOException {
+	try (Socket first = connect(); Socket second = connect(); Socket third = connect()) {
+	    assertEquals(BookingStatus.pack(1, 11), book(first, 1, 2, 5, 6));
+	    assertEquals(BookingStatus.pack(2, 10), book(second, 3, 4, 2, 2));
+	    assertEquals(BookingStatus.pack(3, 8), book(third, 1, 1, 4, 4));
+	    assertEquals(BookingStatus.NO_BOOKING, book(first, 1, 1, 4, 4));
+	}
+	assertEquals(0, taxiBooker.availableTaxis.size());
+    }
+
+    @Test
+    public void testEndOfInput() throws IOException {
+	try (Socket socket = connect()) {
+	    ByteBuffer request = ByteBuffer.allocate(BinaryBookingServer.REQUEST_SIZE);
+	    request.putInt(1).putInt(2).putInt(5).putInt(6);
+	    socket.getOutputStream().write(request.array());
+	    socket.shutdownOutput();
+
+	    // The response is written before the connection is closed.
+	    DataInputStream in = new DataInputStream(socket.getInputStream());
+	    assertEquals(BookingStatus.pack(1, 11), in.readLong());
+	    assertEquals(-1, in.read());
+	}
+    }
+
+    @Test
+    public void testClose() throws IOException {
+	try (Socket socket = connect()) {
+	    assertEquals(BookingStatus.pack(1, 11), book(socket, 1, 2, 5, 6));
+	    server.close();
+	    assertEquals(-1, socket.getInputStream().read());
+	}
+	try (Socket socket = connect()) {
+	    assertTrue(false);
+	} catch (IOException e) {
+	    // Expected.
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreads() throws IOException {
+	new BinaryBookingServer(taxiBooker, new InetSocketAddress(0), 0);
+    }
+
+    private Socket connect() throws IOException {
+	Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+	socket.setTcpNoDelay(true);
+	return socket;
+    }
+
+    private static long book(Socket socket, int sourceX, int sourceY, int destinationX, int destinationY)
+	throws IOException {
+	DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+	out.writeInt(sourceX);
+	out.writeInt(sourceY);
+	out.writeInt(destinationX);
+	out.writeInt(destinationY);
+	out.flush();
+	return new DataInputStream(socket.getInputStream()).readLong();
+    }
+
+    private TaxiBooker taxiBooker;
+    private BinaryBookingServer server;
+}
@@ -0,0 +1,189 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BookingHistoryTest {
+    @Before
+    public void setup() throws IOException {
+	directory = Files.createTempDirectory("history");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+	try (Stream<Path> files = Files.list(directory)) {
+	    files.forEach(file -> file.toFile().delete());
+	}
+	Files.delete(directory);
+    }
+
+    @Test
+    public void testSummarize() {
+	BookingHistory history = new BookingHistory(100, 0);
+	history.append(1, 0, 0, 3, 4, 0, 9, 2);
+	history.append(2, 1, 1, 1, 2, 5, 8, 2);
+	history.append(1, 3, 4, 0, 0, 10, 20, 3);
+	assertEquals(3, history.size());
+
+	assertSummary(history.summarize(0, Long.MAX_VALUE), 3, 9 + 3 + 10, 7 + 1 + 7, 2 + 2 + 3);
+	assertSummary(history.summarize(1, 0, Long.MAX_VALUE), 2, 9 + 10, 7 + 7, 2 + 3);
+	assertSummary(history.summarize(3, 0, Long.MAX_VALUE), 0, 0, 0, 0);
+
+	// By start time, the end of the window excluded.
+	assertSummary(history.summarize(0, 10), 2, 9 + 3, 7 + 1, 2 + 2);
+	assertSummary(history.summarize(1, 5, 11), 1, 10, 7, 3);
+
+	Map<Integer, BookingSummary> byTaxi = history.summarizeByTaxi(5, 100);
+	assertEquals(2, byTaxi.size());
+	assertSummary(byTaxi.get(1), 1, 10, 7, 3);
+	assertSummary(byTaxi.get(2), 1, 3, 1, 2);
+
+	history.clear();
+	assertEquals(0, history.size());
+	assertSummary(history.summarize(0, Long.MAX_VALUE), 0, 0, 0, 0);
+    }
+
+    /**
+     * Beyond its capacity, the history drops the oldest chunks.
+     */
+    @Test
+    public void testCapacity() {
+	BookingHistory history = new BookingHistory(2 * BookingHistory.CHUNK_SIZE, 0);
+	int bookings = 5 * BookingHistory.CHUNK_SIZE + 10;
+	append(history, bookings);
+	assertEquals(BookingHistory.CHUNK_SIZE + 10, history.size());
+	assertSummary(history.summarize(0, Long.MAX_VALUE), BookingHistory.CHUNK_SIZE + 10,
+		      BookingHistory.CHUNK_SIZE + 10, 0, 0);
+	assertEquals(0, history.summarize(0, 4 * BookingHistory.CHUNK_SIZE).getRides());
+    }
+
+    /**
+     * Beyond its capacity, the history spills the oldest chunks to files, which are still queried.
+     */
+    @Test
+    public void testSpill() throws IOException {
+	BookingHistory history = new BookingHistory(2 * BookingHistory.CHUNK_SIZE, 0, directory);
+	int bookings = 5 * BookingHistory.CHUNK_SIZE + 10;
+	append(history, bookings);
+	history.close();
+	assertEquals(bookings, history.size());
+	assertSummary(history.summarize(0, Long.MAX_VALUE), bookings, bookings, 0, 0);
+	assertSummary(history.summarize(7, 100, 200), 100, 100, 0, 0);
+	assertEquals(BookingHistory.CHUNK_SIZE + 1, history.summarize(0, BookingHistory.CHUNK_SIZE + 1).getRides());
+
+	assertEquals(4, countFiles());
+	history.clear();
+	assertEquals(0, countFiles());
+
+	// Spilled files of a previous history are dropped.
+	history = new BookingHistory(BookingHistory.CHUNK_SIZE, 0, directory);
+	append(history, 3 * BookingHistory.CHUNK_SIZE);
+	history.close();
+	new BookingHistory(BookingHistory.CHUNK_SIZE, 0, directory).close();
+	assertEquals(0, countFiles());
+    }
+
+    /**
+     * Chunks whose bookings are all older than the maximum age are dropped, in memory or spilled.
+     */
+    @Test
+    public void testMaxAge() throws IOException {
+	BookingHistory history = new BookingHistory(3 * BookingHistory.CHUNK_SIZE, 2 * BookingHistory.CHUNK_SIZE);
+	append(history, 5 * BookingHistory.CHUNK_SIZE);
+	assertEquals(3 * BookingHistory.CHUNK_SIZE, history.size());
+	// The next chunk drops the chunks all older than CHUNK_SIZE.
+	history.append(1, 0, 0, 0, 0, 5 * BookingHistory.CHUNK_SIZE, 5 * BookingHistory.CHUNK_SIZE + 1, 0);
+	assertEquals(2 * BookingHistory.CHUNK_SIZE + 1, history.size());
+
+	// Two chunks in memory, the one before spilled.
+	history = new BookingHistory(BookingHistory.CHUNK_SIZE, 2 * BookingHistory.CHUNK_SIZE, directory);
+	append(history, 5 * BookingHistory.CHUNK_SIZE + 1);
+	history.close();
+	assertEquals(2 * BookingHistory.CHUNK_SIZE + 1, history.size());
+	assertEquals(1, countFiles());
+    }
+
+    /**
+     * Concurrent appends are all recorded.
+     */
+    @Test
+    public void testConcurrentAppends() throws InterruptedException {
+	BookingHistory history = new BookingHistory(100000, 0);
+	List<Thread> threads = new ArrayList<Thread>();
+	for (int t = 1; t <= 8; t++) {
+	    int taxiId = t;
+	    threads.add(new Thread(() -> {
+		    for (int i = 0; i < 10000; i++) {
+			history.append(taxiId, 0, 0, 1, 0, i, i + 1, 1);
+		    }
+	    }));
+	}
+	for (Thread thread : threads) {
+	    thread.start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	assertSummary(history.summarize(0, Long.MAX_VALUE), 80000, 80000, 80000, 80000);
+	for (int t = 1; t <= 8; t++) {
+	    assertSummary(history.summarize(t, 0, Long.MAX_VALUE), 10000, 10000, 10000, 10000);
+	}
+    }
+
+    /**
+     * The booker adds its bookings to the history, in time units of its ticks.
+     */
+    @Test
+    public void testTaxiBooker() {
+	TaxiBooker taxiBooker = new TaxiBooker();
+	taxiBooker.book(new RideCoordinates(new Point(1, 2), new Point(5, 6)));
+	taxiBooker.tick(5);
+	taxiBooker.book(new RideCoordinates(new Point(3, 4), new Point(2, 2)));
+	List<RideCoordinates> rides = new ArrayList<RideCoordinates>();
+	rides.add(new RideCoordinates(new Point(0, 1), new Point(0, 2)));
+	taxiBooker.bookBatch(rides);
+
+	assertSummary(taxiBooker.history(0, Long.MAX_VALUE), 3, 11 + 10 + 2, 8 + 3 + 1, 3 + 7 + 1);
+	assertSummary(taxiBooker.history(1, 0, Long.MAX_VALUE), 1, 11, 8, 3);
+	assertSummary(taxiBooker.history(5, 6), 2, 10 + 2, 3 + 1, 7 + 1);
+	assertEquals(3, taxiBooker.historyByTaxi(0, Long.MAX_VALUE).size());
+
+	taxiBooker.reset();
+	assertSummary(taxiBooker.history(0, Long.MAX_VALUE), 0, 0, 0, 0);
+    }
+
+    private static void append(BookingHistory history, int bookings) {
+	for (int i = 0; i < bookings; i++) {
+	    history.append(7, 0, 0, 0, 0, i, i + 1, 0);
+	}
+    }
+
+    private long countFiles() throws IOException {
+	try (Stream<Path> files = Files.list(directory)) {
+	    return files.count();
+	}
+    }
+
+    private static void assertSummary(BookingSummary summary, long rides, long rideTime, long rideDistance,
+				      long pickUpDistance) {
+	assertEquals(rides, summary.getRides());
+	assertEquals(rideTime, summary.getRideTime());
+	assertEquals(rideDistance, summary.getRideDistance());
+	assertEquals(pickUpDistance, summary.getPickUpDistance());
+    }
+
+    // Directory of the spilled bookings.
+    private Path directory;
+}
@@ -0,0 +1,46 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class BookingMetricsTest {
+    @Test
+    public void testMetrics() {
+	TaxiBooker taxiBooker = new TaxiBooker();
+	// Not recorded; no registry is bound yet.
+	taxiBooker.tick();
+
+	MeterRegistry registry = new SimpleMeterRegistry();
+	taxiBooker.bindTo(registry);
+	assertEquals(3, registry.get("taxibooking.fleet.available").gauge().value(), 0);
+
+	taxiBooker.book(new RideCoordinates(new Point(1, 2), new Point(5, 6)));
+	taxiBooker.book(new RideCoordinates(new Point(3, 4), new Point(2, 2)));
+	taxiBooker.book(new RideCoordinates(new Point(1, 1), new Point(4, 4)));
+	taxiBooker.book(new RideCoordinates(new Point(1, 1), new Point(4, 4)));
+	taxiBooker.tick();
+	taxiBooker.reset();
+
+	assertEquals(3, registry.get("taxibooking.book").tag("outcome", "booked").timer().count());
+	// The last booking failed fast, without waiting for the lock or searching.
+	assertEquals(0, registry.get("taxibooking.book").tag("outcome", "no_taxi").timer().count());
+	assertEquals(1, registry.get("taxibooking.book").tag("outcome", "fail_fast").timer().count());
+	assertEquals(3, registry.get("taxibooking.book.lock.wait").timer().count());
+	assertEquals(3, registry.get("taxibooking.book.search").timer().count());
+	assertEquals(3, registry.get("taxibooking.book.pickup.distance").summary().count());
+	assertEquals(3 + 7 + 2, registry.get("taxibooking.book.pickup.distance").summary().totalAmount(), 0);
+	assertEquals(1, registry.get("taxibooking.tick").timer().count());
+	assertEquals(1, registry.get("taxibooking.reset").timer().count());
+	assertEquals(3, registry.get("taxibooking.fleet.size").gauge().value(), 0);
+	assertEquals(0, registry.get("taxibooking.rides").gauge().value(), 0);
+
+	taxiBooker.book(new RideCoordinates(new Point(1, 2), new Point(5, 6)));
+	assertEquals(2, registry.get("taxibooking.fleet.available").gauge().value(), 0);
+	assertEquals(1, registry.get("taxibooking.rides").gauge().value(), 0);
+    }
+}
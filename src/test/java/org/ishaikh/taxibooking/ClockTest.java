@@ -0,0 +1,69 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+public class ClockTest {
+    @Test
+    public void testInternalTime() {
+	// A taxi moving time internally is freed once the clock reaches the end of its ride.
+	ManualClock clock = new ManualClock(1000);
+	Taxi taxi = new Taxi(1, true, clock);
+	assertEquals(3, taxi.ride(new Point(1, 1), new Point(1, 2)));
+	assertFalse(taxi.isAvailable());
+	clock.advance(2);
+	assertFalse(taxi.isAvailable());
+	clock.advance(1);
+	assertTrue(taxi.isAvailable());
+	assertEquals(new Point(1, 2), taxi.getAvailableLocation());
+    }
+
+    @Test
+    public void testExternalTime() {
+	// A taxi moving time externally ignores the clock, and is only freed by ticks.
+	ManualClock clock = new ManualClock(1000);
+	Taxi taxi = new Taxi(1, false, clock);
+	assertEquals(3, taxi.ride(new Point(1, 1), new Point(1, 2)));
+	clock.advance(10);
+	assertFalse(taxi.isAvailable());
+	taxi.tick();
+	taxi.tick();
+	taxi.tick();
+	assertTrue(taxi.isAvailable());
+
+	// Taxis on the same clock start their rides at the same time.
+	Taxi other = new Taxi(1, false, clock);
+	taxi.ride(new Point(2, 2), new Point(3, 3));
+	other.reset(new Point(1, 2));
+	other.ride(new Point(2, 2), new Point(3, 3));
+	assertEquals(taxi, other);
+    }
+
+    @Test
+    public void testCoarseClock() throws InterruptedException {
+	// The cached time follows its source clock.
+	ManualClock source = new ManualClock(5);
+	try (CoarseClock clock = new CoarseClock(source, 10)) {
+	    assertEquals(5, clock.now());
+	    source.set(6);
+	    long deadline = System.currentTimeMillis() + 5000;
+	    while (clock.now() != 6 && System.currentTimeMillis() < deadline) {
+		Thread.sleep(10);
+	    }
+	    assertEquals(6, clock.now());
+	}
+
+	// The shared clock is the system clock, within its refresh interval.
+	long now = Clock.SYSTEM.now();
+	assertTrue(Math.abs(CoarseClock.shared().now() - now) <= 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRefreshInterval() {
+	new CoarseClock(Clock.SYSTEM, 0);
+    }
+}
@@ -0,0 +1,96 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class CompactFleetTest {
+    /**
+     * Same scenario as TaxiBookerTest.book().
+     */
+    @Test
+    public void testBook() {
+	CompactFleet fleet = new CompactFleet(3);
+	assertBooking(fleet.book(1, 2, 5, 6), 1, 11);
+	assertBooking(fleet.book(3, 4, 2, 2), 2, 10);
+	assertBooking(fleet.book(1, 1, 4, 4), 3, 8);
+	assertEquals(BookingStatus.NO_BOOKING, fleet.book(1, 1, 4, 4));
+	fleet.tick(7);
+	assertEquals(BookingStatus.NO_BOOKING, fleet.book(1, 1, 4, 4));
+	fleet.tick(1);
+	assertBooking(fleet.book(3, 4, 2, 2), 3, 4);
+	fleet.tick(2);
+	assertBooking(fleet.book(1, 1, 4, 4), 2, 8);
+	assertNull(fleet.book(new RideCoordinates(new Point(5, 6), new Point(7, 7))));
+	fleet.tick(1);
+	assertBooking(fleet.book(5, 6, 7, 7), 1, 3);
+	assertEquals(0, fleet.available());
+	fleet.reset();
+	assertEquals(3, fleet.available());
+	assertBooking(fleet.book(5, 6, 7, 7), 1, 14);
+    }
+
+    /**
+     * Same as GridTaxiIndexTest.testNearestFarFromTaxis(): without starting at the bounding box
+     * of the taxis, each booking would visit hundreds of millions of empty cells.
+     */
+    @Test(timeout = 1000)
+    public void testBookFarFromTaxis() {
+	int[][] pickUps = {
+	    {1000000000, 1000000000, 2},
+	    {-1000000000, 20, 1},
+	    {90, 2000000000, 2},
+	    {5, -2000000000, 1},
+	    {Integer.MIN_VALUE, Integer.MIN_VALUE, 1},
+	    {Integer.MAX_VALUE, Integer.MAX_VALUE, 2},
+	};
+	for (int[] pickUp : pickUps) {
+	    // Taxis 1 & 2 at (0, 0) & (100, 40).
+	    CompactFleet fleet = new CompactFleet(new int[] {1, 2}, new int[] {0, 100}, new int[] {0, 40}, 16);
+	    assertEquals(pickUp[2], BookingStatus.carId(fleet.book(pickUp[0], pickUp[1], 0, 0)));
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCellSize() {
+	new CompactFleet(new int[] {1}, new int[] {Integer.MIN_VALUE}, new int[] {0}, 1);
+    }
+
+    /**
+     * A random sequence of bookings & ticks must give the same results as the TaxiBooker.
+     */
+    @Test
+    public void testSameAsTaxiBooker() {
+	Random random = new Random(3);
+	TaxiBooker taxiBooker = new TaxiBooker(200);
+	CompactFleet fleet = new CompactFleet(200);
+	for (int i = 0; i < 20000; i++) {
+	    if (random.nextInt(4) == 0) {
+		int units = 1 + random.nextInt(5);
+		taxiBooker.tick(units);
+		fleet.tick(units);
+	    } else {
+		RideCoordinates ride =
+		    new RideCoordinates(new Point(random.nextInt(400) - 200, random.nextInt(400) - 200),
+					new Point(random.nextInt(400) - 200, random.nextInt(400) - 200));
+		BookingStatus expected = taxiBooker.book(ride);
+		BookingStatus actual = fleet.book(ride);
+		if (expected == null) {
+		    assertNull(actual);
+		} else {
+		    assertEquals(expected.getCarId(), actual.getCarId());
+		    assertEquals(expected.getTotalTime(), actual.getTotalTime());
+		}
+	    }
+	}
+	assertEquals(taxiBooker.availableTaxis.size(), fleet.available());
+    }
+
+    private static void assertBooking(long result, int carId, long totalTime) {
+	assertEquals(carId, BookingStatus.carId(result));
+	assertEquals(totalTime, BookingStatus.totalTime(result));
+    }
+}
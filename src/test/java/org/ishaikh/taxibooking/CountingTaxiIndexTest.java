@@ -0,0 +1,130 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class CountingTaxiIndexTest {
+    @Test
+    public void testCounts() {
+	CountingTaxiIndex index = new CountingTaxiIndex(new GridTaxiIndex(), 10);
+	Taxi first = taxi(1, 0, 0);
+	Taxi second = taxi(2, 9, 9);
+	Taxi third = taxi(3, -1, 25);
+	index.add(first);
+	index.add(second);
+	index.add(third);
+	assertEquals(3, index.size());
+	assertEquals(2, index.size(5, 5));
+	assertEquals(1, index.size(-10, 20));
+	assertEquals(0, index.size(50, 50));
+	assertEquals(regions("0,0=2", "-1,2=1"), regions(index));
+
+	// Only taxis that are in the index are counted down.
+	assertEquals(true, index.remove(second));
+	assertEquals(false, index.remove(second));
+	assertEquals(1, index.size(5, 5));
+	assertEquals(first, index.nearest(9, 9));
+
+	index.remove(first);
+	assertEquals(regions("-1,2=1"), regions(index));
+	index.clear();
+	assertEquals(0, index.size());
+	assertEquals(0, index.size(-10, 20));
+	assertEquals(regions(), regions(index));
+    }
+
+    /**
+     * A taxi found & removed right after it is added, in a region that had none, is counted down.
+     */
+    @Test
+    public void testConcurrentAddRemove() throws Exception {
+	CountingTaxiIndex index = new CountingTaxiIndex(new GridTaxiIndex(), 1);
+	int taxis = 20000;
+	AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	Thread remover = new Thread(() -> {
+	    try {
+		int removed = 0;
+		while (removed < taxis && failure.get() == null) {
+		    Taxi taxi = index.nearest(0, 0);
+		    if (taxi != null && index.remove(taxi)) {
+			removed++;
+		    }
+		}
+	    } catch (Throwable e) {
+		failure.set(e);
+	    }
+	});
+	remover.start();
+	for (int i = 0; i < taxis && failure.get() == null; i++) {
+	    // Each taxi in a region of its own.
+	    index.add(taxi(i + 1, i % 100, i / 100));
+	}
+	remover.join(10000);
+	assertNull(failure.get());
+	assertEquals(0, index.size());
+	assertEquals(regions(), regions(index));
+    }
+
+    @Test
+    public void testFastFail() {
+	TaxiBooker taxiBooker = new TaxiBooker(Arrays.asList(taxi(1, 0, 0), taxi(2, 150, 0)));
+	Availability availability = taxiBooker.availability();
+	assertEquals(2, availability.getFleetSize());
+	assertEquals(2, availability.getAvailable());
+	assertEquals(-1, availability.getNextFreeIn());
+	assertEquals(2, availability.getRegions().size());
+
+	// Rides of 10 and 4 time units.
+	assertEquals(BookingStatus.pack(1, 10), taxiBooker.book(0, 5, 0, 10));
+	assertEquals(BookingStatus.pack(2, 4), taxiBooker.book(150, 2, 150, 4));
+	taxiBooker.tick(1);
+
+	// Every taxi is booked; the earliest ride ends in 3 time units.
+	assertEquals(BookingStatus.NO_BOOKING, taxiBooker.book(0, 0, 1, 1));
+	assertEquals(Availability.ALL_BOOKED, taxiBooker.unavailableReason());
+	assertEquals(3, taxiBooker.nextFreeIn());
+	availability = taxiBooker.availability();
+	assertEquals(0, availability.getAvailable());
+	assertEquals(2, availability.getRides());
+	assertEquals(3, availability.getNextFreeIn());
+	assertEquals(0, availability.getRegions().size());
+
+	// Taxi 2 is free again, in its region.
+	taxiBooker.tick(3);
+	availability = taxiBooker.availability();
+	assertEquals(1, availability.getAvailable());
+	assertEquals(6, availability.getNextFreeIn());
+	assertEquals(1, availability.getRegions().get(0).getX());
+	assertEquals(1, availability.getRegions().get(0).getAvailable());
+
+	assertEquals(Availability.NO_TAXIS, new TaxiBooker(0).unavailableReason());
+    }
+
+    private static Map<String, Integer> regions(String... counts) {
+	Map<String, Integer> regions = new HashMap<String, Integer>();
+	for (String count : counts) {
+	    String[] pair = count.split("=");
+	    regions.put(pair[0], Integer.valueOf(pair[1]));
+	}
+	return regions;
+    }
+
+    private static Map<String, Integer> regions(CountingTaxiIndex index) {
+	Map<String, Integer> regions = new HashMap<String, Integer>();
+	index.forEachRegion((x, y, count) -> regions.put(x + "," + y, count));
+	return regions;
+    }
+
+    private static Taxi taxi(int id, int x, int y) {
+	Taxi taxi = new Taxi(id, false);
+	taxi.reset(new Point(x, y));
+	return taxi;
+    }
+}
@@ -0,0 +1,93 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class DemandHeatmapTest {
+    @Test
+    public void testRecordAndDecay() {
+	DemandHeatmap heatmap = new DemandHeatmap(100, 10);
+	heatmap.record(5, 5);
+	heatmap.record(99, 0);
+	heatmap.record(-1, 150);
+	assertEquals(2, heatmap.demand(50, 50), 1e-9);
+	assertEquals(1, heatmap.demand(-100, 100), 1e-9);
+	assertEquals(0, heatmap.demand(100, 100), 1e-9);
+	assertEquals(3, heatmap.total(), 1e-9);
+
+	// Halved every half-life, whether in one go or unit by unit.
+	heatmap.decay(10);
+	assertEquals(1, heatmap.demand(50, 50), 1e-9);
+	for (int i = 0; i < 10; i++) {
+	    heatmap.decay(1);
+	}
+	assertEquals(0.5, heatmap.demand(50, 50), 1e-3);
+	assertEquals(0.75, heatmap.total(), 1e-3);
+
+	Map<Point, Double> regions = new HashMap<Point, Double>();
+	heatmap.forEachRegion((regionX, regionY, demand) -> regions.put(new Point(regionX, regionY), demand));
+	assertEquals(2, regions.size());
+	assertEquals(0.25, regions.get(new Point(-1, 1)), 1e-3);
+
+	// Faded away.
+	heatmap.decay(1000);
+	assertEquals(0, heatmap.total(), 1e-9);
+	heatmap.forEachRegion((regionX, regionY, demand) -> regions.put(null, demand));
+	assertNull(regions.get(null));
+
+	heatmap.record(5, 5);
+	heatmap.clear();
+	assertEquals(0, heatmap.total(), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidHalfLife() {
+	new DemandHeatmap(100, 0);
+    }
+
+    /**
+     * Idle taxis drive toward the demand, one time unit of distance per time unit.
+     */
+    @Test
+    public void testRebalance() {
+	TaxiBooker taxiBooker = new TaxiBooker();
+	DemandHeatmap heatmap = new DemandHeatmap(CountingTaxiIndex.REGION_SIZE, DemandHeatmap.HALF_LIFE);
+	taxiBooker.setDemandHeatmap(heatmap);
+
+	// Without demand, taxis stay where they are.
+	taxiBooker.tick(10);
+	assertEquals(new Point(0, 0), taxiBooker.taxis.get(0).getAvailableLocation());
+
+	// All the demand in the region from (200, 200): all 3 taxis go to its centre.
+	for (int i = 0; i < 10; i++) {
+	    heatmap.record(220, 280);
+	}
+	taxiBooker.tick(1);
+	for (Taxi taxi : taxiBooker.taxis) {
+	    assertEquals(new Point(1, 0), taxi.getAvailableLocation());
+	}
+	taxiBooker.tick(300);
+	assertEquals(new Point(250, 51), taxiBooker.taxis.get(0).getAvailableLocation());
+	assertEquals(3, taxiBooker.availableTaxis.size());
+
+	// Once they are there, they stay.
+	taxiBooker.tick(300);
+	assertEquals(new Point(250, 250), taxiBooker.taxis.get(2).getAvailableLocation());
+	taxiBooker.tick(10);
+	assertEquals(new Point(250, 250), taxiBooker.taxis.get(2).getAvailableLocation());
+
+	// Short pick-ups.
+	long booking = taxiBooker.book(240, 260, 250, 250);
+	assertEquals(BookingStatus.pack(1, 20 + 20), booking);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegionSize() {
+	new TaxiBooker().setDemandHeatmap(new DemandHeatmap(CountingTaxiIndex.REGION_SIZE + 1, 10));
+    }
+}
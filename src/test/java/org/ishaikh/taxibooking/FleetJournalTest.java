@@ -0,0 +1,188 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FleetJournalTest {
+    @Before
+    public void setup() throws IOException {
+	directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+	for (FleetJournal journal : journals) {
+	    journal.close();
+	}
+	try (Stream<Path> files = Files.list(directory)) {
+	    files.forEach(file -> file.toFile().delete());
+	}
+	Files.delete(directory);
+    }
+
+    /**
+     * A booker recovered from the journal carries on exactly like the one that wrote it.
+     */
+    @Test
+    public void testRecover() throws IOException {
+	TaxiBooker taxiBooker = new TaxiBooker(5);
+	taxiBooker.recover(open());
+	Random random = new Random(7);
+	play(taxiBooker, random, 200);
+	taxiBooker.resize(3);
+	play(taxiBooker, random, 100);
+	taxiBooker.snapshot();
+	play(taxiBooker, random, 100);
+	taxiBooker.resize(6);
+	play(taxiBooker, random, 100);
+
+	// A crash: the journal is not closed and no final snapshot is taken.
+	TaxiBooker recovered = new TaxiBooker(1);
+	recovered.recover(open());
+	assertSameFleet(taxiBooker, recovered);
+
+	long seed = random.nextLong();
+	assertEquals(play(taxiBooker, new Random(seed), 300), play(recovered, new Random(seed), 300));
+	assertSameFleet(taxiBooker, recovered);
+    }
+
+    /**
+     * Idle taxis sent toward the demand are recovered where they moved to.
+     */
+    @Test
+    public void testRecoverMoves() throws IOException {
+	TaxiBooker taxiBooker = new TaxiBooker(4);
+	taxiBooker.recover(open());
+	DemandHeatmap heatmap = new DemandHeatmap(CountingTaxiIndex.REGION_SIZE, DemandHeatmap.HALF_LIFE);
+	taxiBooker.setDemandHeatmap(heatmap);
+	taxiBooker.book(new RideCoordinates(new Point(1, 2), new Point(5, 6)));
+	for (int i = 0; i < 10; i++) {
+	    heatmap.record(250, 250);
+	}
+	taxiBooker.tick(5);
+	taxiBooker.tick(20);
+	assertEquals(new Point(25, 0), taxiBooker.taxis.get(1).getAvailableLocation());
+
+	TaxiBooker recovered = new TaxiBooker(1);
+	recovered.recover(open());
+	assertSameFleet(taxiBooker, recovered);
+    }
+
+    /**
+     * Rides booked while a tick moves the clock by many steps end on the same step once recovered.
+     */
+    @Test
+    public void testRecoverConcurrentTicks() throws Exception {
+	TaxiBooker taxiBooker = new TaxiBooker(50);
+	taxiBooker.recover(open());
+	AtomicBoolean done = new AtomicBoolean();
+	Thread ticker = new Thread(() -> {
+	    while (!done.get()) {
+		taxiBooker.tick(40);
+	    }
+	});
+	ticker.start();
+	List<Thread> bookers = new ArrayList<Thread>();
+	for (int i = 0; i < 4; i++) {
+	    Random random = new Random(i);
+	    Thread booker = new Thread(() -> {
+		for (int j = 0; j < 5000; j++) {
+		    taxiBooker.book(new RideCoordinates(new Point(random.nextInt(20), random.nextInt(20)),
+							new Point(random.nextInt(20), random.nextInt(20))));
+		}
+	    });
+	    booker.start();
+	    bookers.add(booker);
+	}
+	for (Thread booker : bookers) {
+	    booker.join();
+	}
+	done.set(true);
+	ticker.join();
+
+	TaxiBooker recovered = new TaxiBooker(1);
+	recovered.recover(open());
+	assertSameFleet(taxiBooker, recovered);
+    }
+
+    /**
+     * Without a journal, the booker keeps its fleet.
+     */
+    @Test
+    public void testEmptyJournal() throws IOException {
+	FleetJournal journal = open();
+	assertNull(journal.readSnapshot());
+	TaxiBooker taxiBooker = new TaxiBooker(3);
+	taxiBooker.recover(journal);
+	assertEquals(3, taxiBooker.taxis.size());
+
+	taxiBooker.book(new RideCoordinates(new Point(1, 2), new Point(5, 6)));
+	taxiBooker.reset();
+	taxiBooker.book(new RideCoordinates(new Point(3, 4), new Point(2, 2)));
+
+	TaxiBooker recovered = new TaxiBooker(0);
+	recovered.recover(open());
+	assertSameFleet(taxiBooker, recovered);
+	assertEquals(1, recovered.rideScheduler.size());
+    }
+
+    private FleetJournal open() throws IOException {
+	FleetJournal journal = new FleetJournal(directory, 0);
+	journals.add(journal);
+	return journal;
+    }
+
+    /**
+     * Random bookings & ticks.
+     *
+     * @return the results of the bookings.
+     */
+    private static List<String> play(TaxiBooker taxiBooker, Random random, int steps) {
+	List<String> results = new ArrayList<String>();
+	for (int i = 0; i < steps; i++) {
+	    if (random.nextInt(3) == 0) {
+		taxiBooker.tick(1 + random.nextInt(3));
+	    } else {
+		BookingStatus status =
+		    taxiBooker.book(new RideCoordinates(new Point(random.nextInt(20), random.nextInt(20)),
+							new Point(random.nextInt(20), random.nextInt(20))));
+		results.add(status == null ? null : status.getCarId() + "/" + status.getTotalTime());
+	    }
+	}
+	return results;
+    }
+
+    private static void assertSameFleet(TaxiBooker expected, TaxiBooker actual) {
+	assertEquals(expected.rideScheduler.now(), actual.rideScheduler.now());
+	assertEquals(expected.rideScheduler.size(), actual.rideScheduler.size());
+	assertEquals(expected.availableTaxis.size(), actual.availableTaxis.size());
+	assertEquals(expected.taxis.size(), actual.taxis.size());
+	for (int i = 0; i < expected.taxis.size(); i++) {
+	    Taxi expectedTaxi = expected.taxis.get(i);
+	    Taxi actualTaxi = actual.taxis.get(i);
+	    assertEquals(expectedTaxi.getId(), actualTaxi.getId());
+	    assertEquals(expectedTaxi.getAvailableLocation(), actualTaxi.getAvailableLocation());
+	    assertEquals(expectedTaxi.isAvailable(), actualTaxi.isAvailable());
+	    assertEquals(expectedTaxi.getDestinationLocation(), actualTaxi.getDestinationLocation());
+	}
+    }
+
+    // Directory of the journal.
+    private Path directory;
+
+    // Journals opened by the test.
+    private final List<FleetJournal> journals = new ArrayList<FleetJournal>();
+}
@@ -0,0 +1,83 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class FleetLoaderTest {
+    @Test
+    public void testParseCsv() {
+	List<Taxi> taxis = FleetLoader.parseCsv(csv("# id,x,y\n7,1,2\r\n\n8,-3,40\n9,0,0"));
+	assertEquals(3, taxis.size());
+	assertEquals(7, taxis.get(0).getId());
+	assertEquals(new Point(1, 2), taxis.get(0).getAvailableLocation());
+	assertEquals(new Point(-3, 40), taxis.get(1).getAvailableLocation());
+	assertEquals(9, taxis.get(2).getId());
+	assertTrue(taxis.get(2).isAvailable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidCsv() {
+	FleetLoader.parseCsv(csv("1,2\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseCsvOverflow() {
+	FleetLoader.parseCsv(csv("1,2,99999999999\n"));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+	File file = File.createTempFile("fleet", ".bin");
+	try {
+	    List<Taxi> taxis = FleetLoader.parseCsv(csv("1,5,6\n2,-7,8\n"));
+	    FleetLoader.writeBinary(file.toPath(), taxis);
+	    List<Taxi> loaded = FleetLoader.load(file.toPath());
+	    assertEquals(taxis, loaded);
+	} finally {
+	    file.delete();
+	}
+    }
+
+    /**
+     * A booker created from a fleet file books from the initial locations and can be resized.
+     */
+    @Test
+    public void testResize() {
+	TaxiBooker taxiBooker = new TaxiBooker(FleetLoader.parseCsv(csv("10,5,5\n20,0,0\n")));
+	assertEquals(10, taxiBooker.book(new RideCoordinates(new Point(4, 4), new Point(4, 4))).getCarId());
+
+	// Grow: new taxis get the next ids.
+	taxiBooker.resize(4);
+	assertEquals(4, taxiBooker.taxis.size());
+	assertEquals(22, taxiBooker.taxis.get(3).getId());
+
+	// Shrink: the available ones go right away, the booked ones at the end of their ride.
+	assertEquals(20, taxiBooker.book(new RideCoordinates(new Point(0, 0), new Point(1, 0))).getCarId());
+	assertEquals(21, taxiBooker.book(new RideCoordinates(new Point(0, 0), new Point(3, 0))).getCarId());
+	taxiBooker.resize(1);
+	assertEquals(3, taxiBooker.taxis.size());
+	assertEquals(0, taxiBooker.availableTaxis.size());
+	taxiBooker.tick(1);
+	assertEquals(2, taxiBooker.taxis.size());
+	taxiBooker.tick(2);
+	assertEquals(1, taxiBooker.taxis.size());
+	assertEquals(10, taxiBooker.taxis.get(0).getId());
+	assertEquals(1, taxiBooker.availableTaxis.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateIds() {
+	new TaxiBooker(FleetLoader.parseCsv(csv("1,0,0\n1,2,2\n")));
+    }
+
+    private static ByteBuffer csv(String text) {
+	return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
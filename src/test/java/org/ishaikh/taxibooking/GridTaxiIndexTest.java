@@ -0,0 +1,95 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+public class GridTaxiIndexTest {
+    @Test
+    public void testNearest() {
+	TaxiIndex index = new GridTaxiIndex(4);
+	assertNull(index.nearest(new Point(0, 0)));
+
+	// Two taxis equally far from (0, 0); the smaller id wins.
+	Taxi taxi1 = taxiAt(1, 3, -3);
+	Taxi taxi2 = taxiAt(2, -3, 3);
+	Taxi taxi3 = taxiAt(3, 20, 20);
+	index.add(taxi3);
+	index.add(taxi2);
+	index.add(taxi1);
+	assertEquals(3, index.size());
+	assertSame(taxi1, index.nearest(new Point(0, 0)));
+	assertSame(taxi3, index.nearest(new Point(15, 15)));
+
+	assertTrue(index.remove(taxi1));
+	assertFalse(index.remove(taxi1));
+	assertSame(taxi2, index.nearest(new Point(0, 0)));
+
+	index.clear();
+	assertEquals(0, index.size());
+	assertNull(index.nearest(new Point(0, 0)));
+    }
+
+    @Test
+    public void testNearestMatchesLinearScan() {
+	Random random = new Random(42);
+	TaxiIndex index = new GridTaxiIndex(8);
+	List<Taxi> taxis = new ArrayList<Taxi>();
+	for (int i = 0; i < 500; i++) {
+	    Taxi taxi = taxiAt(i + 1, random.nextInt(200) - 100, random.nextInt(200) - 100);
+	    taxis.add(taxi);
+	    index.add(taxi);
+	}
+
+	// Repeatedly take the nearest taxi away, as bookings do, and compare with a full scan.
+	for (int i = 0; i < 500; i++) {
+	    Point location = new Point(random.nextInt(300) - 150, random.nextInt(300) - 150);
+	    Taxi expected = null;
+	    for (Taxi taxi : taxis) {
+		if (expected == null ||
+		    Taxi.distance(taxi.getAvailableLocation(), location) <
+		    Taxi.distance(expected.getAvailableLocation(), location)) {
+		    expected = taxi;
+		}
+	    }
+	    assertSame(expected, index.nearest(location));
+	    assertTrue(index.remove(expected));
+	    taxis.remove(expected);
+	}
+	assertNull(index.nearest(new Point(0, 0)));
+    }
+
+    @Test(timeout = 1000)
+    public void testNearestFarFromTaxis() {
+	// Without starting at the bounding box of the taxis, each search would visit
+	// hundreds of millions of empty cells.
+	TaxiIndex index = new GridTaxiIndex(16);
+	Taxi taxi1 = taxiAt(1, 0, 0);
+	Taxi taxi2 = taxiAt(2, 100, 40);
+	index.add(taxi1);
+	index.add(taxi2);
+	assertSame(taxi2, index.nearest(new Point(1000000000, 1000000000)));
+	assertSame(taxi1, index.nearest(new Point(-1000000000, 20)));
+	assertSame(taxi2, index.nearest(new Point(90, 2000000000)));
+	assertSame(taxi1, index.nearest(new Point(5, -2000000000)));
+	assertSame(taxi1, index.nearest(new Point(Integer.MIN_VALUE, Integer.MIN_VALUE)));
+	assertSame(taxi2, index.nearest(new Point(Integer.MAX_VALUE, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Helper method to create a taxi available at the given location.
+     */
+    private static Taxi taxiAt(int id, int x, int y) {
+	Taxi taxi = new Taxi(id, false);
+	taxi.reset(new Point(x, y));
+	return taxi;
+    }
+}
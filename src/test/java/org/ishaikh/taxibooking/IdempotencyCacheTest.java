@@ -0,0 +1,170 @@
+package org.ishaikh.taxibooking;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class IdempotencyCacheTest {
+    @Test
+    public void testRetry() {
+	IdempotencyCache cache = new IdempotencyCache(10, 60, new ManualClock(0));
+	AtomicInteger bookings = new AtomicInteger();
+	LongSupplier booking = () -> BookingStatus.pack(3 + bookings.getAndIncrement(), 7);
+	assertEquals(BookingStatus.NO_BOOKING, cache.get("a"));
+	assertEquals(BookingStatus.pack(3, 7), cache.book("a", booking));
+	assertEquals(BookingStatus.pack(3, 7), cache.book("a", booking));
+	assertEquals(BookingStatus.pack(3, 7), cache.get("a"));
+	assertEquals(1, bookings.get());
+
+	// Another key books again.
+	assertEquals(BookingStatus.pack(4, 7), cache.book("b", booking));
+	assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testNoBookingNotKept() {
+	IdempotencyCache cache = new IdempotencyCache(10, 60, new ManualClock(0));
+	assertEquals(BookingStatus.NO_BOOKING, cache.book("a", () -> BookingStatus.NO_BOOKING));
+	assertEquals(0, cache.size());
+	assertEquals(BookingStatus.pack(1, 2), cache.book("a", () -> BookingStatus.pack(1, 2)));
+
+	// Nor is a failed booking.
+	try {
+	    cache.book("b", () -> { throw new IllegalStateException(); });
+	    assertTrue(false);
+	} catch (IllegalStateException e) {
+	    // Expected.
+	}
+	assertEquals(BookingStatus.pack(5, 2), cache.book("b", () -> BookingStatus.pack(5, 2)));
+    }
+
+    @Test
+    public void testExpiry() {
+	ManualClock clock = new ManualClock(100);
+	IdempotencyCache cache = new IdempotencyCache(10, 60, clock);
+	cache.book("a", () -> BookingStatus.pack(1, 2));
+	clock.advance(59);
+	assertEquals(BookingStatus.pack(1, 2), cache.get("a"));
+	clock.advance(1);
+	assertEquals(BookingStatus.NO_BOOKING, cache.get("a"));
+	assertEquals(BookingStatus.pack(2, 2), cache.book("a", () -> BookingStatus.pack(2, 2)));
+
+	// Expired keys are evicted as others are added.
+	cache.book("b", () -> BookingStatus.pack(3, 2));
+	clock.advance(60);
+	cache.book("c", () -> BookingStatus.pack(4, 2));
+	assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testCapacity() {
+	IdempotencyCache cache = new IdempotencyCache(3, 60, new ManualClock(0));
+	for (int i = 0; i < 5; i++) {
+	    int carId = i;
+	    cache.book("key" + i, () -> BookingStatus.pack(carId, 1));
+	}
+	assertEquals(3, cache.size());
+
+	// The oldest keys are evicted first.
+	assertEquals(BookingStatus.NO_BOOKING, cache.get("key0"));
+	assertEquals(BookingStatus.NO_BOOKING, cache.get("key1"));
+	assertEquals(BookingStatus.pack(4, 1), cache.get("key4"));
+
+	// Bookings that got no taxi take no room.
+	for (int i = 0; i < 10; i++) {
+	    cache.book("none" + i, () -> BookingStatus.NO_BOOKING);
+	}
+	assertEquals(BookingStatus.pack(2, 1), cache.get("key2"));
+	assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testClear() {
+	IdempotencyCache cache = new IdempotencyCache(2, 60, new ManualClock(0));
+	cache.book("a", () -> BookingStatus.pack(1, 1));
+	cache.book("b", () -> BookingStatus.pack(2, 1));
+	cache.clear();
+	assertEquals(0, cache.size());
+
+	// The keys cleared take no room either.
+	cache.book("c", () -> BookingStatus.pack(3, 1));
+	cache.book("d", () -> BookingStatus.pack(4, 1));
+	assertEquals(BookingStatus.pack(3, 1), cache.get("c"));
+	assertEquals(BookingStatus.pack(4, 1), cache.get("d"));
+	assertEquals(BookingStatus.pack(1, 1), cache.book("a", () -> BookingStatus.pack(1, 1)));
+	assertEquals(BookingStatus.NO_BOOKING, cache.get("c"));
+	assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testConcurrentAttempts() throws Exception {
+	IdempotencyCache cache = new IdempotencyCache(10, 60, new ManualClock(0));
+	CountDownLatch booking = new CountDownLatch(1);
+	CountDownLatch booked = new CountDownLatch(1);
+	AtomicInteger bookings = new AtomicInteger();
+	Thread first = new Thread(() -> cache.book("a", () -> {
+	    bookings.incrementAndGet();
+	    booking.countDown();
+	    try {
+		booked.await();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    return BookingStatus.pack(9, 4);
+	}));
+	first.start();
+	booking.await();
+
+	// Retries are turned away while the first attempt is booking, without waiting.
+	assertEquals(BookingStatus.NO_BOOKING, cache.get("a"));
+	try {
+	    cache.book("a", () -> BookingStatus.pack(bookings.incrementAndGet(), 4));
+	    assertTrue(false);
+	} catch (IdempotencyCache.InProgressException e) {
+	    // Expected.
+	}
+	booked.countDown();
+	first.join();
+	assertEquals(BookingStatus.pack(9, 4), cache.book("a", () -> BookingStatus.NO_BOOKING));
+	assertEquals(1, bookings.get());
+    }
+
+    @Test
+    public void testBooker() {
+	TaxiBooker taxiBooker = new TaxiBooker(2);
+	taxiBooker.setIdempotencyCache(new IdempotencyCache(10, 60));
+	long result = taxiBooker.book("ride-1", 1, 1, 4, 4);
+	assertEquals(result, taxiBooker.book("ride-1", 1, 1, 4, 4));
+	assertEquals(1, taxiBooker.availableTaxis.size());
+
+	// Without a key, every booking books.
+	assertFalse(result == taxiBooker.book(null, 1, 1, 4, 4));
+	assertEquals(0, taxiBooker.availableTaxis.size());
+
+	// A reset forgets the keys.
+	taxiBooker.reset();
+	assertEquals(0, taxiBooker.getIdempotencyCache().size());
+    }
+
+    @Test
+    public void testValidKey() {
+	assertTrue(IdempotencyCache.isValidKey("8e03978e-40d5-43e8-bc93-6894a57f9324"));
+	assertFalse(IdempotencyCache.isValidKey(""));
+	assertFalse(IdempotencyCache.isValidKey(new String(new char[IdempotencyCache.MAX_KEY_LENGTH + 1])));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+	new IdempotencyCache(0, 60);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTtl() {
+	new IdempotencyCache(10, 0);
+    }
+}
@@ -0,0 +1,166 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Test the bookings of taxis about to end their ride. See TaxiBooker.setLookAhead().
+ */
+public class LookAheadTest {
+    /**
+     * A taxi dropping off next to the pick-up location beats a free taxi far away.
+     */
+    @Test
+    public void testChainRide() {
+	TaxiBooker taxiBooker = new TaxiBooker(fleet(new Point(0, 0), new Point(100, 0)));
+	taxiBooker.setLookAhead(5);
+	assertEquals(BookingStatus.pack(1, 3), taxiBooker.book(0, 0, 0, 3));
+
+	// 3 time units until the drop-off, 1 to the pick-up and 2 to the destination.
+	assertEquals(BookingStatus.pack(1, 6), taxiBooker.book(0, 4, 0, 6));
+	assertEquals(1, taxiBooker.availableTaxis.size());
+
+	taxiBooker.tick(3);
+	TaxiStatus status = taxiBooker.status(1);
+	assertFalse(status.isAvailable());
+	assertEquals(new Point(0, 3), location(status));
+	assertEquals(new Point(0, 6), new Point(status.getDestinationX(), status.getDestinationY()));
+	assertEquals(1, taxiBooker.rideScheduler.size());
+
+	taxiBooker.tick(3);
+	assertEquals(2, taxiBooker.availableTaxis.size());
+	assertEquals(new Point(0, 6), location(taxiBooker.status(1)));
+    }
+
+    /**
+     * A free taxi that is as quick gets the ride; without look-ahead the free taxi always does.
+     */
+    @Test
+    public void testFreeTaxiFirst() {
+	TaxiBooker taxiBooker = new TaxiBooker(fleet(new Point(0, 0), new Point(0, 8)));
+	taxiBooker.setLookAhead(5);
+	taxiBooker.book(0, 0, 0, 3);
+	assertEquals(2, BookingStatus.carId(taxiBooker.book(0, 4, 0, 6)));
+
+	taxiBooker = new TaxiBooker(fleet(new Point(0, 0), new Point(100, 0)));
+	taxiBooker.book(0, 0, 0, 3);
+	assertEquals(2, BookingStatus.carId(taxiBooker.book(0, 4, 0, 6)));
+    }
+
+    /**
+     * Without free taxis, a ride is chained onto a taxi whose ride ends within the look-ahead,
+     * one ride per taxi.
+     */
+    @Test
+    public void testNoTaxiAvailable() {
+	TaxiBooker taxiBooker = new TaxiBooker(fleet(new Point(0, 0)));
+	taxiBooker.setLookAhead(5);
+	taxiBooker.book(0, 0, 0, 10);
+	assertEquals(BookingStatus.NO_BOOKING, taxiBooker.book(0, 10, 0, 20));
+
+	taxiBooker.tick(5);
+	assertEquals(BookingStatus.pack(1, 5 + 10 + 10), taxiBooker.book(0, 20, 0, 30));
+	assertEquals(BookingStatus.NO_BOOKING, taxiBooker.book(0, 10, 0, 20));
+
+	taxiBooker.tick(5);
+	assertFalse(taxiBooker.status(1).isAvailable());
+	taxiBooker.tick(20);
+	assertEquals(new Point(0, 30), location(taxiBooker.status(1)));
+    }
+
+    /**
+     * A reset drops the chained rides.
+     */
+    @Test
+    public void testReset() {
+	TaxiBooker taxiBooker = new TaxiBooker(fleet(new Point(0, 0)));
+	taxiBooker.setLookAhead(5);
+	taxiBooker.book(0, 0, 0, 3);
+	assertEquals(1, BookingStatus.carId(taxiBooker.book(0, 3, 0, 6)));
+
+	taxiBooker.reset();
+	taxiBooker.tick(3);
+	assertTrue(taxiBooker.status(1).isAvailable());
+	assertEquals(0, taxiBooker.rideScheduler.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLookAhead() {
+	new TaxiBooker(1).setLookAhead(-1);
+    }
+
+    /**
+     * Every ride booked, chained or not, is started, while bookings race with the ends of rides.
+     */
+    @Test
+    public void testConcurrentChaining() throws Exception {
+	TaxiBooker taxiBooker = new TaxiBooker(20);
+	taxiBooker.setLookAhead(10);
+	BookingHistory history = new BookingHistory(BookingHistory.CAPACITY, 0);
+	taxiBooker.setHistory(history);
+
+	AtomicLong booked = new AtomicLong();
+	AtomicBoolean done = new AtomicBoolean();
+	List<Thread> bookers = new ArrayList<Thread>();
+	for (int i = 0; i < 4; i++) {
+	    long seed = i;
+	    Thread booker = new Thread(() -> {
+		Random random = new Random(seed);
+		for (int j = 0; j < 5000; j++) {
+		    if (taxiBooker.book(random.nextInt(20), random.nextInt(20),
+					random.nextInt(20), random.nextInt(20)) != BookingStatus.NO_BOOKING) {
+			booked.incrementAndGet();
+		    }
+		}
+	    });
+	    booker.start();
+	    bookers.add(booker);
+	}
+	Thread ticker = new Thread(() -> {
+	    while (!done.get()) {
+		taxiBooker.tick();
+	    }
+	});
+	ticker.start();
+
+	for (Thread booker : bookers) {
+	    booker.join();
+	}
+	done.set(true);
+	ticker.join();
+	while (taxiBooker.rideScheduler.size() > 0) {
+	    taxiBooker.tick();
+	}
+	assertEquals(booked.get(), history.size());
+	assertEquals(20, taxiBooker.availableTaxis.size());
+    }
+
+    /**
+     * Return the location of a taxi.
+     */
+    private static Point location(TaxiStatus status) {
+	return new Point(status.getX(), status.getY());
+    }
+
+    /**
+     * Create taxis with ids from 1, available at the given locations.
+     */
+    private static List<Taxi> fleet(Point... locations) {
+	List<Taxi> fleet = new ArrayList<Taxi>();
+	for (int i = 0; i < locations.length; i++) {
+	    Taxi taxi = new Taxi(i + 1, false);
+	    taxi.reset(locations[i]);
+	    fleet.add(taxi);
+	}
+	return fleet;
+    }
+}
@@ -0,0 +1,97 @@
+package org.ishaikh.taxibooking;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Testing of the non-blocking booking mode, over HTTP.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = "taxibooking.booking.mode=non-blocking")
+public class NonBlockingBookingTest {
+    @Before
+    public void setup() {
+	restTemplate.put("/api/reset", null);
+    }
+
+    /**
+     * Same bookings as TaxiBookerTest.book().
+     */
+    @Test
+    public void book() {
+	assertBooking("{\"source\":{\"x\":1,\"y\":2},\"destination\":{\"x\":5,\"y\":6}}",
+		      "{\"car_id\":1,\"total_time\":11}");
+	assertBooking("{\"source\":{\"x\":3,\"y\":4},\"destination\":{\"x\":2,\"y\":2}}",
+		      "{\"car_id\":2,\"total_time\":10}");
+	assertBooking("{\"source\":{\"x\":1,\"y\":1},\"destination\":{\"x\":4,\"y\":4}}",
+		      "{\"car_id\":3,\"total_time\":8}");
+	assertBooking("{\"source\":{\"x\":1,\"y\":1},\"destination\":{\"x\":4,\"y\":4}}", null);
+
+	for (int i = 0; i < 8; i++) {
+	    restTemplate.put("/api/tick", null);
+	}
+	assertBooking("{\"source\":{\"x\":3,\"y\":4},\"destination\":{\"x\":2,\"y\":2}}",
+		      "{\"car_id\":3,\"total_time\":4}");
+    }
+
+    @Test
+    public void bookWithInvalidJson() {
+	assertEquals(HttpStatus.BAD_REQUEST, post("{\"source\":{\"x\":1,\"y\":2}").getStatusCode());
+	assertEquals(HttpStatus.BAD_REQUEST, post("{\"source\":{\"x\":1,\"y\":2}}").getStatusCode());
+    }
+
+    @Test
+    public void bookIdempotent() {
+	String ride = "{\"source\":{\"x\":1,\"y\":2},\"destination\":{\"x\":5,\"y\":6}}";
+	HttpHeaders headers = new HttpHeaders();
+	headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+	headers.set(IdempotencyCache.KEY_HEADER, "ride-1");
+	HttpEntity<String> request = new HttpEntity<String>(ride, headers);
+	for (int i = 0; i < 2; i++) {
+	    ResponseEntity<String> response = restTemplate.postForEntity("/api/book", request, String.class);
+	    assertEquals(HttpStatus.OK, response.getStatusCode());
+	    assertEquals("{\"car_id\":1,\"total_time\":11}", response.getBody());
+	}
+	assertBooking(ride, "{\"car_id\":2,\"total_time\":11}");
+    }
+
+    @Test
+    public void requestWithInvalidMethod() {
+	ResponseEntity<String> response =
+	    restTemplate.exchange("/api/book", HttpMethod.PUT, json("{}"), String.class);
+	assertEquals(HttpStatus.METHOD_NOT_ALLOWED, response.getStatusCode());
+    }
+
+    private void assertBooking(String ride, String expected) {
+	ResponseEntity<String> response = post(ride);
+	assertEquals(HttpStatus.OK, response.getStatusCode());
+	assertEquals(expected, response.getBody());
+    }
+
+    private ResponseEntity<String> post(String body) {
+	return restTemplate.postForEntity("/api/book", json(body), String.class);
+    }
+
+    private static HttpEntity<String> json(String body) {
+	HttpHeaders headers = new HttpHeaders();
+	headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+	return new HttpEntity<String>(body, headers);
+    }
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+}
@@ -0,0 +1,103 @@
+package org.ishaikh.taxibooking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class RideCodecTest {
+    /**
+     * The format Jackson writes for RideCoordinates.
+     */
+    @Test
+    public void testDecode() {
+	RideCodec rideCodec = decode("{\"source\":{\"x\":1.0,\"y\":2.0},\"destination\":{\"x\":5.0,\"y\":6.0}}");
+	assertRide(rideCodec, 1, 2, 5, 6);
+    }
+
+    /**
+     * Whitespace, any order of fields, unknown fields, nulls & fractions, like Jackson.
+     */
+    @Test
+    public void testDecodeLenient() {
+	RideCodec rideCodec = decode(" {\n \"destination\" : { \"y\" : 6, \"x\" : -5.9 },\n" +
+				     "  \"note\": [1, {\"a\": \"b\\\"}\"}, true, null, 2e3],\n" +
+				     "  \"source\": {\"x\": 1e1, \"y\": null, \"z\": 3} }\r\n");
+	assertRide(rideCodec, 10, 0, -5, 6);
+
+	rideCodec = decode("{\"source\":{},\"destination\":{\"x\":7}}");
+	assertRide(rideCodec, 0, 0, 7, 0);
+
+	// Integers in strings are coerced.
+	rideCodec = decode("{\"source\":{\"x\":\"1\",\"y\":\" -2 \"},\"destination\":{\"x\":\"\",\"y\":\"+6\"}}");
+	assertRide(rideCodec, 1, -2, 0, 6);
+    }
+
+    @Test
+    public void testDecodeInvalid() {
+	String[] invalid = {
+	    "",
+	    "{",
+	    "[]",
+	    "{\"source\":{\"x\":1,\"y\":2}}",
+	    "{\"source\":{\"x\":1,\"y\":2},\"destination\":{\"x\":5,\"y\":6}",
+	    "{\"source\":{\"x\":\"a\",\"y\":2},\"destination\":{\"x\":5,\"y\":6}}",
+	    "{\"source\":{\"x\":\"1.5\",\"y\":2},\"destination\":{\"x\":5,\"y\":6}}",
+	    "{\"source\":{\"x\":\"99999999999\",\"y\":2},\"destination\":{\"x\":5,\"y\":6}}",
+	    "{\"source\":{\"x\":1,\"y\":2},\"destination\":{\"x\":5,\"y\":99999999999}}",
+	    "{\"source\":{\"x\":1 \"y\":2},\"destination\":{\"x\":5,\"y\":6}}",
+	    "{\"source\":{\"x\":1,\"y\":2},\"destination\":{\"x\":5,\"y\":6}} x",
+	    "{\"source\":{\"x\":1,\"y\":2},\"destination\":{\"x\":5,\"y\":6}}{}",
+	};
+	for (String json : invalid) {
+	    try {
+		decode(json);
+		throw new AssertionError("Decoded invalid JSON: " + json);
+	    } catch (IllegalArgumentException e) {
+		// Expected.
+	    }
+	}
+    }
+
+    @Test
+    public void testReadRide() throws IOException {
+	StringBuilder json = new StringBuilder("{\"padding\":\"");
+	for (int i = 0; i < 1000; i++) {
+	    json.append("0123456789");
+	}
+	json.append("\",\"source\":{\"x\":3,\"y\":4},\"destination\":{\"x\":2,\"y\":2}}");
+	RideCodec rideCodec = RideCodec.get();
+	rideCodec.readRide(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)));
+	assertRide(rideCodec, 3, 4, 2, 2);
+    }
+
+    @Test
+    public void testEncode() throws IOException {
+	byte[] out = new byte[64];
+	int count = RideCodec.encode(BookingStatus.pack(1, 11), out);
+	assertEquals("{\"car_id\":1,\"total_time\":11}", new String(out, 0, count, StandardCharsets.UTF_8));
+
+	ByteArrayOutputStream stream = new ByteArrayOutputStream();
+	RideCodec.get().writeBookingStatus(BookingStatus.pack(Integer.MAX_VALUE, 4000000000L), stream);
+	assertEquals("{\"car_id\":2147483647,\"total_time\":4000000000}",
+		     new String(stream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static RideCodec decode(String json) {
+	byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+	RideCodec rideCodec = RideCodec.get();
+	rideCodec.decode(bytes, bytes.length);
+	return rideCodec;
+    }
+
+    private static void assertRide(RideCodec rideCodec, int sourceX, int sourceY,
+				   int destinationX, int destinationY) {
+	assertEquals(sourceX, rideCodec.getSourceX());
+	assertEquals(sourceY, rideCodec.getSourceY());
+	assertEquals(destinationX, rideCodec.getDestinationX());
+	assertEquals(destinationY, rideCodec.getDestinationY());
+    }
+}
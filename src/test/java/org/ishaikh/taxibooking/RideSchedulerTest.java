@@ -0,0 +1,142 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.springframework.web.context.request.async.DeferredResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class RideSchedulerTest {
+    @Test
+    public void testAdvance() {
+	RideScheduler rideScheduler = new RideScheduler();
+	Taxi taxi1 = new Taxi(1, false);
+	Taxi taxi2 = new Taxi(2, false);
+	Taxi taxi3 = new Taxi(3, false);
+	rideScheduler.schedule(taxi2, 3);
+	rideScheduler.schedule(taxi1, 3);
+	rideScheduler.schedule(taxi3, 0);
+	assertEquals(3, rideScheduler.size());
+
+	// A ride of 0 time units ends on the next tick.
+	assertEquals(Collections.singletonList(taxi3), rideScheduler.advance(1));
+	assertEquals(Collections.emptyList(), rideScheduler.advance(1));
+	assertEquals(Arrays.asList(taxi1, taxi2), rideScheduler.advance(1));
+	assertEquals(3, rideScheduler.now());
+
+	// Move several time units at once.
+	rideScheduler.schedule(taxi1, 10);
+	rideScheduler.schedule(taxi2, 20);
+	assertEquals(Collections.singletonList(taxi1), rideScheduler.advance(15));
+	assertEquals(1, rideScheduler.size());
+
+	rideScheduler.clear();
+	assertEquals(0, rideScheduler.size());
+	assertEquals(0, rideScheduler.now());
+    }
+
+    /**
+     * Ticking the booker in one go must end the same rides as ticking one unit at a time.
+     */
+    @Test
+    public void testBulkTick() {
+	TaxiBooker taxiBooker = new TaxiBooker();
+	taxiBooker.book(new RideCoordinates(new Point(1, 2), new Point(5, 6)));
+	taxiBooker.book(new RideCoordinates(new Point(3, 4), new Point(2, 2)));
+	taxiBooker.book(new RideCoordinates(new Point(1, 1), new Point(4, 4)));
+	taxiBooker.tick(7);
+	assertEquals(0, taxiBooker.availableTaxis.size());
+	taxiBooker.tick(3);
+	assertEquals(2, taxiBooker.availableTaxis.size());
+	taxiBooker.tick(1);
+	assertEquals(3, taxiBooker.availableTaxis.size());
+	assertEquals(new Point(5, 6), taxiBooker.taxis.get(0).getAvailableLocation());
+    }
+
+    /**
+     * A ride started during a bulk tick, for a waiting booking, must also end during it.
+     */
+    @Test
+    public void testBulkTickWaitingRide() throws IOException {
+	TaxiBooker taxiBooker = new TaxiBooker(1, "", 2, 1000);
+	taxiBooker.book(new RideCoordinates(new Point(1, 2), new Point(5, 6)));
+	DeferredResult<BookingStatus> waiting =
+	    taxiBooker.bookOrWait(new RideCoordinates(new Point(5, 5), new Point(9, 9)));
+	assertFalse(waiting.hasResult());
+
+	// Ends at 11, then at 11 + 1 + 8.
+	taxiBooker.tick(19);
+	assertTrue(waiting.hasResult());
+	assertEquals(0, taxiBooker.availableTaxis.size());
+	taxiBooker.tick(1);
+	assertEquals(1, taxiBooker.availableTaxis.size());
+	assertEquals(new Point(9, 9), taxiBooker.taxis.get(0).getAvailableLocation());
+	assertEquals(0, taxiBooker.rideScheduler.size());
+    }
+
+    /**
+     * Rides of a large fleet ending at once are completed in parallel.
+     */
+    @Test
+    public void testForEachEndingBy() {
+	RideScheduler rideScheduler = new RideScheduler();
+	Taxi taxi1 = new Taxi(1, false);
+	Taxi taxi2 = new Taxi(2, false);
+	Taxi taxi3 = new Taxi(3, false);
+	rideScheduler.schedule(taxi3, 5);
+	rideScheduler.schedule(taxi1, 2);
+	rideScheduler.schedule(taxi2, 3);
+
+	StringBuilder rides = new StringBuilder();
+	rideScheduler.forEachEndingBy(3, (taxi, endTime) -> {
+	    rides.append(taxi.getId()).append('@').append(endTime).append(' ');
+	    return true;
+	});
+	assertEquals("1@2 2@3 ", rides.toString());
+
+	// Stops when the action returns false.
+	rides.setLength(0);
+	rideScheduler.forEachEndingBy(10, (taxi, endTime) -> {
+	    rides.append(taxi.getId());
+	    return taxi != taxi2;
+	});
+	assertEquals("12", rides.toString());
+
+	assertTrue(rideScheduler.isScheduled(taxi1, 2));
+	assertFalse(rideScheduler.isScheduled(taxi1, 3));
+	rideScheduler.advance(2);
+	assertFalse(rideScheduler.isScheduled(taxi1, 2));
+	assertTrue(rideScheduler.isScheduled(taxi2, 3));
+    }
+
+    @Test
+    public void testParallelTick() {
+	int rides = 2 * TaxiBooker.PARALLEL_COMPLETIONS + 1;
+	TaxiBooker taxiBooker = new TaxiBooker(rides + 10);
+	for (int i = 0; i < rides; i++) {
+	    taxiBooker.book(new RideCoordinates(new Point(0, 0), new Point(1, 1)));
+	}
+	assertEquals(10, taxiBooker.availableTaxis.size());
+
+	taxiBooker.tick(2);
+	assertEquals(rides + 10, taxiBooker.availableTaxis.size());
+	int moved = 0;
+	for (Taxi taxi : taxiBooker.taxis) {
+	    if (taxi.getAvailableLocation().equals(new Point(1, 1))) {
+		moved++;
+	    }
+	}
+	assertEquals(rides, moved);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTick() {
+	new TaxiBooker().tick(-1);
+    }
+}
@@ -0,0 +1,149 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class RoadNetworkTest {
+    // A square of four junctions; the direct road from 1 to 2 is congested.
+    private static final String CITY =
+	"# Junctions and roads\n" +
+	"node,1,0,0\n" +
+	"node,2,10,0\n" +
+	"node,3,0,10\n" +
+	"node,4,10,10\n" +
+	"\n" +
+	"road,1,2,50\n" +
+	"road,1,3,10\n" +
+	"road,3,4,10\n" +
+	"road,4,2,10\n";
+
+    @Test
+    public void testTime() throws IOException {
+	RoadNetwork roadNetwork = RoadNetwork.read(new StringReader(CITY), 100);
+	assertEquals(4, roadNetwork.size());
+
+	// Around the congested road, both ways.
+	assertEquals(30, roadNetwork.time(0, 0, 10, 0));
+	assertEquals(30, roadNetwork.time(10, 0, 0, 0));
+
+	// To & from the closest junctions.
+	assertEquals(1 + 30 + 2, roadNetwork.time(1, 0, 10, -2));
+	assertEquals(2, roadNetwork.time(1, 1, 2, 2));
+
+	// Junctions that are not connected are the Manhattan distance apart.
+	RoadNetwork islands = RoadNetwork.read(new StringReader("node,1,0,0\nnode,2,10,0\n"), 100);
+	assertEquals(10, islands.time(0, 0, 10, 0));
+    }
+
+    @Test
+    public void testShortestPaths() {
+	// A grid of junctions with random road times: A* with the cache agrees with Dijkstra.
+	Random random = new Random(7);
+	int side = 12;
+	int[] x = new int[side * side];
+	int[] y = new int[side * side];
+	int[] from = new int[2 * side * (side - 1)];
+	int[] to = new int[from.length];
+	int[] time = new int[from.length];
+	int roads = 0;
+	for (int i = 0; i < side; i++) {
+	    for (int j = 0; j < side; j++) {
+		x[i * side + j] = 5 * i;
+		y[i * side + j] = 5 * j;
+		if (i + 1 < side) {
+		    from[roads] = i * side + j;
+		    to[roads] = (i + 1) * side + j;
+		    time[roads++] = 3 + random.nextInt(20);
+		}
+		if (j + 1 < side) {
+		    from[roads] = i * side + j;
+		    to[roads] = i * side + j + 1;
+		    time[roads++] = 3 + random.nextInt(20);
+		}
+	    }
+	}
+	RoadNetwork roadNetwork = new RoadNetwork(x, y, from, to, time, 50);
+
+	for (int query = 0; query < 500; query++) {
+	    int fromNode = random.nextInt(x.length);
+	    int toNode = random.nextInt(x.length);
+	    assertEquals(dijkstra(x.length, from, to, time, fromNode, toNode),
+			 roadNetwork.pathTime(fromNode, toNode));
+	    assertEquals(fromNode, roadNetwork.closestNode(x[fromNode], y[fromNode]));
+	}
+
+	// The closest junction, from within & around the grid.
+	for (int query = 0; query < 500; query++) {
+	    int locationX = random.nextInt(100) - 20;
+	    int locationY = random.nextInt(100) - 20;
+	    int closest = 0;
+	    for (int node = 1; node < x.length; node++) {
+		if (Taxi.distance(x[node], y[node], locationX, locationY) <
+		    Taxi.distance(x[closest], y[closest], locationX, locationY)) {
+		    closest = node;
+		}
+	    }
+	    assertEquals(closest, roadNetwork.closestNode(locationX, locationY));
+	}
+    }
+
+    @Test
+    public void testBooking() throws IOException {
+	// Taxi 1 is closer to the pick-up location, but taxi 2 is quicker to get there.
+	TaxiBooker taxiBooker = new TaxiBooker(Arrays.asList(taxi(1, 0, 0), taxi(2, 10, 12)));
+	taxiBooker.setTravelTimes(RoadNetwork.read(new StringReader(CITY), 100));
+	assertEquals(BookingStatus.pack(2, 12 + 10), taxiBooker.book(10, 0, 10, 10));
+
+	// Taxi 1 is still available.
+	assertEquals(BookingStatus.pack(1, 10 + 10), taxiBooker.book(0, 10, 10, 10));
+	assertEquals(BookingStatus.NO_BOOKING, taxiBooker.book(0, 0, 1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownNode() throws IOException {
+	RoadNetwork.read(new StringReader("node,1,0,0\nroad,1,2,5\n"), 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLine() throws IOException {
+	RoadNetwork.read(new StringReader("node,1,0\n"), 100);
+    }
+
+    private static int dijkstra(int nodes, int[] from, int[] to, int[] time, int fromNode, int toNode) {
+	long[] best = new long[nodes];
+	boolean[] done = new boolean[nodes];
+	Arrays.fill(best, Long.MAX_VALUE);
+	best[fromNode] = 0;
+	for (int round = 0; round < nodes; round++) {
+	    int node = -1;
+	    for (int i = 0; i < nodes; i++) {
+		if (!done[i] && best[i] != Long.MAX_VALUE && (node < 0 || best[i] < best[node])) {
+		    node = i;
+		}
+	    }
+	    if (node < 0) {
+		break;
+	    }
+	    done[node] = true;
+	    for (int road = 0; road < from.length; road++) {
+		int next = from[road] == node ? to[road] : (to[road] == node ? from[road] : -1);
+		if (next >= 0 && best[node] + time[road] < best[next]) {
+		    best[next] = best[node] + time[road];
+		}
+	    }
+	}
+	return best[toNode] == Long.MAX_VALUE ? -1 : (int)best[toNode];
+    }
+
+    private static Taxi taxi(int id, int x, int y) {
+	Taxi taxi = new Taxi(id, false);
+	taxi.reset(new Point(x, y));
+	return taxi;
+    }
+}
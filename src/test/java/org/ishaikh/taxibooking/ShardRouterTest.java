@@ -0,0 +1,290 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+public class ShardRouterTest {
+    @Test
+    public void testShardMap() {
+	// Regions of 10 in a grid of 2 x 1 shards, repeated.
+	ShardMap shardMap = new ShardMap(10, 2, 1);
+	assertEquals(2, shardMap.size());
+	assertEquals(0, shardMap.shardOf(0, 0));
+	assertEquals(0, shardMap.shardOf(9, -50));
+	assertEquals(1, shardMap.shardOf(10, 0));
+	assertEquals(1, shardMap.shardOf(-1, 0));
+	assertEquals(0, shardMap.shardOf(25, 0));
+
+	// Only the x axis has another shard across the boundary.
+	assertEquals(1, shardMap.boundaryDistance(0, 5));
+	assertEquals(5, shardMap.boundaryDistance(5, 0));
+	assertEquals(Integer.MAX_VALUE, new ShardMap(10, 1, 1).boundaryDistance(5, 5));
+
+	assertEquals("{0}", shardMap.shardsWithin(5, 0, 4).toString());
+	assertEquals("{0, 1}", shardMap.shardsWithin(5, 0, 5).toString());
+	assertEquals("{0, 1, 2, 3}", new ShardMap(10, 2, 2).shardsWithin(0, 0, Long.MAX_VALUE).toString());
+    }
+
+    @Test
+    public void testRouting() {
+	// Shard 0 owns x in [0, 9], shard 1 owns x in [10, 19].
+	ShardMap shardMap = new ShardMap(10, 2, 1);
+	TaxiBooker first = new TaxiBooker(Arrays.asList(taxi(1, 0, 0), taxi(2, 0, 0), taxi(4, 15, 0)));
+	TaxiBooker second = new TaxiBooker(Collections.<Taxi>emptyList());
+	List<Shard> shards = Arrays.asList(Shard.local(first), Shard.local(second));
+	first.join(new ShardRouter(shardMap, 0, shards));
+	second.join(new ShardRouter(shardMap, 1, shards));
+
+	// Taxi 4 is handed off to the shard of its location.
+	assertEquals(Shard.pack(0, 1), first.nearest(0, 0));
+	assertEquals(Shard.pack(0, 4), second.nearest(15, 0));
+	assertEquals(2, first.taxis.size());
+
+	// The closest taxi of the shard is closer than the boundary.
+	assertEquals(BookingStatus.pack(1, 2), second.book(1, 0, 2, 0));
+
+	// The closest taxi is across the boundary, in the other shard.
+	assertEquals(BookingStatus.pack(4, 12), first.book(9, 0, 3, 0));
+
+	// At the end of its ride, taxi 4 is handed off to the shard of its destination.
+	second.tick(12);
+	assertTrue(second.taxis.isEmpty());
+	assertEquals(Shard.NO_TAXI, second.nearest(15, 0));
+	assertEquals(Shard.pack(0, 4), first.nearest(3, 0));
+
+	// The ride is ticked by the shard that booked it, and ends in the region of the other one.
+	first.tick(2);
+	assertEquals(BookingStatus.pack(4, 17), second.book(15, 0, 15, 5));
+	first.tick(17);
+	assertEquals(Shard.pack(0, 4), second.nearest(15, 5));
+
+	// After a reset, the taxis are at (0, 0), owned by the first shard.
+	second.reset();
+	first.reset();
+	assertTrue(second.taxis.isEmpty());
+	assertEquals(3, first.taxis.size());
+
+	// Adopting a taxi already in the fleet is ignored.
+	first.adopt(1, 5, 5);
+	assertEquals(3, first.taxis.size());
+	assertEquals(Shard.pack(0, 1), first.nearest(0, 0));
+    }
+
+    @Test
+    public void testDefaultFleets() {
+	// Every node creates taxis 1 to 3 at (0, 0), owned by the first shard.
+	ShardMap shardMap = new ShardMap(10, 2, 1);
+	TaxiBooker first = new TaxiBooker();
+	TaxiBooker second = new TaxiBooker();
+	List<Shard> shards = Arrays.asList(Shard.local(first), Shard.local(second));
+	first.join(new ShardRouter(shardMap, 0, shards));
+	second.join(new ShardRouter(shardMap, 1, shards));
+
+	// The taxis are renumbered by shard, so none of those handed off is lost.
+	assertTrue(second.taxis.isEmpty());
+	assertEquals(6, first.taxis.size());
+	assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), ids(first));
+
+	// New taxis get ids of their shard too.
+	second.resize(2);
+	first.resize(9);
+	assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 10), ids(first));
+
+	second.reset();
+	first.reset();
+	assertEquals(9, first.taxis.size());
+    }
+
+    @Test
+    public void testUnreachableShard() {
+	// Shard 1 is down: bookings near it, or in its regions, are served by shard 0.
+	ShardMap shardMap = new ShardMap(10, 2, 1);
+	TaxiBooker local = new TaxiBooker(Arrays.asList(taxi(1, 0, 0), taxi(2, 5, 0)));
+	Shard down = new Shard() {
+	    @Override
+	    public long nearest(int x, int y) {
+		throw new UncheckedIOException(new ConnectException("Connection refused"));
+	    }
+
+	    @Override
+	    public long book(int sourceX, int sourceY, int destinationX, int destinationY) {
+		throw new UncheckedIOException(new ConnectException("Connection refused"));
+	    }
+
+	    @Override
+	    public void adopt(int id, int x, int y) {
+		throw new UncheckedIOException(new ConnectException("Connection refused"));
+	    }
+	};
+	local.join(new ShardRouter(shardMap, 0, Arrays.asList(Shard.local(local), down)));
+	assertEquals(BookingStatus.pack(2, 5), local.book(9, 0, 9, 1));
+	assertEquals(BookingStatus.pack(1, 16), local.book(15, 0, 15, 1));
+	assertEquals(BookingStatus.NO_BOOKING, local.book(15, 0, 15, 1));
+    }
+
+    @Test
+    public void testFailedHandOffs() throws IOException {
+	// A node that adopts the taxis handed off, but fails to answer the first time.
+	TaxiBooker remote = new TaxiBooker(Collections.<Taxi>emptyList());
+	int[] adoptions = new int[1];
+	HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+	server.createContext("/api/shard/adopt", exchange -> {
+		String[] query = exchange.getRequestURI().getQuery().split("[=&]");
+		remote.adopt(Integer.parseInt(query[1]), Integer.parseInt(query[3]), Integer.parseInt(query[5]));
+		exchange.sendResponseHeaders(adoptions[0]++ == 0 ? 500 : 200, -1);
+		exchange.close();
+	    });
+	server.start();
+	try {
+	    ShardMap shardMap = new ShardMap(10, 2, 1);
+	    Shard shard = new HttpShard("http://localhost:" + server.getAddress().getPort(), 1000);
+	    TaxiBooker local = new TaxiBooker(Arrays.asList(taxi(1, 0, 0), taxi(2, 12, 0)));
+	    local.join(new ShardRouter(shardMap, 0, Arrays.asList(Shard.local(local), shard)));
+
+	    // The hand-off may have failed, so taxi 2 is not kept: it is handed off again.
+	    assertEquals(1, local.taxis.size());
+	    assertEquals(1, remote.taxis.size());
+	    local.tick(0);
+	    assertEquals(2, adoptions[0]);
+	    assertEquals(1, remote.taxis.size());
+	    assertEquals(1, local.taxis.size());
+	} finally {
+	    server.stop(0);
+	}
+
+	// A node that cannot be connected to surely did not adopt the taxi, which is kept.
+	ShardMap shardMap = new ShardMap(10, 2, 1);
+	Shard shard = new HttpShard("http://localhost:" + server.getAddress().getPort(), 1000);
+	TaxiBooker local = new TaxiBooker(Arrays.asList(taxi(1, 0, 0), taxi(2, 12, 0)));
+	local.join(new ShardRouter(shardMap, 0, Arrays.asList(Shard.local(local), shard)));
+	assertEquals(2, local.taxis.size());
+    }
+
+    @Test
+    public void testSameAsSingleBooker() {
+	// A fleet sharded 2 x 2 books the same taxis as a single booker.
+	Random random = new Random(42);
+	List<Taxi> fleet = new ArrayList<Taxi>();
+	List<Taxi> copy = new ArrayList<Taxi>();
+	for (int id = 1; id <= 20; id++) {
+	    int x = random.nextInt(100);
+	    int y = random.nextInt(100);
+	    fleet.add(taxi(id, x, y));
+	    copy.add(taxi(id, x, y));
+	}
+	TaxiBooker single = new TaxiBooker(fleet);
+
+	ShardMap shardMap = new ShardMap(25, 2, 2);
+	List<TaxiBooker> bookers = new ArrayList<TaxiBooker>();
+	List<Shard> shards = new ArrayList<Shard>();
+	for (int i = 0; i < shardMap.size(); i++) {
+	    bookers.add(new TaxiBooker(i == 0 ? copy : Collections.<Taxi>emptyList()));
+	    shards.add(Shard.local(bookers.get(i)));
+	}
+	for (int i = 0; i < shardMap.size(); i++) {
+	    bookers.get(i).join(new ShardRouter(shardMap, i, shards));
+	}
+
+	for (int step = 0; step < 200; step++) {
+	    for (int i = 0; i < 3; i++) {
+		int sourceX = random.nextInt(100);
+		int sourceY = random.nextInt(100);
+		int destinationX = random.nextInt(100);
+		int destinationY = random.nextInt(100);
+		TaxiBooker booker = bookers.get(random.nextInt(bookers.size()));
+		assertEquals(single.book(sourceX, sourceY, destinationX, destinationY),
+			     booker.book(sourceX, sourceY, destinationX, destinationY));
+	    }
+	    single.tick(5);
+	    for (TaxiBooker booker : bookers) {
+		booker.tick(5);
+	    }
+	}
+
+	// Every taxi is with exactly one shard.
+	int taxis = 0;
+	for (TaxiBooker booker : bookers) {
+	    taxis += booker.taxis.size();
+	}
+	assertEquals(20, taxis);
+    }
+
+    @Test
+    public void testHttpShard() throws IOException {
+	// A node on localhost, serving the "/api/shard" requests of its booker.
+	TaxiBooker remote = new TaxiBooker(Collections.<Taxi>emptyList());
+	HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+	server.createContext("/api/shard/", exchange -> {
+		Map<String, Integer> query = new HashMap<String, Integer>();
+		for (String parameter : exchange.getRequestURI().getQuery().split("&")) {
+		    String[] pair = parameter.split("=");
+		    query.put(pair[0], Integer.valueOf(pair[1]));
+		}
+		String response = "";
+		switch (exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath()) {
+		case "GET /api/shard/nearest":
+		    response = Long.toString(remote.nearest(query.get("x"), query.get("y")));
+		    break;
+		case "POST /api/shard/book":
+		    response = Long.toString(remote.bookHere(query.get("sourceX"), query.get("sourceY"),
+							     query.get("destinationX"), query.get("destinationY")));
+		    break;
+		case "PUT /api/shard/adopt":
+		    remote.adopt(query.get("id"), query.get("x"), query.get("y"));
+		    break;
+		}
+		byte[] body = response.getBytes(StandardCharsets.US_ASCII);
+		exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+		exchange.getResponseBody().write(body);
+		exchange.close();
+	    });
+	server.start();
+	try {
+	    ShardMap shardMap = new ShardMap(10, 2, 1);
+	    TaxiBooker local = new TaxiBooker(Arrays.asList(taxi(1, 0, 0), taxi(2, 12, 0)));
+	    Shard shard = new HttpShard("http://localhost:" + server.getAddress().getPort() + "/", 1000);
+	    local.join(new ShardRouter(shardMap, 0, Arrays.asList(Shard.local(local), shard)));
+
+	    // Taxi 2 was handed off over HTTP, and is booked over HTTP.
+	    assertEquals(1, local.taxis.size());
+	    assertEquals(Shard.pack(1, 2), shard.nearest(11, 0));
+	    assertEquals(BookingStatus.pack(2, 4), local.book(9, 0, 8, 0));
+	    assertEquals(Shard.NO_TAXI, shard.nearest(11, 0));
+	} finally {
+	    server.stop(0);
+	}
+    }
+
+    private static Taxi taxi(int id, int x, int y) {
+	Taxi taxi = new Taxi(id, false);
+	taxi.reset(new Point(x, y));
+	return taxi;
+    }
+
+    private static List<Integer> ids(TaxiBooker booker) {
+	List<Integer> ids = new ArrayList<Integer>();
+	for (Taxi taxi : booker.taxis) {
+	    ids.add(taxi.getId());
+	}
+	Collections.sort(ids);
+	return ids;
+    }
+}
@@ -0,0 +1,96 @@
+package org.ishaikh.taxibooking;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class SimulatorTest {
+    @Test
+    public void testSimulate() {
+	String demand =
+	    "# time,sourceX,sourceY,destinationX,destinationY\n" +
+	    "0,1,2,5,6\n" +
+	    "0,5,6,5,6\n" +
+	    "\n" +
+	    "30,0,0,1,1\n";
+	Simulator.Result result = Simulator.simulate(scenario(demand, 20));
+	assertEquals(3, result.getRequests());
+	assertEquals(3, result.getServed());
+	assertEquals(30, result.getDuration());
+	// The second request waits for the end of the first ride.
+	assertEquals(11, result.getMaxWait());
+	assertEquals(11.0 / 3, result.getMeanWait(), 1e-9);
+	assertEquals(0, result.getWaitPercentile(0.5));
+	assertEquals(11, result.getWaitPercentile(0.99));
+	assertEquals((3 + 0 + 11) / 3.0, result.getMeanPickUpDistance(), 1e-9);
+	assertEquals((11 + 0 + 13) / 30.0, result.getUtilization(), 1e-9);
+
+	// Now the second request gives up before the taxi is back.
+	result = Simulator.simulate(scenario(demand, 5));
+	assertEquals(3, result.getRequests());
+	assertEquals(2, result.getServed());
+	assertEquals(1, result.getAbandoned());
+	assertEquals(0, result.getMaxWait());
+    }
+
+    @Test
+    public void testInvalidDemand() {
+	try {
+	    Simulator.simulate(scenario("5,0,0,1,1\n4,0,0,1,1\n", 10));
+	    throw new AssertionError("Demand out of order accepted");
+	} catch (IllegalArgumentException e) {
+	    // Expected.
+	}
+    }
+
+    /**
+     * Concurrent scenarios give the same results as one at a time, and more taxis serve better.
+     */
+    @Test
+    public void testRun() {
+	List<Simulator.Scenario> scenarios = Arrays.asList(
+	    new Simulator.Scenario("small", 20, () -> Demand.synthetic(3, 2, 2000, 50), 30),
+	    new Simulator.Scenario("large", 60, () -> Demand.synthetic(3, 2, 2000, 50), 30));
+	List<Simulator.Result> results = Simulator.run(scenarios, 2);
+	assertEquals(Simulator.simulate(scenarios.get(0)).toString(), results.get(0).toString());
+	assertEquals(Simulator.simulate(scenarios.get(1)).toString(), results.get(1).toString());
+
+	assertEquals(results.get(0).getRequests(), results.get(1).getRequests());
+	assertTrue(results.get(0).getRequests() > 3000);
+	assertTrue(results.get(0).getServed() < results.get(1).getServed());
+	assertTrue(results.get(0).getMeanWait() > results.get(1).getMeanWait());
+    }
+
+    /**
+     * With the demand in a hotspot, idle taxis sent toward it pick up sooner.
+     */
+    @Test
+    public void testRebalance() {
+	List<Simulator.Result> results = Simulator.run(Arrays.asList(
+	    new Simulator.Scenario("before", 100, () -> Demand.hotspot(5, 0.05, 10000, 1000, 200), 600),
+	    new Simulator.Scenario("after", 100, () -> Demand.hotspot(5, 0.05, 10000, 1000, 200), 600, 300)), 2);
+	assertEquals(results.get(0).getRequests(), results.get(1).getRequests());
+	assertEquals(results.get(0).getRequests(), results.get(1).getServed());
+	assertTrue(results.get(1).getMeanPickUpDistance() < 0.5 * results.get(0).getMeanPickUpDistance());
+    }
+
+    @Test
+    public void testLookAhead() {
+	// Close to the capacity of the fleet, taxis often drive to pick-ups far away.
+	List<Simulator.Result> results = Simulator.run(Arrays.asList(
+	    new Simulator.Scenario("greedy", 100, () -> Demand.synthetic(5, 0.075, 10000, 1000), 600),
+	    new Simulator.Scenario("look-ahead", 100, () -> Demand.synthetic(5, 0.075, 10000, 1000), 600, 0, 20)), 2);
+	assertEquals(results.get(0).getRequests(), results.get(1).getRequests());
+	assertEquals(results.get(0).getRequests(), results.get(1).getServed());
+	assertTrue(results.get(1).getMeanPickUpDistance() < 0.75 * results.get(0).getMeanPickUpDistance());
+	assertTrue(results.get(1).getMeanWait() < results.get(0).getMeanWait());
+    }
+
+    private static Simulator.Scenario scenario(String demand, long patience) {
+	return new Simulator.Scenario("test", 1, () -> Demand.recorded(new StringReader(demand)), patience);
+    }
+}
@@ -0,0 +1,125 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Stress testing of concurrent bookings. Does not need the Spring context.
+ */
+public class TaxiBookerConcurrencyTest {
+    private static final int NUMBER_OF_TAXIS = 500;
+    private static final int NUMBER_OF_THREADS = 8;
+
+    /**
+     * Book the whole fleet from many threads; every taxi must be booked exactly once.
+     */
+    @Test
+    public void noDoubleBooking() throws Exception {
+	TaxiBooker taxiBooker = new TaxiBooker(NUMBER_OF_TAXIS);
+	assertFleetBookedOnce(taxiBooker);
+
+	// Free all taxis (they are now spread over the destinations) and do it again.
+	for (int i = 0; i < 1000; i++) {
+	    taxiBooker.tick();
+	}
+	assertEquals(NUMBER_OF_TAXIS, taxiBooker.availableTaxis.size());
+	assertFleetBookedOnce(taxiBooker);
+    }
+
+    /**
+     * Book from many threads while the clock moves; the fleet must be consistent afterwards.
+     */
+    @Test
+    public void bookWhileTicking() throws Exception {
+	final TaxiBooker taxiBooker = new TaxiBooker(NUMBER_OF_TAXIS);
+	final AtomicBoolean done = new AtomicBoolean();
+	Thread ticker = new Thread(() -> {
+	    while (!done.get()) {
+		taxiBooker.tick();
+	    }
+	});
+	ticker.start();
+	runConcurrently(seed -> {
+	    Random random = new Random(seed);
+	    for (int i = 0; i < 20000; i++) {
+		taxiBooker.book(randomRide(random));
+	    }
+	});
+	done.set(true);
+	ticker.join();
+
+	for (int i = 0; i < 1000; i++) {
+	    taxiBooker.tick();
+	}
+	for (Taxi taxi : taxiBooker.taxis) {
+	    assertTrue(taxi.isAvailable());
+	}
+	assertEquals(NUMBER_OF_TAXIS, taxiBooker.availableTaxis.size());
+	assertFleetBookedOnce(taxiBooker);
+    }
+
+    /**
+     * Book until no taxi is left and check that each taxi was handed out once.
+     */
+    private void assertFleetBookedOnce(final TaxiBooker taxiBooker) throws Exception {
+	final List<Integer> carIds = Collections.synchronizedList(new ArrayList<Integer>());
+	runConcurrently(seed -> {
+	    Random random = new Random(seed);
+	    BookingStatus bookingStatus;
+	    while ((bookingStatus = taxiBooker.book(randomRide(random))) != null) {
+		carIds.add(bookingStatus.getCarId());
+	    }
+	});
+	Set<Integer> distinctCarIds = new HashSet<Integer>(carIds);
+	assertEquals(NUMBER_OF_TAXIS, carIds.size());
+	assertEquals(NUMBER_OF_TAXIS, distinctCarIds.size());
+	assertEquals(0, taxiBooker.availableTaxis.size());
+    }
+
+    /**
+     * Run the given task on all threads at once and wait for them to finish.
+     */
+    private static void runConcurrently(final Task task) throws Exception {
+	final CountDownLatch start = new CountDownLatch(1);
+	final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+	List<Thread> threads = new ArrayList<Thread>();
+	for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+	    final int seed = i;
+	    Thread thread = new Thread(() -> {
+		try {
+		    start.await();
+		    task.run(seed);
+		} catch (Throwable t) {
+		    failures.add(t);
+		}
+	    });
+	    thread.start();
+	    threads.add(thread);
+	}
+	start.countDown();
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    private static RideCoordinates randomRide(Random random) {
+	return new RideCoordinates(new Point(random.nextInt(100) - 50, random.nextInt(100) - 50),
+				   new Point(random.nextInt(100) - 50, random.nextInt(100) - 50));
+    }
+
+    private interface Task {
+	void run(int seed) throws Exception;
+    }
+}
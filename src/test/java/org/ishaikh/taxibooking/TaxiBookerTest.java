@@ -14,6 +14,7 @@ import org.springframework.mock.http.MockHttpOutputMessage;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.restdocs.JUnitRestDocumentation;
 
@@ -179,6 +180,324 @@ public class TaxiBookerTest {
 	    .andExpect(jsonPath("$.total_time", is(14)));
     }
 
+    /**
+     * Test the batch booking.
+     */
+    @Test
+    public void bookBatch() throws Exception {
+	// Reset everything...
+        this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+
+	// Book two rides together. Should work since all are free.
+	String ridesJson = json(Arrays.asList(new RideCoordinates(new Point(1, 2), new Point(5, 6)),
+					      new RideCoordinates(new Point(3, 4), new Point(2, 2))));
+        this.mockMvc.perform(post("/api/book/batch")
+			     .contentType(contentType)
+			     .content(ridesJson))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$", hasSize(2)))
+	    .andExpect(jsonPath("$[0].car_id", is(1)))
+	    .andExpect(jsonPath("$[0].total_time", is(11)))
+	    .andExpect(jsonPath("$[1].car_id", is(2)))
+	    .andExpect(jsonPath("$[1].total_time", is(10)))
+	    .andDo(print())
+	    .andDo(document("book-batch"));
+
+	// Only one taxi is left for two rides.
+	ridesJson = json(Arrays.asList(new RideCoordinates(new Point(1, 1), new Point(4, 4)),
+				       new RideCoordinates(new Point(0, 1), new Point(4, 4))));
+        this.mockMvc.perform(post("/api/book/batch")
+			     .contentType(contentType)
+			     .content(ridesJson))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$[0]", nullValue()))
+	    .andExpect(jsonPath("$[1].car_id", is(3)))
+	    .andExpect(jsonPath("$[1].total_time", is(8)));
+
+	// Reset everything...
+        this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+    }
+
+    /**
+     * Test waiting for a taxi.
+     */
+    @Test
+    public void bookOrWait() throws Exception {
+	// Reset everything...
+	this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+
+	// Book all 3 taxis.
+	String rideCoordinatesJson = json(new RideCoordinates(new Point(1, 1), new Point(4, 4)));
+	for (int i = 0; i < 3; i++) {
+	    this.mockMvc.perform(post("/api/book/wait")
+				 .contentType(contentType)
+				 .content(rideCoordinatesJson))
+		.andExpect(status().isOk());
+	}
+
+	// No taxi is available; the booking waits for one.
+	rideCoordinatesJson = json(new RideCoordinates(new Point(3, 4), new Point(2, 2)));
+	MvcResult waiting = this.mockMvc.perform(post("/api/book/wait")
+						 .contentType(contentType)
+						 .content(rideCoordinatesJson))
+	    .andExpect(request().asyncStarted())
+	    .andReturn();
+
+	// The first ride ends after 8 time units.
+	moveTimeUnits(8);
+	this.mockMvc.perform(asyncDispatch(waiting))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.car_id", is(1)))
+	    .andExpect(jsonPath("$.total_time", is(4)))
+	    .andDo(print())
+	    .andDo(document("book-wait"));
+
+	// Reset everything...
+	this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+    }
+
+    /**
+     * Test the availability summary and the headers of a booking without a taxi.
+     */
+    @Test
+    public void availability() throws Exception {
+	// Reset everything...
+	this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+
+	// All 3 taxis are available at (0, 0).
+	this.mockMvc.perform(get("/api/availability"))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.fleetSize", is(3)))
+	    .andExpect(jsonPath("$.available", is(3)))
+	    .andExpect(jsonPath("$.rides", is(0)))
+	    .andExpect(jsonPath("$.nextFreeIn", is(-1)))
+	    .andExpect(jsonPath("$.regions[0].x", is(0)))
+	    .andExpect(jsonPath("$.regions[0].y", is(0)))
+	    .andExpect(jsonPath("$.regions[0].available", is(3)))
+	    .andDo(print())
+	    .andDo(document("availability"));
+
+	// Book all 3 taxis, for 8 time units each.
+	String rideCoordinatesJson = json(new RideCoordinates(new Point(1, 1), new Point(4, 4)));
+	for (int i = 0; i < 3; i++) {
+	    this.mockMvc.perform(post("/api/book")
+				 .contentType(contentType)
+				 .content(rideCoordinatesJson))
+		.andExpect(status().isOk());
+	}
+	moveTimeUnits(2);
+
+	// The next booking fails fast: every taxi is booked, the first is free in 6 time units.
+	this.mockMvc.perform(post("/api/book")
+			     .contentType(contentType)
+			     .content(rideCoordinatesJson))
+	    .andExpect(status().isOk())
+	    .andExpect(header().string(TaxiBooker.UNAVAILABLE_REASON_HEADER, Availability.ALL_BOOKED))
+	    .andExpect(header().string(TaxiBooker.NEXT_FREE_IN_HEADER, "6"))
+	    .andExpect(content().string(""))
+	    .andDo(print())
+	    .andDo(document("book-unavailable"));
+
+	this.mockMvc.perform(get("/api/availability"))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.available", is(0)))
+	    .andExpect(jsonPath("$.rides", is(3)))
+	    .andExpect(jsonPath("$.nextFreeIn", is(6)))
+	    .andExpect(jsonPath("$.regions", hasSize(0)));
+
+	// Reset everything...
+	this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+    }
+
+    /**
+     * Test the summaries of the booking history, of the fleet and of a taxi.
+     */
+    @Test
+    public void history() throws Exception {
+	// Reset everything...
+	this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+
+	// Taxi 1 at time 0, for 3 + 8 time units; taxi 2 at time 5, for 7 + 3 time units.
+	this.mockMvc.perform(post("/api/book")
+			     .contentType(contentType)
+			     .content(json(new RideCoordinates(new Point(1, 2), new Point(5, 6)))))
+	    .andExpect(status().isOk());
+	this.mockMvc.perform(put("/api/tick").param("units", "5"))
+	    .andExpect(status().isOk());
+	this.mockMvc.perform(post("/api/book")
+			     .contentType(contentType)
+			     .content(json(new RideCoordinates(new Point(3, 4), new Point(2, 2)))))
+	    .andExpect(status().isOk());
+
+	this.mockMvc.perform(get("/api/history").param("from", "0").param("to", "10"))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.from", is(0)))
+	    .andExpect(jsonPath("$.to", is(10)))
+	    .andExpect(jsonPath("$.rides", is(2)))
+	    .andExpect(jsonPath("$.rideTime", is(21)))
+	    .andExpect(jsonPath("$.rideDistance", is(11)))
+	    .andExpect(jsonPath("$.pickUpDistance", is(10)))
+	    .andDo(print())
+	    .andDo(document("history"));
+
+	this.mockMvc.perform(get("/api/history/taxis/1"))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.rides", is(1)))
+	    .andExpect(jsonPath("$.rideTime", is(11)))
+	    .andExpect(jsonPath("$.rideDistance", is(8)))
+	    .andExpect(jsonPath("$.pickUpDistance", is(3)))
+	    .andDo(print())
+	    .andDo(document("history-taxi"));
+
+	this.mockMvc.perform(get("/api/history/taxis").param("from", "1"))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$['2'].rides", is(1)))
+	    .andExpect(jsonPath("$['1']").doesNotExist());
+
+	// Reset everything...
+	this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+    }
+
+    /**
+     * Test the rejection of a booking by admission control, when the booker is overloaded.
+     */
+    @Test
+    public void bookOverloaded() throws Exception {
+	// Only 1 booking at a time and no queue; the place is taken.
+	TaxiBooker taxiBooker = webApplicationContext.getBean(TaxiBooker.class);
+	AdmissionControl control = new AdmissionControl(1, 0, 0, AdmissionControl.TARGET_LATENCY);
+	taxiBooker.setAdmissionControl(control);
+	try {
+	    assertEquals(AdmissionControl.Decision.ADMITTED, control.acquire(AdmissionControl.Priority.HIGH));
+	    this.mockMvc.perform(post("/api/book")
+				 .contentType(contentType)
+				 .header(AdmissionControl.PRIORITY_HEADER, "low")
+				 .content(json(new RideCoordinates(new Point(1, 1), new Point(4, 4)))))
+		.andExpect(status().isServiceUnavailable())
+		.andExpect(header().string(TaxiBooker.RETRY_AFTER_HEADER, "1"))
+		.andExpect(content().string(""))
+		.andDo(print())
+		.andDo(document("book-overloaded"));
+
+	    // Once the place is free, the booking goes through.
+	    control.release(0);
+	    this.mockMvc.perform(post("/api/book")
+				 .contentType(contentType)
+				 .content(json(new RideCoordinates(new Point(1, 1), new Point(4, 4)))))
+		.andExpect(status().isOk())
+		.andExpect(jsonPath("$.car_id", notNullValue()));
+	    assertEquals(0, control.getInFlight());
+	} finally {
+	    taxiBooker.setAdmissionControl(null);
+	    this.mockMvc.perform(put("/api/reset"))
+		.andExpect(status().isOk());
+	}
+    }
+
+    /**
+     * Test a retried booking with an idempotency key: it gets the taxi of the first attempt.
+     */
+    @Test
+    public void bookIdempotent() throws Exception {
+	this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+
+	for (int i = 0; i < 2; i++) {
+	    this.mockMvc.perform(post("/api/book")
+				 .contentType(contentType)
+				 .header(IdempotencyCache.KEY_HEADER, "8e03978e-40d5-43e8-bc93-6894a57f9324")
+				 .content(json(new RideCoordinates(new Point(1, 2), new Point(5, 6)))))
+		.andExpect(status().isOk())
+		.andExpect(jsonPath("$.car_id", is(1)))
+		.andExpect(jsonPath("$.total_time", is(11)))
+		.andDo(print())
+		.andDo(document("book-idempotent"));
+	}
+
+	// Another key books another taxi.
+	this.mockMvc.perform(post("/api/book")
+			     .contentType(contentType)
+			     .header(IdempotencyCache.KEY_HEADER, "0b2f4b0e-7c1d-4a4e-9a55-3f8d2c6e1a7b")
+			     .content(json(new RideCoordinates(new Point(1, 2), new Point(5, 6)))))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.car_id", is(2)));
+
+	// A key too long is rejected.
+	this.mockMvc.perform(post("/api/book")
+			     .contentType(contentType)
+			     .header(IdempotencyCache.KEY_HEADER,
+				     new String(new char[IdempotencyCache.MAX_KEY_LENGTH + 1]).replace('\0', 'k'))
+			     .content(json(new RideCoordinates(new Point(1, 2), new Point(5, 6)))))
+	    .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test the status of the taxis and a quote, before and after the quoted booking.
+     */
+    @Test
+    public void statusAndQuote() throws Exception {
+	// Reset everything...
+	this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+
+	// Taxi 1, for 3 + 8 time units, but not booked.
+	String rideCoordinatesJson = json(new RideCoordinates(new Point(1, 2), new Point(5, 6)));
+	this.mockMvc.perform(post("/api/quote")
+			     .contentType(contentType)
+			     .content(rideCoordinatesJson))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.car_id", is(1)))
+	    .andExpect(jsonPath("$.total_time", is(11)))
+	    .andDo(print())
+	    .andDo(document("quote"));
+
+	this.mockMvc.perform(post("/api/book")
+			     .contentType(contentType)
+			     .content(rideCoordinatesJson))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.car_id", is(1)))
+	    .andExpect(jsonPath("$.total_time", is(11)));
+
+	this.mockMvc.perform(get("/api/status/1"))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.id", is(1)))
+	    .andExpect(jsonPath("$.available", is(false)))
+	    .andExpect(jsonPath("$.x", is(0)))
+	    .andExpect(jsonPath("$.y", is(0)))
+	    .andExpect(jsonPath("$.destinationX", is(5)))
+	    .andExpect(jsonPath("$.destinationY", is(6)))
+	    .andDo(print())
+	    .andDo(document("status"));
+
+	// The next quote is for taxi 2.
+	this.mockMvc.perform(post("/api/quote")
+			     .contentType(contentType)
+			     .content(rideCoordinatesJson))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$.car_id", is(2)));
+
+	this.mockMvc.perform(get("/api/status"))
+	    .andExpect(status().isOk())
+	    .andExpect(jsonPath("$", hasSize(3)))
+	    .andExpect(jsonPath("$[1].available", is(true)));
+
+	this.mockMvc.perform(get("/api/status/4"))
+	    .andExpect(status().isOk())
+	    .andExpect(content().string(""));
+
+	// Reset everything...
+	this.mockMvc.perform(put("/api/reset"))
+	    .andExpect(status().isOk());
+    }
+
     /**
      * Helper method to move by the given time units.
      *
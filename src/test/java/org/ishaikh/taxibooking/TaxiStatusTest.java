@@ -0,0 +1,175 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Test the lock-free snapshots of the taxis, and the status & quotes of a TaxiBooker.
+ */
+public class TaxiStatusTest {
+    /**
+     * The snapshot follows the stable states of a taxi.
+     */
+    @Test
+    public void testSnapshots() {
+	Taxi taxi = new Taxi(7, false);
+	assertStatus(taxi.getStatus(), 7, true, 0, 0, 0, 0);
+
+	assertEquals(3, taxi.ride(new Point(1, 1), new Point(1, 2)));
+	assertStatus(taxi.getStatus(), 7, false, 0, 0, 1, 2);
+
+	taxi.tick();
+	taxi.tick();
+	taxi.tick();
+	assertStatus(taxi.getStatus(), 7, true, 1, 2, 0, 0);
+
+	// A claimed taxi keeps its last snapshot until it rides or is released.
+	assertTrue(taxi.claim());
+	assertTrue(taxi.getStatus().isAvailable());
+	taxi.relocate(4, 5);
+	assertStatus(taxi.getStatus(), 7, true, 4, 5, 0, 0);
+	assertTrue(taxi.release());
+
+	taxi.reset(new Point(8, 9));
+	assertStatus(taxi.getStatus(), 7, true, 8, 9, 0, 0);
+	taxi.reset();
+	assertStatus(taxi.getStatus(), 7, true, 0, 0, 0, 0);
+    }
+
+    /**
+     * With internal time, a ride that has ended reads as available at its destination.
+     */
+    @Test
+    public void testInternalTime() {
+	ManualClock clock = new ManualClock(100);
+	Taxi taxi = new Taxi(1, true, clock);
+	assertEquals(5, taxi.ride(new Point(2, 0), new Point(2, 3)));
+
+	clock.advance(4);
+	assertStatus(taxi.getStatus(), 1, false, 0, 0, 2, 3);
+	clock.advance(1);
+	assertStatus(taxi.getStatus(), 1, true, 2, 3, 0, 0);
+
+	// Reading the status did not end the ride; checking the availability does.
+	assertEquals(new Point(0, 0), taxi.getAvailableLocation());
+	assertTrue(taxi.isAvailable());
+	assertStatus(taxi.getStatus(), 1, true, 2, 3, 0, 0);
+    }
+
+    /**
+     * A quote is the booking that would follow, without booking it.
+     */
+    @Test
+    public void testQuote() {
+	List<Taxi> fleet = new ArrayList<Taxi>();
+	for (int i = 1; i <= 3; i++) {
+	    Taxi taxi = new Taxi(i, false);
+	    taxi.reset(new Point(10 * i, 0));
+	    fleet.add(taxi);
+	}
+	TaxiBooker taxiBooker = new TaxiBooker(fleet);
+	RideCoordinates ride = new RideCoordinates(new Point(18, 0), new Point(18, 4));
+
+	BookingStatus quote = taxiBooker.quote(ride);
+	assertEquals(2, quote.getCarId());
+	assertEquals(6, quote.getTotalTime());
+	assertEquals(3, taxiBooker.availableTaxis.size());
+
+	BookingStatus booking = taxiBooker.book(ride);
+	assertEquals(quote.getCarId(), booking.getCarId());
+	assertEquals(quote.getTotalTime(), booking.getTotalTime());
+	assertStatus(taxiBooker.status(2), 2, false, 20, 0, 18, 4);
+
+	assertEquals(1, taxiBooker.quote(ride).getCarId());
+	taxiBooker.book(ride);
+	taxiBooker.book(ride);
+	assertNull(taxiBooker.quote(ride));
+    }
+
+    /**
+     * The status lookup follows the changes of the fleet.
+     */
+    @Test
+    public void testFleetChanges() {
+	TaxiBooker taxiBooker = new TaxiBooker(2);
+	assertEquals(2, taxiBooker.status().size());
+	assertNull(taxiBooker.status(3));
+
+	taxiBooker.resize(3);
+	assertStatus(taxiBooker.status(3), 3, true, 0, 0, 0, 0);
+	assertEquals(3, taxiBooker.status().size());
+
+	taxiBooker.resize(1);
+	assertNull(taxiBooker.status(3));
+	assertNull(taxiBooker.status(2));
+	assertStatus(taxiBooker.status(1), 1, true, 0, 0, 0, 0);
+
+	taxiBooker.adopt(9, 4, 4);
+	assertStatus(taxiBooker.status(9), 9, true, 4, 4, 0, 0);
+    }
+
+    /**
+     * Readers never see a ride half written, while the fleet is booked and freed.
+     */
+    @Test
+    public void testConcurrentReads() throws Exception {
+	TaxiBooker taxiBooker = new TaxiBooker(50);
+	AtomicBoolean done = new AtomicBoolean();
+	AtomicReference<String> failure = new AtomicReference<String>();
+	List<Thread> readers = new ArrayList<Thread>();
+	for (int i = 0; i < 4; i++) {
+	    Thread reader = new Thread(() -> {
+		while (!done.get()) {
+		    for (TaxiStatus status : taxiBooker.status()) {
+			// Every ride goes from (x, y) to (x + 1, y + 2).
+			boolean consistent = status.isAvailable() ?
+			    status.getDestinationX() == 0 && status.getDestinationY() == 0 :
+			    status.getDestinationX() == status.getX() + 1 &&
+			    status.getDestinationY() == status.getY() + 2;
+			if (!consistent) {
+			    failure.compareAndSet(null, status.toString());
+			}
+		    }
+		}
+	    });
+	    reader.start();
+	    readers.add(reader);
+	}
+
+	for (int round = 0; round < 200; round++) {
+	    for (int i = 1; i <= 50; i++) {
+		TaxiStatus status = taxiBooker.status(i);
+		taxiBooker.book(status.getX(), status.getY(), status.getX() + 1, status.getY() + 2);
+	    }
+	    taxiBooker.tick(3);
+	}
+	done.set(true);
+	for (Thread reader : readers) {
+	    reader.join();
+	}
+	assertNull(failure.get());
+	assertEquals(50, taxiBooker.availableTaxis.size());
+    }
+
+    /**
+     * Check a snapshot.
+     */
+    private static void assertStatus(TaxiStatus status, int id, boolean available, int x, int y,
+				     int destinationX, int destinationY) {
+	assertEquals(id, status.getId());
+	assertEquals(available, status.isAvailable());
+	assertEquals(x, status.getX());
+	assertEquals(y, status.getY());
+	assertEquals(destinationX, status.getDestinationX());
+	assertEquals(destinationY, status.getDestinationY());
+    }
+}
@@ -0,0 +1,74 @@
+package org.ishaikh.taxibooking;
+
+import java.awt.Point;
+import java.io.IOException;
+
+import org.springframework.web.context.request.async.DeferredResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class WaitingRidesTest {
+    @Test
+    public void testTakeNearest() {
+	WaitingRides waitingRides = new WaitingRides(3);
+	DeferredResult<BookingStatus> far = new DeferredResult<BookingStatus>(1000L, null);
+	DeferredResult<BookingStatus> near1 = new DeferredResult<BookingStatus>(1000L, null);
+	DeferredResult<BookingStatus> near2 = new DeferredResult<BookingStatus>(1000L, null);
+	assertTrue(waitingRides.add(ride(9, 9), far));
+	assertTrue(waitingRides.add(ride(1, 2), near1));
+	assertTrue(waitingRides.add(ride(2, 1), near2));
+	assertFalse(waitingRides.add(ride(0, 0), new DeferredResult<BookingStatus>(1000L, null)));
+
+	// Equally close; the one waiting the longest first.
+	assertEquals(near1, waitingRides.takeNearest(new Point(0, 0)).result);
+	assertTrue(waitingRides.remove(far));
+	assertFalse(waitingRides.remove(far));
+	assertEquals(near2, waitingRides.takeNearest(new Point(0, 0)).result);
+	assertNull(waitingRides.takeNearest(new Point(0, 0)));
+    }
+
+    @Test
+    public void testBookOrWait() throws IOException {
+	TaxiBooker taxiBooker = new TaxiBooker(1, "", 2, 1000);
+
+	DeferredResult<BookingStatus> first = taxiBooker.bookOrWait(ride(1, 2));
+	assertBooking(first, 1, 11);
+
+	// Both wait; the taxi ends its ride at (5, 6), closer to the second one.
+	DeferredResult<BookingStatus> second = taxiBooker.bookOrWait(ride(0, 0));
+	DeferredResult<BookingStatus> third = taxiBooker.bookOrWait(ride(5, 5));
+	assertFalse(second.hasResult());
+	assertFalse(third.hasResult());
+
+	// The queue is full.
+	DeferredResult<BookingStatus> fourth = taxiBooker.bookOrWait(ride(0, 0));
+	assertTrue(fourth.hasResult());
+	assertNull(fourth.getResult());
+
+	taxiBooker.tick(11);
+	assertBooking(third, 1, 1 + 8);
+	assertFalse(second.hasResult());
+	assertEquals(0, taxiBooker.availableTaxis.size());
+
+	// Waiting bookings are dropped on a reset.
+	taxiBooker.reset();
+	assertTrue(second.hasResult());
+	assertNull(second.getResult());
+	assertEquals(1, taxiBooker.availableTaxis.size());
+    }
+
+    private static RideCoordinates ride(int sourceX, int sourceY) {
+	return new RideCoordinates(new Point(sourceX, sourceY), new Point(sourceX + 4, sourceY + 4));
+    }
+
+    private static void assertBooking(DeferredResult<BookingStatus> result, int carId, long totalTime) {
+	assertTrue(result.hasResult());
+	BookingStatus status = (BookingStatus)result.getResult();
+	assertEquals(carId, status.getCarId());
+	assertEquals(totalTime, status.getTotalTime());
+    }
+}